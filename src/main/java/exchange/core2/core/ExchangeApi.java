@@ -32,16 +32,13 @@ import exchange.core2.core.common.cmd.OrderCommandType;
 import exchange.core2.core.orderbook.OrderBookEventsHelper;
 import exchange.core2.core.processors.BinaryCommandsProcessor;
 import exchange.core2.core.utils.SerializationUtils;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.jpountz.lz4.LZ4Compressor;
 import net.openhft.chronicle.bytes.WriteBytesMarshallable;
 import net.openhft.chronicle.wire.Wire;
 import org.agrona.collections.LongLongConsumer;
-import org.eclipse.collections.impl.map.mutable.ConcurrentHashMap;
 
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -49,29 +46,45 @@ import java.util.function.LongConsumer;
 import java.util.stream.Stream;
 
 @Slf4j
-@RequiredArgsConstructor
 public final class ExchangeApi {
 
     private final RingBuffer<OrderCommand> ringBuffer;
     private final LZ4Compressor lz4Compressor;
 
-    // promises cache (TODO can be changed to queue)
-    private final Map<Long, Consumer<OrderCommand>> promises = new ConcurrentHashMap<>();
+    // promises indexed by ring buffer slot (seq & indexMask)
+    // slot can not be claimed again until results handler processed previous command in it, so no synchronization required:
+    // promise is written before publishing sequence, and cleared by results handler before releasing the slot
+    private final Consumer<OrderCommand>[] promises;
+    private final int indexMask;
+
+    // max number of sequences claimed at once by batch publishing (same as binary data fragment)
+    private final int maxBatchClaimSize;
 
     public static final int LONGS_PER_MESSAGE = 5;
 
+    @SuppressWarnings(value = {"unchecked"})
+    public ExchangeApi(final RingBuffer<OrderCommand> ringBuffer, final LZ4Compressor lz4Compressor) {
+        this.ringBuffer = ringBuffer;
+        this.lz4Compressor = lz4Compressor;
+        this.promises = new Consumer[ringBuffer.getBufferSize()];
+        this.indexMask = ringBuffer.getBufferSize() - 1;
+        this.maxBatchClaimSize = ringBuffer.getBufferSize() / 4;
+    }
 
     public void processResult(final long seq, final OrderCommand cmd) {
 
-//        if (cmd.command == OrderCommandType.BINARY_DATA_COMMAND
-//                || cmd.command == OrderCommandType.BINARY_DATA_QUERY) {
-
-        final Consumer<OrderCommand> consumer = promises.remove(seq);
+        final int idx = (int) seq & indexMask;
+        final Consumer<OrderCommand> consumer = promises[idx];
         if (consumer != null) {
+            promises[idx] = null;
             consumer.accept(cmd);
         }
     }
 
+    private void registerPromise(final long seq, final Consumer<OrderCommand> callback) {
+        promises[(int) seq & indexMask] = callback;
+    }
+
     public void submitCommand(ApiCommand cmd) {
         //log.debug("{}", cmd);
 
@@ -171,6 +184,240 @@ public final class ExchangeApi {
         }
     }
 
+    /**
+     * Submit command with result callback - does not create CompletableFuture, suitable for high-rate gateways
+     * (same callback instance can be used for all commands, correlating results by orderId, userCookie or returned sequence).
+     * <p>
+     * Callback is called from results handler thread.
+     * OrderCommand is valid only during callback execution (ring buffer slot is re-used), required data should be copied.
+     * <p>
+     * ApiPersistState is not supported (two sequences are used), submitCommandAsync can be used instead.
+     *
+     * @param cmd      - command
+     * @param callback - result callback
+     * @return command sequence (last sequence for binary commands)
+     */
+    public long submitCommandAsync(final ApiCommand cmd, final Consumer<OrderCommand> callback) {
+
+        if (cmd instanceof ApiMoveOrder) {
+            return publishWithCallback(MOVE_ORDER_TRANSLATOR, (ApiMoveOrder) cmd, callback);
+        } else if (cmd instanceof ApiPlaceOrder) {
+            return publishWithCallback(NEW_ORDER_TRANSLATOR, (ApiPlaceOrder) cmd, callback);
+        } else if (cmd instanceof ApiCancelOrder) {
+            return publishWithCallback(CANCEL_ORDER_TRANSLATOR, (ApiCancelOrder) cmd, callback);
+        } else if (cmd instanceof ApiReduceOrder) {
+            return publishWithCallback(REDUCE_ORDER_TRANSLATOR, (ApiReduceOrder) cmd, callback);
+        } else if (cmd instanceof ApiOrderBookRequest) {
+            return publishWithCallback(ORDER_BOOK_REQUEST_TRANSLATOR, (ApiOrderBookRequest) cmd, callback);
+        } else if (cmd instanceof ApiAddUser) {
+            return publishWithCallback(ADD_USER_TRANSLATOR, (ApiAddUser) cmd, callback);
+        } else if (cmd instanceof ApiAdjustUserBalance) {
+            return publishWithCallback(ADJUST_USER_BALANCE_TRANSLATOR, (ApiAdjustUserBalance) cmd, callback);
+        } else if (cmd instanceof ApiResumeUser) {
+            return publishWithCallback(RESUME_USER_TRANSLATOR, (ApiResumeUser) cmd, callback);
+        } else if (cmd instanceof ApiSuspendUser) {
+            return publishWithCallback(SUSPEND_USER_TRANSLATOR, (ApiSuspendUser) cmd, callback);
+        } else if (cmd instanceof ApiBinaryDataCommand) {
+            final long[] endSeq = new long[1];
+            publishBinaryData((ApiBinaryDataCommand) cmd, seq -> {
+                registerPromise(seq, callback);
+                endSeq[0] = seq;
+            });
+            return endSeq[0];
+        } else if (cmd instanceof ApiReset) {
+            return publishWithCallback(RESET_TRANSLATOR, (ApiReset) cmd, callback);
+        } else if (cmd instanceof ApiNop) {
+            return publishWithCallback(NOP_TRANSLATOR, (ApiNop) cmd, callback);
+        } else {
+            throw new IllegalArgumentException("Unsupported command type: " + cmd.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Submit batch of commands claiming ring buffer sequences by ranges (single multi-producer claim per range instead of per command).
+     * Commands of the batch are not interleaved with other producers commands, unless batch is bigger than quarter of ring buffer.
+     * <p>
+     * Only single-message commands are supported (no binary data and persist state commands).
+     *
+     * @param cmds     - commands
+     * @param callback - callback for the last command of the batch (or null),
+     *                 results are processed in sequence order, so all previous commands are processed at this point.
+     * @return last command sequence
+     */
+    public long submitCommandsBatch(final List<? extends ApiCommand> cmds, final Consumer<OrderCommand> callback) {
+        for (final ApiCommand cmd : cmds) {
+            if (!isSingleMessageCommand(cmd)) {
+                throw new IllegalArgumentException("Unsupported command type for batch: " + cmd.getClass().getSimpleName());
+            }
+        }
+        return publishCommandsBatch(cmds.size(), (cmd, seq, idx) -> translateSingleMessageCommand(cmd, seq, cmds.get(idx)), callback);
+    }
+
+    /**
+     * Cancel orders batch (see publishCommandsBatch).
+     *
+     * @param orderIds - order ids
+     * @param symbols  - symbols
+     * @param uids     - order owners
+     * @param num      - number of orders to cancel (from the beginning of arrays)
+     * @param callback - callback for the last command of the batch (or null)
+     * @return last command sequence
+     */
+    public long cancelOrdersBatch(final long[] orderIds,
+                                  final int[] symbols,
+                                  final long[] uids,
+                                  final int num,
+                                  final Consumer<OrderCommand> callback) {
+
+        final long timestamp = System.currentTimeMillis();
+        return publishCommandsBatch(num, (cmd, seq, idx) -> {
+            cmd.command = OrderCommandType.CANCEL_ORDER;
+            cmd.resultCode = CommandResultCode.NEW;
+
+            cmd.orderId = orderIds[idx];
+            cmd.timestamp = timestamp;
+            cmd.symbol = symbols[idx];
+            cmd.uid = uids[idx];
+        }, callback);
+    }
+
+    /**
+     * Move orders batch (see publishCommandsBatch).
+     *
+     * @param orderIds - order ids
+     * @param prices   - new prices
+     * @param symbols  - symbols
+     * @param uids     - order owners
+     * @param num      - number of orders to move (from the beginning of arrays)
+     * @param callback - callback for the last command of the batch (or null)
+     * @return last command sequence
+     */
+    public long moveOrdersBatch(final long[] orderIds,
+                                final long[] prices,
+                                final int[] symbols,
+                                final long[] uids,
+                                final int num,
+                                final Consumer<OrderCommand> callback) {
+
+        final long timestamp = System.currentTimeMillis();
+        return publishCommandsBatch(num, (cmd, seq, idx) -> {
+            cmd.command = OrderCommandType.MOVE_ORDER;
+            cmd.resultCode = CommandResultCode.NEW;
+
+            cmd.price = prices[idx];
+            cmd.orderId = orderIds[idx];
+            cmd.timestamp = timestamp;
+            cmd.symbol = symbols[idx];
+            cmd.uid = uids[idx];
+        }, callback);
+    }
+
+    /**
+     * Publish batch of commands written directly into ring buffer slots (flyweight).
+     * Sequences are claimed by ranges of up to quarter of ring buffer size, every range is published at once.
+     * <p>
+     * Writer should set command type, resultCode=NEW and all command fields.
+     * If writer throws exception, remaining slots of the range are published as NOP commands, and exception is re-thrown
+     * (callback is not called for partially published batch).
+     *
+     * @param num      - number of commands
+     * @param writer   - commands writer
+     * @param callback - callback for the last command of the batch (or null)
+     * @return last command sequence
+     */
+    public long publishCommandsBatch(final int num, final BatchCommandWriter writer, final Consumer<OrderCommand> callback) {
+
+        if (num <= 0) {
+            throw new IllegalArgumentException("Batch should contain at least one command");
+        }
+
+        int offset = 0;
+        long highSeq;
+        do {
+            final int claimSize = Math.min(num - offset, maxBatchClaimSize);
+            highSeq = ringBuffer.next(claimSize);
+            final long lowSeq = highSeq - claimSize + 1;
+
+            long seq = lowSeq;
+            try {
+                for (; seq <= highSeq; seq++) {
+                    writer.write(ringBuffer.get(seq), seq, offset + (int) (seq - lowSeq));
+                }
+            } finally {
+                // writer failed if not all slots are written
+                final boolean failed = seq <= highSeq;
+
+                // slot can contain stale command - replace by NOP
+                for (; seq <= highSeq; seq++) {
+                    NOP_TRANSLATOR.translateTo(ringBuffer.get(seq), seq, ApiNop.builder().build());
+                }
+
+                offset += claimSize;
+                if (offset == num && callback != null && !failed) {
+                    registerPromise(highSeq, callback);
+                }
+                ringBuffer.publish(lowSeq, highSeq);
+            }
+        } while (offset < num);
+
+        return highSeq;
+    }
+
+    private static boolean isSingleMessageCommand(final ApiCommand cmd) {
+        return cmd instanceof ApiMoveOrder
+                || cmd instanceof ApiPlaceOrder
+                || cmd instanceof ApiCancelOrder
+                || cmd instanceof ApiReduceOrder
+                || cmd instanceof ApiOrderBookRequest
+                || cmd instanceof ApiAddUser
+                || cmd instanceof ApiAdjustUserBalance
+                || cmd instanceof ApiResumeUser
+                || cmd instanceof ApiSuspendUser
+                || cmd instanceof ApiReset
+                || cmd instanceof ApiNop;
+    }
+
+    private static void translateSingleMessageCommand(final OrderCommand cmd, final long seq, final ApiCommand apiCmd) {
+
+        if (apiCmd instanceof ApiMoveOrder) {
+            MOVE_ORDER_TRANSLATOR.translateTo(cmd, seq, (ApiMoveOrder) apiCmd);
+        } else if (apiCmd instanceof ApiPlaceOrder) {
+            NEW_ORDER_TRANSLATOR.translateTo(cmd, seq, (ApiPlaceOrder) apiCmd);
+        } else if (apiCmd instanceof ApiCancelOrder) {
+            CANCEL_ORDER_TRANSLATOR.translateTo(cmd, seq, (ApiCancelOrder) apiCmd);
+        } else if (apiCmd instanceof ApiReduceOrder) {
+            REDUCE_ORDER_TRANSLATOR.translateTo(cmd, seq, (ApiReduceOrder) apiCmd);
+        } else if (apiCmd instanceof ApiOrderBookRequest) {
+            ORDER_BOOK_REQUEST_TRANSLATOR.translateTo(cmd, seq, (ApiOrderBookRequest) apiCmd);
+        } else if (apiCmd instanceof ApiAddUser) {
+            ADD_USER_TRANSLATOR.translateTo(cmd, seq, (ApiAddUser) apiCmd);
+        } else if (apiCmd instanceof ApiAdjustUserBalance) {
+            ADJUST_USER_BALANCE_TRANSLATOR.translateTo(cmd, seq, (ApiAdjustUserBalance) apiCmd);
+        } else if (apiCmd instanceof ApiResumeUser) {
+            RESUME_USER_TRANSLATOR.translateTo(cmd, seq, (ApiResumeUser) apiCmd);
+        } else if (apiCmd instanceof ApiSuspendUser) {
+            SUSPEND_USER_TRANSLATOR.translateTo(cmd, seq, (ApiSuspendUser) apiCmd);
+        } else if (apiCmd instanceof ApiReset) {
+            RESET_TRANSLATOR.translateTo(cmd, seq, (ApiReset) apiCmd);
+        } else if (apiCmd instanceof ApiNop) {
+            NOP_TRANSLATOR.translateTo(cmd, seq, (ApiNop) apiCmd);
+        } else {
+            throw new IllegalArgumentException("Unsupported command type: " + apiCmd.getClass().getSimpleName());
+        }
+    }
+
+    @FunctionalInterface
+    public interface BatchCommandWriter {
+
+        /**
+         * Write command into ring buffer slot
+         *
+         * @param cmd   - ring buffer slot
+         * @param seq   - sequence
+         * @param index - index of command in the batch
+         */
+        void write(OrderCommand cmd, long seq, int index);
+    }
 
     public void submitCommandsSync(List<? extends ApiCommand> cmd) {
         if (cmd.isEmpty()) {
@@ -199,25 +446,31 @@ public final class ExchangeApi {
                                                                               final T apiCommand,
                                                                               final Function<OrderCommand, R> responseTranslator) {
         final CompletableFuture<R> future = new CompletableFuture<>();
-
-        ringBuffer.publishEvent(
-                (cmd, seq, apiCmd) -> {
-                    translator.translateTo(cmd, seq, apiCmd);
-                    promises.put(seq, orderCommand -> future.complete(responseTranslator.apply(orderCommand)));
-                },
-                apiCommand);
-
+        publishWithCallback(translator, apiCommand, orderCommand -> future.complete(responseTranslator.apply(orderCommand)));
         return future;
     }
 
+    private <T extends ApiCommand> long publishWithCallback(final EventTranslatorOneArg<OrderCommand, T> translator,
+                                                            final T apiCommand,
+                                                            final Consumer<OrderCommand> callback) {
+        final long seq = ringBuffer.next();
+        try {
+            translator.translateTo(ringBuffer.get(seq), seq, apiCommand);
+            registerPromise(seq, callback);
+        } finally {
+            ringBuffer.publish(seq);
+        }
+        return seq;
+    }
+
     private CompletableFuture<CommandResultCode> submitPersistCommandAsync(final ApiPersistState apiCommand) {
 
         final CompletableFuture<CommandResultCode> future1 = new CompletableFuture<>();
         final CompletableFuture<CommandResultCode> future2 = new CompletableFuture<>();
 
         publishPersistCmd(apiCommand, (seq1, seq2) -> {
-            promises.put(seq1, cmd -> future1.complete(cmd.resultCode));
-            promises.put(seq2, cmd -> future2.complete(cmd.resultCode));
+            registerPromise(seq1, cmd -> future1.complete(cmd.resultCode));
+            registerPromise(seq2, cmd -> future2.complete(cmd.resultCode));
         });
 
         return future1.thenCombineAsync(future2, CommandResultCode::mergeToFirstFailed);
@@ -233,7 +486,7 @@ public final class ExchangeApi {
                 data.getBinaryCommandTypeCode(),
                 (int) System.nanoTime(), // can be any value because sequence is used for result identification, not transferId
                 0L,
-                seq -> promises.put(seq, orderCommand -> future.complete(orderCommand.resultCode)));
+                seq -> registerPromise(seq, orderCommand -> future.complete(orderCommand.resultCode)));
 
         return future;
     }
@@ -247,7 +500,7 @@ public final class ExchangeApi {
 
         publishBinaryData(
                 ApiBinaryDataCommand.builder().data(data).transferId(transferId).build(),
-                seq -> promises.put(seq, orderCommand -> future.complete(translator.apply(orderCommand))));
+                seq -> registerPromise(seq, orderCommand -> future.complete(translator.apply(orderCommand))));
 
         return future;
     }
@@ -261,7 +514,7 @@ public final class ExchangeApi {
 
         publishQuery(
                 ApiReportQuery.builder().query(data).transferId(transferId).build(),
-                seq -> promises.put(seq, orderCommand -> future.complete(translator.apply(orderCommand))));
+                seq -> registerPromise(seq, orderCommand -> future.complete(translator.apply(orderCommand))));
 
         return future;
     }
@@ -549,7 +802,7 @@ public final class ExchangeApi {
             cmd.timestamp = System.currentTimeMillis();
             cmd.resultCode = CommandResultCode.NEW;
 
-            promises.put(seq, callback);
+            registerPromise(seq, callback);
         }));
     }
 
@@ -562,7 +815,7 @@ public final class ExchangeApi {
             cmd.timestamp = System.currentTimeMillis();
             cmd.resultCode = CommandResultCode.NEW;
 
-            promises.put(seq, callback);
+            registerPromise(seq, callback);
         }));
     }
 
@@ -575,7 +828,7 @@ public final class ExchangeApi {
             cmd.timestamp = System.currentTimeMillis();
             cmd.resultCode = CommandResultCode.NEW;
 
-            promises.put(seq, callback);
+            registerPromise(seq, callback);
         }));
     }
 
@@ -645,7 +898,7 @@ public final class ExchangeApi {
             cmd.timestamp = System.currentTimeMillis();
             cmd.resultCode = CommandResultCode.NEW;
 
-            promises.put(seq, callback);
+            registerPromise(seq, callback);
         }));
 
     }
@@ -686,7 +939,7 @@ public final class ExchangeApi {
             cmd.timestamp = System.currentTimeMillis();
             cmd.resultCode = CommandResultCode.NEW;
 
-            promises.put(seq, callback);
+            registerPromise(seq, callback);
         }));
 
     }
@@ -704,7 +957,7 @@ public final class ExchangeApi {
             cmd.timestamp = System.currentTimeMillis();
             cmd.resultCode = CommandResultCode.NEW;
 
-            promises.put(seq, cmd1 -> future.complete(cmd1.marketData));
+            registerPromise(seq, cmd1 -> future.complete(cmd1.marketData));
         }));
 
         return future;
@@ -737,7 +990,7 @@ public final class ExchangeApi {
             cmd.symbol = symbol;
             cmd.uid = uid;
             cmd.userCookie = userCookie;
-            promises.put(seq, callback);
+            registerPromise(seq, callback);
 
         } finally {
             ringBuffer.publish(seq);
@@ -796,7 +1049,7 @@ public final class ExchangeApi {
             cmd.symbol = symbol;
             cmd.uid = uid;
 
-            promises.put(seq, callback);
+            registerPromise(seq, callback);
         });
     }
 
@@ -839,7 +1092,7 @@ public final class ExchangeApi {
             cmd.symbol = symbol;
             cmd.uid = uid;
 
-            promises.put(seq, callback);
+            registerPromise(seq, callback);
         });
 
     }
@@ -883,7 +1136,7 @@ public final class ExchangeApi {
             cmd.symbol = symbol;
             cmd.uid = uid;
 
-            promises.put(seq, callback);
+            registerPromise(seq, callback);
         });
     }
 
@@ -18,6 +18,7 @@ package exchange.core2.core;
 import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.EventTranslator;
 import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
 import com.lmax.disruptor.TimeoutException;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.EventHandlerGroup;
@@ -51,23 +52,29 @@ import java.util.stream.IntStream;
 @Slf4j
 public final class ExchangeCore {
 
+    // maximum time matching engines wait for order book being moved to another shard
+    private static final long ORDER_BOOK_TRANSFER_TIMEOUT_NS = 1_000_000_000L;
+
     private final Disruptor<OrderCommand> disruptor;
 
     private final RingBuffer<OrderCommand> ringBuffer;
 
     private final ExchangeApi api;
 
+    private final SharedPool sharedPool;
+
     private final ISerializationProcessor serializationProcessor;
 
+    private GroupingProcessor groupingProcessor;
+
+    private final StageLatencyTracker stageLatencyTracker;
+
     private final ExchangeConfiguration exchangeConfiguration;
 
     // core can be started and stopped only once
     private boolean started = false;
     private boolean stopped = false;
 
-    // enable MatcherTradeEvent pooling
-    public static final boolean EVENTS_POOLING = false;
-
     /**
      * Exchange core constructor.
      *  @param resultsConsumer       - custom consumer of processed commands
@@ -111,9 +118,10 @@ public final class ExchangeCore {
         serializationProcessor = serializationCfg.getSerializationProcessorFactory().apply(exchangeConfiguration);
 
         // creating shared objects pool
-        final int poolInitialSize = (matchingEnginesNum + riskEnginesNum) * 8;
-        final int chainLength = EVENTS_POOLING ? 1024 : 1;
-        final SharedPool sharedPool = new SharedPool(poolInitialSize * 4, poolInitialSize, chainLength);
+        this.sharedPool = SharedPool.createFromConfiguration(perfCfg);
+
+        // order books passed between matching engines when moving symbols
+        final OrderBookTransferChannel orderBookTransferChannel = new OrderBookTransferChannel(matchingEnginesNum, ORDER_BOOK_TRANSFER_TIMEOUT_NS);
 
         // creating and attaching exceptions handler
         final DisruptorExceptionHandler<OrderCommand> exceptionHandler = new DisruptorExceptionHandler<>("main", (ex, seq) -> {
@@ -134,7 +142,7 @@ public final class ExchangeCore {
                 .collect(Collectors.toMap(
                         shardId -> shardId,
                         shardId -> CompletableFuture.supplyAsync(
-                                () -> new MatchingEngineRouter(shardId, matchingEnginesNum, serializationProcessor, orderBookFactory, sharedPool, exchangeConfiguration),
+                                () -> new MatchingEngineRouter(shardId, matchingEnginesNum, serializationProcessor, orderBookFactory, sharedPool, orderBookTransferChannel, exchangeConfiguration),
                                 loaderExecutor)));
 
         // TODO create processors in same thread we will execute it??
@@ -148,67 +156,141 @@ public final class ExchangeCore {
                                 () -> new RiskEngine(shardId, riskEnginesNum, serializationProcessor, sharedPool, exchangeConfiguration),
                                 loaderExecutor)));
 
-        final EventHandler<OrderCommand>[] matchingEngineHandlers = matchingEngineFutures.values().stream()
-                .map(CompletableFuture::join)
-                .map(mer -> (EventHandler<OrderCommand>) (cmd, seq, eob) -> mer.processOrder(seq, cmd))
-                .toArray(ExchangeCore::newEventHandlersArray);
+        final Map<Integer, MatchingEngineRouter> matchingEngines = matchingEngineFutures.entrySet().stream()
+                .collect(Collectors.toMap(
+                        Map.Entry::getKey,
+                        entry -> entry.getValue().join()));
 
         final Map<Integer, RiskEngine> riskEngines = riskEngineFutures.entrySet().stream()
                 .collect(Collectors.toMap(
                         Map.Entry::getKey,
                         entry -> entry.getValue().join()));
 
-
-        final List<TwoStepMasterProcessor> procR1 = new ArrayList<>(riskEnginesNum);
-        final List<TwoStepSlaveProcessor> procR2 = new ArrayList<>(riskEnginesNum);
+        // optional per-stage latency tracking (handlers are not instrumented if disabled)
+        final StageLatencyTracker latencyTracker = perfCfg.isStageLatencyTracking()
+                ? new StageLatencyTracker(ringBufferSize, perfCfg.getStageLatencyReportIntervalNs())
+                : null;
+        this.stageLatencyTracker = latencyTracker;
 
         // 1. grouping processor (G)
         final EventHandlerGroup<OrderCommand> afterGrouping =
-                disruptor.handleEventsWith((rb, bs) -> new GroupingProcessor(rb, rb.newBarrier(bs), perfCfg, coreWaitStrategy, sharedPool));
+                disruptor.handleEventsWith((rb, bs) -> {
+                    groupingProcessor = new GroupingProcessor(rb, rb.newBarrier(bs), perfCfg, coreWaitStrategy, sharedPool, latencyTracker);
+                    return groupingProcessor;
+                });
 
         // 2. [journaling (J)] in parallel with risk hold (R1) + matching engine (ME)
 
         boolean enableJournaling = serializationCfg.isEnableJournaling();
-        final EventHandler<OrderCommand> jh = enableJournaling ? serializationProcessor::writeToJournal : null;
+        final EventHandler<OrderCommand> jh;
+        if (!enableJournaling) {
+            jh = null;
+        } else if (latencyTracker == null) {
+            jh = serializationProcessor::writeToJournal;
+        } else {
+            jh = (cmd, seq, eob) -> {
+                final long t = System.nanoTime();
+                serializationProcessor.writeToJournal(cmd, seq, eob);
+                latencyTracker.recordJournaling(t);
+            };
+        }
 
         if (enableJournaling) {
             afterGrouping.handleEventsWith(jh);
         }
 
-        riskEngines.forEach((idx, riskEngine) -> afterGrouping.handleEventsWith(
-                (rb, bs) -> {
-                    final TwoStepMasterProcessor r1 = new TwoStepMasterProcessor(rb, rb.newBarrier(bs), riskEngine::preProcessCommand, exceptionHandler, coreWaitStrategy, "R1_" + idx);
-                    procR1.add(r1);
-                    return r1;
-                }));
+        final EventHandler<OrderCommand>[] matchingEngineHandlers;
 
-        disruptor.after(procR1.toArray(new TwoStepMasterProcessor[0])).handleEventsWith(matchingEngineHandlers);
+        if (perfCfg.isFusedRiskMatching()) {
 
-        // 3. risk release (R2) after matching engine (ME)
-        final EventHandlerGroup<OrderCommand> afterMatchingEngine = disruptor.after(matchingEngineHandlers);
+            if (matchingEnginesNum != 1 || riskEnginesNum != 1) {
+                throw new IllegalArgumentException("Fused risk-matching mode requires single matching engine and single risk engine");
+            }
 
-        riskEngines.forEach((idx, riskEngine) -> afterMatchingEngine.handleEventsWith(
-                (rb, bs) -> {
-                    final TwoStepSlaveProcessor r2 = new TwoStepSlaveProcessor(rb, rb.newBarrier(bs), riskEngine::handlerRiskRelease, exceptionHandler, "R2_" + idx);
-                    procR2.add(r2);
-                    return r2;
-                }));
+            // 2+3. risk hold (R1) + matching engine (ME) + risk release (R2) performed by single thread
+            final RiskEngine riskEngine = riskEngines.get(0);
+            final MatchingEngineRouter matchingEngine = matchingEngines.get(0);
+            final EventHandler<OrderCommand> fusedHandler;
+            if (latencyTracker == null) {
+                fusedHandler = (cmd, seq, eob) -> {
+                    riskEngine.preProcessCommand(seq, cmd);
+                    matchingEngine.processOrder(seq, cmd);
+                    riskEngine.handlerRiskRelease(seq, cmd);
+                };
+            } else {
+                fusedHandler = (cmd, seq, eob) -> {
+                    latencyTracker.stamp(seq, StageLatencyTracker.POINT_RISK_HOLD);
+                    riskEngine.preProcessCommand(seq, cmd);
+                    latencyTracker.stamp(seq, StageLatencyTracker.POINT_MATCHING);
+                    matchingEngine.processOrder(seq, cmd);
+                    final long t = System.nanoTime();
+                    riskEngine.handlerRiskRelease(seq, cmd);
+                    latencyTracker.recordRiskRelease(seq, t);
+                };
+            }
+            matchingEngineHandlers = arraysAddHandler(newEventHandlersArray(0), fusedHandler);
 
+            afterGrouping.handleEventsWith(matchingEngineHandlers);
+
+        } else {
+
+            // sharded stages are stamped by first shard only (see StageLatencyTracker)
+            matchingEngineHandlers = matchingEngines.entrySet().stream()
+                    .map(entry -> matchingEngineHandler(entry.getValue(), entry.getKey() == 0 ? latencyTracker : null))
+                    .toArray(ExchangeCore::newEventHandlersArray);
+
+            final List<TwoStepMasterProcessor> procR1 = new ArrayList<>(riskEnginesNum);
+            final List<TwoStepSlaveProcessor> procR2 = new ArrayList<>(riskEnginesNum);
+
+            riskEngines.forEach((idx, riskEngine) -> afterGrouping.handleEventsWith(
+                    (rb, bs) -> {
+                        final SimpleEventHandler r1Handler = riskHoldHandler(riskEngine, idx == 0 ? latencyTracker : null);
+                        final TwoStepMasterProcessor r1 = new TwoStepMasterProcessor(rb, rb.newBarrier(bs), r1Handler, exceptionHandler, coreWaitStrategy, "R1_" + idx);
+                        procR1.add(r1);
+                        return r1;
+                    }));
+
+            disruptor.after(procR1.toArray(new TwoStepMasterProcessor[0])).handleEventsWith(matchingEngineHandlers);
+
+            // 3. risk release (R2) after matching engine (ME)
+            final EventHandlerGroup<OrderCommand> afterMatchingEngine = disruptor.after(matchingEngineHandlers);
+
+            riskEngines.forEach((idx, riskEngine) -> afterMatchingEngine.handleEventsWith(
+                    (rb, bs) -> {
+                        final SimpleEventHandler r2Handler = riskReleaseHandler(riskEngine, idx == 0 ? latencyTracker : null);
+                        final TwoStepSlaveProcessor r2 = new TwoStepSlaveProcessor(rb, rb.newBarrier(bs), r2Handler, exceptionHandler, "R2_" + idx);
+                        procR2.add(r2);
+                        return r2;
+                    }));
+
+            // attach slave processors to master processor
+            IntStream.range(0, riskEnginesNum).forEach(i -> procR1.get(i).setSlaveProcessor(procR2.get(i)));
+
+            // R2 lag is used for adaptive grouping
+            groupingProcessor.setRiskReleaseSequences(procR2.stream().map(TwoStepSlaveProcessor::getSequence).toArray(Sequence[]::new));
+        }
 
         // 4. results handler (E) after matching engine (ME) + [journaling (J)]
         final EventHandlerGroup<OrderCommand> mainHandlerGroup = enableJournaling
                 ? disruptor.after(arraysAddHandler(matchingEngineHandlers, jh))
-                : afterMatchingEngine;
+                : disruptor.after(matchingEngineHandlers);
 
         final ResultsHandler resultsHandler = new ResultsHandler(resultsConsumer);
 
-        mainHandlerGroup.handleEventsWith((cmd, seq, eob) -> {
-            resultsHandler.onEvent(cmd, seq, eob);
-            api.processResult(seq, cmd); // TODO SLOW ?(volatile operations)
-        });
-
-        // attach slave processors to master processor
-        IntStream.range(0, riskEnginesNum).forEach(i -> procR1.get(i).setSlaveProcessor(procR2.get(i)));
+        if (latencyTracker == null) {
+            mainHandlerGroup.handleEventsWith((cmd, seq, eob) -> {
+                resultsHandler.onEvent(cmd, seq, eob);
+                api.processResult(seq, cmd);
+            });
+        } else {
+            mainHandlerGroup.handleEventsWith((cmd, seq, eob) -> {
+                final long t = System.nanoTime();
+                final OrderCommandType commandType = cmd.command;
+                resultsHandler.onEvent(cmd, seq, eob);
+                api.processResult(seq, cmd);
+                latencyTracker.recordResults(seq, commandType, t);
+            });
+        }
 
         try {
             loaderExecutor.shutdown();
@@ -237,6 +319,33 @@ public final class ExchangeCore {
         return api;
     }
 
+    /**
+     * Provides shared events pool (can be used for monitoring pool misses).
+     *
+     * @return SharedPool instance
+     */
+    public SharedPool getSharedPool() {
+        return sharedPool;
+    }
+
+    /**
+     * Provides grouping processor (can be used for monitoring current group size and duration in adaptive grouping mode).
+     *
+     * @return GroupingProcessor instance
+     */
+    public GroupingProcessor getGroupingProcessor() {
+        return groupingProcessor;
+    }
+
+    /**
+     * Provides stage latency tracker (can be used for requesting per-stage and per-command-type latency histograms).
+     *
+     * @return StageLatencyTracker instance, or null if stage latency tracking is disabled
+     */
+    public StageLatencyTracker getStageLatencyTracker() {
+        return stageLatencyTracker;
+    }
+
     private static final EventTranslator<OrderCommand> SHUTDOWN_SIGNAL_TRANSLATOR = (cmd, seq) -> {
         cmd.command = OrderCommandType.SHUTDOWN_SIGNAL;
         cmd.resultCode = CommandResultCode.NEW;
@@ -264,12 +373,47 @@ public final class ExchangeCore {
                 ringBuffer.publishEvent(SHUTDOWN_SIGNAL_TRANSLATOR);
                 disruptor.shutdown(timeout, timeUnit);
                 log.info("Disruptor stopped");
+                if (sharedPool.isEventsPooling()) {
+                    log.info("Events pool: {}", sharedPool);
+                }
             } catch (TimeoutException e) {
                 throw new IllegalStateException("could not stop a disruptor gracefully. Not all events may be executed.");
             }
         }
     }
 
+    private static EventHandler<OrderCommand> matchingEngineHandler(final MatchingEngineRouter mer, final StageLatencyTracker latencyTracker) {
+        if (latencyTracker == null) {
+            return (cmd, seq, eob) -> mer.processOrder(seq, cmd);
+        }
+        return (cmd, seq, eob) -> {
+            latencyTracker.stamp(seq, StageLatencyTracker.POINT_MATCHING);
+            mer.processOrder(seq, cmd);
+        };
+    }
+
+    private static SimpleEventHandler riskHoldHandler(final RiskEngine riskEngine, final StageLatencyTracker latencyTracker) {
+        if (latencyTracker == null) {
+            return riskEngine::preProcessCommand;
+        }
+        return (seq, cmd) -> {
+            latencyTracker.stamp(seq, StageLatencyTracker.POINT_RISK_HOLD);
+            return riskEngine.preProcessCommand(seq, cmd);
+        };
+    }
+
+    private static SimpleEventHandler riskReleaseHandler(final RiskEngine riskEngine, final StageLatencyTracker latencyTracker) {
+        if (latencyTracker == null) {
+            return riskEngine::handlerRiskRelease;
+        }
+        return (seq, cmd) -> {
+            final long t = System.nanoTime();
+            final boolean forcedPublish = riskEngine.handlerRiskRelease(seq, cmd);
+            latencyTracker.recordRiskRelease(seq, t);
+            return forcedPublish;
+        };
+    }
+
     private static EventHandler<OrderCommand>[] arraysAddHandler(EventHandler<OrderCommand>[] handlers, EventHandler<OrderCommand> extraHandler) {
         final EventHandler<OrderCommand>[] result = Arrays.copyOf(handlers, handlers.length + 1);
         result[handlers.length] = extraHandler;
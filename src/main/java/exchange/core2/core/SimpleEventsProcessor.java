@@ -1,8 +1,8 @@
 package exchange.core2.core;
 
 import exchange.core2.core.common.L2MarketData;
+import exchange.core2.core.common.MatcherEventsRing;
 import exchange.core2.core.common.MatcherEventType;
-import exchange.core2.core.common.MatcherTradeEvent;
 import exchange.core2.core.common.api.*;
 import exchange.core2.core.common.cmd.CommandResultCode;
 import exchange.core2.core.common.cmd.OrderCommand;
@@ -24,6 +24,9 @@ public class SimpleEventsProcessor implements ObjLongConsumer<OrderCommand> {
 
     private final IEventsHandler eventsHandler;
 
+    // reads trade events (flat records or chain)
+    private final MatcherEventsRing.Cursor events = new MatcherEventsRing.Cursor();
+
     @Override
     public void accept(OrderCommand cmd, long seq) {
         try {
@@ -36,35 +39,34 @@ public class SimpleEventsProcessor implements ObjLongConsumer<OrderCommand> {
     }
 
     private void sendTradeEvents(OrderCommand cmd) {
-        final MatcherTradeEvent firstEvent = cmd.matcherEvent;
-        if (firstEvent == null) {
+        if (!events.wrap(cmd)) {
             return;
         }
 
-        if (firstEvent.eventType == MatcherEventType.REDUCE) {
+        if (events.eventType() == MatcherEventType.REDUCE) {
 
             final IEventsHandler.ReduceEvent evt = new IEventsHandler.ReduceEvent(
                     cmd.symbol,
-                    firstEvent.size,
-                    firstEvent.activeOrderCompleted,
-                    firstEvent.price,
+                    events.size(),
+                    events.activeOrderCompleted(),
+                    events.price(),
                     cmd.orderId,
                     cmd.uid,
                     cmd.timestamp);
 
             eventsHandler.reduceEvent(evt);
 
-            if (firstEvent.nextEvent != null) {
+            if (events.next()) {
                 throw new IllegalStateException("Only single REDUCE event is expected");
             }
 
             return;
         }
 
-        sendTradeEvent(cmd);
+        sendTradeEvent(cmd, events);
     }
 
-    private void sendTradeEvent(OrderCommand cmd) {
+    private void sendTradeEvent(OrderCommand cmd, MatcherEventsRing.Cursor ev) {
 
         final MutableBoolean takerOrderCompleted = new MutableBoolean(false);
         final MutableLong mutableLong = new MutableLong(0L);
@@ -72,35 +74,36 @@ public class SimpleEventsProcessor implements ObjLongConsumer<OrderCommand> {
 
         final MutableReference<IEventsHandler.RejectEvent> rejectEvent = new MutableReference<>(null);
 
-        cmd.processMatcherEvents(evt -> {
+        do {
 
-            if (evt.eventType == MatcherEventType.TRADE) {
+            final MatcherEventType eventType = ev.eventType();
+            if (eventType == MatcherEventType.TRADE) {
 
                 final IEventsHandler.Trade trade = new IEventsHandler.Trade(
-                        evt.matchedOrderId,
-                        evt.matchedOrderUid,
-                        evt.matchedOrderCompleted,
-                        evt.price,
-                        evt.size);
+                        ev.matchedOrderId(),
+                        ev.matchedOrderUid(),
+                        ev.matchedOrderCompleted(),
+                        ev.price(),
+                        ev.size());
 
                 trades.add(trade);
-                mutableLong.value += evt.size;
+                mutableLong.value += ev.size();
 
-                if (evt.activeOrderCompleted) {
+                if (ev.activeOrderCompleted()) {
                     takerOrderCompleted.value = true;
                 }
 
-            } else if (evt.eventType == MatcherEventType.REJECT) {
+            } else if (eventType == MatcherEventType.REJECT) {
 
                 rejectEvent.set(new IEventsHandler.RejectEvent(
                         cmd.symbol,
-                        evt.size,
-                        evt.price,
+                        ev.size(),
+                        ev.price(),
                         cmd.orderId,
                         cmd.uid,
                         cmd.timestamp));
             }
-        });
+        } while (ev.next());
 
         if (!trades.isEmpty()) {
 
@@ -135,7 +138,7 @@ public class SimpleEventsProcessor implements ObjLongConsumer<OrderCommand> {
                 bids.add(new IEventsHandler.OrderBookRecord(marketData.bidPrices[i], marketData.bidVolumes[i], (int) marketData.bidOrders[i]));
             }
 
-            eventsHandler.orderBook(new IEventsHandler.OrderBook(cmd.symbol, asks, bids, cmd.timestamp));
+            eventsHandler.orderBook(new IEventsHandler.OrderBook(cmd.marketDataSymbol, asks, bids, cmd.timestamp));
         }
     }
 
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.common;
+
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import net.openhft.chronicle.bytes.WriteBytesMarshallable;
+import org.eclipse.collections.api.block.procedure.primitive.IntLongProcedure;
+import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Compact currency -> balance map.
+ * <p>
+ * Most users have few currencies, so up to INLINE_ACCOUNTS balances are stored in primitive fields (no extra objects).
+ * When more currencies added, all balances are moved into IntLongHashMap.
+ * <p>
+ * Methods semantic, serialization format and hashCode are the same as for IntLongHashMap.
+ */
+public final class CurrencyAccounts implements WriteBytesMarshallable {
+
+    public static final int INLINE_ACCOUNTS = 3;
+
+    // number of inline accounts (if map is not used)
+    private int inlineNum = 0;
+
+    private int currency0;
+    private int currency1;
+    private int currency2;
+
+    private long balance0;
+    private long balance1;
+    private long balance2;
+
+    // used instead of inline fields when number of currencies exceeds INLINE_ACCOUNTS
+    private IntLongHashMap map = null;
+
+    public CurrencyAccounts() {
+    }
+
+    public CurrencyAccounts(final BytesIn bytes) {
+        final int length = bytes.readInt();
+        for (int i = 0; i < length; i++) {
+            final int currency = bytes.readInt();
+            put(currency, bytes.readLong());
+        }
+    }
+
+    /**
+     * @param currency currency
+     * @return balance, or 0 if there is no account
+     */
+    public long get(final int currency) {
+        if (map != null) {
+            return map.get(currency);
+        }
+        if (inlineNum > 0 && currency0 == currency) {
+            return balance0;
+        }
+        if (inlineNum > 1 && currency1 == currency) {
+            return balance1;
+        }
+        if (inlineNum > 2 && currency2 == currency) {
+            return balance2;
+        }
+        return 0L;
+    }
+
+    public void put(final int currency, final long balance) {
+        if (map != null) {
+            map.put(currency, balance);
+        } else if (inlineNum > 0 && currency0 == currency) {
+            balance0 = balance;
+        } else if (inlineNum > 1 && currency1 == currency) {
+            balance1 = balance;
+        } else if (inlineNum > 2 && currency2 == currency) {
+            balance2 = balance;
+        } else {
+            insert(currency, balance);
+        }
+    }
+
+    /**
+     * Add amount to the balance (account is created if not exists)
+     *
+     * @param currency currency
+     * @param amount   amount to add
+     * @return new balance
+     */
+    public long addToValue(final int currency, final long amount) {
+        if (map != null) {
+            return map.addToValue(currency, amount);
+        }
+        if (inlineNum > 0 && currency0 == currency) {
+            return balance0 += amount;
+        }
+        if (inlineNum > 1 && currency1 == currency) {
+            return balance1 += amount;
+        }
+        if (inlineNum > 2 && currency2 == currency) {
+            return balance2 += amount;
+        }
+        insert(currency, amount);
+        return amount;
+    }
+
+    private void insert(final int currency, final long balance) {
+        switch (inlineNum) {
+            case 0:
+                currency0 = currency;
+                balance0 = balance;
+                break;
+            case 1:
+                currency1 = currency;
+                balance1 = balance;
+                break;
+            case 2:
+                currency2 = currency;
+                balance2 = balance;
+                break;
+            default:
+                map = toIntLongHashMap();
+                map.put(currency, balance);
+                inlineNum = 0;
+                return;
+        }
+        inlineNum++;
+    }
+
+    public int size() {
+        return map != null ? map.size() : inlineNum;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isInline() {
+        return map == null;
+    }
+
+    public void forEachKeyValue(final IntLongProcedure procedure) {
+        if (map != null) {
+            map.forEachKeyValue(procedure);
+            return;
+        }
+        if (inlineNum > 0) {
+            procedure.value(currency0, balance0);
+        }
+        if (inlineNum > 1) {
+            procedure.value(currency1, balance1);
+        }
+        if (inlineNum > 2) {
+            procedure.value(currency2, balance2);
+        }
+    }
+
+    public boolean anySatisfy(final LongPredicate predicate) {
+        if (map != null) {
+            return map.anySatisfy(predicate::test);
+        }
+        return (inlineNum > 0 && predicate.test(balance0))
+                || (inlineNum > 1 && predicate.test(balance1))
+                || (inlineNum > 2 && predicate.test(balance2));
+    }
+
+    public void clear() {
+        inlineNum = 0;
+        map = null;
+    }
+
+    /**
+     * @return new hash map containing copy of all balances
+     */
+    public IntLongHashMap toIntLongHashMap() {
+        if (map != null) {
+            return new IntLongHashMap(map);
+        }
+        final IntLongHashMap copy = new IntLongHashMap(INLINE_ACCOUNTS * 2);
+        forEachKeyValue(copy::put);
+        return copy;
+    }
+
+    @Override
+    public void writeMarshallable(final BytesOut bytes) {
+        bytes.writeInt(size());
+        forEachKeyValue((currency, balance) -> {
+            bytes.writeInt(currency);
+            bytes.writeLong(balance);
+        });
+    }
+
+    @Override
+    public int hashCode() {
+        if (map != null) {
+            return map.hashCode();
+        }
+        int hash = 0;
+        if (inlineNum > 0) {
+            hash += currency0 ^ Long.hashCode(balance0);
+        }
+        if (inlineNum > 1) {
+            hash += currency1 ^ Long.hashCode(balance1);
+        }
+        if (inlineNum > 2) {
+            hash += currency2 ^ Long.hashCode(balance2);
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CurrencyAccounts)) {
+            return false;
+        }
+        final CurrencyAccounts other = (CurrencyAccounts) o;
+        if (size() != other.size()) {
+            return false;
+        }
+        final boolean[] equal = {true};
+        forEachKeyValue((currency, balance) -> {
+            if (other.get(currency) != balance || (balance == 0 && !other.containsKey(currency))) {
+                equal[0] = false;
+            }
+        });
+        return equal[0];
+    }
+
+    public boolean containsKey(final int currency) {
+        if (map != null) {
+            return map.containsKey(currency);
+        }
+        return (inlineNum > 0 && currency0 == currency)
+                || (inlineNum > 1 && currency1 == currency)
+                || (inlineNum > 2 && currency2 == currency);
+    }
+
+    @Override
+    public String toString() {
+        return map != null ? map.toString() : toIntLongHashMap().toString();
+    }
+}
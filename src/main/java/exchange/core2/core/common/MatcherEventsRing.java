@@ -0,0 +1,327 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.common;
+
+import exchange.core2.core.common.cmd.OrderCommand;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Flat per-shard ring of matcher events - alternative to MatcherTradeEvent chains.
+ * <p>
+ * Each event is a record of primitive fields occupying one cache line.
+ * Matching engine (single writer) writes records of the command being processed directly into the ring (see OrderBookEventsHelper),
+ * then commits them - command carries only reference to ring data, index of the first record and number of events.
+ * Consumers read records through {@link Cursor}, no event objects are created.
+ * <p>
+ * Records of the command published with sequence S can be overwritten only after the ring buffer slot S is re-used,
+ * because it means all consumers (R2, results handler) already processed S.
+ * If there is not enough free records, ring data is re-allocated with double capacity.
+ * Commands published before keep reading previous data array (which is not modified anymore).
+ */
+@Slf4j
+public final class MatcherEventsRing {
+
+    // record layout (longs): header, matchedOrderId, matchedOrderUid, price, size, bidderHoldPrice, 2 reserved (padding to 64 bytes)
+    public static final int RECORD_SIZE = 8;
+    private static final int OFFSET_HEADER = 0;
+    private static final int OFFSET_MATCHED_ORDER_ID = 1;
+    private static final int OFFSET_MATCHED_ORDER_UID = 2;
+    private static final int OFFSET_PRICE = 3;
+    private static final int OFFSET_SIZE = 4;
+    private static final int OFFSET_BIDDER_HOLD_PRICE = 5;
+
+    // header: eventType ordinal (bits 0-7), activeOrderCompleted (bit 8), matchedOrderCompleted (bit 9)
+    private static final long FLAG_ACTIVE_ORDER_COMPLETED = 1L << 8;
+    private static final long FLAG_MATCHED_ORDER_COMPLETED = 1L << 9;
+
+    private static final MatcherEventType[] EVENT_TYPES = MatcherEventType.values();
+
+    private final int ringBufferSize;
+
+    private long[] data;
+    private int mask;
+
+    // total number of records ever written
+    private long writePosition = 0;
+
+    // first record of the command being processed
+    private long commandPosition = 0;
+
+    // records before this position can be overwritten
+    private long releasedPosition = 0;
+
+    // (sequence, writePosition after command) for commands that still can be read by consumers
+    private final long[] pendingSeq;
+    private final long[] pendingPosition;
+    private final int pendingMask;
+    private long pendingHead = 0;
+    private long pendingTail = 0;
+
+    @Getter
+    private int reallocationsCounter = 0;
+
+    /**
+     * Create events ring
+     *
+     * @param ringBufferSize  - disruptor ring buffer size (power of 2)
+     * @param initialCapacity - initial capacity in events, will be rounded up to power of 2
+     */
+    public MatcherEventsRing(final int ringBufferSize, final int initialCapacity) {
+
+        if (Integer.bitCount(ringBufferSize) != 1) {
+            throw new IllegalArgumentException("ringBufferSize must be power of 2");
+        }
+
+        final int capacity = Integer.highestOneBit(Math.max(initialCapacity, 16) * 2 - 1);
+        this.data = new long[capacity * RECORD_SIZE];
+        this.mask = capacity - 1;
+
+        // each command can add at most one pending record
+        this.ringBufferSize = ringBufferSize;
+        this.pendingSeq = new long[ringBufferSize];
+        this.pendingPosition = new long[ringBufferSize];
+        this.pendingMask = ringBufferSize - 1;
+    }
+
+    /**
+     * Append event record of the command being processed.
+     */
+    public void addEvent(final MatcherEventType eventType,
+                         final boolean activeOrderCompleted,
+                         final long matchedOrderId,
+                         final long matchedOrderUid,
+                         final boolean matchedOrderCompleted,
+                         final long price,
+                         final long size,
+                         final long bidderHoldPrice) {
+
+        ensureCapacity();
+        writeRecord((int) (writePosition & mask), eventType, activeOrderCompleted, matchedOrderId, matchedOrderUid, matchedOrderCompleted, price, size, bidderHoldPrice);
+        writePosition++;
+    }
+
+    /**
+     * Insert event record before other records of the command being processed (same as REJECT event goes first in the chain).
+     */
+    public void addFirstEvent(final MatcherEventType eventType,
+                              final boolean activeOrderCompleted,
+                              final long matchedOrderId,
+                              final long matchedOrderUid,
+                              final boolean matchedOrderCompleted,
+                              final long price,
+                              final long size,
+                              final long bidderHoldPrice) {
+
+        ensureCapacity();
+        final long[] d = data;
+        for (long p = writePosition; p > commandPosition; p--) {
+            System.arraycopy(d, (int) ((p - 1) & mask) * RECORD_SIZE, d, (int) (p & mask) * RECORD_SIZE, RECORD_SIZE);
+        }
+        writeRecord((int) (commandPosition & mask), eventType, activeOrderCompleted, matchedOrderId, matchedOrderUid, matchedOrderCompleted, price, size, bidderHoldPrice);
+        writePosition++;
+    }
+
+    /**
+     * Attaches records written for the command (if any) and releases records of the commands consumed by all processors.
+     * Should be called by matching engine thread after command is processed.
+     *
+     * @param seq - disruptor sequence of the command
+     * @param cmd - processed command
+     */
+    public void commit(final long seq, final OrderCommand cmd) {
+
+        final int eventsNum = (int) (writePosition - commandPosition);
+        if (eventsNum != 0) {
+            final int pendingIdx = (int) (pendingTail++ & pendingMask);
+            pendingSeq[pendingIdx] = seq;
+            pendingPosition[pendingIdx] = writePosition;
+
+            cmd.flatEvents = data;
+            cmd.flatEventsIndex = (int) (commandPosition & mask);
+            cmd.flatEventsNum = eventsNum;
+            commandPosition = writePosition;
+        }
+
+        // slot of this sequence is re-used - previous command of the slot is processed by all consumers
+        release(seq - ringBufferSize);
+    }
+
+    private void writeRecord(final int index,
+                             final MatcherEventType eventType,
+                             final boolean activeOrderCompleted,
+                             final long matchedOrderId,
+                             final long matchedOrderUid,
+                             final boolean matchedOrderCompleted,
+                             final long price,
+                             final long size,
+                             final long bidderHoldPrice) {
+
+        final long[] d = data;
+        final int offset = index * RECORD_SIZE;
+        d[offset + OFFSET_HEADER] = eventType.ordinal()
+                | (activeOrderCompleted ? FLAG_ACTIVE_ORDER_COMPLETED : 0)
+                | (matchedOrderCompleted ? FLAG_MATCHED_ORDER_COMPLETED : 0);
+        d[offset + OFFSET_MATCHED_ORDER_ID] = matchedOrderId;
+        d[offset + OFFSET_MATCHED_ORDER_UID] = matchedOrderUid;
+        d[offset + OFFSET_PRICE] = price;
+        d[offset + OFFSET_SIZE] = size;
+        d[offset + OFFSET_BIDDER_HOLD_PRICE] = bidderHoldPrice;
+    }
+
+    private void release(final long consumedSeq) {
+        while (pendingHead != pendingTail) {
+            final int idx = (int) (pendingHead & pendingMask);
+            if (pendingSeq[idx] > consumedSeq) {
+                break;
+            }
+            releasedPosition = pendingPosition[idx];
+            pendingHead++;
+        }
+    }
+
+    private void ensureCapacity() {
+        final int capacity = mask + 1;
+        if (writePosition - releasedPosition < capacity) {
+            return;
+        }
+
+        // unreleased records are still readable from the old array by commands referencing it,
+        // only records of the command being processed are moved
+        final long[] extended = new long[capacity * 2 * RECORD_SIZE];
+        final int extendedMask = capacity * 2 - 1;
+        for (long p = commandPosition; p < writePosition; p++) {
+            System.arraycopy(data, (int) (p & mask) * RECORD_SIZE, extended, (int) (p & extendedMask) * RECORD_SIZE, RECORD_SIZE);
+        }
+        this.data = extended;
+        this.mask = extendedMask;
+        reallocationsCounter++;
+        log.debug("Events ring capacity extended to {} events", capacity * 2);
+    }
+
+    /**
+     * Read single event record into new object (produces garbage, for testing only)
+     *
+     * @param flatEvents - ring data referenced by command
+     * @param index      - record index (not masked)
+     * @return event
+     */
+    public static MatcherTradeEvent readEvent(final long[] flatEvents, final int index) {
+        final int offset = (index & (flatEvents.length / RECORD_SIZE - 1)) * RECORD_SIZE;
+        final long header = flatEvents[offset + OFFSET_HEADER];
+        final MatcherTradeEvent ev = new MatcherTradeEvent();
+        ev.eventType = EVENT_TYPES[(int) (header & 0xFF)];
+        ev.activeOrderCompleted = (header & FLAG_ACTIVE_ORDER_COMPLETED) != 0;
+        ev.matchedOrderCompleted = (header & FLAG_MATCHED_ORDER_COMPLETED) != 0;
+        ev.section = 0;
+        ev.matchedOrderId = flatEvents[offset + OFFSET_MATCHED_ORDER_ID];
+        ev.matchedOrderUid = flatEvents[offset + OFFSET_MATCHED_ORDER_UID];
+        ev.price = flatEvents[offset + OFFSET_PRICE];
+        ev.size = flatEvents[offset + OFFSET_SIZE];
+        ev.bidderHoldPrice = flatEvents[offset + OFFSET_BIDDER_HOLD_PRICE];
+        return ev;
+    }
+
+    /**
+     * Flyweight cursor over events attached to the command, owned by single consumer thread.
+     * For flat events accessors read record fields by record index, for events chain (flat events are not used,
+     * or binary events) - fields of the current event object. No garbage is produced.
+     */
+    public static final class Cursor {
+
+        private long[] data;
+        private int mask;
+        private int index;
+        private int remaining;
+        private int offset;
+
+        private MatcherTradeEvent event;
+
+        /**
+         * Positions cursor at the first event of the command
+         *
+         * @param cmd - command
+         * @return true if command has any events
+         */
+        public boolean wrap(final OrderCommand cmd) {
+            final int eventsNum = cmd.flatEventsNum;
+            if (eventsNum != 0) {
+                data = cmd.flatEvents;
+                mask = data.length / RECORD_SIZE - 1;
+                index = cmd.flatEventsIndex;
+                remaining = eventsNum;
+                offset = (index & mask) * RECORD_SIZE;
+                event = null;
+                return true;
+            } else {
+                data = null;
+                remaining = 0;
+                event = cmd.matcherEvent;
+                return event != null;
+            }
+        }
+
+        /**
+         * Moves cursor to the next event
+         *
+         * @return false if there are no more events
+         */
+        public boolean next() {
+            if (data != null) {
+                if (--remaining == 0) {
+                    return false;
+                }
+                offset = (++index & mask) * RECORD_SIZE;
+                return true;
+            } else {
+                event = event.nextEvent;
+                return event != null;
+            }
+        }
+
+        public MatcherEventType eventType() {
+            return data != null ? EVENT_TYPES[(int) (data[offset + OFFSET_HEADER] & 0xFF)] : event.eventType;
+        }
+
+        public boolean activeOrderCompleted() {
+            return data != null ? (data[offset + OFFSET_HEADER] & FLAG_ACTIVE_ORDER_COMPLETED) != 0 : event.activeOrderCompleted;
+        }
+
+        public boolean matchedOrderCompleted() {
+            return data != null ? (data[offset + OFFSET_HEADER] & FLAG_MATCHED_ORDER_COMPLETED) != 0 : event.matchedOrderCompleted;
+        }
+
+        public long matchedOrderId() {
+            return data != null ? data[offset + OFFSET_MATCHED_ORDER_ID] : event.matchedOrderId;
+        }
+
+        public long matchedOrderUid() {
+            return data != null ? data[offset + OFFSET_MATCHED_ORDER_UID] : event.matchedOrderUid;
+        }
+
+        public long price() {
+            return data != null ? data[offset + OFFSET_PRICE] : event.price;
+        }
+
+        public long size() {
+            return data != null ? data[offset + OFFSET_SIZE] : event.size;
+        }
+
+        public long bidderHoldPrice() {
+            return data != null ? data[offset + OFFSET_BIDDER_HOLD_PRICE] : event.bidderHoldPrice;
+        }
+    }
+}
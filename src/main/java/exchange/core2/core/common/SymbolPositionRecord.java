@@ -46,6 +46,15 @@ public final class SymbolPositionRecord implements WriteBytesMarshallable, State
     public long pendingSellSize = 0;
     public long pendingBuySize = 0;
 
+    // incremental margin state maintained by risk engine (not serialized, rebuilt after loading snapshot)
+    // estimated profit minus required margin, included into owner's positionsFreeMargin aggregate
+    public long freeMargin = 0;
+    public UserProfile owner;
+
+    // neighbours in the list of positions for the same symbol (used for refreshing free margin on last price update)
+    public SymbolPositionRecord prevInSymbol;
+    public SymbolPositionRecord nextInSymbol;
+
     public void initialize(long uid, int symbol, int currency) {
         this.uid = uid;
 
@@ -59,6 +68,11 @@ public final class SymbolPositionRecord implements WriteBytesMarshallable, State
 
         this.pendingSellSize = 0;
         this.pendingBuySize = 0;
+
+        this.freeMargin = 0;
+        this.owner = null;
+        this.prevInSymbol = null;
+        this.nextInSymbol = null;
     }
 
     public SymbolPositionRecord(long uid, BytesIn bytes) {
@@ -21,10 +21,11 @@ import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.bytes.BytesIn;
 import net.openhft.chronicle.bytes.BytesOut;
 import net.openhft.chronicle.bytes.WriteBytesMarshallable;
-import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
+import org.eclipse.collections.api.block.procedure.Procedure;
 import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
 
 import java.util.Objects;
+import java.util.function.Predicate;
 
 @Slf4j
 public final class UserProfile implements WriteBytesMarshallable, StateHash {
@@ -32,24 +33,27 @@ public final class UserProfile implements WriteBytesMarshallable, StateHash {
     public final long uid;
 
     // symbol -> margin position records
-    // TODO initialize lazily (only needed if margin trading allowed)
-    public final IntObjectHashMap<SymbolPositionRecord> positions;
+    // allocated with the first margin position (most users do not trade futures)
+    private IntObjectHashMap<SymbolPositionRecord> positions = null;
 
     // protects from double adjustment
     public long adjustmentsCounter;
 
     // currency accounts
     // currency -> balance
-    public final IntLongHashMap accounts;
+    public final CurrencyAccounts accounts;
 
     public UserStatus userStatus;
 
+    // currency -> sum of positions free margin (estimated profit minus required margin)
+    // maintained incrementally by risk engine, not serialized, allocated together with positions
+    private CurrencyAccounts positionsFreeMargin = null;
+
     public UserProfile(long uid, UserStatus userStatus) {
         //log.debug("New {}", uid);
         this.uid = uid;
-        this.positions = new IntObjectHashMap<>();
         this.adjustmentsCounter = 0L;
-        this.accounts = new IntLongHashMap();
+        this.accounts = new CurrencyAccounts();
         this.userStatus = userStatus;
     }
 
@@ -58,39 +62,100 @@ public final class UserProfile implements WriteBytesMarshallable, StateHash {
         this.uid = bytesIn.readLong();
 
         // positions
-        this.positions = SerializationUtils.readIntHashMap(bytesIn, b -> new SymbolPositionRecord(uid, b));
+        final int positionsNum = bytesIn.readInt();
+        for (int i = 0; i < positionsNum; i++) {
+            final int symbol = bytesIn.readInt();
+            addPositionRecord(symbol, new SymbolPositionRecord(uid, bytesIn));
+        }
 
         // adjustmentsCounter
         this.adjustmentsCounter = bytesIn.readLong();
 
         // account balances
-        this.accounts = SerializationUtils.readIntLongHashMap(bytesIn);
+        this.accounts = new CurrencyAccounts(bytesIn);
 
         // suspended
         this.userStatus = UserStatus.of(bytesIn.readByte());
     }
 
+    public SymbolPositionRecord getPositionRecord(int symbol) {
+        return positions != null ? positions.get(symbol) : null;
+    }
+
     public SymbolPositionRecord getPositionRecordOrThrowEx(int symbol) {
-        final SymbolPositionRecord record = positions.get(symbol);
+        final SymbolPositionRecord record = getPositionRecord(symbol);
         if (record == null) {
             throw new IllegalStateException("not found position for symbol " + symbol);
         }
         return record;
     }
 
+    public void addPositionRecord(int symbol, SymbolPositionRecord record) {
+        if (positions == null) {
+            positions = new IntObjectHashMap<>(4);
+            positionsFreeMargin = new CurrencyAccounts();
+        }
+        positions.put(symbol, record);
+    }
+
+    public void removePositionRecord(int symbol) {
+        positions.remove(symbol);
+    }
+
+    public boolean hasPositions() {
+        return positions != null && !positions.isEmpty();
+    }
+
+    public int getPositionsNum() {
+        return positions != null ? positions.size() : 0;
+    }
+
+    public void forEachPosition(Procedure<SymbolPositionRecord> procedure) {
+        if (positions != null) {
+            positions.forEachValue(procedure);
+        }
+    }
+
+    public boolean anyPositionSatisfy(Predicate<SymbolPositionRecord> predicate) {
+        return positions != null && positions.anySatisfy(predicate::test);
+    }
+
+    /**
+     * @param currency currency
+     * @return sum of positions free margin for currency
+     */
+    public long getPositionsFreeMargin(int currency) {
+        return positionsFreeMargin != null ? positionsFreeMargin.get(currency) : 0L;
+    }
+
+    public void addPositionsFreeMargin(int currency, long amount) {
+        positionsFreeMargin.addToValue(currency, amount);
+    }
+
+    /**
+     * @return positions free margin aggregates (currency -> sum), null if user never had margin positions
+     */
+    public CurrencyAccounts getPositionsFreeMarginAggregates() {
+        return positionsFreeMargin;
+    }
+
     @Override
     public void writeMarshallable(BytesOut bytes) {
 
         bytes.writeLong(uid);
 
         // positions
-        SerializationUtils.marshallIntHashMap(positions, bytes);
+        if (positions != null) {
+            SerializationUtils.marshallIntHashMap(positions, bytes);
+        } else {
+            bytes.writeInt(0);
+        }
 
         // adjustmentsCounter
         bytes.writeLong(adjustmentsCounter);
 
         // account balances
-        SerializationUtils.marshallIntLongHashMap(accounts, bytes);
+        accounts.writeMarshallable(bytes);
 
         // suspended
         bytes.writeByte(userStatus.getCode());
@@ -101,7 +166,7 @@ public final class UserProfile implements WriteBytesMarshallable, StateHash {
     public String toString() {
         return "UserProfile{" +
                 "uid=" + uid +
-                ", positions=" + positions.size() +
+                ", positions=" + getPositionsNum() +
                 ", accounts=" + accounts +
                 ", adjustmentsCounter=" + adjustmentsCounter +
                 ", userStatus=" + userStatus +
@@ -112,7 +177,7 @@ public final class UserProfile implements WriteBytesMarshallable, StateHash {
     public int stateHash() {
         return Objects.hash(
                 uid,
-                HashingUtils.stateHash(positions),
+                positions != null ? HashingUtils.stateHash(positions) : 0,
                 adjustmentsCounter,
                 accounts.hashCode(),
                 userStatus.hashCode());
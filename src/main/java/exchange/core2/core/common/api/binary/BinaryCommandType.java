@@ -21,7 +21,8 @@ import lombok.Getter;
 public enum BinaryCommandType {
 
     ADD_ACCOUNTS(1002),
-    ADD_SYMBOLS(1003);
+    ADD_SYMBOLS(1003),
+    MOVE_SYMBOL(1004);
 
     private final int code;
 
@@ -36,6 +37,8 @@ public enum BinaryCommandType {
                 return ADD_ACCOUNTS;
             case 1003:
                 return ADD_SYMBOLS;
+            case 1004:
+                return MOVE_SYMBOL;
             default:
                 throw new IllegalArgumentException("unknown BinaryCommandType:" + code);
         }
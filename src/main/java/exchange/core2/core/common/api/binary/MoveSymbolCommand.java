@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.common.api.binary;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+
+/**
+ * Moves order book of the symbol to another matching engine shard.
+ * Order book is serialized by the current owner and deserialized by the target shard at the same sequence,
+ * symbols routing table is updated by all matching engines.
+ */
+@AllArgsConstructor
+@EqualsAndHashCode
+@Getter
+@ToString
+public final class MoveSymbolCommand implements BinaryDataCommand {
+
+    private final int symbolId;
+    private final int targetShardId;
+
+    public MoveSymbolCommand(final BytesIn bytes) {
+        symbolId = bytes.readInt();
+        targetShardId = bytes.readInt();
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        bytes.writeInt(symbolId);
+        bytes.writeInt(targetShardId);
+    }
+
+    @Override
+    public int getBinaryCommandTypeCode() {
+        return BinaryCommandType.MOVE_SYMBOL.getCode();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.common.api.reports;
+
+import exchange.core2.core.common.OrderAction;
+import exchange.core2.core.processors.MatchingEngineRouter;
+import exchange.core2.core.processors.RiskEngine;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Planned (capacity hints from PerformanceConfiguration) vs actual number of users, symbols and resting orders
+ */
+@NoArgsConstructor
+@EqualsAndHashCode
+@ToString
+public final class CapacityReportQuery implements ReportQuery<CapacityReportResult> {
+
+    public CapacityReportQuery(BytesIn bytesIn) {
+        // do nothing
+    }
+
+    @Override
+    public int getReportTypeCode() {
+        return ReportType.CAPACITY.getCode();
+    }
+
+    @Override
+    public CapacityReportResult createResult(final Stream<BytesIn> sections) {
+        return CapacityReportResult.merge(sections);
+    }
+
+    @Override
+    public Optional<CapacityReportResult> process(final MatchingEngineRouter matchingEngine) {
+
+        final long ordersNum = matchingEngine.getOrderBooks().stream()
+                .mapToLong(ob -> ob.getOrdersNum(OrderAction.ASK) + ob.getOrdersNum(OrderAction.BID))
+                .sum();
+
+        return Optional.of(new CapacityReportResult(
+                0,
+                0,
+                matchingEngine.getPlannedSymbolsNum(),
+                matchingEngine.getOrderBooks().size(),
+                matchingEngine.getPlannedOrdersNum(),
+                ordersNum));
+    }
+
+    @Override
+    public Optional<CapacityReportResult> process(final RiskEngine riskEngine) {
+
+        // symbols are known by each risk engine, counted by matching engines only
+        return Optional.of(new CapacityReportResult(
+                riskEngine.getPlannedUsersNum(),
+                riskEngine.getUserProfileService().getUserProfilesNum(),
+                0,
+                0,
+                0,
+                0));
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        // do nothing
+    }
+}
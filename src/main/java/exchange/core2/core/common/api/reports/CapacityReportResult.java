@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.common.api.reports;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+
+import java.util.stream.Stream;
+
+@AllArgsConstructor
+@EqualsAndHashCode
+@Getter
+@ToString
+public final class CapacityReportResult implements ReportResult {
+
+    public static final CapacityReportResult EMPTY = new CapacityReportResult(0, 0, 0, 0, 0, 0);
+
+    // planned values are sums of capacity pre-allocated by each shard
+    private final long plannedUsersNum;
+    private final long usersNum;
+    private final long plannedSymbolsNum;
+    private final long symbolsNum;
+    private final long plannedOrdersNum;
+    private final long ordersNum;
+
+    private CapacityReportResult(final BytesIn bytesIn) {
+        this.plannedUsersNum = bytesIn.readLong();
+        this.usersNum = bytesIn.readLong();
+        this.plannedSymbolsNum = bytesIn.readLong();
+        this.symbolsNum = bytesIn.readLong();
+        this.plannedOrdersNum = bytesIn.readLong();
+        this.ordersNum = bytesIn.readLong();
+    }
+
+    @Override
+    public void writeMarshallable(final BytesOut bytes) {
+        bytes.writeLong(plannedUsersNum);
+        bytes.writeLong(usersNum);
+        bytes.writeLong(plannedSymbolsNum);
+        bytes.writeLong(symbolsNum);
+        bytes.writeLong(plannedOrdersNum);
+        bytes.writeLong(ordersNum);
+    }
+
+    /**
+     * @return true if any actual value exceeds planned capacity (some maps or pools were extended)
+     */
+    public boolean isCapacityExceeded() {
+        return usersNum > plannedUsersNum || symbolsNum > plannedSymbolsNum || ordersNum > plannedOrdersNum;
+    }
+
+    public static CapacityReportResult merge(final Stream<BytesIn> pieces) {
+        return pieces
+                .map(CapacityReportResult::new)
+                .reduce(
+                        EMPTY,
+                        (a, b) -> new CapacityReportResult(
+                                a.plannedUsersNum + b.plannedUsersNum,
+                                a.usersNum + b.usersNum,
+                                a.plannedSymbolsNum + b.plannedSymbolsNum,
+                                a.symbolsNum + b.symbolsNum,
+                                a.plannedOrdersNum + b.plannedOrdersNum,
+                                a.ordersNum + b.ordersNum));
+    }
+}
@@ -24,7 +24,11 @@ public enum ReportType {
 
     SINGLE_USER_REPORT(10002),
 
-    TOTAL_CURRENCY_BALANCE(10003);
+    TOTAL_CURRENCY_BALANCE(10003),
+
+    CAPACITY(10004),
+
+    SHARDS_LOAD(10005);
 
     private final int code;
 
@@ -41,6 +45,10 @@ public enum ReportType {
                 return SINGLE_USER_REPORT;
             case 10003:
                 return TOTAL_CURRENCY_BALANCE;
+            case 10004:
+                return CAPACITY;
+            case 10005:
+                return SHARDS_LOAD;
             default:
                 throw new IllegalArgumentException("unknown ReportType:" + code);
         }
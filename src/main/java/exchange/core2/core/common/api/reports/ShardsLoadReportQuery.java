@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.common.api.reports;
+
+import exchange.core2.core.common.OrderAction;
+import exchange.core2.core.processors.MatchingEngineRouter;
+import exchange.core2.core.processors.RiskEngine;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Matching engines load report - can be used for deciding which symbols should be moved to another shard (see MoveSymbolCommand).
+ */
+@NoArgsConstructor
+@EqualsAndHashCode
+@ToString
+public final class ShardsLoadReportQuery implements ReportQuery<ShardsLoadReportResult> {
+
+    public ShardsLoadReportQuery(BytesIn bytesIn) {
+        // do nothing
+    }
+
+    @Override
+    public int getReportTypeCode() {
+        return ReportType.SHARDS_LOAD.getCode();
+    }
+
+    @Override
+    public ShardsLoadReportResult createResult(final Stream<BytesIn> sections) {
+        return ShardsLoadReportResult.merge(sections);
+    }
+
+    @Override
+    public Optional<ShardsLoadReportResult> process(final MatchingEngineRouter matchingEngine) {
+
+        final int shardId = matchingEngine.getShardId();
+
+        final IntIntHashMap symbolShards = new IntIntHashMap();
+        final IntLongHashMap symbolCommands = new IntLongHashMap();
+        matchingEngine.getSymbolsRouting().forEachKeyValue((symbol, route) -> {
+            if (route.getShardId() == shardId) {
+                symbolShards.put(symbol, shardId);
+            }
+            // symbol could be processed by other shard before moving
+            if (route.getCommandsCounter() != 0) {
+                symbolCommands.put(symbol, route.getCommandsCounter());
+            }
+        });
+
+        final IntLongHashMap symbolOrders = new IntLongHashMap();
+        matchingEngine.getOrderBooks().forEachKeyValue((symbol, ob) ->
+                symbolOrders.put(symbol, ob.getOrdersNum(OrderAction.ASK) + ob.getOrdersNum(OrderAction.BID)));
+
+        final IntLongHashMap shardCommands = new IntLongHashMap();
+        shardCommands.put(shardId, matchingEngine.getMatchingCommandsCounter());
+
+        return Optional.of(new ShardsLoadReportResult(shardCommands, symbolShards, symbolCommands, symbolOrders));
+    }
+
+    @Override
+    public Optional<ShardsLoadReportResult> process(final RiskEngine riskEngine) {
+        return Optional.empty();
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        // do nothing
+    }
+}
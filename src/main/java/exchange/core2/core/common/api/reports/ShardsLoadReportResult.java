@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.common.api.reports;
+
+import exchange.core2.core.utils.SerializationUtils;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
+
+import java.util.stream.Stream;
+
+@AllArgsConstructor
+@EqualsAndHashCode
+@Getter
+@ToString
+public final class ShardsLoadReportResult implements ReportResult {
+
+    public static final ShardsLoadReportResult EMPTY = new ShardsLoadReportResult(
+            new IntLongHashMap(), new IntIntHashMap(), new IntLongHashMap(), new IntLongHashMap());
+
+    // shard -> matching commands processed since start (or since snapshot loading)
+    private final IntLongHashMap shardCommands;
+
+    // symbol -> shard
+    private final IntIntHashMap symbolShards;
+
+    // symbol -> matching commands processed since start (or since snapshot loading)
+    private final IntLongHashMap symbolCommands;
+
+    // symbol -> resting orders
+    private final IntLongHashMap symbolOrders;
+
+    private ShardsLoadReportResult(final BytesIn bytesIn) {
+        this.shardCommands = SerializationUtils.readIntLongHashMap(bytesIn);
+        this.symbolShards = SerializationUtils.readIntIntHashMap(bytesIn);
+        this.symbolCommands = SerializationUtils.readIntLongHashMap(bytesIn);
+        this.symbolOrders = SerializationUtils.readIntLongHashMap(bytesIn);
+    }
+
+    @Override
+    public void writeMarshallable(final BytesOut bytes) {
+        SerializationUtils.marshallIntLongHashMap(shardCommands, bytes);
+        SerializationUtils.marshallIntIntHashMap(symbolShards, bytes);
+        SerializationUtils.marshallIntLongHashMap(symbolCommands, bytes);
+        SerializationUtils.marshallIntLongHashMap(symbolOrders, bytes);
+    }
+
+    /**
+     * @return shard -> resting orders
+     */
+    public IntLongHashMap getShardOrders() {
+        final IntLongHashMap shardOrders = new IntLongHashMap();
+        symbolOrders.forEachKeyValue((symbol, orders) -> shardOrders.addToValue(symbolShards.get(symbol), orders));
+        return shardOrders;
+    }
+
+    public static ShardsLoadReportResult merge(final Stream<BytesIn> pieces) {
+        return pieces
+                .map(ShardsLoadReportResult::new)
+                .reduce(
+                        EMPTY,
+                        (a, b) -> {
+                            final IntIntHashMap symbolShards = new IntIntHashMap(a.symbolShards);
+                            symbolShards.putAll(b.symbolShards);
+                            return new ShardsLoadReportResult(
+                                    SerializationUtils.mergeSum(a.shardCommands, b.shardCommands),
+                                    symbolShards,
+                                    SerializationUtils.mergeSum(a.symbolCommands, b.symbolCommands),
+                                    SerializationUtils.mergeSum(a.symbolOrders, b.symbolOrders));
+                        });
+    }
+}
@@ -69,6 +69,10 @@ public final class StateHashReportQuery implements ReportQuery<StateHashReportRe
                 StateHashReportResult.createKey(moduleId, StateHashReportResult.SubmoduleType.MATCHING_SHARD_MASK),
                 Long.hashCode(matchingEngine.getShardMask()));
 
+        hashCodes.put(
+                StateHashReportResult.createKey(moduleId, StateHashReportResult.SubmoduleType.MATCHING_SYMBOLS_ROUTING),
+                HashingUtils.stateHash(matchingEngine.getSymbolsRouting()));
+
         return Optional.of(
                 new StateHashReportResult(hashCodes));
     }
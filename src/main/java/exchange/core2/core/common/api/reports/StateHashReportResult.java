@@ -90,7 +90,8 @@ public final class StateHashReportResult implements ReportResult {
 
         MATCHING_BINARY_CMD_PROCESSOR(64, ModuleType.MATCHING_ENGINE),
         MATCHING_ORDER_BOOKS(65, ModuleType.MATCHING_ENGINE),
-        MATCHING_SHARD_MASK(66, ModuleType.MATCHING_ENGINE);
+        MATCHING_SHARD_MASK(66, ModuleType.MATCHING_ENGINE),
+        MATCHING_SYMBOLS_ROUTING(67, ModuleType.MATCHING_ENGINE);
 
         public final int code;
         public final ModuleType moduleType;
@@ -88,9 +88,10 @@ public final class TotalCurrencyBalanceReportQuery implements ReportQuery<TotalC
 
         final SymbolSpecificationProvider symbolSpecificationProvider = riskEngine.getSymbolSpecificationProvider();
 
-        riskEngine.getUserProfileService().getUserProfiles().forEach(userProfile -> {
+        riskEngine.getUserProfileService().forEachUserProfile(userProfile -> {
             userProfile.accounts.forEachKeyValue(currencyBalance::addToValue);
-            userProfile.positions.forEachKeyValue((symbolId, positionRecord) -> {
+            userProfile.forEachPosition(positionRecord -> {
+                final int symbolId = positionRecord.symbol;
                 final CoreSymbolSpecification spec = symbolSpecificationProvider.getSymbolSpecification(symbolId);
                 final RiskEngine.LastPriceCacheRecord avgPrice = dummyLastPriceCache.getIfAbsentPut(symbolId, RiskEngine.LastPriceCacheRecord.dummy);
                 currencyBalance.addToValue(positionRecord.currency, positionRecord.estimateProfit(spec, avgPrice));
@@ -111,7 +112,8 @@ public final class TotalCurrencyBalanceReportQuery implements ReportQuery<TotalC
                         new IntLongHashMap(riskEngine.getSuspends()),
                         null,
                         symbolOpenInterestLong,
-                        symbolOpenInterestShort));
+                        symbolOpenInterestShort,
+                        riskEngine.getFreeMarginMismatchesCounter()));
     }
 
     @Override
@@ -46,14 +46,17 @@ public final class TotalCurrencyBalanceReportResult implements ReportResult {
     final private IntLongHashMap openInterestLong;
     final private IntLongHashMap openInterestShort;
 
+    // number of detected (and repaired) free margin aggregates inconsistencies, non-zero value means a bug in risk engine
+    final private long freeMarginMismatches;
+
     public static TotalCurrencyBalanceReportResult createEmpty() {
         return new TotalCurrencyBalanceReportResult(
-                null, null, null, null, null, null, null);
+                null, null, null, null, null, null, null, 0L);
     }
 
     public static TotalCurrencyBalanceReportResult ofOrderBalances(final IntLongHashMap currencyBalance) {
         return new TotalCurrencyBalanceReportResult(
-                null, null, null, null, currencyBalance, null, null);
+                null, null, null, null, currencyBalance, null, null, 0L);
     }
 
     private TotalCurrencyBalanceReportResult(final BytesIn bytesIn) {
@@ -64,6 +67,7 @@ public final class TotalCurrencyBalanceReportResult implements ReportResult {
         this.ordersBalances = SerializationUtils.readNullable(bytesIn, SerializationUtils::readIntLongHashMap);
         this.openInterestLong = SerializationUtils.readNullable(bytesIn, SerializationUtils::readIntLongHashMap);
         this.openInterestShort = SerializationUtils.readNullable(bytesIn, SerializationUtils::readIntLongHashMap);
+        this.freeMarginMismatches = bytesIn.readLong();
     }
 
     @Override
@@ -75,6 +79,7 @@ public final class TotalCurrencyBalanceReportResult implements ReportResult {
         SerializationUtils.marshallNullable(ordersBalances, bytes, SerializationUtils::marshallIntLongHashMap);
         SerializationUtils.marshallNullable(openInterestLong, bytes, SerializationUtils::marshallIntLongHashMap);
         SerializationUtils.marshallNullable(openInterestShort, bytes, SerializationUtils::marshallIntLongHashMap);
+        bytes.writeLong(freeMarginMismatches);
     }
 
     public IntLongHashMap getGlobalBalancesSum() {
@@ -101,7 +106,8 @@ public final class TotalCurrencyBalanceReportResult implements ReportResult {
                                 SerializationUtils.mergeSum(a.suspends, b.suspends),
                                 SerializationUtils.mergeSum(a.ordersBalances, b.ordersBalances),
                                 SerializationUtils.mergeSum(a.openInterestLong, b.openInterestLong),
-                                SerializationUtils.mergeSum(a.openInterestShort, b.openInterestShort)));
+                                SerializationUtils.mergeSum(a.openInterestShort, b.openInterestShort),
+                                a.freeMarginMismatches + b.freeMarginMismatches));
     }
 
 }
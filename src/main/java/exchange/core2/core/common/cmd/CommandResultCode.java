@@ -65,6 +65,7 @@ public enum CommandResultCode {
     USER_MGMT_USER_NOT_FOUND(-4201),
 
     SYMBOL_MGMT_SYMBOL_ALREADY_EXISTS(-5001),
+    SYMBOL_MGMT_SYMBOL_MOVE_FAILED(-5002),
 
     BINARY_COMMAND_FAILED(-8001),
     REPORT_QUERY_UNKNOWN_TYPE(-8003),
@@ -71,9 +71,22 @@ public final class OrderCommand implements IOrder {
     // trade events chain
     public MatcherTradeEvent matcherEvent;
 
+    // flat trade events (alternative to chain): ring data, index of the first record and number of events
+    @ToString.Exclude
+    public long[] flatEvents;
+    public int flatEventsIndex;
+    public int flatEventsNum;
+
     // optional market data
     public L2MarketData marketData;
 
+    // symbol of attached market data (regular L2 updates of any symbol of the shard can be attached to the command)
+    public int marketDataSymbol;
+
+    // pre-allocated market data object owned by the ring buffer slot, re-used by matching engine for regular L2 updates
+    @ToString.Exclude
+    public L2MarketData marketDataBuffer;
+
     // sequence of last available for this command
     //public long matcherEventSequence;
     // ---- potential false sharing section ------
@@ -127,6 +140,9 @@ public final class OrderCommand implements IOrder {
      * @param handler - MatcherTradeEvent handler
      */
     public void processMatcherEvents(Consumer<MatcherTradeEvent> handler) {
+        for (int i = 0; i < flatEventsNum; i++) {
+            handler.accept(MatcherEventsRing.readEvent(flatEvents, flatEventsIndex + i));
+        }
         MatcherTradeEvent mte = this.matcherEvent;
         while (mte != null) {
             handler.accept(mte);
@@ -134,6 +150,19 @@ public final class OrderCommand implements IOrder {
         }
     }
 
+    /**
+     * Counts attached events (both flat and chain), no garbage
+     *
+     * @return number of events
+     */
+    public int getMatcherEventsNum() {
+        int num = flatEventsNum;
+        for (MatcherTradeEvent mte = this.matcherEvent; mte != null; mte = mte.nextEvent) {
+            num++;
+        }
+        return num;
+    }
+
     /**
      * Produces garbage
      * For testing only !!!
@@ -197,6 +226,7 @@ public final class OrderCommand implements IOrder {
 
         if (marketData != null) {
             newCmd.marketData = marketData.copy();
+            newCmd.marketDataSymbol = marketDataSymbol;
         }
 
 //        System.out.println(">>> newCmd: " + newCmd);
@@ -46,7 +46,9 @@ public enum OrderCommandType {
     RESET((byte) 124, true),
     SHUTDOWN_SIGNAL((byte) 127, false),
 
-    RESERVED_COMPRESSED((byte) -1, false);
+    RESERVED_COMPRESSED((byte) -1, false),
+    RESERVED_JOURNAL_HEADER((byte) -2, false),
+    RESERVED_BATCH_START((byte) -3, false);
 
     private final byte code;
     private final boolean mutate;
@@ -5,6 +5,8 @@ import exchange.core2.core.common.CoreWaitStrategy;
 import exchange.core2.core.orderbook.IOrderBook;
 import exchange.core2.core.orderbook.OrderBookDirectImpl;
 import exchange.core2.core.orderbook.OrderBookNaiveImpl;
+import exchange.core2.core.processors.IUserProfilesStore;
+import exchange.core2.core.processors.UserProfilesStoreHeapImpl;
 import exchange.core2.core.utils.AffinityThreadFactory;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -13,6 +15,7 @@ import net.jpountz.lz4.LZ4Compressor;
 import net.jpountz.lz4.LZ4Factory;
 
 import java.util.concurrent.ThreadFactory;
+import java.util.function.IntToLongFunction;
 import java.util.function.Supplier;
 
 /**
@@ -40,6 +43,15 @@ public final class PerformanceConfiguration {
      */
     private final int riskEnginesNum;
 
+    /*
+     * Fused pipeline mode (requires one matching engine and one risk engine).
+     * When true - risk hold (R1), matching (ME) and risk release (R2) are performed for each command one after another by a single thread,
+     * so there is no R1/R2 grouping (msgsInGroupLimit/maxGroupDurationNs are not relevant for risk release) and no hand-offs between threads.
+     * Provides lower latency and requires less CPU cores, but throughput is limited by single thread.
+     * When false - R1, ME and R2 are separate pipeline stages (R1 and R2 of the same risk engine alternate by groups of commands).
+     */
+    private final boolean fusedRiskMatching;
+
     /*
      * max number of messages not processed by R2 stage. Must be less than quarter of ringBufferSize.
      * Lower values, like 100, provide better mean latency.
@@ -56,13 +68,42 @@ public final class PerformanceConfiguration {
      */
     private final int maxGroupDurationNs;
 
+    /*
+     * adaptive grouping mode
+     * When true - group size and duration are adjusted by grouping processor according to observed ring buffer occupancy and R2 stage lag:
+     * under load they grow up to msgsInGroupLimit/maxGroupDurationNs (throughput and tail latency),
+     * under low load they shrink down to minMsgsInGroupLimit/minGroupDurationNs (mean latency).
+     * When false - msgsInGroupLimit/maxGroupDurationNs are used as fixed values.
+     * Current values can be monitored using ExchangeCore.getGroupingProcessor()
+     */
+    private final boolean adaptiveGrouping;
+
+    /*
+     * lower bounds of group size and duration for adaptive grouping mode
+     */
+    private final int minMsgsInGroupLimit;
+    private final int minGroupDurationNs;
+
+    /*
+     * per-stage latency tracking
+     * When true - every pipeline stage records nanosecond timestamp for each command,
+     * stage latencies are aggregated into HdrHistograms (per stage and per command type), see ExchangeCore.getStageLatencyTracker()
+     * When false - no timestamps are taken (no overhead).
+     */
+    private final boolean stageLatencyTracking;
+
+    /*
+     * interval for writing stage latency report into log (0 - never)
+     */
+    private final long stageLatencyReportIntervalNs;
+
     /*
      * send L2 for every successfully executed command
      *
      * Regular L2 updates is important for Risk Processor, to evaluate PnL for margin trading.
-     * By default (false), Matching Engine sends L2 only when requested by Grouping Processor (every 10ms).
+     * By default (false), Matching Engine sends L2 only for order books changed since last publication (see l2PublishIntervalNs).
      * When true - L2 data will be sent for every successfully executed command.
-     * Enabling this will impact the performance.
+     * Enabling this will impact the performance (L2 data is written into pre-allocated object of ring buffer slot, so no garbage is produced).
      *
      */
     private final boolean sendL2ForEveryCmd;
@@ -70,10 +111,24 @@ public final class PerformanceConfiguration {
     /*
      * Depth of Regular L2 updates.
      * Default is 8 (sufficient for Risk Processor because it does not check order book depth)
-     * If set Integer.MAX_VALUE - full order book will be sent.
+     * Up to L2MarketData.L2_SIZE levels are written into pre-allocated object of ring buffer slot.
+     * If set Integer.MAX_VALUE - full order book will be sent (shared snapshot is re-created when top levels are changed).
      */
     private final int l2RefreshDepth;
 
+    /*
+     * Interval of regular L2 updates (L2 tick).
+     * Grouping Processor marks a command every interval, each Matching Engine then publishes L2 data for its order books changed since last publication.
+     * Updates are attached to subsequent commands of the shard (one order book per command), so many changed order books do not introduce hiccups.
+     */
+    private final int l2PublishIntervalNs;
+
+    /*
+     * Per-symbol minimal interval of regular L2 updates (symbolId -> nanoseconds), rounded up to whole L2 ticks.
+     * Useful to reduce L2 traffic of rarely used symbols. 0 - publish on every L2 tick.
+     */
+    private final IntToLongFunction symbolL2PublishIntervalNs;
+
     /*
      * Disruptor threads factory
      */
@@ -86,6 +141,9 @@ public final class PerformanceConfiguration {
 
     /*
      * Order books factory
+     * OrderBookNaiveImpl::new - simple implementation, OrderBookDirectImpl::new - fast implementation,
+     * OrderBookOffHeapImpl::new - keeps orders in off-heap memory (no GC pressure for deep order books),
+     * OrderBookPriceLadderImpl::new - fast implementation with dense price index (for prices concentrated around market price)
      */
     private final IOrderBook.OrderBookFactory orderBookFactory;
 
@@ -94,39 +152,104 @@ public final class PerformanceConfiguration {
      */
     private final Supplier<LZ4Compressor> binaryCommandsLz4CompressorFactory;
 
+    /*
+     * Enable MatcherTradeEvent pooling.
+     * When true - events are returned into the shared pool by Grouping Processor when ring buffer slot is reused,
+     * so sustained trading does not produce garbage. Results consumer must copy events if it keeps them after returning.
+     */
+    private final boolean eventsPooling;
+
+    /*
+     * Length of events chain taken from the shared pool by matching and risk engines.
+     * If 0 - chain length is auto-sized based on ring buffer size and number of engines.
+     */
+    private final int eventsPoolChainLength;
+
+    /*
+     * Trade events transport.
+     * When true - order books write events directly into flat per-shard ring (one cache line per event, no pointer chasing for consumers),
+     * command carries only reference to the ring, index and number of events. Events pooling is not used for trade events then.
+     * When false - events are passed as MatcherTradeEvent chain.
+     */
+    private final boolean flatTradeEvents;
+
+    /*
+     * Capacity hints - expected total number of users, symbols and resting orders (for all shards).
+     * Used to pre-size objects pools, user profiles, symbol specifications, order books and order id indexes at start,
+     * so they are not growing (re-hashing) under live traffic. Planned and actual capacity can be compared using CapacityReportQuery.
+     */
+    private final int expectedUsersNum;
+    private final int expectedSymbolsNum;
+    private final int expectedOrdersNum;
+
+    /*
+     * User profiles store factory (per risk engine shard)
+     * UserProfilesStoreHeapImpl::new - all profiles are kept in the heap,
+     * UserProfilesStoreOffHeapImpl::new - compact off-heap records, only recently used profiles are materialized in the heap
+     * (for very large number of users, can be created with custom working set size).
+     */
+    private final IUserProfilesStore.UserProfilesStoreFactory userProfilesStoreFactory;
+
     @Override
     public String toString() {
         return "PerformanceConfiguration{" +
                 "ringBufferSize=" + ringBufferSize +
                 ", matchingEnginesNum=" + matchingEnginesNum +
                 ", riskEnginesNum=" + riskEnginesNum +
+                ", fusedRiskMatching=" + fusedRiskMatching +
                 ", msgsInGroupLimit=" + msgsInGroupLimit +
                 ", maxGroupDurationNs=" + maxGroupDurationNs +
+                ", adaptiveGrouping=" + adaptiveGrouping +
+                ", minMsgsInGroupLimit=" + minMsgsInGroupLimit +
+                ", minGroupDurationNs=" + minGroupDurationNs +
+                ", stageLatencyTracking=" + stageLatencyTracking +
+                ", stageLatencyReportIntervalNs=" + stageLatencyReportIntervalNs +
                 ", sendL2ForEveryCmd=" + sendL2ForEveryCmd +
                 ", l2RefreshDepth=" + l2RefreshDepth +
+                ", l2PublishIntervalNs=" + l2PublishIntervalNs +
                 ", threadFactory=" + (threadFactory == null ? null : threadFactory.getClass().getSimpleName()) +
                 ", waitStrategy=" + waitStrategy +
                 ", orderBookFactory=" + (orderBookFactory == null ? null : orderBookFactory.getClass().getSimpleName()) +
                 ", binaryCommandsLz4CompressorFactory=" + (binaryCommandsLz4CompressorFactory == null ? null : binaryCommandsLz4CompressorFactory.getClass().getSimpleName()) +
+                ", eventsPooling=" + eventsPooling +
+                ", eventsPoolChainLength=" + eventsPoolChainLength +
+                ", flatTradeEvents=" + flatTradeEvents +
+                ", expectedUsersNum=" + expectedUsersNum +
+                ", expectedSymbolsNum=" + expectedSymbolsNum +
+                ", expectedOrdersNum=" + expectedOrdersNum +
+                ", userProfilesStoreFactory=" + (userProfilesStoreFactory == null ? null : userProfilesStoreFactory.getClass().getSimpleName()) +
                 '}';
     }
 
-    // TODO add expected number of users and symbols
-
     public static PerformanceConfiguration.PerformanceConfigurationBuilder baseBuilder() {
 
         return builder()
                 .ringBufferSize(16 * 1024)
                 .matchingEnginesNum(1)
                 .riskEnginesNum(1)
+                .fusedRiskMatching(false)
                 .msgsInGroupLimit(256)
                 .maxGroupDurationNs(10_000)
+                .adaptiveGrouping(false)
+                .minMsgsInGroupLimit(16)
+                .minGroupDurationNs(1_000)
+                .stageLatencyTracking(false)
+                .stageLatencyReportIntervalNs(0)
                 .sendL2ForEveryCmd(false)
                 .l2RefreshDepth(8)
+                .l2PublishIntervalNs(10_000_000)
+                .symbolL2PublishIntervalNs(symbolId -> 0)
                 .threadFactory(Thread::new)
                 .waitStrategy(CoreWaitStrategy.BLOCKING)
                 .binaryCommandsLz4CompressorFactory(() -> LZ4Factory.fastestInstance().highCompressor())
-                .orderBookFactory(OrderBookNaiveImpl::new);
+                .orderBookFactory(OrderBookNaiveImpl::new)
+                .eventsPooling(false)
+                .eventsPoolChainLength(0)
+                .flatTradeEvents(false)
+                .expectedUsersNum(1_000)
+                .expectedSymbolsNum(100)
+                .expectedOrdersNum(1_000_000)
+                .userProfilesStoreFactory(UserProfilesStoreHeapImpl::new);
     }
 
     public static PerformanceConfiguration.PerformanceConfigurationBuilder latencyPerformanceBuilder() {
@@ -135,14 +258,29 @@ public final class PerformanceConfiguration {
                 .ringBufferSize(2 * 1024)
                 .matchingEnginesNum(1)
                 .riskEnginesNum(1)
+                .fusedRiskMatching(false)
                 .msgsInGroupLimit(256)
                 .maxGroupDurationNs(10_000)
+                .adaptiveGrouping(false)
+                .minMsgsInGroupLimit(16)
+                .minGroupDurationNs(1_000)
+                .stageLatencyTracking(false)
+                .stageLatencyReportIntervalNs(0)
                 .sendL2ForEveryCmd(false)
                 .l2RefreshDepth(8)
+                .l2PublishIntervalNs(10_000_000)
+                .symbolL2PublishIntervalNs(symbolId -> 0)
                 .threadFactory(new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.THREAD_AFFINITY_ENABLE_PER_LOGICAL_CORE))
                 .waitStrategy(CoreWaitStrategy.BUSY_SPIN)
                 .binaryCommandsLz4CompressorFactory(() -> LZ4Factory.fastestInstance().highCompressor())
-                .orderBookFactory(OrderBookDirectImpl::new);
+                .orderBookFactory(OrderBookDirectImpl::new)
+                .eventsPooling(false)
+                .eventsPoolChainLength(0)
+                .flatTradeEvents(false)
+                .expectedUsersNum(1_000)
+                .expectedSymbolsNum(100)
+                .expectedOrdersNum(1_000_000)
+                .userProfilesStoreFactory(UserProfilesStoreHeapImpl::new);
     }
 
     public static PerformanceConfiguration.PerformanceConfigurationBuilder throughputPerformanceBuilder() {
@@ -151,13 +289,28 @@ public final class PerformanceConfiguration {
                 .ringBufferSize(64 * 1024)
                 .matchingEnginesNum(4)
                 .riskEnginesNum(2)
+                .fusedRiskMatching(false)
                 .msgsInGroupLimit(4_096)
                 .maxGroupDurationNs(4_000_000)
+                .adaptiveGrouping(false)
+                .minMsgsInGroupLimit(256)
+                .minGroupDurationNs(100_000)
+                .stageLatencyTracking(false)
+                .stageLatencyReportIntervalNs(0)
                 .sendL2ForEveryCmd(false)
                 .l2RefreshDepth(8)
+                .l2PublishIntervalNs(10_000_000)
+                .symbolL2PublishIntervalNs(symbolId -> 0)
                 .threadFactory(new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.THREAD_AFFINITY_ENABLE_PER_LOGICAL_CORE))
                 .waitStrategy(CoreWaitStrategy.BUSY_SPIN)
                 .binaryCommandsLz4CompressorFactory(() -> LZ4Factory.fastestInstance().highCompressor())
-                .orderBookFactory(OrderBookDirectImpl::new);
+                .orderBookFactory(OrderBookDirectImpl::new)
+                .eventsPooling(false)
+                .eventsPoolChainLength(0)
+                .flatTradeEvents(false)
+                .expectedUsersNum(2_000)
+                .expectedSymbolsNum(400)
+                .expectedOrdersNum(4_000_000)
+                .userProfilesStoreFactory(UserProfilesStoreHeapImpl::new);
     }
 }
@@ -5,6 +5,7 @@ import exchange.core2.core.common.api.binary.BatchAddAccountsCommand;
 import exchange.core2.core.common.api.binary.BatchAddSymbolsCommand;
 import exchange.core2.core.common.api.binary.BinaryCommandType;
 import exchange.core2.core.common.api.binary.BinaryDataCommand;
+import exchange.core2.core.common.api.binary.MoveSymbolCommand;
 import exchange.core2.core.common.api.reports.*;
 import lombok.Getter;
 import net.openhft.chronicle.bytes.BytesIn;
@@ -49,11 +50,14 @@ public final class ReportsQueriesConfiguration {
         // binary commands (not extendable)
         addBinaryCommandClass(binaryCommandConstructors, BinaryCommandType.ADD_ACCOUNTS, BatchAddAccountsCommand.class);
         addBinaryCommandClass(binaryCommandConstructors, BinaryCommandType.ADD_SYMBOLS, BatchAddSymbolsCommand.class);
+        addBinaryCommandClass(binaryCommandConstructors, BinaryCommandType.MOVE_SYMBOL, MoveSymbolCommand.class);
 
         // predefined queries (extendable)
         addQueryClass(reportConstructors, ReportType.STATE_HASH.getCode(), StateHashReportQuery.class);
         addQueryClass(reportConstructors, ReportType.SINGLE_USER_REPORT.getCode(), SingleUserReportQuery.class);
         addQueryClass(reportConstructors, ReportType.TOTAL_CURRENCY_BALANCE.getCode(), TotalCurrencyBalanceReportQuery.class);
+        addQueryClass(reportConstructors, ReportType.CAPACITY.getCode(), CapacityReportQuery.class);
+        addQueryClass(reportConstructors, ReportType.SHARDS_LOAD.getCode(), ShardsLoadReportQuery.class);
 
         customReports.forEach((code, customReport) -> addQueryClass(reportConstructors, code, customReport));
 
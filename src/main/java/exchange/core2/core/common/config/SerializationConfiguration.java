@@ -35,6 +35,12 @@ public class SerializationConfiguration {
             .serializationProcessorFactory(exchangeCfg -> new DiskSerializationProcessor(exchangeCfg, DiskSerializationProcessorConfiguration.createDefaultConfig()))
             .build();
 
+    // snapshots and journaling into memory-mapped files
+    public static final SerializationConfiguration DISK_JOURNALING_MEMORY_MAPPED = SerializationConfiguration.builder()
+            .enableJournaling(true)
+            .serializationProcessorFactory(exchangeCfg -> new DiskSerializationProcessor(exchangeCfg, DiskSerializationProcessorConfiguration.createMemoryMappedConfig()))
+            .build();
+
     /*
      * Enables journaling.
      * Set to false for analytics instances.
@@ -46,5 +52,12 @@ public class SerializationConfiguration {
      */
     private final Function<ExchangeConfiguration, ? extends ISerializationProcessor> serializationProcessorFactory;
 
+    /*
+     * Maximum number of incremental snapshots between full snapshots (0 - only full snapshots).
+     * Incremental snapshot contains only order books and user profiles changed since previous snapshot.
+     * First snapshot after start (or reset) is always full.
+     */
+    private final int maxIncrementalSnapshots;
+
 
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.orderbook;
+
+import exchange.core2.collections.art.LongAdaptiveRadixTreeMap;
+import exchange.core2.collections.art.LongObjConsumer;
+import exchange.core2.collections.objpool.ObjectsPool;
+
+/**
+ * Sparse price index based on adaptive radix tree - good for any prices distribution.
+ */
+final class ArtPriceBucketsIndex<V> implements IPriceBucketsIndex<V> {
+
+    private final LongAdaptiveRadixTreeMap<V> map;
+
+    ArtPriceBucketsIndex(final ObjectsPool objectsPool) {
+        this.map = new LongAdaptiveRadixTreeMap<>(objectsPool);
+    }
+
+    @Override
+    public V get(final long price) {
+        return map.get(price);
+    }
+
+    @Override
+    public void put(final long price, final V bucket) {
+        map.put(price, bucket);
+    }
+
+    @Override
+    public void remove(final long price) {
+        map.remove(price);
+    }
+
+    @Override
+    public V getLowerValue(final long price) {
+        return map.getLowerValue(price);
+    }
+
+    @Override
+    public V getHigherValue(final long price) {
+        return map.getHigherValue(price);
+    }
+
+    @Override
+    public int forEach(final LongObjConsumer<V> consumer, final int limit) {
+        return map.forEach(consumer, limit);
+    }
+
+    @Override
+    public int forEachDesc(final LongObjConsumer<V> consumer, final int limit) {
+        return map.forEachDesc(consumer, limit);
+    }
+
+    @Override
+    public int size(final int limit) {
+        return map.size(limit);
+    }
+
+    @Override
+    public void validateInternalState() {
+        map.validateInternalState();
+    }
+}
@@ -94,9 +94,19 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
      */
     OrderBookImplType getImplementationType();
 
+    /**
+     * Capacity hint - pre-allocate internal structures for expected number of resting orders, so they are not growing under live traffic.
+     * Implementations keeping orders in pooled objects (sized by ObjectsPool configuration) can ignore it.
+     *
+     * @param expectedOrdersNum - expected number of resting orders
+     */
+    default void reserveCapacity(int expectedOrdersNum) {
+        // do nothing
+    }
+
     /**
      * Search for all orders for specified user.<p>
-     * Slow, because order book do not maintain uid-to-order index.<p>
+     * Uses uid-to-order index, so complexity depends on number of user orders only.<p>
      * Produces garbage.<p>
      * Orders must be processed before doing any other mutable call.<p>
      *
@@ -154,14 +164,25 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
     }
 
     /**
-     * Request to publish L2 market data into outgoing disruptor message
+     * Obtain L2 Market Data snapshot for publishing.
+     * Can return same instance for subsequent calls if top levels did not change, so returned object must not be modified.
+     *
+     * @param size max size for each part (ask, bid)
+     * @return L2 Market Data snapshot (shared)
+     */
+    default L2MarketData getCachedL2MarketDataSnapshot(final int size) {
+        return getL2MarketDataSnapshot(size);
+    }
+
+    /**
+     * Request to publish L2 market data into outgoing disruptor message.
+     * Fills as many levels as pre-allocated arrays can hold, does not produce garbage.
      *
      * @param data - pre-allocated object from ring buffer
      */
     default void publishL2MarketDataSnapshot(L2MarketData data) {
-        int size = L2MarketData.L2_SIZE;
-        fillAsks(size, data);
-        fillBids(size, data);
+        fillAsks(data.askPrices.length, data);
+        fillBids(data.bidPrices.length, data);
     }
 
     void fillAsks(int size, L2MarketData data);
@@ -201,6 +222,7 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
         } else if (commandType == OrderCommandType.ORDER_BOOK_REQUEST) {
             int size = (int) cmd.size;
             cmd.marketData = orderBook.getL2MarketDataSnapshot(size >= 0 ? size : Integer.MAX_VALUE);
+            cmd.marketDataSymbol = cmd.symbol;
             return CommandResultCode.SUCCESS;
 
         } else {
@@ -215,6 +237,10 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
                 return new OrderBookNaiveImpl(bytes, loggingCfg);
             case DIRECT:
                 return new OrderBookDirectImpl(bytes, objectsPool, eventsHelper, loggingCfg);
+            case OFF_HEAP:
+                return new OrderBookOffHeapImpl(bytes, eventsHelper, loggingCfg);
+            case PRICE_LADDER:
+                return new OrderBookPriceLadderImpl(bytes, objectsPool, eventsHelper, loggingCfg);
             default:
                 throw new IllegalArgumentException();
         }
@@ -229,7 +255,9 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
     @Getter
     enum OrderBookImplType {
         NAIVE(0),
-        DIRECT(2);
+        DIRECT(2),
+        OFF_HEAP(3),
+        PRICE_LADDER(4);
 
         private byte code;
 
@@ -243,6 +271,10 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
                     return NAIVE;
                 case 2:
                     return DIRECT;
+                case 3:
+                    return OFF_HEAP;
+                case 4:
+                    return PRICE_LADDER;
                 default:
                     throw new IllegalArgumentException("unknown OrderBookImplType:" + code);
             }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.orderbook;
+
+import exchange.core2.collections.art.LongObjConsumer;
+
+/**
+ * Price to bucket index of one side of {@link OrderBookDirectImpl}.
+ * Only accessed when price level is created or removed, or when reading L2 data (not during matching).
+ *
+ * @param <V> bucket type
+ */
+interface IPriceBucketsIndex<V> {
+
+    V get(long price);
+
+    /**
+     * Put new bucket (price is not present in the index)
+     */
+    void put(long price, V bucket);
+
+    /**
+     * Remove existing bucket
+     */
+    void remove(long price);
+
+    /**
+     * @return bucket with closest price that is strictly lower than provided price, or null
+     */
+    V getLowerValue(long price);
+
+    /**
+     * @return bucket with closest price that is strictly higher than provided price, or null
+     */
+    V getHigherValue(long price);
+
+    /**
+     * Iterate buckets in ascending price order
+     *
+     * @return number of visited buckets
+     */
+    int forEach(LongObjConsumer<V> consumer, int limit);
+
+    /**
+     * Iterate buckets in descending price order
+     *
+     * @return number of visited buckets
+     */
+    int forEachDesc(LongObjConsumer<V> consumer, int limit);
+
+    int size(int limit);
+
+    void validateInternalState();
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.orderbook;
+
+import exchange.core2.core.common.L2MarketData;
+import exchange.core2.core.common.OrderAction;
+
+import java.util.Arrays;
+
+/**
+ * Maintains top-N L2 levels of an order book in place.
+ * <p>
+ * Order book reports final state of every price level it changes (volume and number of orders, zero orders if level was removed).
+ * Cached levels are updated, inserted or removed in place, changes of levels worse than cached range are ignored.
+ * Up to twice requested depth is kept, so removing best levels by matching does not require reading order book,
+ * until one side drops below requested depth while order book has more levels.
+ * <p>
+ * Levels are published by copying into a pre-allocated buffer, or into a shared snapshot for large depth.
+ * Shared snapshot is read by other processors after matching engine moved forward, so it is never modified -
+ * a new one is created only if top levels were changed since previous request.
+ * <p>
+ * Publishing level deltas was rejected: L2 updates are sampled (per-symbol interval, only changed order books),
+ * so deltas would have to be accumulated between publications anyway (that is what this cache does),
+ * and consumers expect complete top-N levels in every update.
+ */
+final class L2MarketDataCache {
+
+    private final Side asks = new Side(true);
+    private final Side bids = new Side(false);
+
+    // requested depth (0 - levels are not tracked yet) and maximum number of levels kept for each side
+    private int depth = 0;
+    private int capacity = 0;
+
+    // shared snapshot, null if cached levels within its depth were changed
+    private L2MarketData snapshot = null;
+    private int snapshotDepth = 0;
+
+    // used for reading levels from order book into side arrays
+    private final L2MarketData fillBuffer = new L2MarketData(0, 0);
+
+    void publish(final IOrderBook orderBook, final L2MarketData data) {
+        prepare(orderBook, Math.max(data.askPrices.length, data.bidPrices.length));
+        data.askSize = asks.copyTo(data.askPrices, data.askVolumes, data.askOrders);
+        data.bidSize = bids.copyTo(data.bidPrices, data.bidVolumes, data.bidOrders);
+    }
+
+    L2MarketData getSnapshot(final IOrderBook orderBook, final int depth) {
+        if (snapshot == null || snapshotDepth != depth) {
+            prepare(orderBook, depth);
+            final int asksNum = Math.min(asks.size, depth);
+            final int bidsNum = Math.min(bids.size, depth);
+            snapshot = new L2MarketData(
+                    Arrays.copyOf(asks.prices, asksNum),
+                    Arrays.copyOf(asks.volumes, asksNum),
+                    Arrays.copyOf(asks.orders, asksNum),
+                    Arrays.copyOf(bids.prices, bidsNum),
+                    Arrays.copyOf(bids.volumes, bidsNum),
+                    Arrays.copyOf(bids.orders, bidsNum));
+            snapshotDepth = depth;
+        }
+        return snapshot;
+    }
+
+    void levelUpdated(final OrderAction action, final long price, final long volume, final long numOrders) {
+        if (depth == 0) {
+            return;
+        }
+
+        final Side side = action == OrderAction.ASK ? asks : bids;
+        final int pos = side.find(price);
+        if (pos >= 0) {
+            if (numOrders == 0) {
+                side.remove(pos);
+            } else {
+                side.volumes[pos] = volume;
+                side.orders[pos] = numOrders;
+            }
+            levelChanged(pos);
+
+        } else if (numOrders != 0) {
+            final int insertPos = -pos - 1;
+            if (insertPos == side.size && !side.all) {
+                // worse than cached levels
+                return;
+            }
+            side.insert(insertPos, price, volume, numOrders, capacity);
+            levelChanged(insertPos);
+        }
+    }
+
+    private void levelChanged(final int pos) {
+        if (pos < snapshotDepth) {
+            snapshot = null;
+        }
+    }
+
+    private void prepare(final IOrderBook orderBook, final int depth) {
+        if (depth > this.depth) {
+            // start tracking (or extend tracked depth) - read both sides again
+            this.depth = depth;
+            capacity = depth > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : depth * 2;
+            asks.size = 0;
+            asks.all = false;
+            bids.size = 0;
+            bids.all = false;
+        }
+        if (asks.size < depth && !asks.all) {
+            final int num = orderBook.getTotalAskBuckets(capacity);
+            asks.ensureLength(num, capacity);
+            fillBuffer.askPrices = asks.prices;
+            fillBuffer.askVolumes = asks.volumes;
+            fillBuffer.askOrders = asks.orders;
+            orderBook.fillAsks(num, fillBuffer);
+            asks.size = fillBuffer.askSize;
+            asks.all = asks.size < capacity;
+        }
+        if (bids.size < depth && !bids.all) {
+            final int num = orderBook.getTotalBidBuckets(capacity);
+            bids.ensureLength(num, capacity);
+            fillBuffer.bidPrices = bids.prices;
+            fillBuffer.bidVolumes = bids.volumes;
+            fillBuffer.bidOrders = bids.orders;
+            orderBook.fillBids(num, fillBuffer);
+            bids.size = fillBuffer.bidSize;
+            bids.all = bids.size < capacity;
+        }
+    }
+
+    private static final class Side {
+
+        private final boolean ask;
+
+        // best price first
+        private long[] prices = new long[0];
+        private long[] volumes = new long[0];
+        private long[] orders = new long[0];
+        private int size = 0;
+
+        // all levels of order book side are cached
+        private boolean all = false;
+
+        private Side(final boolean ask) {
+            this.ask = ask;
+        }
+
+        // position of the level, or (-insertionPoint - 1) if not found
+        private int find(final long price) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final long midPrice = prices[mid];
+                if (midPrice == price) {
+                    return mid;
+                } else if (ask ? midPrice < price : midPrice > price) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private void remove(final int pos) {
+            final int tail = size - pos - 1;
+            System.arraycopy(prices, pos + 1, prices, pos, tail);
+            System.arraycopy(volumes, pos + 1, volumes, pos, tail);
+            System.arraycopy(orders, pos + 1, orders, pos, tail);
+            size--;
+        }
+
+        private void insert(final int pos, final long price, final long volume, final long numOrders, final int capacity) {
+            if (size == capacity) {
+                // worst level is dropped
+                all = false;
+                if (pos == capacity) {
+                    return;
+                }
+                size--;
+            }
+            ensureLength(size + 1, capacity);
+            final int tail = size - pos;
+            System.arraycopy(prices, pos, prices, pos + 1, tail);
+            System.arraycopy(volumes, pos, volumes, pos + 1, tail);
+            System.arraycopy(orders, pos, orders, pos + 1, tail);
+            prices[pos] = price;
+            volumes[pos] = volume;
+            orders[pos] = numOrders;
+            size++;
+        }
+
+        private void ensureLength(final int length, final int capacity) {
+            if (prices.length < length) {
+                final int newLength = (int) Math.min(capacity, Math.max(length, Math.max(16L, prices.length * 2L)));
+                prices = Arrays.copyOf(prices, newLength);
+                volumes = Arrays.copyOf(volumes, newLength);
+                orders = Arrays.copyOf(orders, newLength);
+            }
+        }
+
+        private int copyTo(final long[] toPrices, final long[] toVolumes, final long[] toOrders) {
+            final int num = Math.min(size, toPrices.length);
+            System.arraycopy(prices, 0, toPrices, 0, num);
+            System.arraycopy(volumes, 0, toVolumes, 0, num);
+            System.arraycopy(orders, 0, toOrders, 0, num);
+            return num;
+        }
+    }
+}
@@ -40,11 +40,11 @@ import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 @Slf4j
-public final class OrderBookDirectImpl implements IOrderBook {
+public class OrderBookDirectImpl implements IOrderBook {
 
     // buckets
-    private final LongAdaptiveRadixTreeMap<Bucket> askPriceBuckets;
-    private final LongAdaptiveRadixTreeMap<Bucket> bidPriceBuckets;
+    private final IPriceBucketsIndex<Bucket> askPriceBuckets;
+    private final IPriceBucketsIndex<Bucket> bidPriceBuckets;
 
     // symbol specification
     private final CoreSymbolSpecification symbolSpec;
@@ -54,6 +54,18 @@ public final class OrderBookDirectImpl implements IOrderBook {
     //private final Long2ObjectHashMap<DirectOrder> orderIdIndex = new Long2ObjectHashMap<>();
     //private final LongObjectHashMap<DirectOrder> orderIdIndex = new LongObjectHashMap<>();
 
+    // index: uid -> head of user orders chain (intrusive list, linked through userNext/userPrev)
+    private final LongObjectHashMap<DirectOrder> userOrdersIndex = new LongObjectHashMap<>();
+
+    // last published top levels
+    private final L2MarketDataCache l2Cache = new L2MarketDataCache();
+
+    // aggregates
+    private int askOrdersNum = 0;
+    private int bidOrdersNum = 0;
+    private long askVolume = 0;
+    private long bidVolume = 0;
+
     // heads (nullable)
     private DirectOrder bestAskOrder = null;
     private DirectOrder bestBidOrder = null;
@@ -70,10 +82,20 @@ public final class OrderBookDirectImpl implements IOrderBook {
                                final OrderBookEventsHelper eventsHelper,
                                final LoggingConfiguration loggingCfg) {
 
+        this(symbolSpec, objectsPool, eventsHelper, loggingCfg, new ArtPriceBucketsIndex<>(objectsPool), new ArtPriceBucketsIndex<>(objectsPool));
+    }
+
+    OrderBookDirectImpl(final CoreSymbolSpecification symbolSpec,
+                        final ObjectsPool objectsPool,
+                        final OrderBookEventsHelper eventsHelper,
+                        final LoggingConfiguration loggingCfg,
+                        final IPriceBucketsIndex<Bucket> askPriceBuckets,
+                        final IPriceBucketsIndex<Bucket> bidPriceBuckets) {
+
         this.symbolSpec = symbolSpec;
         this.objectsPool = objectsPool;
-        this.askPriceBuckets = new LongAdaptiveRadixTreeMap<>(objectsPool);
-        this.bidPriceBuckets = new LongAdaptiveRadixTreeMap<>(objectsPool);
+        this.askPriceBuckets = askPriceBuckets;
+        this.bidPriceBuckets = bidPriceBuckets;
         this.eventsHelper = eventsHelper;
         this.orderIdIndex = new LongAdaptiveRadixTreeMap<>(objectsPool);
         this.logDebug = loggingCfg.getLoggingLevels().contains(LoggingConfiguration.LoggingLevel.LOGGING_MATCHING_DEBUG);
@@ -84,10 +106,20 @@ public final class OrderBookDirectImpl implements IOrderBook {
                                final OrderBookEventsHelper eventsHelper,
                                final LoggingConfiguration loggingCfg) {
 
+        this(bytes, objectsPool, eventsHelper, loggingCfg, new ArtPriceBucketsIndex<>(objectsPool), new ArtPriceBucketsIndex<>(objectsPool));
+    }
+
+    OrderBookDirectImpl(final BytesIn bytes,
+                        final ObjectsPool objectsPool,
+                        final OrderBookEventsHelper eventsHelper,
+                        final LoggingConfiguration loggingCfg,
+                        final IPriceBucketsIndex<Bucket> askPriceBuckets,
+                        final IPriceBucketsIndex<Bucket> bidPriceBuckets) {
+
         this.symbolSpec = new CoreSymbolSpecification(bytes);
         this.objectsPool = objectsPool;
-        this.askPriceBuckets = new LongAdaptiveRadixTreeMap<>(objectsPool);
-        this.bidPriceBuckets = new LongAdaptiveRadixTreeMap<>(objectsPool);
+        this.askPriceBuckets = askPriceBuckets;
+        this.bidPriceBuckets = bidPriceBuckets;
         this.eventsHelper = eventsHelper;
         this.orderIdIndex = new LongAdaptiveRadixTreeMap<>(objectsPool);
         this.logDebug = loggingCfg.getLoggingLevels().contains(LoggingConfiguration.LoggingLevel.LOGGING_MATCHING_DEBUG);
@@ -97,6 +129,7 @@ public final class OrderBookDirectImpl implements IOrderBook {
             DirectOrder order = new DirectOrder(bytes);
             insertOrder(order, null);
             orderIdIndex.put(order.orderId, order);
+            linkUserOrder(order);
         }
     }
 
@@ -155,6 +188,7 @@ public final class OrderBookDirectImpl implements IOrderBook {
         orderRecord.filled = filledSize;
 
         orderIdIndex.put(orderId, orderRecord);
+        linkUserOrder(orderRecord);
         insertOrder(orderRecord, null);
     }
 
@@ -247,6 +281,9 @@ public final class OrderBookDirectImpl implements IOrderBook {
             return takerOrder.getFilled();
         }
 
+        final long sizeToMatch = remainingSize;
+        int completedOrders = 0;
+
         DirectOrder priceBucketTail = makerOrder.parent.tail;
 
         final long takerReserveBidPrice = takerOrder.getReserveBidPrice();
@@ -273,6 +310,7 @@ public final class OrderBookDirectImpl implements IOrderBook {
             final boolean makerCompleted = makerOrder.size == makerOrder.filled;
             if (makerCompleted) {
                 makerOrder.parent.numOrders--;
+                completedOrders++;
             }
 
             final MatcherTradeEvent tradeEvent = eventsHelper.sendTradeEvent(makerOrder, makerCompleted, remainingSize == 0, tradeSize,
@@ -293,14 +331,16 @@ public final class OrderBookDirectImpl implements IOrderBook {
 
             // if completed can remove maker order
             orderIdIndex.remove(makerOrder.orderId);
+            unlinkUserOrder(makerOrder);
             objectsPool.put(ObjectsPool.DIRECT_ORDER, makerOrder);
 
 
             if (makerOrder == priceBucketTail) {
                 // reached current price tail -> remove bucket reference
-                final LongAdaptiveRadixTreeMap<Bucket> buckets = isBidAction ? askPriceBuckets : bidPriceBuckets;
+                final IPriceBucketsIndex<Bucket> buckets = isBidAction ? askPriceBuckets : bidPriceBuckets;
                 buckets.remove(makerOrder.price);
                 objectsPool.put(ObjectsPool.DIRECT_BUCKET, makerOrder.parent);
+                l2Cache.levelUpdated(makerOrder.action, makerOrder.price, 0, 0);
 //                log.debug("  removed price bucket for {}", makerOrder.price);
 
                 // set next price tail (if there is next price)
@@ -319,6 +359,8 @@ public final class OrderBookDirectImpl implements IOrderBook {
         // break chain after last order
         if (makerOrder != null) {
             makerOrder.next = null;
+            // last matched level (if not removed)
+            l2Cache.levelUpdated(makerOrder.action, makerOrder.price, makerOrder.parent.volume, makerOrder.parent.numOrders);
         }
 
 //        log.debug("makerOrder = {}", makerOrder);
@@ -331,6 +373,8 @@ public final class OrderBookDirectImpl implements IOrderBook {
             bestBidOrder = makerOrder;
         }
 
+        updateAggregates(isBidAction ? OrderAction.ASK : OrderAction.BID, -completedOrders, remainingSize - sizeToMatch);
+
         // return filled amount
         return takerOrder.getSize() - remainingSize;
     }
@@ -344,6 +388,7 @@ public final class OrderBookDirectImpl implements IOrderBook {
             return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
         }
         orderIdIndex.remove(cmd.orderId);
+        unlinkUserOrder(order);
         objectsPool.put(ObjectsPool.DIRECT_ORDER, order);
 
         final Bucket freeBucket = removeOrder(order);
@@ -380,6 +425,7 @@ public final class OrderBookDirectImpl implements IOrderBook {
         if (canRemove) {
 
             orderIdIndex.remove(orderId);
+            unlinkUserOrder(order);
             objectsPool.put(ObjectsPool.DIRECT_ORDER, order);
 
             final Bucket freeBucket = removeOrder(order);
@@ -390,6 +436,8 @@ public final class OrderBookDirectImpl implements IOrderBook {
         } else {
             order.size -= reduceBy;
             order.parent.volume -= reduceBy;
+            l2Cache.levelUpdated(order.action, order.price, order.parent.volume, order.parent.numOrders);
+            updateAggregates(order.action, 0, -reduceBy);
         }
 
         cmd.matcherEvent = eventsHelper.sendReduceEvent(order, reduceBy, canRemove);
@@ -428,6 +476,7 @@ public final class OrderBookDirectImpl implements IOrderBook {
         if (filled == orderToMove.size) {
             // order was fully matched - removing
             orderIdIndex.remove(cmd.orderId);
+            unlinkUserOrder(orderToMove);
             // returning free object back to the pool
             objectsPool.put(ObjectsPool.DIRECT_ORDER, orderToMove);
             return CommandResultCode.SUCCESS;
@@ -450,11 +499,14 @@ public final class OrderBookDirectImpl implements IOrderBook {
         bucket.numOrders--;
         Bucket bucketRemoved = null;
 
+        l2Cache.levelUpdated(order.action, order.price, bucket.volume, bucket.numOrders);
+        updateAggregates(order.action, -1, order.filled - order.size);
+
         if (bucket.tail == order) {
             // if we removing tail order -> change bucket tail reference
             if (order.next == null || order.next.parent != bucket) {
                 // if no next or next order has different parent -> then it was the last bucket -> remove record
-                final LongAdaptiveRadixTreeMap<Bucket> buckets = order.action == OrderAction.ASK ? askPriceBuckets : bidPriceBuckets;
+                final IPriceBucketsIndex<Bucket> buckets = order.action == OrderAction.ASK ? askPriceBuckets : bidPriceBuckets;
                 buckets.remove(order.price);
                 bucketRemoved = bucket;
             } else {
@@ -487,9 +539,11 @@ public final class OrderBookDirectImpl implements IOrderBook {
 //        log.debug("   + insert order: {}", order);
 
         final boolean isAsk = order.action == OrderAction.ASK;
-        final LongAdaptiveRadixTreeMap<Bucket> buckets = isAsk ? askPriceBuckets : bidPriceBuckets;
+        final IPriceBucketsIndex<Bucket> buckets = isAsk ? askPriceBuckets : bidPriceBuckets;
         final Bucket toBucket = buckets.get(order.price);
 
+        updateAggregates(order.action, 1, order.size - order.filled);
+
         if (toBucket != null) {
             // update tail if bucket already exists
 //            log.debug(">>>> increment bucket {} from {} to {}", toBucket.tail.price, toBucket.volume, toBucket.volume +  order.size - order.filled);
@@ -559,22 +613,67 @@ public final class OrderBookDirectImpl implements IOrderBook {
                 order.prev = oldBestOrder;
             }
         }
+
+        l2Cache.levelUpdated(order.action, order.price, order.parent.volume, order.parent.numOrders);
+    }
+
+    /**
+     * Add order into the head of user orders chain
+     *
+     * @param order - order (must be already added into orderIdIndex)
+     */
+    private void linkUserOrder(final DirectOrder order) {
+        final DirectOrder head = userOrdersIndex.put(order.uid, order); // can be null
+        order.userPrev = null;
+        order.userNext = head;
+        if (head != null) {
+            head.userPrev = order;
+        }
+    }
+
+    /**
+     * Remove order from user orders chain
+     *
+     * @param order - order (must be linked)
+     */
+    private void unlinkUserOrder(final DirectOrder order) {
+        final DirectOrder userNext = order.userNext; // can be null
+        final DirectOrder userPrev = order.userPrev; // can be null
+        if (userPrev == null) {
+            // removing head
+            if (userNext == null) {
+                userOrdersIndex.remove(order.uid);
+            } else {
+                userOrdersIndex.put(order.uid, userNext);
+            }
+        } else {
+            userPrev.userNext = userNext;
+        }
+        if (userNext != null) {
+            userNext.userPrev = userPrev;
+        }
+        order.userNext = null;
+        order.userPrev = null;
+    }
+
+    private void updateAggregates(final OrderAction action, final int ordersDelta, final long volumeDelta) {
+        if (action == OrderAction.ASK) {
+            askOrdersNum += ordersDelta;
+            askVolume += volumeDelta;
+        } else {
+            bidOrdersNum += ordersDelta;
+            bidVolume += volumeDelta;
+        }
     }
 
     @Override
     public int getOrdersNum(OrderAction action) {
-        final LongAdaptiveRadixTreeMap<Bucket> buckets = action == OrderAction.ASK ? askPriceBuckets : bidPriceBuckets;
-        final MutableInteger accum = new MutableInteger();
-        buckets.forEach((p, b) -> accum.value += b.numOrders, Integer.MAX_VALUE);
-        return accum.value;
+        return action == OrderAction.ASK ? askOrdersNum : bidOrdersNum;
     }
 
     @Override
     public long getTotalOrdersVolume(OrderAction action) {
-        final LongAdaptiveRadixTreeMap<Bucket> buckets = action == OrderAction.ASK ? askPriceBuckets : bidPriceBuckets;
-        final MutableLong accum = new MutableLong();
-        buckets.forEach((p, b) -> accum.value += b.volume, Integer.MAX_VALUE);
-        return accum.value;
+        return action == OrderAction.ASK ? askVolume : bidVolume;
     }
 
     @Override
@@ -601,12 +700,58 @@ public final class OrderBookDirectImpl implements IOrderBook {
         if (ordersInChain.size() != 0) {
             thrw("orderIdIndex does not contain each order from chains");
         }
+
+        validateUserOrdersIndex();
+        validateAggregates(askPriceBuckets, askOrdersNum, askVolume);
+        validateAggregates(bidPriceBuckets, bidOrdersNum, bidVolume);
+    }
+
+    private void validateAggregates(final IPriceBucketsIndex<Bucket> buckets, final int expectedOrdersNum, final long expectedVolume) {
+        final MutableInteger ordersNum = new MutableInteger();
+        final MutableLong volume = new MutableLong();
+        buckets.forEach((p, b) -> {
+            ordersNum.value += b.numOrders;
+            volume.value += b.volume;
+        }, Integer.MAX_VALUE);
+        if (ordersNum.value != expectedOrdersNum) {
+            thrw("orders number aggregate mismatch");
+        }
+        if (volume.value != expectedVolume) {
+            thrw("volume aggregate mismatch");
+        }
+    }
+
+    private void validateUserOrdersIndex() {
+        final MutableInteger userOrdersNum = new MutableInteger();
+        userOrdersIndex.forEachKeyValue((uid, head) -> {
+            if (head.userPrev != null) {
+                thrw("user orders head has not-null userPrev reference");
+            }
+            DirectOrder order = head;
+            while (order != null) {
+                if (order.uid != uid) {
+                    thrw("user orders chain contains order of another user");
+                }
+                if (orderIdIndex.get(order.orderId) != order) {
+                    thrw("user orders chain contains order not found in orderIdIndex");
+                }
+                if (order.userNext != null && order.userNext.userPrev != order) {
+                    thrw("incorrect userPrev reference");
+                }
+                userOrdersNum.value++;
+                order = order.userNext;
+            }
+        });
+
+        if (userOrdersNum.value != orderIdIndex.size(Integer.MAX_VALUE)) {
+            thrw("userOrdersIndex does not contain each order from orderIdIndex");
+        }
     }
 
     private void validateChain(boolean asksChain, Long2ObjectHashMap<DirectOrder> ordersInChain) {
 
         // buckets index
-        final LongAdaptiveRadixTreeMap<Bucket> buckets = asksChain ? askPriceBuckets : bidPriceBuckets;
+        final IPriceBucketsIndex<Bucket> buckets = asksChain ? askPriceBuckets : bidPriceBuckets;
         final LongObjectHashMap<Bucket> bucketsFoundInChain = new LongObjectHashMap<>();
         buckets.validateInternalState();
 
@@ -722,20 +867,20 @@ public final class OrderBookDirectImpl implements IOrderBook {
     @Override
     public List<Order> findUserOrders(long uid) {
         final List<Order> list = new ArrayList<>();
-        orderIdIndex.forEach((orderId, order) -> {
-            if (order.uid == uid) {
-                list.add(Order.builder()
-                        .orderId(orderId)
-                        .price(order.price)
-                        .size(order.size)
-                        .filled(order.filled)
-                        .reserveBidPrice(order.reserveBidPrice)
-                        .action(order.action)
-                        .uid(order.uid)
-                        .timestamp(order.timestamp)
-                        .build());
-            }
-        }, Integer.MAX_VALUE);
+        DirectOrder order = userOrdersIndex.get(uid);
+        while (order != null) {
+            list.add(Order.builder()
+                    .orderId(order.orderId)
+                    .price(order.price)
+                    .size(order.size)
+                    .filled(order.filled)
+                    .reserveBidPrice(order.reserveBidPrice)
+                    .action(order.action)
+                    .uid(order.uid)
+                    .timestamp(order.timestamp)
+                    .build());
+            order = order.userNext;
+        }
 
         return list;
     }
@@ -757,24 +902,36 @@ public final class OrderBookDirectImpl implements IOrderBook {
 
     @Override
     public void fillAsks(final int size, L2MarketData data) {
-        data.askSize = 0;
-        askPriceBuckets.forEach((p, bucket) -> {
-            final int i = data.askSize++;
-            data.askPrices[i] = bucket.tail.price;
-            data.askVolumes[i] = bucket.volume;
-            data.askOrders[i] = bucket.numOrders;
-        }, size);
+        data.askSize = fillLevels(bestAskOrder, size, data.askPrices, data.askVolumes, data.askOrders);
     }
 
     @Override
     public void fillBids(final int size, L2MarketData data) {
-        data.bidSize = 0;
-        bidPriceBuckets.forEachDesc((p, bucket) -> {
-            final int i = data.bidSize++;
-            data.bidPrices[i] = bucket.tail.price;
-            data.bidVolumes[i] = bucket.volume;
-            data.bidOrders[i] = bucket.numOrders;
-        }, size);
+        data.bidSize = fillLevels(bestBidOrder, size, data.bidPrices, data.bidVolumes, data.bidOrders);
+    }
+
+    // walking orders chain from the best order - tail.prev of each bucket is the first order of the next price level (no garbage)
+    private static int fillLevels(DirectOrder order, final int size, final long[] prices, final long[] volumes, final long[] numOrders) {
+        int i = 0;
+        while (order != null && i < size) {
+            final Bucket bucket = order.parent;
+            prices[i] = bucket.tail.price;
+            volumes[i] = bucket.volume;
+            numOrders[i] = bucket.numOrders;
+            i++;
+            order = bucket.tail.prev;
+        }
+        return i;
+    }
+
+    @Override
+    public L2MarketData getCachedL2MarketDataSnapshot(final int size) {
+        return l2Cache.getSnapshot(this, size);
+    }
+
+    @Override
+    public void publishL2MarketDataSnapshot(final L2MarketData data) {
+        l2Cache.publish(this, data);
     }
 
     @Override
@@ -838,6 +995,12 @@ public final class OrderBookDirectImpl implements IOrderBook {
         // previous order (to the tail of the queue, lower priority and worst price, towards the matching direction)
         DirectOrder prev;
 
+        // next order of the same user (order book uid index)
+        DirectOrder userNext;
+
+        // previous order of the same user (null for the head of user orders chain)
+        DirectOrder userPrev;
+
 
         // public int userCookie;
 
@@ -917,7 +1080,7 @@ public final class OrderBookDirectImpl implements IOrderBook {
     }
 
     @ToString
-    private static class Bucket {
+    static final class Bucket {
         long volume;
         int numOrders;
         DirectOrder tail;
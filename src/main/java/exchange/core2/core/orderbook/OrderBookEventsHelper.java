@@ -17,10 +17,10 @@ package exchange.core2.core.orderbook;
 
 import exchange.core2.core.common.IOrder;
 import exchange.core2.core.common.MatcherEventType;
+import exchange.core2.core.common.MatcherEventsRing;
 import exchange.core2.core.common.MatcherTradeEvent;
 import exchange.core2.core.common.cmd.OrderCommand;
 import exchange.core2.core.utils.SerializationUtils;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.bytes.NativeBytes;
 import net.openhft.chronicle.wire.Wire;
@@ -29,18 +29,43 @@ import java.util.*;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
-import static exchange.core2.core.ExchangeCore.EVENTS_POOLING;
-
 @Slf4j
-@RequiredArgsConstructor
 public final class OrderBookEventsHelper {
 
-    public static final OrderBookEventsHelper NON_POOLED_EVENTS_HELPER = new OrderBookEventsHelper(MatcherTradeEvent::new);
+    public static final OrderBookEventsHelper NON_POOLED_EVENTS_HELPER = new OrderBookEventsHelper(null);
 
+    // supplier of pooled events chains, null if events pooling is disabled (stateless helper can be shared then)
     private final Supplier<MatcherTradeEvent> eventChainsSupplier;
 
     private MatcherTradeEvent eventsChainHead;
 
+    // flat events transport, null if events are passed as chains
+    private final MatcherEventsRing eventsRing;
+
+    public OrderBookEventsHelper(final Supplier<MatcherTradeEvent> eventChainsSupplier) {
+        this(eventChainsSupplier, null);
+    }
+
+    private OrderBookEventsHelper(final Supplier<MatcherTradeEvent> eventChainsSupplier, final MatcherEventsRing eventsRing) {
+        this.eventChainsSupplier = eventChainsSupplier;
+        this.eventsRing = eventsRing;
+    }
+
+    /**
+     * Creates helper for flat events transport: trade, reduce and reject events are written directly into the ring
+     * (methods return null instead of event objects), caller must commit ring records after each command (see MatcherEventsRing.commit).
+     * Binary events are still created as (non-pooled) chains.
+     *
+     * @param eventsRing - events ring of the matching engine
+     * @return new events helper (single thread only)
+     */
+    public static OrderBookEventsHelper createFlatEventsHelper(final MatcherEventsRing eventsRing) {
+        return new OrderBookEventsHelper(null, eventsRing);
+    }
+
+    /**
+     * @return trade event, or null if event was written into flat events ring
+     */
     public MatcherTradeEvent sendTradeEvent(final IOrder matchingOrder,
                                             final boolean makerCompleted,
                                             final boolean takerCompleted,
@@ -51,6 +76,12 @@ public final class OrderBookEventsHelper {
 //        log.debug("** sendTradeEvent: active id:{} matched id:{}", activeOrder.orderId, matchingOrder.orderId);
 //        log.debug("** sendTradeEvent: price:{} v:{}", price, v);
 
+        if (eventsRing != null) {
+            eventsRing.addEvent(MatcherEventType.TRADE, takerCompleted, matchingOrder.getOrderId(), matchingOrder.getUid(), makerCompleted,
+                    matchingOrder.getPrice(), size, bidderHoldPrice);
+            return null;
+        }
+
         final MatcherTradeEvent event = newMatcherEvent();
 
         event.eventType = MatcherEventType.TRADE;
@@ -72,14 +103,23 @@ public final class OrderBookEventsHelper {
 
     }
 
+    /**
+     * @return reduce event, or null if event was written into flat events ring
+     */
     public MatcherTradeEvent sendReduceEvent(final IOrder order, final long reduceSize, final boolean completed) {
 //        log.debug("Cancel ");
+        if (eventsRing != null) {
+            eventsRing.addEvent(MatcherEventType.REDUCE, completed, 0, 0, false, order.getPrice(), reduceSize, order.getReserveBidPrice());
+            return null;
+        }
+
         final MatcherTradeEvent event = newMatcherEvent();
         event.eventType = MatcherEventType.REDUCE;
         event.section = 0;
         event.activeOrderCompleted = completed;
 //        event.activeOrderSeq = order.seq;
         event.matchedOrderId = 0;
+        event.matchedOrderUid = 0;
         event.matchedOrderCompleted = false;
         event.price = order.getPrice();
 //        event.size = order.getSize() - order.getFilled();
@@ -96,6 +136,11 @@ public final class OrderBookEventsHelper {
 //        log.debug("Rejected {}", cmd.orderId);
 //        log.debug("\n{}", getL2MarketDataSnapshot(10).dumpOrderBook());
 
+        if (eventsRing != null) {
+            eventsRing.addFirstEvent(MatcherEventType.REJECT, true, 0, 0, false, cmd.price, rejectedSize, cmd.reserveBidPrice);
+            return;
+        }
+
         final MatcherTradeEvent event = newMatcherEvent();
 
         event.eventType = MatcherEventType.REJECT;
@@ -106,6 +151,7 @@ public final class OrderBookEventsHelper {
 //        event.activeOrderSeq = cmd.seq;
 
         event.matchedOrderId = 0;
+        event.matchedOrderUid = 0;
         event.matchedOrderCompleted = false;
 
         event.price = cmd.price;
@@ -185,13 +231,15 @@ public final class OrderBookEventsHelper {
 
     private MatcherTradeEvent newMatcherEvent() {
 
-        if (EVENTS_POOLING) {
+        if (eventChainsSupplier != null) {
             if (eventsChainHead == null) {
                 eventsChainHead = eventChainsSupplier.get();
 //            log.debug("UPDATED HEAD size={}", eventsChainHead == null ? 0 : eventsChainHead.getChainSize());
             }
             final MatcherTradeEvent res = eventsChainHead;
             eventsChainHead = eventsChainHead.nextEvent;
+            // detach from the rest of pooled chain
+            res.nextEvent = null;
             return res;
         } else {
             return new MatcherTradeEvent();
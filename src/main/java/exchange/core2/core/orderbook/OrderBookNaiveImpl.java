@@ -27,7 +27,6 @@ import net.openhft.chronicle.bytes.BytesOut;
 import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
 
 import java.util.*;
-import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 @Slf4j
@@ -40,6 +39,15 @@ public final class OrderBookNaiveImpl implements IOrderBook {
 
     private final LongObjectHashMap<Order> idMap = new LongObjectHashMap<>();
 
+    // uid -> (orderId -> order)
+    private final LongObjectHashMap<LongObjectHashMap<Order>> userOrdersMap = new LongObjectHashMap<>();
+
+    // aggregates
+    private int askOrdersNum = 0;
+    private int bidOrdersNum = 0;
+    private long askVolume = 0;
+    private long bidVolume = 0;
+
     private final OrderBookEventsHelper eventsHelper;
 
     private final boolean logDebug;
@@ -74,8 +82,10 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         this.eventsHelper = OrderBookEventsHelper.NON_POOLED_EVENTS_HELPER;
         // reconstruct ordersId-> Order cache
         // TODO check resulting performance
-        askBuckets.values().forEach(bucket -> bucket.forEachOrder(order -> idMap.put(order.orderId, order)));
-        bidBuckets.values().forEach(bucket -> bucket.forEachOrder(order -> idMap.put(order.orderId, order)));
+        askBuckets.values().forEach(bucket -> bucket.forEachOrder(this::addToIndexes));
+        bidBuckets.values().forEach(bucket -> bucket.forEachOrder(this::addToIndexes));
+        this.askVolume = askBuckets.values().stream().mapToLong(OrdersBucketNaive::getTotalVolume).sum();
+        this.bidVolume = bidBuckets.values().stream().mapToLong(OrdersBucketNaive::getTotalVolume).sum();
 
         this.logDebug = loggingCfg.getLoggingLevels().contains(LoggingConfiguration.LoggingLevel.LOGGING_MATCHING_DEBUG);
         //validateInternalState();
@@ -137,7 +147,8 @@ public final class OrderBookNaiveImpl implements IOrderBook {
                 .computeIfAbsent(price, OrdersBucketNaive::new)
                 .put(orderRecord);
 
-        idMap.put(newOrderId, orderRecord);
+        addToIndexes(orderRecord);
+        updateVolume(action, size - filledSize);
     }
 
     private void newOrderMatchIoc(final OrderCommand cmd) {
@@ -242,7 +253,8 @@ public final class OrderBookNaiveImpl implements IOrderBook {
 
             final OrdersBucketNaive.MatcherResult bucketMatchings = bucket.match(sizeLeft, activeOrder, eventsHelper);
 
-            bucketMatchings.ordersToRemove.forEach(idMap::remove);
+            bucketMatchings.ordersToRemove.forEach(this::removeFromIndexes);
+            updateVolume(activeOrder.getAction() == OrderAction.ASK ? OrderAction.BID : OrderAction.ASK, -bucketMatchings.volume);
 
             filled += bucketMatchings.volume;
 
@@ -296,7 +308,7 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         }
 
         // now can remove it
-        idMap.remove(orderId);
+        removeFromIndexes(orderId);
 
         final NavigableMap<Long, OrdersBucketNaive> buckets = getBucketsByAction(order.action);
         final long price = order.price;
@@ -311,6 +323,7 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         if (ordersBucket.getTotalVolume() == 0) {
             buckets.remove(price);
         }
+        updateVolume(order.action, order.filled - order.size);
 
         // send reduce event
         cmd.matcherEvent = eventsHelper.sendReduceEvent(order, order.getSize() - order.getFilled(), true);
@@ -351,7 +364,7 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         if (canRemove) {
 
             // now can remove order
-            idMap.remove(orderId);
+            removeFromIndexes(orderId);
 
             // canRemove order and whole bucket if it is empty
             ordersBucket.remove(orderId, cmd.uid);
@@ -364,6 +377,7 @@ public final class OrderBookNaiveImpl implements IOrderBook {
             order.size -= reduceBy;
             ordersBucket.reduceSize(reduceBy);
         }
+        updateVolume(order.action, -reduceBy);
 
         // send reduce event
         cmd.matcherEvent = eventsHelper.sendReduceEvent(order, reduceBy, canRemove);
@@ -404,6 +418,7 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         if (bucket.getTotalVolume() == 0) {
             buckets.remove(price);
         }
+        updateVolume(order.action, order.filled - order.size);
 
         order.price = newPrice;
 
@@ -412,7 +427,7 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         final long filled = tryMatchInstantly(order, matchingArea, order.filled, cmd);
         if (filled == order.size) {
             // order was fully matched (100% marketable) - removing from order book
-            idMap.remove(orderId);
+            removeFromIndexes(orderId);
             return CommandResultCode.SUCCESS;
         }
         order.filled = filled;
@@ -423,10 +438,45 @@ public final class OrderBookNaiveImpl implements IOrderBook {
             return b;
         });
         anotherBucket.put(order);
+        updateVolume(order.action, order.size - order.filled);
 
         return CommandResultCode.SUCCESS;
     }
 
+    private void addToIndexes(final Order order) {
+        idMap.put(order.orderId, order);
+        userOrdersMap.getIfAbsentPut(order.uid, LongObjectHashMap::new).put(order.orderId, order);
+        if (order.action == OrderAction.ASK) {
+            askOrdersNum++;
+        } else {
+            bidOrdersNum++;
+        }
+    }
+
+    private void removeFromIndexes(final long orderId) {
+        final Order order = idMap.remove(orderId);
+        if (order != null) {
+            final LongObjectHashMap<Order> userOrders = userOrdersMap.get(order.uid);
+            userOrders.remove(orderId);
+            if (userOrders.isEmpty()) {
+                userOrdersMap.remove(order.uid);
+            }
+            if (order.action == OrderAction.ASK) {
+                askOrdersNum--;
+            } else {
+                bidOrdersNum--;
+            }
+        }
+    }
+
+    private void updateVolume(final OrderAction action, final long volumeDelta) {
+        if (action == OrderAction.ASK) {
+            askVolume += volumeDelta;
+        } else {
+            bidVolume += volumeDelta;
+        }
+    }
+
     /**
      * Get bucket by order action
      *
@@ -501,6 +551,27 @@ public final class OrderBookNaiveImpl implements IOrderBook {
     public void validateInternalState() {
         askBuckets.values().forEach(OrdersBucketNaive::validate);
         bidBuckets.values().forEach(OrdersBucketNaive::validate);
+
+        final long userOrdersNum = userOrdersMap.sumOfInt(userOrders -> {
+            userOrders.forEachKeyValue((orderId, order) -> {
+                if (idMap.get(orderId) != order) {
+                    throw new IllegalStateException("user orders index contains unknown order " + order);
+                }
+            });
+            return userOrders.size();
+        });
+        if (userOrdersNum != idMap.size()) {
+            throw new IllegalStateException("user orders index size " + userOrdersNum + " does not match orders index size " + idMap.size());
+        }
+
+        if (askOrdersNum != askBuckets.values().stream().mapToInt(OrdersBucketNaive::getNumOrders).sum()
+                || bidOrdersNum != bidBuckets.values().stream().mapToInt(OrdersBucketNaive::getNumOrders).sum()) {
+            throw new IllegalStateException("orders number aggregate mismatch");
+        }
+        if (askVolume != askBuckets.values().stream().mapToLong(OrdersBucketNaive::getTotalVolume).sum()
+                || bidVolume != bidBuckets.values().stream().mapToLong(OrdersBucketNaive::getTotalVolume).sum()) {
+            throw new IllegalStateException("volume aggregate mismatch");
+        }
     }
 
     @Override
@@ -510,15 +581,8 @@ public final class OrderBookNaiveImpl implements IOrderBook {
 
     @Override
     public List<Order> findUserOrders(final long uid) {
-        List<Order> list = new ArrayList<>();
-        Consumer<OrdersBucketNaive> bucketConsumer = bucket -> bucket.forEachOrder(order -> {
-            if (order.uid == uid) {
-                list.add(order);
-            }
-        });
-        askBuckets.values().forEach(bucketConsumer);
-        bidBuckets.values().forEach(bucketConsumer);
-        return list;
+        final LongObjectHashMap<Order> userOrders = userOrdersMap.get(uid);
+        return userOrders == null ? new ArrayList<>() : new ArrayList<>(userOrders.values());
     }
 
     @Override
@@ -536,22 +600,14 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         return bidBuckets.values().stream().flatMap(bucket -> bucket.getAllOrders().stream());
     }
 
-    // for testing only
     @Override
     public int getOrdersNum(OrderAction action) {
-        final NavigableMap<Long, OrdersBucketNaive> buckets = action == OrderAction.ASK ? askBuckets : bidBuckets;
-        return buckets.values().stream().mapToInt(OrdersBucketNaive::getNumOrders).sum();
-//        int askOrders = askBuckets.values().stream().mapToInt(OrdersBucketNaive::getNumOrders).sum();
-//        int bidOrders = bidBuckets.values().stream().mapToInt(OrdersBucketNaive::getNumOrders).sum();
-        //log.debug("idMap:{} askOrders:{} bidOrders:{}", idMap.size(), askOrders, bidOrders);
-//        int knownOrders = idMap.size();
-//        assert knownOrders == askOrders + bidOrders : "inconsistent known orders";
+        return action == OrderAction.ASK ? askOrdersNum : bidOrdersNum;
     }
 
     @Override
     public long getTotalOrdersVolume(OrderAction action) {
-        final NavigableMap<Long, OrdersBucketNaive> buckets = action == OrderAction.ASK ? askBuckets : bidBuckets;
-        return buckets.values().stream().mapToLong(OrdersBucketNaive::getTotalVolume).sum();
+        return action == OrderAction.ASK ? askVolume : bidVolume;
     }
 
     @Override
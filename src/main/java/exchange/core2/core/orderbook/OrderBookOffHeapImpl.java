@@ -0,0 +1,1427 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.orderbook;
+
+import exchange.core2.collections.objpool.ObjectsPool;
+import exchange.core2.core.common.*;
+import exchange.core2.core.common.cmd.CommandResultCode;
+import exchange.core2.core.common.cmd.OrderCommand;
+import exchange.core2.core.common.cmd.OrderCommandType;
+import exchange.core2.core.common.config.LoggingConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Order book keeping orders and price buckets in off-heap memory.
+ * <p>
+ * Orders and buckets are fixed-width records inside direct memory slabs, addressed by int handles (0 is null handle).
+ * Released records are linked into intrusive free lists, so slabs only grow when number of live records exceeds the capacity.
+ * Orders structure is the same as in {@link OrderBookDirectImpl}: orders are chained from best price towards the worst one,
+ * bucket refers to its tail order. Buckets of each side are also nodes of AVL tree ordered by price.
+ * <p>
+ * Matching semantics are identical to {@link OrderBookDirectImpl}.
+ * Capacity is limited by 2GiB per slab: up to 26_843_545 orders (80-bytes records) and 53_687_091 price buckets (40-bytes records)
+ * per order book, exceeding it fails the command with IllegalStateException.
+ */
+@Slf4j
+public final class OrderBookOffHeapImpl implements IOrderBook {
+
+    public static final int DEFAULT_ORDERS_CAPACITY = 1024;
+    public static final int DEFAULT_BUCKETS_CAPACITY = 256;
+
+    private static final int NIL = 0;
+
+    // order record layout
+    private static final int ORDER_ID = 0;
+    private static final int ORDER_PRICE = 8;
+    private static final int ORDER_SIZE = 16;
+    private static final int ORDER_FILLED = 24;
+    private static final int ORDER_RESERVE_BID_PRICE = 32;
+    private static final int ORDER_UID = 40;
+    private static final int ORDER_TIMESTAMP = 48;
+    private static final int ORDER_BUCKET = 56;
+    private static final int ORDER_NEXT = 60; // next order (towards the matching direction), also used by free list
+    private static final int ORDER_PREV = 64; // previous order (to the tail of the queue)
+    private static final int ORDER_USER_NEXT = 68;
+    private static final int ORDER_USER_PREV = 72;
+    private static final int ORDER_ACTION = 76;
+    private static final int ORDER_RECORD_SIZE = 80;
+
+    // bucket record layout (bucket is a node of AVL price tree)
+    private static final int BUCKET_PRICE = 0;
+    private static final int BUCKET_VOLUME = 8;
+    private static final int BUCKET_NUM_ORDERS = 16;
+    private static final int BUCKET_TAIL = 20;
+    private static final int BUCKET_LEFT = 24; // also used by free list
+    private static final int BUCKET_RIGHT = 28;
+    private static final int BUCKET_HEIGHT = 32;
+    private static final int BUCKET_RECORD_SIZE = 40;
+
+    // slab size and record offsets are int
+    private static final int MAX_ORDERS_CAPACITY = Integer.MAX_VALUE / ORDER_RECORD_SIZE;
+    private static final int MAX_BUCKETS_CAPACITY = Integer.MAX_VALUE / BUCKET_RECORD_SIZE;
+
+    // symbol specification
+    private final CoreSymbolSpecification symbolSpec;
+
+    // slabs
+    private UnsafeBuffer orders;
+    private int ordersCapacity;
+    private int ordersHighWatermark = 0; // last allocated handle
+    private int ordersFreeHead = NIL;
+
+    private UnsafeBuffer buckets;
+    private int bucketsCapacity;
+    private int bucketsHighWatermark = 0;
+    private int bucketsFreeHead = NIL;
+
+    // index: orderId -> order handle (can be re-created with bigger capacity while empty)
+    private LongIntHashMap orderIdIndex = new LongIntHashMap();
+
+    // index: uid -> head of user orders chain
+    private final LongIntHashMap userOrdersIndex = new LongIntHashMap();
+
+    // price trees roots
+    private int askRoot = NIL;
+    private int bidRoot = NIL;
+
+    private int askBucketsNum = 0;
+    private int bidBucketsNum = 0;
+
+    // aggregates
+    private int askOrdersNum = 0;
+    private int bidOrdersNum = 0;
+    private long askVolume = 0;
+    private long bidVolume = 0;
+
+    // heads
+    private int bestAskOrder = NIL;
+    private int bestBidOrder = NIL;
+
+    // last published top levels
+    private final L2MarketDataCache l2Cache = new L2MarketDataCache();
+
+    // flyweight for events
+    private final OrderView orderView = new OrderView();
+
+    private final OrderBookEventsHelper eventsHelper;
+
+    private final boolean logDebug;
+
+    public OrderBookOffHeapImpl(final CoreSymbolSpecification symbolSpec,
+                                final ObjectsPool objectsPool,
+                                final OrderBookEventsHelper eventsHelper,
+                                final LoggingConfiguration loggingCfg) {
+
+        this(symbolSpec, eventsHelper, loggingCfg, DEFAULT_ORDERS_CAPACITY, DEFAULT_BUCKETS_CAPACITY);
+    }
+
+    public OrderBookOffHeapImpl(final CoreSymbolSpecification symbolSpec,
+                                final OrderBookEventsHelper eventsHelper,
+                                final LoggingConfiguration loggingCfg,
+                                final int ordersCapacity,
+                                final int bucketsCapacity) {
+
+        this.symbolSpec = symbolSpec;
+        this.eventsHelper = eventsHelper;
+        this.logDebug = loggingCfg.getLoggingLevels().contains(LoggingConfiguration.LoggingLevel.LOGGING_MATCHING_DEBUG);
+        this.ordersCapacity = Math.min(Math.max(ordersCapacity, 2), MAX_ORDERS_CAPACITY);
+        this.orders = allocateSlab(this.ordersCapacity, ORDER_RECORD_SIZE);
+        this.bucketsCapacity = Math.min(Math.max(bucketsCapacity, 2), MAX_BUCKETS_CAPACITY);
+        this.buckets = allocateSlab(this.bucketsCapacity, BUCKET_RECORD_SIZE);
+    }
+
+    public OrderBookOffHeapImpl(final BytesIn bytes,
+                                final OrderBookEventsHelper eventsHelper,
+                                final LoggingConfiguration loggingCfg) {
+
+        this.symbolSpec = new CoreSymbolSpecification(bytes);
+        this.eventsHelper = eventsHelper;
+        this.logDebug = loggingCfg.getLoggingLevels().contains(LoggingConfiguration.LoggingLevel.LOGGING_MATCHING_DEBUG);
+
+        final int size = bytes.readInt();
+        // handle 0 is reserved (NIL)
+        this.ordersCapacity = Math.max(slabCapacity(size + 1L, MAX_ORDERS_CAPACITY, "orders"), DEFAULT_ORDERS_CAPACITY);
+        this.orders = allocateSlab(this.ordersCapacity, ORDER_RECORD_SIZE);
+        this.bucketsCapacity = DEFAULT_BUCKETS_CAPACITY;
+        this.buckets = allocateSlab(this.bucketsCapacity, BUCKET_RECORD_SIZE);
+
+        for (int i = 0; i < size; i++) {
+            final int order = allocateOrder();
+            orders.putLong(order * ORDER_RECORD_SIZE + ORDER_ID, bytes.readLong());
+            orders.putLong(order * ORDER_RECORD_SIZE + ORDER_PRICE, bytes.readLong());
+            orders.putLong(order * ORDER_RECORD_SIZE + ORDER_SIZE, bytes.readLong());
+            orders.putLong(order * ORDER_RECORD_SIZE + ORDER_FILLED, bytes.readLong());
+            orders.putLong(order * ORDER_RECORD_SIZE + ORDER_RESERVE_BID_PRICE, bytes.readLong());
+            orders.putByte(order * ORDER_RECORD_SIZE + ORDER_ACTION, bytes.readByte());
+            orders.putLong(order * ORDER_RECORD_SIZE + ORDER_UID, bytes.readLong());
+            orders.putLong(order * ORDER_RECORD_SIZE + ORDER_TIMESTAMP, bytes.readLong());
+            insertOrder(order);
+            orderIdIndex.put(orderId(order), order);
+            linkUserOrder(order);
+        }
+    }
+
+    @Override
+    public void newOrder(final OrderCommand cmd) {
+
+        switch (cmd.orderType) {
+            case GTC:
+                newOrderPlaceGtc(cmd);
+                break;
+            case IOC:
+                newOrderMatchIoc(cmd);
+                break;
+            case FOK_BUDGET:
+                newOrderMatchFokBudget(cmd);
+                break;
+            // TODO IOC_BUDGET and FOK support
+            default:
+                log.warn("Unsupported order type: {}", cmd);
+                eventsHelper.attachRejectEvent(cmd, cmd.size);
+        }
+    }
+
+    private void newOrderPlaceGtc(final OrderCommand cmd) {
+        final long size = cmd.size;
+
+        // check if order is marketable there are matching orders
+        final long filledSize = tryMatchInstantly(cmd.action, cmd.price, size, 0L, cmd.reserveBidPrice, cmd);
+        if (filledSize == size) {
+            // completed before being placed - can just return
+            return;
+        }
+
+        final long orderId = cmd.orderId;
+        if (orderIdIndex.containsKey(orderId)) {
+            // duplicate order id - can match, but can not place
+            eventsHelper.attachRejectEvent(cmd, size - filledSize);
+            log.warn("duplicate order id: {}", cmd);
+            return;
+        }
+
+        // normally placing regular GTC order
+        final int order = allocateOrder();
+        final int offset = order * ORDER_RECORD_SIZE;
+        orders.putLong(offset + ORDER_ID, orderId);
+        orders.putLong(offset + ORDER_PRICE, cmd.price);
+        orders.putLong(offset + ORDER_SIZE, size);
+        orders.putLong(offset + ORDER_FILLED, filledSize);
+        orders.putLong(offset + ORDER_RESERVE_BID_PRICE, cmd.reserveBidPrice);
+        orders.putByte(offset + ORDER_ACTION, cmd.action.getCode());
+        orders.putLong(offset + ORDER_UID, cmd.uid);
+        orders.putLong(offset + ORDER_TIMESTAMP, cmd.timestamp);
+
+        orderIdIndex.put(orderId, order);
+        linkUserOrder(order);
+        insertOrder(order);
+    }
+
+    private void newOrderMatchIoc(final OrderCommand cmd) {
+
+        final long filledSize = tryMatchInstantly(cmd.action, cmd.price, cmd.size, 0L, cmd.reserveBidPrice, cmd);
+
+        final long rejectedSize = cmd.size - filledSize;
+
+        if (rejectedSize != 0) {
+            // was not matched completely - send reject for not-completed IoC order
+            eventsHelper.attachRejectEvent(cmd, rejectedSize);
+        }
+    }
+
+    private void newOrderMatchFokBudget(final OrderCommand cmd) {
+
+        final long budget = checkBudgetToFill(cmd.action, cmd.size);
+
+        if (logDebug) log.debug("Budget calc: {} requested: {}", budget, cmd.price);
+
+        if (isBudgetLimitSatisfied(cmd.action, budget, cmd.price)) {
+            // ask budget orders are matching any bid price
+            final long limitPrice = cmd.action == OrderAction.BID ? cmd.price : 0L;
+            tryMatchInstantly(cmd.action, limitPrice, cmd.size, 0L, cmd.reserveBidPrice, cmd);
+        } else {
+            eventsHelper.attachRejectEvent(cmd, cmd.size);
+        }
+    }
+
+    private boolean isBudgetLimitSatisfied(final OrderAction orderAction, final long calculated, final long limit) {
+        return calculated != Long.MAX_VALUE
+                && (calculated == limit || (orderAction == OrderAction.BID ^ calculated > limit));
+    }
+
+    private long checkBudgetToFill(final OrderAction action,
+                                   long size) {
+
+        int makerOrder = (action == OrderAction.BID) ? bestAskOrder : bestBidOrder;
+
+        long budget = 0L;
+
+        // iterate through all buckets
+        while (makerOrder != NIL) {
+            final int bucket = bucket(makerOrder);
+
+            final long availableSize = bucketVolume(bucket);
+            final long price = bucketPrice(bucket);
+
+            if (size > availableSize) {
+                size -= availableSize;
+                budget += availableSize * price;
+                if (logDebug) log.debug("add    {} * {} -> {}", price, availableSize, budget);
+            } else {
+                if (logDebug) log.debug("return {} * {} -> {}", price, size, budget + size * price);
+                return budget + size * price;
+            }
+
+            // switch to next bucket (can be null)
+            makerOrder = prev(bucketTail(bucket));
+        }
+        if (logDebug) log.debug("not enough liquidity to fill size={}", size);
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Match taker order against opposite side of the order book
+     *
+     * @param takerAction          - taker order action
+     * @param limitPrice           - worst price taker order can be matched with
+     * @param takerSize            - taker order size
+     * @param takerFilled          - taker order filled size before matching
+     * @param takerReserveBidPrice - taker reserved price (for exchange bids)
+     * @param triggerCmd           - command to attach events to
+     * @return new filled size
+     */
+    private long tryMatchInstantly(final OrderAction takerAction,
+                                   final long limitPrice,
+                                   final long takerSize,
+                                   final long takerFilled,
+                                   final long takerReserveBidPrice,
+                                   final OrderCommand triggerCmd) {
+
+        final boolean isBidAction = takerAction == OrderAction.BID;
+
+        int makerOrder;
+        if (isBidAction) {
+            makerOrder = bestAskOrder;
+            if (makerOrder == NIL || price(makerOrder) > limitPrice) {
+                return takerFilled;
+            }
+        } else {
+            makerOrder = bestBidOrder;
+            if (makerOrder == NIL || price(makerOrder) < limitPrice) {
+                return takerFilled;
+            }
+        }
+
+        long remainingSize = takerSize - takerFilled;
+
+        if (remainingSize == 0) {
+            return takerFilled;
+        }
+
+        final OrderAction makerAction = isBidAction ? OrderAction.ASK : OrderAction.BID;
+
+        final long sizeToMatch = remainingSize;
+        int completedOrders = 0;
+
+        int priceBucketTail = bucketTail(bucket(makerOrder));
+
+        MatcherTradeEvent eventsTail = null;
+
+        // iterate through all orders
+        do {
+            final int makerOffset = makerOrder * ORDER_RECORD_SIZE;
+            final long makerSize = orders.getLong(makerOffset + ORDER_SIZE);
+            final long makerFilled = orders.getLong(makerOffset + ORDER_FILLED);
+            final int makerBucket = orders.getInt(makerOffset + ORDER_BUCKET);
+
+            // calculate exact volume can fill for this order
+            final long tradeSize = Math.min(remainingSize, makerSize - makerFilled);
+
+            orders.putLong(makerOffset + ORDER_FILLED, makerFilled + tradeSize);
+            addBucketVolume(makerBucket, -tradeSize);
+            remainingSize -= tradeSize;
+
+            // remove from order book filled orders
+            final boolean makerCompleted = makerSize == makerFilled + tradeSize;
+            if (makerCompleted) {
+                addBucketNumOrders(makerBucket, -1);
+                completedOrders++;
+            }
+
+            orderView.handle = makerOrder;
+            final MatcherTradeEvent tradeEvent = eventsHelper.sendTradeEvent(orderView, makerCompleted, remainingSize == 0, tradeSize,
+                    isBidAction ? takerReserveBidPrice : orders.getLong(makerOffset + ORDER_RESERVE_BID_PRICE));
+
+            if (eventsTail == null) {
+                triggerCmd.matcherEvent = tradeEvent;
+            } else {
+                eventsTail.nextEvent = tradeEvent;
+            }
+            eventsTail = tradeEvent;
+
+            if (!makerCompleted) {
+                // maker not completed -> no unmatched volume left, can exit matching loop
+                break;
+            }
+
+            // if completed can remove maker order
+            orderIdIndex.remove(orders.getLong(makerOffset + ORDER_ID));
+            unlinkUserOrder(makerOrder);
+
+            final int prevOrder = orders.getInt(makerOffset + ORDER_PREV);
+
+            if (makerOrder == priceBucketTail) {
+                // reached current price tail -> remove bucket
+                if (isBidAction) {
+                    askRoot = removeNode(askRoot, bucketPrice(makerBucket));
+                    askBucketsNum--;
+                } else {
+                    bidRoot = removeNode(bidRoot, bucketPrice(makerBucket));
+                    bidBucketsNum--;
+                }
+                l2Cache.levelUpdated(makerAction, bucketPrice(makerBucket), 0, 0);
+                releaseBucket(makerBucket);
+
+                // set next price tail (if there is next price)
+                if (prevOrder != NIL) {
+                    priceBucketTail = bucketTail(bucket(prevOrder));
+                }
+            }
+
+            releaseOrder(makerOrder);
+
+            // switch to next order
+            makerOrder = prevOrder; // can be null
+
+        } while (makerOrder != NIL
+                && remainingSize > 0
+                && (isBidAction ? price(makerOrder) <= limitPrice : price(makerOrder) >= limitPrice));
+
+        // break chain after last order
+        if (makerOrder != NIL) {
+            setNext(makerOrder, NIL);
+            // last matched level (if not removed)
+            final int lastBucket = bucket(makerOrder);
+            l2Cache.levelUpdated(makerAction, bucketPrice(lastBucket), bucketVolume(lastBucket), bucketNumOrders(lastBucket));
+        }
+
+        // update best orders reference
+        if (isBidAction) {
+            bestAskOrder = makerOrder;
+        } else {
+            bestBidOrder = makerOrder;
+        }
+
+        updateAggregates(makerAction, -completedOrders, remainingSize - sizeToMatch);
+
+        // return filled amount
+        return takerSize - remainingSize;
+    }
+
+    @Override
+    public CommandResultCode cancelOrder(OrderCommand cmd) {
+
+        final int order = orderIdIndex.get(cmd.orderId);
+        if (order == NIL || uid(order) != cmd.uid) {
+            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+        }
+        orderIdIndex.remove(cmd.orderId);
+        unlinkUserOrder(order);
+        removeOrder(order);
+
+        // fill action fields (for events handling)
+        cmd.action = action(order);
+
+        orderView.handle = order;
+        cmd.matcherEvent = eventsHelper.sendReduceEvent(orderView, size(order) - filled(order), true);
+
+        releaseOrder(order);
+
+        return CommandResultCode.SUCCESS;
+    }
+
+    @Override
+    public CommandResultCode reduceOrder(OrderCommand cmd) {
+
+        final long orderId = cmd.orderId;
+        final long requestedReduceSize = cmd.size;
+        if (requestedReduceSize <= 0) {
+            return CommandResultCode.MATCHING_REDUCE_FAILED_WRONG_SIZE;
+        }
+
+        final int order = orderIdIndex.get(orderId);
+        if (order == NIL || uid(order) != cmd.uid) {
+            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+        }
+
+        final long remainingSize = size(order) - filled(order);
+        final long reduceBy = Math.min(remainingSize, requestedReduceSize);
+        final boolean canRemove = reduceBy == remainingSize;
+
+        if (canRemove) {
+            orderIdIndex.remove(orderId);
+            unlinkUserOrder(order);
+            removeOrder(order);
+        } else {
+            orders.putLong(order * ORDER_RECORD_SIZE + ORDER_SIZE, size(order) - reduceBy);
+            final int bucket = bucket(order);
+            addBucketVolume(bucket, -reduceBy);
+            l2Cache.levelUpdated(action(order), price(order), bucketVolume(bucket), bucketNumOrders(bucket));
+            updateAggregates(action(order), 0, -reduceBy);
+        }
+
+        orderView.handle = order;
+        cmd.matcherEvent = eventsHelper.sendReduceEvent(orderView, reduceBy, canRemove);
+
+        // fill action fields (for events handling)
+        cmd.action = action(order);
+
+        if (canRemove) {
+            releaseOrder(order);
+        }
+
+        return CommandResultCode.SUCCESS;
+    }
+
+    @Override
+    public CommandResultCode moveOrder(OrderCommand cmd) {
+
+        // order lookup
+        final int order = orderIdIndex.get(cmd.orderId);
+        if (order == NIL || uid(order) != cmd.uid) {
+            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+        }
+
+        final OrderAction action = action(order);
+
+        // risk check for exchange bids
+        if (symbolSpec.type == SymbolType.CURRENCY_EXCHANGE_PAIR && action == OrderAction.BID && cmd.price > reserveBidPrice(order)) {
+            return CommandResultCode.MATCHING_MOVE_FAILED_PRICE_OVER_RISK_LIMIT;
+        }
+
+        // remove order
+        removeOrder(order);
+
+        // update price
+        orders.putLong(order * ORDER_RECORD_SIZE + ORDER_PRICE, cmd.price);
+
+        // fill action fields (for events handling)
+        cmd.action = action;
+
+        // try match with new price as a taker order
+        final long size = size(order);
+        final long filled = tryMatchInstantly(action, cmd.price, size, filled(order), reserveBidPrice(order), cmd);
+        if (filled == size) {
+            // order was fully matched - removing
+            orderIdIndex.remove(cmd.orderId);
+            unlinkUserOrder(order);
+            releaseOrder(order);
+            return CommandResultCode.SUCCESS;
+        }
+
+        // not filled completely, inserting into new position
+        orders.putLong(order * ORDER_RECORD_SIZE + ORDER_FILLED, filled);
+
+        // insert into a new place
+        insertOrder(order);
+
+        return CommandResultCode.SUCCESS;
+    }
+
+    private void removeOrder(final int order) {
+
+        final int bucket = bucket(order);
+        addBucketVolume(bucket, filled(order) - size(order));
+        addBucketNumOrders(bucket, -1);
+
+        l2Cache.levelUpdated(action(order), price(order), bucketVolume(bucket), bucketNumOrders(bucket));
+        updateAggregates(action(order), -1, filled(order) - size(order));
+
+        final int next = next(order);
+        final int prev = prev(order);
+
+        if (bucketTail(bucket) == order) {
+            // if we removing tail order -> change bucket tail reference
+            if (next == NIL || bucket(next) != bucket) {
+                // if no next or next order has different parent -> then it was the last bucket -> remove record
+                if (action(order) == OrderAction.ASK) {
+                    askRoot = removeNode(askRoot, bucketPrice(bucket));
+                    askBucketsNum--;
+                } else {
+                    bidRoot = removeNode(bidRoot, bucketPrice(bucket));
+                    bidBucketsNum--;
+                }
+                releaseBucket(bucket);
+            } else {
+                // otherwise at least one order always having the same parent left -> update tail reference to it
+                buckets.putInt(bucket * BUCKET_RECORD_SIZE + BUCKET_TAIL, next);
+            }
+        }
+
+        // update neighbor orders
+        if (next != NIL) {
+            setPrev(next, prev); // can be null
+        }
+        if (prev != NIL) {
+            setNext(prev, next); // can be null
+        }
+
+        // check if best ask/bid were referring to the order we just removed
+        if (order == bestAskOrder) {
+            bestAskOrder = prev; // can be null
+        } else if (order == bestBidOrder) {
+            bestBidOrder = prev; // can be null
+        }
+    }
+
+    private void insertOrder(final int order) {
+
+        final boolean isAsk = action(order) == OrderAction.ASK;
+        final long price = price(order);
+        final long remainingSize = size(order) - filled(order);
+        final int toBucket = findNode(isAsk ? askRoot : bidRoot, price);
+
+        updateAggregates(action(order), 1, remainingSize);
+
+        if (toBucket != NIL) {
+            // update tail if bucket already exists
+            addBucketVolume(toBucket, remainingSize);
+            addBucketNumOrders(toBucket, 1);
+            final int oldTail = bucketTail(toBucket); // always exists, not null
+            final int prevOrder = prev(oldTail); // can be null
+            // update neighbors
+            buckets.putInt(toBucket * BUCKET_RECORD_SIZE + BUCKET_TAIL, order);
+            setPrev(oldTail, order);
+            if (prevOrder != NIL) {
+                setNext(prevOrder, order);
+            }
+            // update self
+            setNext(order, oldTail);
+            setPrev(order, prevOrder);
+            orders.putInt(order * ORDER_RECORD_SIZE + ORDER_BUCKET, toBucket);
+
+        } else {
+
+            // insert a new bucket
+            final int newBucket = allocateBucket();
+            final int bucketOffset = newBucket * BUCKET_RECORD_SIZE;
+            buckets.putLong(bucketOffset + BUCKET_PRICE, price);
+            buckets.putLong(bucketOffset + BUCKET_VOLUME, remainingSize);
+            buckets.putInt(bucketOffset + BUCKET_NUM_ORDERS, 1);
+            buckets.putInt(bucketOffset + BUCKET_TAIL, order);
+            buckets.putInt(bucketOffset + BUCKET_LEFT, NIL);
+            buckets.putInt(bucketOffset + BUCKET_RIGHT, NIL);
+            buckets.putInt(bucketOffset + BUCKET_HEIGHT, 1);
+            orders.putInt(order * ORDER_RECORD_SIZE + ORDER_BUCKET, newBucket);
+
+            final int betterBucket;
+            if (isAsk) {
+                askRoot = insertNode(askRoot, newBucket, price);
+                askBucketsNum++;
+                betterBucket = findLowerNode(askRoot, price);
+            } else {
+                bidRoot = insertNode(bidRoot, newBucket, price);
+                bidBucketsNum++;
+                betterBucket = findHigherNode(bidRoot, price);
+            }
+
+            if (betterBucket != NIL) {
+                // attach new bucket to the better price bucket
+                final int betterTail = bucketTail(betterBucket);
+                final int prevOrder = prev(betterTail); // can be null
+                // update neighbors
+                setPrev(betterTail, order);
+                if (prevOrder != NIL) {
+                    setNext(prevOrder, order);
+                }
+                // update self
+                setNext(order, betterTail);
+                setPrev(order, prevOrder);
+            } else {
+
+                // if no better price, then update best order
+                final int oldBestOrder = isAsk ? bestAskOrder : bestBidOrder; // can be null
+
+                if (oldBestOrder != NIL) {
+                    setNext(oldBestOrder, order);
+                }
+
+                if (isAsk) {
+                    bestAskOrder = order;
+                } else {
+                    bestBidOrder = order;
+                }
+
+                // update self
+                setNext(order, NIL);
+                setPrev(order, oldBestOrder);
+            }
+        }
+
+        final int bucket = bucket(order);
+        l2Cache.levelUpdated(action(order), price, bucketVolume(bucket), bucketNumOrders(bucket));
+    }
+
+    private void linkUserOrder(final int order) {
+        final long uid = uid(order);
+        final int head = userOrdersIndex.get(uid); // can be null
+        userOrdersIndex.put(uid, order);
+        orders.putInt(order * ORDER_RECORD_SIZE + ORDER_USER_PREV, NIL);
+        orders.putInt(order * ORDER_RECORD_SIZE + ORDER_USER_NEXT, head);
+        if (head != NIL) {
+            orders.putInt(head * ORDER_RECORD_SIZE + ORDER_USER_PREV, order);
+        }
+    }
+
+    private void unlinkUserOrder(final int order) {
+        final int userNext = orders.getInt(order * ORDER_RECORD_SIZE + ORDER_USER_NEXT); // can be null
+        final int userPrev = orders.getInt(order * ORDER_RECORD_SIZE + ORDER_USER_PREV); // can be null
+        if (userPrev == NIL) {
+            // removing head
+            if (userNext == NIL) {
+                userOrdersIndex.remove(uid(order));
+            } else {
+                userOrdersIndex.put(uid(order), userNext);
+            }
+        } else {
+            orders.putInt(userPrev * ORDER_RECORD_SIZE + ORDER_USER_NEXT, userNext);
+        }
+        if (userNext != NIL) {
+            orders.putInt(userNext * ORDER_RECORD_SIZE + ORDER_USER_PREV, userPrev);
+        }
+    }
+
+    // ------------------------------- AVL PRICE TREE --------------------------
+
+    private int findNode(int node, final long price) {
+        while (node != NIL) {
+            final long nodePrice = bucketPrice(node);
+            if (price == nodePrice) {
+                return node;
+            }
+            node = price < nodePrice ? left(node) : right(node);
+        }
+        return NIL;
+    }
+
+    // closest node having lower price
+    private int findLowerNode(int node, final long price) {
+        int result = NIL;
+        while (node != NIL) {
+            if (bucketPrice(node) < price) {
+                result = node;
+                node = right(node);
+            } else {
+                node = left(node);
+            }
+        }
+        return result;
+    }
+
+    // closest node having higher price
+    private int findHigherNode(int node, final long price) {
+        int result = NIL;
+        while (node != NIL) {
+            if (bucketPrice(node) > price) {
+                result = node;
+                node = left(node);
+            } else {
+                node = right(node);
+            }
+        }
+        return result;
+    }
+
+    private int insertNode(final int node, final int newNode, final long price) {
+        if (node == NIL) {
+            return newNode;
+        }
+        if (price < bucketPrice(node)) {
+            setLeft(node, insertNode(left(node), newNode, price));
+        } else {
+            setRight(node, insertNode(right(node), newNode, price));
+        }
+        return balance(node);
+    }
+
+    /**
+     * Unlink node from the tree (node itself is not released, because orders are referring to it)
+     */
+    private int removeNode(final int node, final long price) {
+        if (node == NIL) {
+            throw new IllegalStateException("price bucket not found: " + price);
+        }
+        final long nodePrice = bucketPrice(node);
+        if (price < nodePrice) {
+            setLeft(node, removeNode(left(node), price));
+        } else if (price > nodePrice) {
+            setRight(node, removeNode(right(node), price));
+        } else {
+            final int l = left(node);
+            final int r = right(node);
+            if (r == NIL) {
+                return l;
+            }
+            // replace by min node of right subtree
+            int min = r;
+            while (left(min) != NIL) {
+                min = left(min);
+            }
+            setRight(min, removeMinNode(r));
+            setLeft(min, l);
+            return balance(min);
+        }
+        return balance(node);
+    }
+
+    private int removeMinNode(final int node) {
+        final int l = left(node);
+        if (l == NIL) {
+            return right(node);
+        }
+        setLeft(node, removeMinNode(l));
+        return balance(node);
+    }
+
+    private int balance(final int node) {
+        updateHeight(node);
+        final int balanceFactor = height(right(node)) - height(left(node));
+        if (balanceFactor == 2) {
+            final int r = right(node);
+            if (height(left(r)) > height(right(r))) {
+                setRight(node, rotateRight(r));
+            }
+            return rotateLeft(node);
+        }
+        if (balanceFactor == -2) {
+            final int l = left(node);
+            if (height(right(l)) > height(left(l))) {
+                setLeft(node, rotateLeft(l));
+            }
+            return rotateRight(node);
+        }
+        return node;
+    }
+
+    private int rotateRight(final int node) {
+        final int l = left(node);
+        setLeft(node, right(l));
+        setRight(l, node);
+        updateHeight(node);
+        updateHeight(l);
+        return l;
+    }
+
+    private int rotateLeft(final int node) {
+        final int r = right(node);
+        setRight(node, left(r));
+        setLeft(r, node);
+        updateHeight(node);
+        updateHeight(r);
+        return r;
+    }
+
+    private void updateHeight(final int node) {
+        buckets.putInt(node * BUCKET_RECORD_SIZE + BUCKET_HEIGHT, Math.max(height(left(node)), height(right(node))) + 1);
+    }
+
+    private int height(final int node) {
+        return node == NIL ? 0 : buckets.getInt(node * BUCKET_RECORD_SIZE + BUCKET_HEIGHT);
+    }
+
+    private int left(final int node) {
+        return buckets.getInt(node * BUCKET_RECORD_SIZE + BUCKET_LEFT);
+    }
+
+    private int right(final int node) {
+        return buckets.getInt(node * BUCKET_RECORD_SIZE + BUCKET_RIGHT);
+    }
+
+    private void setLeft(final int node, final int left) {
+        buckets.putInt(node * BUCKET_RECORD_SIZE + BUCKET_LEFT, left);
+    }
+
+    private void setRight(final int node, final int right) {
+        buckets.putInt(node * BUCKET_RECORD_SIZE + BUCKET_RIGHT, right);
+    }
+
+    // ------------------------------- SLABS --------------------------
+
+    private static UnsafeBuffer allocateSlab(final int capacity, final int recordSize) {
+        return new UnsafeBuffer(ByteBuffer.allocateDirect(Math.toIntExact((long) capacity * recordSize)));
+    }
+
+    /**
+     * Slab capacity (power of two, or max capacity) to fit required number of records
+     *
+     * @param requiredCapacity - required number of records (including reserved NIL record)
+     * @param maxCapacity      - max number of records
+     * @param records          - records name (for error message)
+     * @return capacity
+     */
+    private static int slabCapacity(final long requiredCapacity, final int maxCapacity, final String records) {
+        if (requiredCapacity > maxCapacity) {
+            throw new IllegalStateException("Off-heap order book capacity exceeded: can not allocate "
+                    + requiredCapacity + " " + records + " (max " + maxCapacity + ")");
+        }
+        return (int) Math.min(Long.highestOneBit(requiredCapacity) << 1, maxCapacity);
+    }
+
+    private int allocateOrder() {
+        if (ordersFreeHead != NIL) {
+            final int order = ordersFreeHead;
+            ordersFreeHead = next(order);
+            return order;
+        }
+        if (ordersHighWatermark == ordersCapacity - 1) {
+            // grow slab (amortized, no allocations in steady state)
+            growOrders(slabCapacity(ordersCapacity + 1L, MAX_ORDERS_CAPACITY, "orders"));
+        }
+        return ++ordersHighWatermark;
+    }
+
+    private void growOrders(final int newCapacity) {
+        final UnsafeBuffer newOrders = allocateSlab(newCapacity, ORDER_RECORD_SIZE);
+        newOrders.putBytes(0, orders, 0, ordersCapacity * ORDER_RECORD_SIZE);
+        orders = newOrders;
+        ordersCapacity = newCapacity;
+    }
+
+    private void releaseOrder(final int order) {
+        setNext(order, ordersFreeHead);
+        ordersFreeHead = order;
+    }
+
+    private int allocateBucket() {
+        if (bucketsFreeHead != NIL) {
+            final int bucket = bucketsFreeHead;
+            bucketsFreeHead = left(bucket);
+            return bucket;
+        }
+        if (bucketsHighWatermark == bucketsCapacity - 1) {
+            growBuckets(slabCapacity(bucketsCapacity + 1L, MAX_BUCKETS_CAPACITY, "price buckets"));
+        }
+        return ++bucketsHighWatermark;
+    }
+
+    private void growBuckets(final int newCapacity) {
+        final UnsafeBuffer newBuckets = allocateSlab(newCapacity, BUCKET_RECORD_SIZE);
+        newBuckets.putBytes(0, buckets, 0, bucketsCapacity * BUCKET_RECORD_SIZE);
+        buckets = newBuckets;
+        bucketsCapacity = newCapacity;
+    }
+
+    private void releaseBucket(final int bucket) {
+        setLeft(bucket, bucketsFreeHead);
+        bucketsFreeHead = bucket;
+    }
+
+    // ------------------------------- RECORD ACCESSORS --------------------------
+
+    private long orderId(final int order) {
+        return orders.getLong(order * ORDER_RECORD_SIZE + ORDER_ID);
+    }
+
+    private long price(final int order) {
+        return orders.getLong(order * ORDER_RECORD_SIZE + ORDER_PRICE);
+    }
+
+    private long size(final int order) {
+        return orders.getLong(order * ORDER_RECORD_SIZE + ORDER_SIZE);
+    }
+
+    private long filled(final int order) {
+        return orders.getLong(order * ORDER_RECORD_SIZE + ORDER_FILLED);
+    }
+
+    private long reserveBidPrice(final int order) {
+        return orders.getLong(order * ORDER_RECORD_SIZE + ORDER_RESERVE_BID_PRICE);
+    }
+
+    private long uid(final int order) {
+        return orders.getLong(order * ORDER_RECORD_SIZE + ORDER_UID);
+    }
+
+    private long timestamp(final int order) {
+        return orders.getLong(order * ORDER_RECORD_SIZE + ORDER_TIMESTAMP);
+    }
+
+    private OrderAction action(final int order) {
+        return OrderAction.of(orders.getByte(order * ORDER_RECORD_SIZE + ORDER_ACTION));
+    }
+
+    private int bucket(final int order) {
+        return orders.getInt(order * ORDER_RECORD_SIZE + ORDER_BUCKET);
+    }
+
+    private int next(final int order) {
+        return orders.getInt(order * ORDER_RECORD_SIZE + ORDER_NEXT);
+    }
+
+    private int prev(final int order) {
+        return orders.getInt(order * ORDER_RECORD_SIZE + ORDER_PREV);
+    }
+
+    private void setNext(final int order, final int next) {
+        orders.putInt(order * ORDER_RECORD_SIZE + ORDER_NEXT, next);
+    }
+
+    private void setPrev(final int order, final int prev) {
+        orders.putInt(order * ORDER_RECORD_SIZE + ORDER_PREV, prev);
+    }
+
+    private long bucketPrice(final int bucket) {
+        return buckets.getLong(bucket * BUCKET_RECORD_SIZE + BUCKET_PRICE);
+    }
+
+    private long bucketVolume(final int bucket) {
+        return buckets.getLong(bucket * BUCKET_RECORD_SIZE + BUCKET_VOLUME);
+    }
+
+    private int bucketNumOrders(final int bucket) {
+        return buckets.getInt(bucket * BUCKET_RECORD_SIZE + BUCKET_NUM_ORDERS);
+    }
+
+    private int bucketTail(final int bucket) {
+        return buckets.getInt(bucket * BUCKET_RECORD_SIZE + BUCKET_TAIL);
+    }
+
+    private void addBucketVolume(final int bucket, final long delta) {
+        final int offset = bucket * BUCKET_RECORD_SIZE + BUCKET_VOLUME;
+        buckets.putLong(offset, buckets.getLong(offset) + delta);
+    }
+
+    private void addBucketNumOrders(final int bucket, final int delta) {
+        final int offset = bucket * BUCKET_RECORD_SIZE + BUCKET_NUM_ORDERS;
+        buckets.putInt(offset, buckets.getInt(offset) + delta);
+    }
+
+    private Order toOrder(final int order) {
+        return Order.builder()
+                .orderId(orderId(order))
+                .price(price(order))
+                .size(size(order))
+                .filled(filled(order))
+                .reserveBidPrice(reserveBidPrice(order))
+                .action(action(order))
+                .uid(uid(order))
+                .timestamp(timestamp(order))
+                .build();
+    }
+
+    // ------------------------------- QUERIES --------------------------
+
+    private void updateAggregates(final OrderAction action, final int ordersDelta, final long volumeDelta) {
+        if (action == OrderAction.ASK) {
+            askOrdersNum += ordersDelta;
+            askVolume += volumeDelta;
+        } else {
+            bidOrdersNum += ordersDelta;
+            bidVolume += volumeDelta;
+        }
+    }
+
+    @Override
+    public int getOrdersNum(OrderAction action) {
+        return action == OrderAction.ASK ? askOrdersNum : bidOrdersNum;
+    }
+
+    @Override
+    public long getTotalOrdersVolume(OrderAction action) {
+        return action == OrderAction.ASK ? askVolume : bidVolume;
+    }
+
+    @Override
+    public IOrder getOrderById(final long orderId) {
+        final int order = orderIdIndex.get(orderId);
+        return order == NIL ? null : toOrder(order);
+    }
+
+    @Override
+    public void validateInternalState() {
+        final IntIntHashMap ordersInChain = new IntIntHashMap(orderIdIndex.size());
+        validateChain(true, ordersInChain);
+        validateChain(false, ordersInChain);
+
+        orderIdIndex.forEachKeyValue((orderId, order) -> {
+            if (ordersInChain.removeKeyIfAbsent(order, NIL) == NIL) {
+                thrw("chained orders does not contain orderId=" + orderId);
+            }
+            if (orderId(order) != orderId) {
+                thrw("orderIdIndex refers to wrong order");
+            }
+        });
+
+        if (ordersInChain.size() != 0) {
+            thrw("orderIdIndex does not contain each order from chains");
+        }
+
+        // validate user orders index
+        final int[] userOrdersNum = new int[1];
+        userOrdersIndex.forEachKeyValue((uid, head) -> {
+            if (orders.getInt(head * ORDER_RECORD_SIZE + ORDER_USER_PREV) != NIL) {
+                thrw("user orders head has not-null userPrev reference");
+            }
+            int order = head;
+            while (order != NIL) {
+                if (uid(order) != uid) {
+                    thrw("user orders chain contains order of another user");
+                }
+                if (orderIdIndex.get(orderId(order)) != order) {
+                    thrw("user orders chain contains order not found in orderIdIndex");
+                }
+                final int userNext = orders.getInt(order * ORDER_RECORD_SIZE + ORDER_USER_NEXT);
+                if (userNext != NIL && orders.getInt(userNext * ORDER_RECORD_SIZE + ORDER_USER_PREV) != order) {
+                    thrw("incorrect userPrev reference");
+                }
+                userOrdersNum[0]++;
+                order = userNext;
+            }
+        });
+        if (userOrdersNum[0] != orderIdIndex.size()) {
+            thrw("userOrdersIndex does not contain each order from orderIdIndex");
+        }
+
+        validateAggregates(bestAskOrder, askOrdersNum, askVolume);
+        validateAggregates(bestBidOrder, bidOrdersNum, bidVolume);
+
+        // validate free lists
+        int freeOrders = 0;
+        for (int order = ordersFreeHead; order != NIL; order = next(order)) {
+            freeOrders++;
+        }
+        if (freeOrders + orderIdIndex.size() != ordersHighWatermark) {
+            thrw("orders leak: free=" + freeOrders + " used=" + orderIdIndex.size() + " allocated=" + ordersHighWatermark);
+        }
+        int freeBuckets = 0;
+        for (int bucket = bucketsFreeHead; bucket != NIL; bucket = left(bucket)) {
+            freeBuckets++;
+        }
+        if (freeBuckets + askBucketsNum + bidBucketsNum != bucketsHighWatermark) {
+            thrw("buckets leak: free=" + freeBuckets + " used=" + (askBucketsNum + bidBucketsNum) + " allocated=" + bucketsHighWatermark);
+        }
+    }
+
+    private void validateChain(final boolean asksChain, final IntIntHashMap ordersInChain) {
+
+        final int root = asksChain ? askRoot : bidRoot;
+        final IntIntHashMap bucketsInTree = new IntIntHashMap();
+        validateTree(root, Long.MIN_VALUE, Long.MAX_VALUE, bucketsInTree);
+        if (bucketsInTree.size() != (asksChain ? askBucketsNum : bidBucketsNum)) {
+            thrw("unexpected number of buckets in the price tree");
+        }
+
+        int order = asksChain ? bestAskOrder : bestBidOrder;
+
+        if (order != NIL && next(order) != NIL) {
+            thrw("best order has not-null next reference");
+        }
+
+        long lastPrice = -1;
+        long expectedBucketVolume = 0;
+        int expectedBucketOrders = 0;
+        int lastOrder = NIL;
+
+        while (order != NIL) {
+
+            if (ordersInChain.containsKey(order)) {
+                thrw("duplicate order in the chain");
+            }
+            ordersInChain.put(order, order);
+
+            expectedBucketVolume += size(order) - filled(order);
+            expectedBucketOrders++;
+
+            final int bucket = bucket(order);
+
+            if (lastOrder != NIL && next(order) != lastOrder) {
+                thrw("incorrect next reference");
+            }
+            if (bucketPrice(bucket) != price(order)) {
+                thrw("price of bucket differs");
+            }
+            if (lastPrice != -1 && price(order) != lastPrice) {
+                if (asksChain ^ price(order) > lastPrice) {
+                    thrw("unexpected price change direction");
+                }
+                if (bucket(next(order)) == bucket) {
+                    thrw("unexpected price change within same bucket");
+                }
+            }
+
+            if (bucketTail(bucket) == order) {
+                if (bucketVolume(bucket) != expectedBucketVolume) {
+                    thrw("bucket volume does not match orders chain sizes");
+                }
+                if (bucketNumOrders(bucket) != expectedBucketOrders) {
+                    thrw("bucket numOrders does not match orders chain length");
+                }
+                if (prev(order) != NIL && price(prev(order)) == price(order)) {
+                    thrw("previous bucket has the same price");
+                }
+                if (bucketsInTree.removeKeyIfAbsent(bucket, NIL) == NIL) {
+                    thrw("bucket from the chain not found in the price tree");
+                }
+                expectedBucketVolume = 0;
+                expectedBucketOrders = 0;
+            }
+
+            if (asksChain ^ action(order) == OrderAction.ASK) {
+                thrw("not expected order action");
+            }
+
+            lastPrice = price(order);
+            lastOrder = order;
+            order = prev(order);
+        }
+
+        // validate last order
+        if (lastOrder != NIL && bucketTail(bucket(lastOrder)) != lastOrder) {
+            thrw("last order is not a tail");
+        }
+
+        if (!bucketsInTree.isEmpty()) {
+            thrw("found buckets in the price tree that not discoverable from the chain");
+        }
+    }
+
+    private void validateAggregates(int order, final int expectedOrdersNum, final long expectedVolume) {
+        int ordersNum = 0;
+        long volume = 0;
+        while (order != NIL) {
+            final int bucket = bucket(order);
+            ordersNum += bucketNumOrders(bucket);
+            volume += bucketVolume(bucket);
+            order = prev(bucketTail(bucket));
+        }
+        if (ordersNum != expectedOrdersNum) {
+            thrw("orders number aggregate mismatch");
+        }
+        if (volume != expectedVolume) {
+            thrw("volume aggregate mismatch");
+        }
+    }
+
+    private int validateTree(final int node, final long minPrice, final long maxPrice, final IntIntHashMap bucketsInTree) {
+        if (node == NIL) {
+            return 0;
+        }
+        final long price = bucketPrice(node);
+        if (price <= minPrice || price >= maxPrice) {
+            thrw("price tree order violated");
+        }
+        bucketsInTree.put(node, node);
+        final int leftHeight = validateTree(left(node), minPrice, price, bucketsInTree);
+        final int rightHeight = validateTree(right(node), price, maxPrice, bucketsInTree);
+        if (Math.abs(leftHeight - rightHeight) > 1) {
+            thrw("price tree is not balanced");
+        }
+        final int nodeHeight = Math.max(leftHeight, rightHeight) + 1;
+        if (height(node) != nodeHeight) {
+            thrw("incorrect price tree node height");
+        }
+        return nodeHeight;
+    }
+
+    private void thrw(final String msg) {
+        throw new IllegalStateException(msg);
+    }
+
+    @Override
+    public void reserveCapacity(final int expectedOrdersNum) {
+        // handle 0 is reserved (NIL), capacity hint is limited by max capacity
+        if (expectedOrdersNum >= ordersCapacity && ordersCapacity < MAX_ORDERS_CAPACITY) {
+            growOrders(slabCapacity(Math.min(expectedOrdersNum + 1L, MAX_ORDERS_CAPACITY), MAX_ORDERS_CAPACITY, "orders"));
+        }
+        final int expectedBucketsNum = expectedOrdersNum / 16;
+        if (expectedBucketsNum >= bucketsCapacity && bucketsCapacity < MAX_BUCKETS_CAPACITY) {
+            growBuckets(slabCapacity(Math.min(expectedBucketsNum + 1L, MAX_BUCKETS_CAPACITY), MAX_BUCKETS_CAPACITY, "price buckets"));
+        }
+        if (orderIdIndex.isEmpty()) {
+            orderIdIndex = new LongIntHashMap(expectedOrdersNum);
+        }
+    }
+
+    @Override
+    public OrderBookImplType getImplementationType() {
+        return OrderBookImplType.OFF_HEAP;
+    }
+
+    @Override
+    public List<Order> findUserOrders(long uid) {
+        final List<Order> list = new ArrayList<>();
+        int order = userOrdersIndex.get(uid);
+        while (order != NIL) {
+            list.add(toOrder(order));
+            order = orders.getInt(order * ORDER_RECORD_SIZE + ORDER_USER_NEXT);
+        }
+        return list;
+    }
+
+    @Override
+    public CoreSymbolSpecification getSymbolSpec() {
+        return symbolSpec;
+    }
+
+    @Override
+    public Stream<Order> askOrdersStream(boolean sortedIgnore) {
+        return collectOrders(bestAskOrder).stream();
+    }
+
+    @Override
+    public Stream<Order> bidOrdersStream(boolean sortedIgnore) {
+        return collectOrders(bestBidOrder).stream();
+    }
+
+    private List<Order> collectOrders(int order) {
+        final List<Order> list = new ArrayList<>();
+        while (order != NIL) {
+            list.add(toOrder(order));
+            order = prev(order);
+        }
+        return list;
+    }
+
+    @Override
+    public void fillAsks(final int size, L2MarketData data) {
+        data.askSize = fillLevels(bestAskOrder, size, data.askPrices, data.askVolumes, data.askOrders);
+    }
+
+    @Override
+    public void fillBids(final int size, L2MarketData data) {
+        data.bidSize = fillLevels(bestBidOrder, size, data.bidPrices, data.bidVolumes, data.bidOrders);
+    }
+
+    private int fillLevels(int order, final int size, final long[] prices, final long[] volumes, final long[] numOrders) {
+        int i = 0;
+        while (order != NIL && i < size) {
+            final int bucket = bucket(order);
+            prices[i] = bucketPrice(bucket);
+            volumes[i] = bucketVolume(bucket);
+            numOrders[i] = bucketNumOrders(bucket);
+            i++;
+            order = prev(bucketTail(bucket));
+        }
+        return i;
+    }
+
+    @Override
+    public L2MarketData getCachedL2MarketDataSnapshot(final int size) {
+        return l2Cache.getSnapshot(this, size);
+    }
+
+    @Override
+    public void publishL2MarketDataSnapshot(final L2MarketData data) {
+        l2Cache.publish(this, data);
+    }
+
+    @Override
+    public int getTotalAskBuckets(final int limit) {
+        return Math.min(limit, askBucketsNum);
+    }
+
+    @Override
+    public int getTotalBidBuckets(final int limit) {
+        return Math.min(limit, bidBucketsNum);
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        bytes.writeByte(getImplementationType().getCode());
+        symbolSpec.writeMarshallable(bytes);
+        bytes.writeInt(orderIdIndex.size());
+        writeOrders(bestAskOrder, bytes);
+        writeOrders(bestBidOrder, bytes);
+    }
+
+    // same format as OrderBookDirectImpl.DirectOrder
+    private void writeOrders(int order, final BytesOut bytes) {
+        while (order != NIL) {
+            bytes.writeLong(orderId(order));
+            bytes.writeLong(price(order));
+            bytes.writeLong(size(order));
+            bytes.writeLong(filled(order));
+            bytes.writeLong(reserveBidPrice(order));
+            bytes.writeByte(orders.getByte(order * ORDER_RECORD_SIZE + ORDER_ACTION));
+            bytes.writeLong(uid(order));
+            bytes.writeLong(timestamp(order));
+            order = prev(order);
+        }
+    }
+
+    /**
+     * Reusable flyweight for passing order into events helper (no garbage)
+     */
+    private final class OrderView implements IOrder {
+
+        private int handle;
+
+        @Override
+        public long getPrice() {
+            return price(handle);
+        }
+
+        @Override
+        public long getSize() {
+            return size(handle);
+        }
+
+        @Override
+        public long getFilled() {
+            return filled(handle);
+        }
+
+        @Override
+        public long getUid() {
+            return uid(handle);
+        }
+
+        @Override
+        public OrderAction getAction() {
+            return action(handle);
+        }
+
+        @Override
+        public long getOrderId() {
+            return orderId(handle);
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp(handle);
+        }
+
+        @Override
+        public long getReserveBidPrice() {
+            return reserveBidPrice(handle);
+        }
+
+        @Override
+        public int stateHash() {
+            return Objects.hash(getOrderId(), getAction(), getPrice(), getSize(), getReserveBidPrice(), getFilled(), getUid());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.orderbook;
+
+import exchange.core2.collections.objpool.ObjectsPool;
+import exchange.core2.core.common.CoreSymbolSpecification;
+import exchange.core2.core.common.config.LoggingConfiguration;
+import net.openhft.chronicle.bytes.BytesIn;
+
+/**
+ * Direct order book with dense price ladder index.
+ * Suitable for symbols where active prices are concentrated within few thousands price steps around the market price.
+ * Prices are already expressed in price steps (see quoteScaleK), so ladder level size is 1.
+ */
+public final class OrderBookPriceLadderImpl extends OrderBookDirectImpl {
+
+    public static final int DEFAULT_LADDER_SIZE = 4096;
+
+    public OrderBookPriceLadderImpl(final CoreSymbolSpecification symbolSpec,
+                                    final ObjectsPool objectsPool,
+                                    final OrderBookEventsHelper eventsHelper,
+                                    final LoggingConfiguration loggingCfg) {
+
+        this(symbolSpec, objectsPool, eventsHelper, loggingCfg, DEFAULT_LADDER_SIZE);
+    }
+
+    public OrderBookPriceLadderImpl(final CoreSymbolSpecification symbolSpec,
+                                    final ObjectsPool objectsPool,
+                                    final OrderBookEventsHelper eventsHelper,
+                                    final LoggingConfiguration loggingCfg,
+                                    final int ladderSize) {
+
+        super(symbolSpec, objectsPool, eventsHelper, loggingCfg,
+                new PriceLadderBucketsIndex<>(objectsPool, ladderSize),
+                new PriceLadderBucketsIndex<>(objectsPool, ladderSize));
+    }
+
+    public OrderBookPriceLadderImpl(final BytesIn bytes,
+                                    final ObjectsPool objectsPool,
+                                    final OrderBookEventsHelper eventsHelper,
+                                    final LoggingConfiguration loggingCfg) {
+
+        super(bytes, objectsPool, eventsHelper, loggingCfg,
+                new PriceLadderBucketsIndex<>(objectsPool, DEFAULT_LADDER_SIZE),
+                new PriceLadderBucketsIndex<>(objectsPool, DEFAULT_LADDER_SIZE));
+    }
+
+    @Override
+    public OrderBookImplType getImplementationType() {
+        return OrderBookImplType.PRICE_LADDER;
+    }
+}
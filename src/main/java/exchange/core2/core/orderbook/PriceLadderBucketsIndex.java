@@ -0,0 +1,388 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.orderbook;
+
+import exchange.core2.collections.art.LongAdaptiveRadixTreeMap;
+import exchange.core2.collections.art.LongObjConsumer;
+import exchange.core2.collections.objpool.ObjectsPool;
+
+import java.util.Arrays;
+
+/**
+ * Dense price index for symbols where active prices are concentrated in a range of few thousands price steps.
+ * <p>
+ * Buckets within the band [base, base + ladderSize) are stored in array indexed by (price - base).
+ * Non-empty levels are marked in a two-level bitmap, so closest lower/higher level is found by few word scans.
+ * Prices outside of the band are stored in sparse trees (one below and one above the band).
+ * <p>
+ * When most of the levels are outside of the band (market moved away), the band is re-centered around newly inserted price.
+ * Re-centering costs O(levels) and is allowed not more often than once per number of levels modifications (amortized O(1)).
+ */
+final class PriceLadderBucketsIndex<V> implements IPriceBucketsIndex<V> {
+
+    private final int ladderSize;
+
+    private final V[] ladder;
+
+    // bit per ladder level
+    private final long[] bitmap;
+
+    // bit per bitmap word
+    private final long[] summary;
+
+    // price of ladder level 0
+    private long base = 0;
+
+    private int ladderLevels = 0;
+
+    // prices below the band
+    private final LongAdaptiveRadixTreeMap<V> lowTree;
+    private int lowLevels = 0;
+
+    // prices above the band
+    private final LongAdaptiveRadixTreeMap<V> highTree;
+    private int highLevels = 0;
+
+    private int modificationsSinceRecenter = 0;
+
+    // re-centering buffers
+    private long[] tmpPrices = new long[64];
+    private Object[] tmpBuckets = new Object[64];
+    private int tmpSize = 0;
+    private final LongObjConsumer<V> tmpCollector = this::addTmp;
+
+    @SuppressWarnings("unchecked")
+    PriceLadderBucketsIndex(final ObjectsPool objectsPool, final int ladderSize) {
+        if (ladderSize < 64 || Integer.bitCount(ladderSize) != 1) {
+            throw new IllegalArgumentException("ladderSize should be power of 2 and at least 64: " + ladderSize);
+        }
+        this.ladderSize = ladderSize;
+        this.ladder = (V[]) new Object[ladderSize];
+        this.bitmap = new long[ladderSize >> 6];
+        this.summary = new long[(bitmap.length + 63) >> 6];
+        this.lowTree = new LongAdaptiveRadixTreeMap<>(objectsPool);
+        this.highTree = new LongAdaptiveRadixTreeMap<>(objectsPool);
+    }
+
+    @Override
+    public V get(final long price) {
+        final long offset = price - base;
+        if (offset >= 0 && offset < ladderSize) {
+            return ladder[(int) offset];
+        } else {
+            return offset < 0 ? lowTree.get(price) : highTree.get(price);
+        }
+    }
+
+    @Override
+    public void put(final long price, final V bucket) {
+        final long offset = price - base;
+        if ((offset < 0 || offset >= ladderSize) && isRecenterRequired()) {
+            recenter(price);
+        }
+        modificationsSinceRecenter++;
+        putInternal(price, bucket);
+    }
+
+    private boolean isRecenterRequired() {
+        final int outOfBandLevels = lowLevels + highLevels;
+        return outOfBandLevels >= ladderLevels && modificationsSinceRecenter >= outOfBandLevels + ladderLevels;
+    }
+
+    private void putInternal(final long price, final V bucket) {
+        final long offset = price - base;
+        if (offset >= 0 && offset < ladderSize) {
+            final int idx = (int) offset;
+            if (ladder[idx] == null) {
+                ladderLevels++;
+                setBit(idx);
+            }
+            ladder[idx] = bucket;
+        } else if (offset < 0) {
+            if (lowTree.get(price) == null) {
+                lowLevels++;
+            }
+            lowTree.put(price, bucket);
+        } else {
+            if (highTree.get(price) == null) {
+                highLevels++;
+            }
+            highTree.put(price, bucket);
+        }
+    }
+
+    @Override
+    public void remove(final long price) {
+        modificationsSinceRecenter++;
+        final long offset = price - base;
+        if (offset >= 0 && offset < ladderSize) {
+            final int idx = (int) offset;
+            if (ladder[idx] != null) {
+                ladder[idx] = null;
+                ladderLevels--;
+                clearBit(idx);
+            }
+        } else if (offset < 0) {
+            if (lowTree.get(price) != null) {
+                lowTree.remove(price);
+                lowLevels--;
+            }
+        } else {
+            if (highTree.get(price) != null) {
+                highTree.remove(price);
+                highLevels--;
+            }
+        }
+    }
+
+    @Override
+    public V getLowerValue(final long price) {
+        final long offset = price - base;
+        if (offset < 0) {
+            return lowTree.getLowerValue(price);
+        }
+        if (offset > ladderSize) {
+            final V bucket = highTree.getLowerValue(price);
+            if (bucket != null) {
+                return bucket;
+            }
+        }
+        final int idx = lowerLevel((int) Math.min(offset, ladderSize));
+        return idx != -1 ? ladder[idx] : lowTree.getLowerValue(price);
+    }
+
+    @Override
+    public V getHigherValue(final long price) {
+        final long offset = price - base;
+        if (offset >= ladderSize) {
+            return highTree.getHigherValue(price);
+        }
+        if (offset < -1) {
+            final V bucket = lowTree.getHigherValue(price);
+            if (bucket != null) {
+                return bucket;
+            }
+        }
+        final int idx = higherLevel((int) Math.max(offset, -1));
+        return idx != -1 ? ladder[idx] : highTree.getHigherValue(price);
+    }
+
+    @Override
+    public int forEach(final LongObjConsumer<V> consumer, final int limit) {
+        int num = lowTree.forEach(consumer, limit);
+        for (int idx = higherLevel(-1); idx != -1 && num < limit; idx = higherLevel(idx)) {
+            consumer.accept(base + idx, ladder[idx]);
+            num++;
+        }
+        if (num < limit) {
+            num += highTree.forEach(consumer, limit - num);
+        }
+        return num;
+    }
+
+    @Override
+    public int forEachDesc(final LongObjConsumer<V> consumer, final int limit) {
+        int num = highTree.forEachDesc(consumer, limit);
+        for (int idx = lowerLevel(ladderSize); idx != -1 && num < limit; idx = lowerLevel(idx)) {
+            consumer.accept(base + idx, ladder[idx]);
+            num++;
+        }
+        if (num < limit) {
+            num += lowTree.forEachDesc(consumer, limit - num);
+        }
+        return num;
+    }
+
+    @Override
+    public int size(final int limit) {
+        return Math.min(limit, ladderLevels + lowLevels + highLevels);
+    }
+
+    /**
+     * Move band so that price will be in the middle
+     */
+    private void recenter(final long price) {
+
+        // collect all levels
+        tmpSize = 0;
+        lowTree.forEach(tmpCollector, Integer.MAX_VALUE);
+        for (int idx = higherLevel(-1); idx != -1; idx = higherLevel(idx)) {
+            addTmp(base + idx, ladder[idx]);
+            ladder[idx] = null;
+        }
+        highTree.forEach(tmpCollector, Integer.MAX_VALUE);
+
+        lowTree.clear();
+        highTree.clear();
+        Arrays.fill(bitmap, 0L);
+        Arrays.fill(summary, 0L);
+        ladderLevels = 0;
+        lowLevels = 0;
+        highLevels = 0;
+
+        base = price - (ladderSize >> 1);
+
+        // distribute levels
+        for (int i = 0; i < tmpSize; i++) {
+            @SuppressWarnings("unchecked") final V bucket = (V) tmpBuckets[i];
+            putInternal(tmpPrices[i], bucket);
+            tmpBuckets[i] = null;
+        }
+
+        modificationsSinceRecenter = 0;
+    }
+
+    private void addTmp(final long price, final V bucket) {
+        if (tmpSize == tmpPrices.length) {
+            tmpPrices = Arrays.copyOf(tmpPrices, tmpSize * 2);
+            tmpBuckets = Arrays.copyOf(tmpBuckets, tmpSize * 2);
+        }
+        tmpPrices[tmpSize] = price;
+        tmpBuckets[tmpSize] = bucket;
+        tmpSize++;
+    }
+
+    private void setBit(final int idx) {
+        final int w = idx >> 6;
+        bitmap[w] |= 1L << idx;
+        summary[w >> 6] |= 1L << w;
+    }
+
+    private void clearBit(final int idx) {
+        final int w = idx >> 6;
+        bitmap[w] &= ~(1L << idx);
+        if (bitmap[w] == 0L) {
+            summary[w >> 6] &= ~(1L << w);
+        }
+    }
+
+    /**
+     * @param idx - level index [0..ladderSize]
+     * @return closest non-empty level index strictly lower than idx, or -1
+     */
+    private int lowerLevel(final int idx) {
+        if (idx <= 0) {
+            return -1;
+        }
+        final int i = idx - 1;
+        final int w = i >> 6;
+        final long bits = bitmap[w] & (-1L >>> (63 - (i & 63)));
+        if (bits != 0) {
+            return (w << 6) + 63 - Long.numberOfLeadingZeros(bits);
+        }
+        final int lw = lowerWord(w);
+        return lw == -1 ? -1 : (lw << 6) + 63 - Long.numberOfLeadingZeros(bitmap[lw]);
+    }
+
+    /**
+     * @param idx - level index [-1..ladderSize-1]
+     * @return closest non-empty level index strictly higher than idx, or -1
+     */
+    private int higherLevel(final int idx) {
+        final int i = idx + 1;
+        if (i >= ladderSize) {
+            return -1;
+        }
+        final int w = i >> 6;
+        final long bits = bitmap[w] & (-1L << (i & 63));
+        if (bits != 0) {
+            return (w << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        final int hw = higherWord(w);
+        return hw == -1 ? -1 : (hw << 6) + Long.numberOfTrailingZeros(bitmap[hw]);
+    }
+
+    // closest non-empty bitmap word strictly lower than w
+    private int lowerWord(final int w) {
+        if (w <= 0) {
+            return -1;
+        }
+        final int j = w - 1;
+        int s = j >> 6;
+        long bits = summary[s] & (-1L >>> (63 - (j & 63)));
+        while (bits == 0) {
+            if (--s < 0) {
+                return -1;
+            }
+            bits = summary[s];
+        }
+        return (s << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    // closest non-empty bitmap word strictly higher than w
+    private int higherWord(final int w) {
+        final int j = w + 1;
+        if (j >= bitmap.length) {
+            return -1;
+        }
+        int s = j >> 6;
+        long bits = summary[s] & (-1L << (j & 63));
+        while (bits == 0) {
+            if (++s == summary.length) {
+                return -1;
+            }
+            bits = summary[s];
+        }
+        return (s << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    @Override
+    public void validateInternalState() {
+        lowTree.validateInternalState();
+        highTree.validateInternalState();
+
+        int levels = 0;
+        for (int idx = 0; idx < ladderSize; idx++) {
+            final boolean bit = (bitmap[idx >> 6] & (1L << idx)) != 0;
+            if (bit != (ladder[idx] != null)) {
+                throw new IllegalStateException("ladder bitmap mismatch at level " + idx);
+            }
+            if (bit) {
+                levels++;
+            }
+        }
+        if (levels != ladderLevels) {
+            throw new IllegalStateException("ladder levels counter mismatch");
+        }
+        for (int w = 0; w < bitmap.length; w++) {
+            if ((bitmap[w] != 0) != ((summary[w >> 6] & (1L << w)) != 0)) {
+                throw new IllegalStateException("ladder summary mismatch at word " + w);
+            }
+        }
+
+        final int[] num = new int[1];
+        lowTree.forEach((price, bucket) -> {
+            if (price >= base) {
+                throw new IllegalStateException("low tree contains in-band price " + price);
+            }
+            num[0]++;
+        }, Integer.MAX_VALUE);
+        if (num[0] != lowLevels) {
+            throw new IllegalStateException("low tree levels counter mismatch");
+        }
+
+        num[0] = 0;
+        highTree.forEach((price, bucket) -> {
+            if (price < base + ladderSize) {
+                throw new IllegalStateException("high tree contains in-band price " + price);
+            }
+            num[0]++;
+        }, Integer.MAX_VALUE);
+        if (num[0] != highLevels) {
+            throw new IllegalStateException("high tree levels counter mismatch");
+        }
+    }
+}
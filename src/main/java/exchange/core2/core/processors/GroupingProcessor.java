@@ -26,8 +26,6 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static exchange.core2.core.ExchangeCore.EVENTS_POOLING;
-
 @Slf4j
 public final class GroupingProcessor implements EventProcessor {
     private static final int IDLE = 0;
@@ -36,8 +34,8 @@ public final class GroupingProcessor implements EventProcessor {
 
     private static final int GROUP_SPIN_LIMIT = 1000;
 
-    // TODO move into configuration
-    private static final int L2_PUBLISH_INTERVAL_NS = 10_000_000;
+    // adaptive grouping: how often group parameters are re-evaluated
+    private static final long ADAPTATION_INTERVAL_NS = 1_000_000;
 
     private final AtomicInteger running = new AtomicInteger(IDLE);
     private final RingBuffer<OrderCommand> ringBuffer;
@@ -47,25 +45,65 @@ public final class GroupingProcessor implements EventProcessor {
 
     private final SharedPool sharedPool;
 
-    private final int msgsInGroupLimit;
-    private final long maxGroupDurationNs;
+    // optional (null when stage latency tracking is disabled)
+    private final StageLatencyTracker stageLatencyTracker;
+
+    private final long l2PublishIntervalNs;
+
+    // adaptive grouping bounds
+    private final boolean adaptiveGrouping;
+    private final int minMsgsInGroupLimit;
+    private final int maxMsgsInGroupLimit;
+    private final long minGroupDurationNs;
+    private final long maxGroupDurationNsLimit;
+
+    // ring buffer occupancy thresholds for growing and shrinking groups
+    private final long highOccupancy;
+    private final long lowOccupancy;
+
+    // R2 processors sequences (not set for fused risk-matching mode)
+    private Sequence[] riskReleaseSequences = new Sequence[0];
+
+    // current group parameters (changed by processor thread only, can be read as metrics)
+    private volatile int msgsInGroupLimit;
+    private volatile long maxGroupDurationNs;
+    private volatile long adaptationsCounter = 0;
 
     public GroupingProcessor(RingBuffer<OrderCommand> ringBuffer,
                              SequenceBarrier sequenceBarrier,
                              PerformanceConfiguration perfCfg,
                              CoreWaitStrategy coreWaitStrategy,
-                             SharedPool sharedPool) {
+                             SharedPool sharedPool,
+                             StageLatencyTracker stageLatencyTracker) {
 
         if (perfCfg.getMsgsInGroupLimit() > perfCfg.getRingBufferSize() / 4) {
             throw new IllegalArgumentException("msgsInGroupLimit should be less than quarter ringBufferSize");
         }
 
+        if (perfCfg.isAdaptiveGrouping()
+                && (perfCfg.getMinMsgsInGroupLimit() < 1 || perfCfg.getMinMsgsInGroupLimit() > perfCfg.getMsgsInGroupLimit()
+                || perfCfg.getMinGroupDurationNs() < 0 || perfCfg.getMinGroupDurationNs() > perfCfg.getMaxGroupDurationNs())) {
+            throw new IllegalArgumentException("adaptive grouping lower bounds should be positive and not exceed msgsInGroupLimit and maxGroupDurationNs");
+        }
+
         this.ringBuffer = ringBuffer;
         this.sequenceBarrier = sequenceBarrier;
         this.waitSpinningHelper = new WaitSpinningHelper(ringBuffer, sequenceBarrier, GROUP_SPIN_LIMIT, coreWaitStrategy);
-        this.msgsInGroupLimit = perfCfg.getMsgsInGroupLimit();
-        this.maxGroupDurationNs = perfCfg.getMaxGroupDurationNs();
+        this.l2PublishIntervalNs = perfCfg.getL2PublishIntervalNs();
+
+        this.adaptiveGrouping = perfCfg.isAdaptiveGrouping();
+        this.maxMsgsInGroupLimit = perfCfg.getMsgsInGroupLimit();
+        this.maxGroupDurationNsLimit = perfCfg.getMaxGroupDurationNs();
+        this.minMsgsInGroupLimit = adaptiveGrouping ? perfCfg.getMinMsgsInGroupLimit() : maxMsgsInGroupLimit;
+        this.minGroupDurationNs = adaptiveGrouping ? perfCfg.getMinGroupDurationNs() : maxGroupDurationNsLimit;
+        this.highOccupancy = ringBuffer.getBufferSize() / 4;
+        this.lowOccupancy = ringBuffer.getBufferSize() / 16;
+
+        // adaptive mode starts from lower bounds (low latency)
+        this.msgsInGroupLimit = minMsgsInGroupLimit;
+        this.maxGroupDurationNs = minGroupDurationNs;
         this.sharedPool = sharedPool;
+        this.stageLatencyTracker = stageLatencyTracker;
     }
 
     @Override
@@ -73,6 +111,36 @@ public final class GroupingProcessor implements EventProcessor {
         return sequence;
     }
 
+    /**
+     * Attach risk release (R2) processors sequences, used for measuring R2 stage lag in adaptive grouping mode.
+     *
+     * @param riskReleaseSequences - sequences of R2 processors
+     */
+    public void setRiskReleaseSequences(final Sequence[] riskReleaseSequences) {
+        this.riskReleaseSequences = riskReleaseSequences;
+    }
+
+    /**
+     * @return current max number of messages in group
+     */
+    public int getMsgsInGroupLimit() {
+        return msgsInGroupLimit;
+    }
+
+    /**
+     * @return current max group duration (nanoseconds)
+     */
+    public long getMaxGroupDurationNs() {
+        return maxGroupDurationNs;
+    }
+
+    /**
+     * @return number of group parameters changes made in adaptive grouping mode
+     */
+    public long getAdaptationsCounter() {
+        return adaptationsCounter;
+    }
+
     @Override
     public void halt() {
         running.set(HALTED);
@@ -122,6 +190,11 @@ public final class GroupingProcessor implements EventProcessor {
         long l2dataLastNs = 0;
         boolean triggerL2DataRequest = false;
 
+        long nextAdaptationNs = 0;
+        int groupMsgsLimit = msgsInGroupLimit;
+        long groupDurationNs = maxGroupDurationNs;
+
+        final boolean eventsPooling = sharedPool.isEventsPooling();
         final int tradeEventChainLengthTarget = sharedPool.getChainLength();
         MatcherTradeEvent tradeEventHead = null;
         MatcherTradeEvent tradeEventTail = null;
@@ -140,6 +213,10 @@ public final class GroupingProcessor implements EventProcessor {
 
                         final OrderCommand cmd = ringBuffer.get(nextSequence);
 
+                        if (stageLatencyTracker != null) {
+                            stageLatencyTracker.stamp(nextSequence, StageLatencyTracker.POINT_GROUPING);
+                        }
+
                         nextSequence++;
 
                         if (cmd.command == OrderCommandType.GROUPING_CONTROL) {
@@ -150,6 +227,8 @@ public final class GroupingProcessor implements EventProcessor {
                         if (!groupingEnabled) {
                             // TODO pooling
                             cmd.matcherEvent = null;
+                            cmd.flatEvents = null;
+                            cmd.flatEventsNum = 0;
                             cmd.marketData = null;
                             continue;
                         }
@@ -179,7 +258,7 @@ public final class GroupingProcessor implements EventProcessor {
                         }
 
                         // cleaning attached events
-                        if (EVENTS_POOLING && cmd.matcherEvent != null) {
+                        if (eventsPooling && cmd.matcherEvent != null) {
 
                             // update tail
                             if (tradeEventTail == null) {
@@ -208,14 +287,18 @@ public final class GroupingProcessor implements EventProcessor {
                         }
                         cmd.matcherEvent = null;
 
-                        // TODO collect to shared buffer
+                        // flat events records are released by matching engine when ring buffer slot is re-used
+                        cmd.flatEvents = null;
+                        cmd.flatEventsNum = 0;
+
+                        // regular L2 data is kept in marketDataBuffer of the slot and will be re-used by matching engine
                         cmd.marketData = null;
 
                         msgsInGroup++;
 
                         // switch group after each N messages
                         // avoid changing groups when PERSIST_STATE_MATCHING is already executing
-                        if (msgsInGroup >= msgsInGroupLimit && cmd.command != OrderCommandType.PERSIST_STATE_RISK) {
+                        if (msgsInGroup >= groupMsgsLimit && cmd.command != OrderCommandType.PERSIST_STATE_RISK) {
                             groupCounter++;
                             msgsInGroup = 0;
                         }
@@ -223,7 +306,21 @@ public final class GroupingProcessor implements EventProcessor {
                     }
                     sequence.set(availableSequence);
                     waitSpinningHelper.signalAllWhenBlocking();
-                    groupLastNs = System.nanoTime() + maxGroupDurationNs;
+                    final long t = System.nanoTime();
+                    groupLastNs = t + groupDurationNs;
+
+                    // L2 tick should also happen under sustained load
+                    if (t > l2dataLastNs) {
+                        l2dataLastNs = t + l2PublishIntervalNs;
+                        triggerL2DataRequest = true;
+                    }
+
+                    if (adaptiveGrouping && t > nextAdaptationNs) {
+                        nextAdaptationNs = t + ADAPTATION_INTERVAL_NS;
+                        adaptGroupParameters(availableSequence);
+                        groupMsgsLimit = msgsInGroupLimit;
+                        groupDurationNs = maxGroupDurationNs;
+                    }
 
                 } else {
                     final long t = System.nanoTime();
@@ -234,12 +331,17 @@ public final class GroupingProcessor implements EventProcessor {
                     }
 
                     if (t > l2dataLastNs) {
-                        // TODO fix order best price updating mechanism,
-                        //  this does not work for multi-symbol configuration
-
-                        l2dataLastNs = t + L2_PUBLISH_INTERVAL_NS; // trigger L2 data every 10ms
+                        // matching engines publish L2 data for all changed order books (see MatchingEngineRouter)
+                        l2dataLastNs = t + l2PublishIntervalNs;
                         triggerL2DataRequest = true;
                     }
+
+                    if (adaptiveGrouping && t > nextAdaptationNs) {
+                        nextAdaptationNs = t + ADAPTATION_INTERVAL_NS;
+                        adaptGroupParameters(nextSequence - 1);
+                        groupMsgsLimit = msgsInGroupLimit;
+                        groupDurationNs = maxGroupDurationNs;
+                    }
                 }
 
             } catch (final AlertException ex) {
@@ -254,10 +356,49 @@ public final class GroupingProcessor implements EventProcessor {
         }
     }
 
+    /**
+     * Grow groups quickly when ring buffer is filling up or R2 stage can not keep up (bigger groups are processed more efficiently),
+     * shrink them slowly when load is low (smaller groups provide lower latency).
+     *
+     * @param lastGroupedSeq - last sequence processed by grouping processor
+     */
+    private void adaptGroupParameters(final long lastGroupedSeq) {
+
+        final long occupancy = ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
+
+        long riskReleaseLag = 0;
+        for (final Sequence r2Sequence : riskReleaseSequences) {
+            riskReleaseLag = Math.max(riskReleaseLag, lastGroupedSeq - r2Sequence.get());
+        }
+
+        final int groupLimit = msgsInGroupLimit;
+        final long groupDurationNs = maxGroupDurationNs;
+
+        final int newGroupLimit;
+        final long newGroupDurationNs;
+        if (occupancy > highOccupancy || riskReleaseLag > 2L * groupLimit) {
+            newGroupLimit = Math.min(groupLimit * 2, maxMsgsInGroupLimit);
+            newGroupDurationNs = Math.min(Math.max(groupDurationNs * 2, 1), maxGroupDurationNsLimit);
+        } else if (occupancy < lowOccupancy && riskReleaseLag <= groupLimit) {
+            // at least one unit per step, otherwise small values (below 4) would never shrink
+            newGroupLimit = Math.max(minMsgsInGroupLimit, groupLimit - Math.max(1, groupLimit / 4));
+            newGroupDurationNs = Math.max(minGroupDurationNs, groupDurationNs - Math.max(1, groupDurationNs / 4));
+        } else {
+            return;
+        }
+
+        if (newGroupLimit != groupLimit || newGroupDurationNs != groupDurationNs) {
+            msgsInGroupLimit = newGroupLimit;
+            maxGroupDurationNs = newGroupDurationNs;
+            adaptationsCounter++;
+        }
+    }
+
     @Override
     public String toString() {
         return "GroupingProcessor{" +
                 "GL=" + msgsInGroupLimit +
+                ", GD=" + maxGroupDurationNs +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.processors;
+
+import exchange.core2.core.common.UserProfile;
+
+import java.util.function.Consumer;
+
+/**
+ * Storage of user profiles of one risk engine shard (uid -> UserProfile).
+ * <p>
+ * All methods are called from the risk engine thread only.
+ * Profile returned by get method remains valid until next evictProfiles call.
+ */
+public interface IUserProfilesStore {
+
+    /**
+     * Find user profile
+     *
+     * @param uid uid
+     * @return user profile or null if not found
+     */
+    UserProfile get(long uid);
+
+    /**
+     * Add new user profile (uid should not exist in the store)
+     *
+     * @param userProfile user profile
+     */
+    void put(UserProfile userProfile);
+
+    /**
+     * Remove user profile
+     *
+     * @param uid uid
+     */
+    void remove(long uid);
+
+    /**
+     * @return number of user profiles
+     */
+    int size();
+
+    /**
+     * Iterate over all user profiles (in undefined order).
+     * Consumer should not keep provided objects, and should not modify profiles which are not held in memory.
+     *
+     * @param consumer profiles consumer
+     */
+    void forEach(Consumer<UserProfile> consumer);
+
+    /**
+     * Called by risk engine between commands, when no references to the profiles are kept.
+     * Store can move rarely used profiles out of the heap.
+     */
+    void evictProfiles();
+
+    /**
+     * Remove all profiles
+     */
+    void clear();
+
+    @FunctionalInterface
+    interface UserProfilesStoreFactory {
+
+        /**
+         * Create new empty store
+         *
+         * @param expectedUsersNum - expected number of users for this shard (initial capacity)
+         * @return new store
+         */
+        IUserProfilesStore create(int expectedUsersNum);
+    }
+}
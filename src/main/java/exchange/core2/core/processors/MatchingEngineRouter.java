@@ -17,9 +17,13 @@ package exchange.core2.core.processors;
 
 import exchange.core2.collections.objpool.ObjectsPool;
 import exchange.core2.core.common.CoreSymbolSpecification;
+import exchange.core2.core.common.L2MarketData;
+import exchange.core2.core.common.MatcherEventsRing;
+import exchange.core2.core.common.StateHash;
 import exchange.core2.core.common.SymbolType;
 import exchange.core2.core.common.api.binary.BatchAddAccountsCommand;
 import exchange.core2.core.common.api.binary.BatchAddSymbolsCommand;
+import exchange.core2.core.common.api.binary.MoveSymbolCommand;
 import exchange.core2.core.common.api.reports.ReportQuery;
 import exchange.core2.core.common.api.reports.ReportResult;
 import exchange.core2.core.common.cmd.CommandResultCode;
@@ -31,19 +35,26 @@ import exchange.core2.core.orderbook.OrderBookEventsHelper;
 import exchange.core2.core.processors.journaling.DiskSerializationProcessorConfiguration;
 import exchange.core2.core.processors.journaling.ISerializationProcessor;
 import exchange.core2.core.utils.SerializationUtils;
+import exchange.core2.core.utils.ShardingUtils;
 import exchange.core2.core.utils.UnsafeUtils;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesIn;
 import net.openhft.chronicle.bytes.BytesOut;
 import net.openhft.chronicle.bytes.WriteBytesMarshallable;
 import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.function.IntToLongFunction;
 
 @Slf4j
 @Getter
@@ -62,13 +73,36 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
 
     private final OrderBookEventsHelper eventsHelper;
 
+    // flat trade events transport, null if events are passed as chains
+    private final MatcherEventsRing eventsRing;
+
     // local objects pool for order books
     private final ObjectsPool objectsPool;
 
     // sharding by symbolId
     private final int shardId;
+    private final int shardsNum;
+    // shardsNum - 1 (bit mask for power of 2 numbers), stored in snapshot for compatibility check
     private final long shardMask;
 
+    // symbol->shard routing table, same in all matching engines
+    private final IntObjectHashMap<SymbolRoute> symbolsRouting;
+
+    // number of symbols routed to each shard
+    private final int[] shardSymbolsNum;
+
+    // number of matching commands processed by this shard
+    private long matchingCommandsCounter = 0;
+
+    private final SharedPool sharedPool;
+
+    // used for passing order books between shards
+    private final OrderBookTransferChannel orderBookTransferChannel;
+
+    // sequence of binary command being processed (order book transfer id) and its result reported by handler
+    private long binaryCommandSeq;
+    private CommandResultCode binaryCommandResultCode;
+
     private final String exchangeId; // TODO validate
     private final Path folder;
 
@@ -76,9 +110,29 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
 
     private final boolean cfgSendL2ForEveryCmd;
     private final int cfgL2RefreshDepth;
+    private final long cfgL2PublishIntervalNs;
+    private final IntToLongFunction cfgSymbolL2PublishIntervalNs;
+
+    // regular L2 updates: per-symbol publication state and order books changed since last publication (FIFO)
+    private final IntObjectHashMap<L2PublishState> l2PublishStates = new IntObjectHashMap<>();
+    private final ArrayDeque<L2PublishState> l2PublishQueue = new ArrayDeque<>();
+
+    // number of L2 ticks requested by grouping processor
+    private long l2Tick = 0;
+
+    // capacity planned for this shard
+    private final int plannedSymbolsNum;
+    private final int plannedOrdersNum;
 
     private final ISerializationProcessor serializationProcessor;
 
+    // incremental snapshots: order books changed since last snapshot (null if disabled),
+    // last stored snapshot (0 - no base for incremental snapshot) and number of incremental snapshots since full one
+    private final int maxIncrementalSnapshots;
+    private final IntHashSet changedSymbols;
+    private long lastSnapshotId = 0;
+    private int incrementalChainLength = 0;
+
     private final LoggingConfiguration loggingCfg;
     private final boolean logDebug;
 
@@ -87,11 +141,10 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
                                 final ISerializationProcessor serializationProcessor,
                                 final IOrderBook.OrderBookFactory orderBookFactory,
                                 final SharedPool sharedPool,
+                                final OrderBookTransferChannel orderBookTransferChannel,
                                 final ExchangeConfiguration exchangeCfg) {
 
-        if (Long.bitCount(numShards) != 1) {
-            throw new IllegalArgumentException("Invalid number of shards " + numShards + " - must be power of 2");
-        }
+        ShardingUtils.checkShardsNum(numShards);
 
         final InitialStateConfiguration initStateCfg = exchangeCfg.getInitStateCfg();
 
@@ -99,55 +152,47 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
         this.folder = Paths.get(DiskSerializationProcessorConfiguration.DEFAULT_FOLDER);
 
         this.shardId = shardId;
+        this.shardsNum = (int) numShards;
         this.shardMask = numShards - 1;
         this.serializationProcessor = serializationProcessor;
         this.orderBookFactory = orderBookFactory;
-        this.eventsHelper = new OrderBookEventsHelper(sharedPool::getChain);
+        this.sharedPool = sharedPool;
+        this.orderBookTransferChannel = orderBookTransferChannel;
+        this.shardSymbolsNum = new int[shardsNum];
+
+        final PerformanceConfiguration perfCfg = exchangeCfg.getPerformanceCfg();
+        if (perfCfg.isFlatTradeEvents()) {
+            this.eventsRing = new MatcherEventsRing(perfCfg.getRingBufferSize(), perfCfg.getRingBufferSize());
+            this.eventsHelper = OrderBookEventsHelper.createFlatEventsHelper(eventsRing);
+        } else {
+            this.eventsRing = null;
+            this.eventsHelper = sharedPool.createEventsHelper();
+        }
 
         this.loggingCfg = exchangeCfg.getLoggingCfg();
         this.logDebug = loggingCfg.getLoggingLevels().contains(LoggingConfiguration.LoggingLevel.LOGGING_MATCHING_DEBUG);
 
-        // initialize object pools // TODO move to perf config
+        this.plannedSymbolsNum = Math.max((int) ((perfCfg.getExpectedSymbolsNum() + numShards - 1) / numShards), 1);
+        this.plannedOrdersNum = Math.max((int) ((perfCfg.getExpectedOrdersNum() + numShards - 1) / numShards), 1024);
+
+        // initialize object pools (proportionally to expected number of resting orders, not less than default pool sizes)
         final HashMap<Integer, Integer> objectsPoolConfig = new HashMap<>();
-        objectsPoolConfig.put(ObjectsPool.DIRECT_ORDER, 1024 * 1024);
-        objectsPoolConfig.put(ObjectsPool.DIRECT_BUCKET, 1024 * 64);
-        objectsPoolConfig.put(ObjectsPool.ART_NODE_4, 1024 * 32);
-        objectsPoolConfig.put(ObjectsPool.ART_NODE_16, 1024 * 16);
-        objectsPoolConfig.put(ObjectsPool.ART_NODE_48, 1024 * 8);
-        objectsPoolConfig.put(ObjectsPool.ART_NODE_256, 1024 * 4);
+        objectsPoolConfig.put(ObjectsPool.DIRECT_ORDER, Math.max(plannedOrdersNum, 1024 * 1024));
+        objectsPoolConfig.put(ObjectsPool.DIRECT_BUCKET, Math.max(plannedOrdersNum / 16, 1024 * 64));
+        objectsPoolConfig.put(ObjectsPool.ART_NODE_4, Math.max(plannedOrdersNum / 32, 1024 * 32));
+        objectsPoolConfig.put(ObjectsPool.ART_NODE_16, Math.max(plannedOrdersNum / 64, 1024 * 16));
+        objectsPoolConfig.put(ObjectsPool.ART_NODE_48, Math.max(plannedOrdersNum / 128, 1024 * 8));
+        objectsPoolConfig.put(ObjectsPool.ART_NODE_256, Math.max(plannedOrdersNum / 256, 1024 * 4));
         this.objectsPool = new ObjectsPool(objectsPoolConfig);
 
         if (ISerializationProcessor.canLoadFromSnapshot(serializationProcessor, initStateCfg, shardId, MODULE_ME)) {
 
-            final DeserializedData deserialized = serializationProcessor.loadData(
-                    initStateCfg.getSnapshotId(),
-                    ISerializationProcessor.SerializedModuleType.MATCHING_ENGINE_ROUTER,
-                    shardId,
-                    bytesIn -> {
-                        if (shardId != bytesIn.readInt()) {
-                            throw new IllegalStateException("wrong shardId");
-                        }
-                        if (shardMask != bytesIn.readLong()) {
-                            throw new IllegalStateException("wrong shardMask");
-                        }
-
-                        final BinaryCommandsProcessor bcp = new BinaryCommandsProcessor(
-                                this::handleBinaryMessage,
-                                this::handleReportQuery,
-                                sharedPool,
-                                exchangeCfg.getReportsQueriesCfg(),
-                                bytesIn,
-                                shardId + 1024);
-
-                        final IntObjectHashMap<IOrderBook> ob = SerializationUtils.readIntHashMap(
-                                bytesIn,
-                                bytes -> IOrderBook.create(bytes, objectsPool, eventsHelper, loggingCfg));
-
-                        return DeserializedData.builder().binaryCommandsProcessor(bcp).orderBooks(ob).build();
-                    });
+            final DeserializedData deserialized = loadState(initStateCfg.getSnapshotId(), exchangeCfg);
 
             this.binaryCommandsProcessor = deserialized.binaryCommandsProcessor;
             this.orderBooks = deserialized.orderBooks;
+            this.symbolsRouting = deserialized.symbolsRouting;
+            symbolsRouting.forEachValue(route -> shardSymbolsNum[route.shardId]++);
 
         } else {
             this.binaryCommandsProcessor = new BinaryCommandsProcessor(
@@ -157,21 +202,88 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
                     exchangeCfg.getReportsQueriesCfg(),
                     shardId + 1024);
 
-            this.orderBooks = new IntObjectHashMap<>();
+            this.orderBooks = new IntObjectHashMap<>(plannedSymbolsNum);
+            this.symbolsRouting = new IntObjectHashMap<>(perfCfg.getExpectedSymbolsNum());
         }
 
         final OrdersProcessingConfiguration ordersProcCfg = exchangeCfg.getOrdersProcessingCfg();
         this.cfgMarginTradingEnabled = ordersProcCfg.getMarginTradingMode() == OrdersProcessingConfiguration.MarginTradingMode.MARGIN_TRADING_ENABLED;
 
-        final PerformanceConfiguration perfCfg = exchangeCfg.getPerformanceCfg();
         this.cfgSendL2ForEveryCmd = perfCfg.isSendL2ForEveryCmd();
         this.cfgL2RefreshDepth = perfCfg.getL2RefreshDepth();
+        this.cfgL2PublishIntervalNs = perfCfg.getL2PublishIntervalNs();
+        this.cfgSymbolL2PublishIntervalNs = perfCfg.getSymbolL2PublishIntervalNs();
+
+        this.maxIncrementalSnapshots = exchangeCfg.getSerializationCfg().getMaxIncrementalSnapshots();
+        this.changedSymbols = maxIncrementalSnapshots > 0 ? new IntHashSet() : null;
+    }
+
+    /**
+     * Load snapshot, incremental snapshot is merged with its base snapshot (recursively)
+     */
+    private DeserializedData loadState(final long snapshotId, final ExchangeConfiguration exchangeCfg) {
+
+        return serializationProcessor.loadData(
+                snapshotId,
+                ISerializationProcessor.SerializedModuleType.MATCHING_ENGINE_ROUTER,
+                shardId,
+                bytesIn -> {
+                    int snapshotShardId = bytesIn.readInt();
+                    DeserializedData base = null;
+                    if (snapshotShardId == ISerializationProcessor.INCREMENTAL_SNAPSHOT_MARKER) {
+                        final long baseSnapshotId = bytesIn.readLong();
+                        log.debug("Snapshot {} is incremental, loading base snapshot {}", snapshotId, baseSnapshotId);
+                        base = loadState(baseSnapshotId, exchangeCfg);
+                        snapshotShardId = bytesIn.readInt();
+                    }
+                    if (shardId != snapshotShardId) {
+                        throw new IllegalStateException("wrong shardId");
+                    }
+                    if (shardMask != bytesIn.readLong()) {
+                        throw new IllegalStateException("wrong shardMask");
+                    }
+
+                    final BinaryCommandsProcessor bcp = new BinaryCommandsProcessor(
+                            this::handleBinaryMessage,
+                            this::handleReportQuery,
+                            sharedPool,
+                            exchangeCfg.getReportsQueriesCfg(),
+                            bytesIn,
+                            shardId + 1024);
+
+                    final IntObjectHashMap<IOrderBook> ob;
+                    if (base == null) {
+                        ob = SerializationUtils.readIntHashMap(
+                                bytesIn,
+                                bytes -> IOrderBook.create(bytes, objectsPool, eventsHelper, loggingCfg));
+                    } else {
+                        // apply changed order books to base snapshot state
+                        ob = base.orderBooks;
+                        final int changedNum = bytesIn.readInt();
+                        for (int i = 0; i < changedNum; i++) {
+                            final int symbol = bytesIn.readInt();
+                            ob.remove(symbol);
+                            if (bytesIn.readBoolean()) {
+                                ob.put(symbol, IOrderBook.create(bytesIn, objectsPool, eventsHelper, loggingCfg));
+                            }
+                        }
+                    }
+
+                    final IntObjectHashMap<SymbolRoute> routing = SerializationUtils.readIntHashMap(bytesIn, SymbolRoute::new);
+
+                    return DeserializedData.builder().binaryCommandsProcessor(bcp).orderBooks(ob).symbolsRouting(routing).build();
+                });
     }
 
     public void processOrder(long seq, OrderCommand cmd) {
 
         final OrderCommandType command = cmd.command;
 
+        // L2 tick is visible to all matching engines, even if command belongs to another shard
+        if ((cmd.serviceFlags & 1) != 0) {
+            l2Tick++;
+        }
+
         if (command == OrderCommandType.MOVE_ORDER
                 || command == OrderCommandType.CANCEL_ORDER
                 || command == OrderCommandType.PLACE_ORDER
@@ -179,19 +291,38 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
                 || command == OrderCommandType.ORDER_BOOK_REQUEST) {
             // process specific symbol group only
             if (symbolForThisHandler(cmd.symbol)) {
+                matchingCommandsCounter++;
+                if (changedSymbols != null && command != OrderCommandType.ORDER_BOOK_REQUEST) {
+                    changedSymbols.add(cmd.symbol);
+                }
                 processMatchingCommand(cmd);
+                if (eventsRing != null) {
+                    eventsRing.commit(seq, cmd);
+                }
             }
         } else if (command == OrderCommandType.BINARY_DATA_QUERY || command == OrderCommandType.BINARY_DATA_COMMAND) {
 
+            binaryCommandSeq = seq;
+            binaryCommandResultCode = CommandResultCode.SUCCESS;
             final CommandResultCode resultCode = binaryCommandsProcessor.acceptBinaryFrame(cmd);
             if (shardId == 0) {
-                cmd.resultCode = resultCode;
+                cmd.resultCode = resultCode == CommandResultCode.SUCCESS ? binaryCommandResultCode : resultCode;
             }
 
         } else if (command == OrderCommandType.RESET) {
             // process all symbols groups, only processor 0 writes result
             orderBooks.clear();
+            symbolsRouting.clear();
+            Arrays.fill(shardSymbolsNum, 0);
+            l2PublishStates.clear();
+            l2PublishQueue.clear();
             binaryCommandsProcessor.reset();
+            // next snapshot is full
+            lastSnapshotId = 0;
+            incrementalChainLength = 0;
+            if (changedSymbols != null) {
+                changedSymbols.clear();
+            }
             if (shardId == 0) {
                 cmd.resultCode = CommandResultCode.SUCCESS;
             }
@@ -202,13 +333,22 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
             }
 
         } else if (command == OrderCommandType.PERSIST_STATE_MATCHING) {
+            final boolean incremental = lastSnapshotId != 0 && incrementalChainLength < maxIncrementalSnapshots;
+            final int chainLength = incremental ? incrementalChainLength + 1 : 0;
             final boolean isSuccess = serializationProcessor.storeData(
                     cmd.orderId,
                     seq,
                     cmd.timestamp,
                     ISerializationProcessor.SerializedModuleType.MATCHING_ENGINE_ROUTER,
                     shardId,
-                    this);
+                    incremental ? lastSnapshotId : 0,
+                    chainLength,
+                    incremental ? bytes -> writeSnapshot(bytes, true) : this);
+            if (isSuccess && changedSymbols != null) {
+                lastSnapshotId = cmd.orderId;
+                incrementalChainLength = chainLength;
+                changedSymbols.clear();
+            }
             // Send ACCEPTED because this is a first command in series. Risk engine is second - so it will return SUCCESS
             UnsafeUtils.setResultVolatile(cmd, isSuccess, CommandResultCode.ACCEPTED, CommandResultCode.STATE_PERSIST_MATCHING_ENGINE_FAILED);
         }
@@ -220,6 +360,8 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
         if (message instanceof BatchAddSymbolsCommand) {
             final IntObjectHashMap<CoreSymbolSpecification> symbols = ((BatchAddSymbolsCommand) message).getSymbols();
             symbols.forEach(this::addSymbol);
+        } else if (message instanceof MoveSymbolCommand) {
+            moveSymbol((MoveSymbolCommand) message);
         } else if (message instanceof BatchAddAccountsCommand) {
             // do nothing
         }
@@ -230,8 +372,30 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
     }
 
 
-    private boolean symbolForThisHandler(final long symbol) {
-        return (shardMask == 0) || ((symbol & shardMask) == shardId);
+    private boolean symbolForThisHandler(final int symbol) {
+        final SymbolRoute route = symbolsRouting.get(symbol);
+        if (route == null) {
+            // unknown symbol - any single shard can reject command
+            return (shardsNum == 1) || (ShardingUtils.shardByKey(symbol, shardsNum) == shardId);
+        }
+        if (route.shardId != shardId) {
+            return false;
+        }
+        route.commandsCounter++;
+        return true;
+    }
+
+    /**
+     * Deterministic choice (same for all matching engines) - shard with minimal number of symbols, lowest id first.
+     */
+    private int selectShardForNewSymbol() {
+        int selected = 0;
+        for (int i = 1; i < shardSymbolsNum.length; i++) {
+            if (shardSymbolsNum[i] < shardSymbolsNum[selected]) {
+                selected = i;
+            }
+        }
+        return selected;
     }
 
 
@@ -243,10 +407,97 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
             log.warn("Margin symbols are not allowed: {}", spec);
         }
 
-        if (orderBooks.get(spec.symbolId) == null) {
-            orderBooks.put(spec.symbolId, orderBookFactory.create(spec, objectsPool, eventsHelper, loggingCfg));
-        } else {
+        if (symbolsRouting.containsKey(spec.symbolId)) {
             log.warn("OrderBook for symbol id={} already exists! Can not add symbol: {}", spec.symbolId, spec);
+            return;
+        }
+
+        final int targetShardId = selectShardForNewSymbol();
+        symbolsRouting.put(spec.symbolId, new SymbolRoute(targetShardId));
+        shardSymbolsNum[targetShardId]++;
+
+        // only owner shard keeps order book
+        if (targetShardId == shardId) {
+            final IOrderBook orderBook = orderBookFactory.create(spec, objectsPool, eventsHelper, loggingCfg);
+            orderBook.reserveCapacity(plannedOrdersNum / plannedSymbolsNum);
+            orderBooks.put(spec.symbolId, orderBook);
+            if (changedSymbols != null) {
+                changedSymbols.add(spec.symbolId);
+            }
+        }
+    }
+
+    private void moveSymbol(final MoveSymbolCommand command) {
+
+        final int symbol = command.getSymbolId();
+        final int targetShardId = command.getTargetShardId();
+
+        // validation result is same for all matching engines
+        final SymbolRoute route = symbolsRouting.get(symbol);
+        if (route == null || targetShardId < 0 || targetShardId >= shardSymbolsNum.length || route.shardId == targetShardId) {
+            if (shardId == 0) {
+                log.warn("Can not move symbol id={} to shard {}", symbol, targetShardId);
+            }
+            binaryCommandResultCode = CommandResultCode.SYMBOL_MGMT_SYMBOL_MOVE_FAILED;
+            return;
+        }
+
+        final int sourceShardId = route.shardId;
+
+        // all shards take part in transfer and receive same outcome
+        final boolean moved;
+        if (shardId == sourceShardId) {
+
+            final IOrderBook orderBook = orderBooks.get(symbol);
+            Bytes<?> bytes = Bytes.allocateElasticDirect(1024);
+            try {
+                orderBook.writeMarshallable(bytes);
+            } catch (final RuntimeException ex) {
+                log.error("Failed to serialize order book for symbol id={}", symbol, ex);
+                bytes.release();
+                bytes = null;
+            }
+
+            moved = orderBookTransferChannel.offer(binaryCommandSeq, bytes);
+            if (moved) {
+                orderBooks.remove(symbol);
+                final L2PublishState state = l2PublishStates.remove(symbol);
+                if (state != null && state.queued) {
+                    l2PublishQueue.remove(state);
+                }
+            } else if (bytes != null) {
+                bytes.release();
+            }
+
+        } else {
+
+            // source shard is processing same sequence, waiting for it (limited time)
+            final Bytes<?> bytes = orderBookTransferChannel.await(binaryCommandSeq);
+            moved = bytes != null;
+            if (moved && shardId == targetShardId) {
+                orderBooks.put(symbol, IOrderBook.create(bytes, objectsPool, eventsHelper, loggingCfg));
+                bytes.release();
+            }
+        }
+
+        if (!moved) {
+            if (shardId == 0) {
+                log.warn("Failed to move symbol id={} from shard {} to shard {}", symbol, sourceShardId, targetShardId);
+            }
+            binaryCommandResultCode = CommandResultCode.SYMBOL_MGMT_SYMBOL_MOVE_FAILED;
+            return;
+        }
+
+        if (changedSymbols != null && (shardId == sourceShardId || shardId == targetShardId)) {
+            changedSymbols.add(symbol);
+        }
+
+        route.shardId = targetShardId;
+        shardSymbolsNum[sourceShardId]--;
+        shardSymbolsNum[targetShardId]++;
+
+        if (logDebug) {
+            log.debug("Symbol id={} moved from shard {} to shard {}", symbol, sourceShardId, targetShardId);
         }
     }
 
@@ -258,25 +509,173 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
         } else {
             cmd.resultCode = IOrderBook.processCommand(orderBook, cmd);
 
-            // posting market data for risk processor makes sense only if command execution is successful, otherwise it will be ignored (possible garbage from previous cycle)
+            // posting market data for risk processor makes sense only if command execution is successful
             // TODO don't need for EXCHANGE mode order books?
-            // TODO doing this for many order books simultaneously can introduce hiccups
-            if ((cfgSendL2ForEveryCmd || (cmd.serviceFlags & 1) != 0)
-                    && cmd.command != OrderCommandType.ORDER_BOOK_REQUEST
-                    && cmd.resultCode == CommandResultCode.SUCCESS) {
+            if (cmd.command != OrderCommandType.ORDER_BOOK_REQUEST && cmd.resultCode == CommandResultCode.SUCCESS) {
+                if (cfgSendL2ForEveryCmd) {
+                    cmd.marketData = prepareL2MarketData(cmd, orderBook);
+                    cmd.marketDataSymbol = cmd.symbol;
+                    return;
+                }
+                markL2Changed(cmd.symbol, orderBook);
+            }
 
-                cmd.marketData = orderBook.getL2MarketDataSnapshot(cfgL2RefreshDepth);
+            // any command of the shard can carry regular L2 update of one changed order book
+            if (cmd.marketData == null) {
+                publishNextChangedOrderBook(cmd);
             }
         }
     }
 
+    private void markL2Changed(final int symbol, final IOrderBook orderBook) {
+        L2PublishState state = l2PublishStates.get(symbol);
+        if (state == null) {
+            final long intervalNs = cfgSymbolL2PublishIntervalNs.applyAsLong(symbol);
+            final long intervalTicks = Math.max(1, (intervalNs + cfgL2PublishIntervalNs - 1) / cfgL2PublishIntervalNs);
+            state = new L2PublishState(symbol, orderBook, intervalTicks);
+            l2PublishStates.put(symbol, state);
+        }
+        if (!state.queued) {
+            state.queued = true;
+            l2PublishQueue.addLast(state);
+        }
+    }
+
+    private void publishNextChangedOrderBook(final OrderCommand cmd) {
+
+        final L2PublishState state = l2PublishQueue.pollFirst();
+        if (state == null) {
+            return;
+        }
+
+        if (state.nextTick > l2Tick) {
+            // refresh interval not elapsed yet - move to the end of the queue, so other order books are not blocked
+            l2PublishQueue.addLast(state);
+            return;
+        }
+
+        state.queued = false;
+
+        final L2MarketData data = prepareL2MarketData(cmd, state.orderBook);
+
+        final long askPrice = data.askSize != 0 ? data.askPrices[0] : Long.MAX_VALUE;
+        final long askVolume = data.askSize != 0 ? data.askVolumes[0] : 0;
+        final long bidPrice = data.bidSize != 0 ? data.bidPrices[0] : 0;
+        final long bidVolume = data.bidSize != 0 ? data.bidVolumes[0] : 0;
+
+        if (askPrice == state.askPrice && askVolume == state.askVolume && bidPrice == state.bidPrice && bidVolume == state.bidVolume) {
+            // top of the book did not change - nothing to publish
+            return;
+        }
+
+        state.askPrice = askPrice;
+        state.askVolume = askVolume;
+        state.bidPrice = bidPrice;
+        state.bidVolume = bidVolume;
+        state.nextTick = l2Tick + state.intervalTicks;
+
+        cmd.marketData = data;
+        cmd.marketDataSymbol = state.symbol;
+    }
+
+    private L2MarketData prepareL2MarketData(final OrderCommand cmd, final IOrderBook orderBook) {
+
+        if (cfgL2RefreshDepth <= L2MarketData.L2_SIZE) {
+            // re-using ring buffer slot object - no garbage
+            L2MarketData buffer = cmd.marketDataBuffer;
+            if (buffer == null || buffer.askPrices.length != cfgL2RefreshDepth) {
+                buffer = new L2MarketData(cfgL2RefreshDepth, cfgL2RefreshDepth);
+                cmd.marketDataBuffer = buffer;
+            }
+            orderBook.publishL2MarketDataSnapshot(buffer);
+            return buffer;
+        } else {
+            // deep snapshot, shared and re-created only when top levels changed
+            return orderBook.getCachedL2MarketDataSnapshot(cfgL2RefreshDepth);
+        }
+    }
+
     @Override
     public void writeMarshallable(BytesOut bytes) {
+        writeSnapshot(bytes, false);
+    }
+
+    /**
+     * Incremental snapshot has the same format, but contains only order books changed since last snapshot (based on).
+     */
+    private void writeSnapshot(final BytesOut bytes, final boolean incremental) {
+
+        if (incremental) {
+            bytes.writeInt(ISerializationProcessor.INCREMENTAL_SNAPSHOT_MARKER).writeLong(lastSnapshotId);
+        }
+
         bytes.writeInt(shardId).writeLong(shardMask);
         binaryCommandsProcessor.writeMarshallable(bytes);
 
-        // write orderBooks
-        SerializationUtils.marshallIntHashMap(orderBooks, bytes);
+        // write orderBooks (only changed or removed ones for incremental snapshot)
+        if (incremental) {
+            bytes.writeInt(changedSymbols.size());
+            changedSymbols.forEach(symbol -> {
+                final IOrderBook orderBook = orderBooks.get(symbol);
+                bytes.writeInt(symbol);
+                bytes.writeBoolean(orderBook != null);
+                if (orderBook != null) {
+                    orderBook.writeMarshallable(bytes);
+                }
+            });
+        } else {
+            SerializationUtils.marshallIntHashMap(orderBooks, bytes);
+        }
+
+        // write symbols routing
+        SerializationUtils.marshallIntHashMap(symbolsRouting, bytes);
+    }
+
+    /**
+     * Symbol routing record. Commands counter is a local load metric (not serialized, counted by owner shard only).
+     */
+    @Getter
+    public static final class SymbolRoute implements WriteBytesMarshallable, StateHash {
+
+        private int shardId;
+        private long commandsCounter = 0;
+
+        private SymbolRoute(final int shardId) {
+            this.shardId = shardId;
+        }
+
+        private SymbolRoute(final BytesIn bytes) {
+            this.shardId = bytes.readInt();
+        }
+
+        @Override
+        public void writeMarshallable(BytesOut bytes) {
+            bytes.writeInt(shardId);
+        }
+
+        @Override
+        public int stateHash() {
+            return shardId;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class L2PublishState {
+        private final int symbol;
+        private final IOrderBook orderBook;
+        private final long intervalTicks;
+
+        // order book is in the publication queue
+        private boolean queued = false;
+
+        // can not be published before this L2 tick
+        private long nextTick = 0;
+
+        // last published top of the book
+        private long askPrice = Long.MAX_VALUE;
+        private long askVolume = 0;
+        private long bidPrice = 0;
+        private long bidVolume = 0;
     }
 
     @Builder
@@ -284,5 +683,6 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable {
     private static class DeserializedData {
         private final BinaryCommandsProcessor binaryCommandsProcessor;
         private final IntObjectHashMap<IOrderBook> orderBooks;
+        private final IntObjectHashMap<SymbolRoute> symbolsRouting;
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.processors;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.Bytes;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Passes serialized order book from source matching engine to target matching engine (moving symbol between shards).
+ * <p>
+ * Every matching engine takes part in each transfer exactly once: source shard calls {@link #offer}, other shards call {@link #await}.
+ * Outcome is decided once (compare-and-set) and is the same for all participants:
+ * - success - source offered serialized order book before any participant gave up waiting;
+ * - failure - source failed to serialize order book, or some participant did not receive it within timeout
+ * (source is slow, halted, or is processed later by the same thread).
+ * So all shards apply same routing change, and waiting time is always bounded.
+ * <p>
+ * Threadsafe
+ */
+@Slf4j
+public final class OrderBookTransferChannel {
+
+    private static final Object FAILED = new Object();
+    private static final Object ABANDONED = new Object();
+
+    private final int participantsNum;
+    private final long timeoutNs;
+
+    // transfer id (sequence of move command) -> transfer
+    private final ConcurrentHashMap<Long, Transfer> transfers = new ConcurrentHashMap<>();
+
+    public OrderBookTransferChannel(final int participantsNum, final long timeoutNs) {
+        this.participantsNum = participantsNum;
+        this.timeoutNs = timeoutNs;
+    }
+
+    /**
+     * Offer serialized order book (called by source shard)
+     *
+     * @param transferId - transfer id, same for all participants
+     * @param bytes      - serialized order book, or null if serialization failed
+     * @return true if transfer succeeded (source should remove its order book), false otherwise
+     */
+    public boolean offer(final long transferId, final Bytes<?> bytes) {
+        final Transfer transfer = transfers.computeIfAbsent(transferId, k -> new Transfer());
+        final boolean accepted = bytes != null && transfer.state.compareAndSet(null, bytes);
+        if (!accepted) {
+            transfer.state.compareAndSet(null, FAILED);
+        }
+        complete(transferId, transfer);
+        return accepted;
+    }
+
+    /**
+     * Wait for transfer outcome (called by non-source shards), waiting time is limited by timeout
+     *
+     * @param transferId - transfer id, same for all participants
+     * @return serialized order book if transfer succeeded (target shard should deserialize and release it), null otherwise
+     */
+    public Bytes<?> await(final long transferId) {
+        final Transfer transfer = transfers.computeIfAbsent(transferId, k -> new Transfer());
+        final long deadline = System.nanoTime() + timeoutNs;
+        while (transfer.state.get() == null && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            Thread.yield();
+        }
+        if (transfer.state.compareAndSet(null, ABANDONED)) {
+            log.warn("Order book transfer {} is abandoned: not offered within {}ms", transferId, timeoutNs / 1_000_000);
+        }
+        complete(transferId, transfer);
+        final Object state = transfer.state.get();
+        return (state instanceof Bytes) ? (Bytes<?>) state : null;
+    }
+
+    private void complete(final long transferId, final Transfer transfer) {
+        // last participant removes transfer record
+        if (transfer.participants.incrementAndGet() == participantsNum) {
+            transfers.remove(transferId);
+        }
+    }
+
+    private static final class Transfer {
+        // null - pending, Bytes - offered, FAILED or ABANDONED
+        private final AtomicReference<Object> state = new AtomicReference<>();
+        private final AtomicInteger participants = new AtomicInteger();
+    }
+}
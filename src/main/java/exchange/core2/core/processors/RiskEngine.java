@@ -29,10 +29,12 @@ import exchange.core2.core.common.config.ExchangeConfiguration;
 import exchange.core2.core.common.config.InitialStateConfiguration;
 import exchange.core2.core.common.config.LoggingConfiguration;
 import exchange.core2.core.common.config.OrdersProcessingConfiguration;
+import exchange.core2.core.common.config.PerformanceConfiguration;
 import exchange.core2.core.processors.journaling.DiskSerializationProcessorConfiguration;
 import exchange.core2.core.processors.journaling.ISerializationProcessor;
 import exchange.core2.core.utils.CoreArithmeticUtils;
 import exchange.core2.core.utils.SerializationUtils;
+import exchange.core2.core.utils.ShardingUtils;
 import exchange.core2.core.utils.UnsafeUtils;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -42,6 +44,8 @@ import net.openhft.chronicle.bytes.BytesIn;
 import net.openhft.chronicle.bytes.BytesMarshallable;
 import net.openhft.chronicle.bytes.BytesOut;
 import net.openhft.chronicle.bytes.WriteBytesMarshallable;
+import org.eclipse.collections.api.block.procedure.Procedure;
+import org.eclipse.collections.api.block.procedure.primitive.IntLongProcedure;
 import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
 import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
 
@@ -71,8 +75,24 @@ public final class RiskEngine implements WriteBytesMarshallable {
     private final IntLongHashMap suspends;
     private final ObjectsPool objectsPool;
 
+    // reads trade events (flat records or chain) without producing garbage
+    private final MatcherEventsRing.Cursor events = new MatcherEventsRing.Cursor();
+
+    // symbol -> first record of the linked list of margin positions (all users of this shard)
+    private final IntObjectHashMap<SymbolPositionRecord> symbolPositions = new IntObjectHashMap<>();
+
+    // free margin aggregates of the user are re-calculated and compared on every N-th margin order
+    public static final int FREE_MARGIN_CHECK_INTERVAL = 1024;
+    private long marginOrdersCounter = 0;
+    private long freeMarginMismatchesCounter = 0;
+    private final IntLongHashMap freeMarginCheckDiff = new IntLongHashMap();
+    private final Procedure<SymbolPositionRecord> freeMarginRecalculator = this::recalculateFreeMargin;
+    private final IntLongProcedure freeMarginAggregateSubtractor = (currency, amount) -> freeMarginCheckDiff.addToValue(currency, -amount);
+
     // sharding by symbolId
     private final int shardId;
+    private final int shardsNum;
+    // shardsNum - 1 (bit mask for power of 2 numbers), stored in snapshot for compatibility check
     private final long shardMask;
 
     private final String exchangeId; // TODO validate
@@ -81,8 +101,17 @@ public final class RiskEngine implements WriteBytesMarshallable {
     private final boolean cfgIgnoreRiskProcessing;
     private final boolean cfgMarginTradingEnabled;
 
+    // capacity planned for this shard (users are sharded by uid, all symbols are known by each shard)
+    private final int plannedUsersNum;
+    private final int plannedSymbolsNum;
+
     private final ISerializationProcessor serializationProcessor;
 
+    // incremental snapshots: last stored snapshot (0 - no base for incremental snapshot) and number of incremental snapshots since full one
+    private final int maxIncrementalSnapshots;
+    private long lastSnapshotId = 0;
+    private int incrementalChainLength = 0;
+
     private final boolean logDebug;
 
     public RiskEngine(final int shardId,
@@ -91,9 +120,7 @@ public final class RiskEngine implements WriteBytesMarshallable {
                       final SharedPool sharedPool,
                       final ExchangeConfiguration exchangeConfiguration) {
 
-        if (Long.bitCount(numShards) != 1) {
-            throw new IllegalArgumentException("Invalid number of shards " + numShards + " - must be power of 2");
-        }
+        ShardingUtils.checkShardsNum(numShards);
 
         final InitialStateConfiguration initStateCfg = exchangeConfiguration.getInitStateCfg();
 
@@ -101,12 +128,17 @@ public final class RiskEngine implements WriteBytesMarshallable {
         this.folder = Paths.get(DiskSerializationProcessorConfiguration.DEFAULT_FOLDER);
 
         this.shardId = shardId;
+        this.shardsNum = (int) numShards;
         this.shardMask = numShards - 1;
         this.serializationProcessor = serializationProcessor;
 
-        // initialize object pools // TODO move to perf config
+        final PerformanceConfiguration perfCfg = exchangeConfiguration.getPerformanceCfg();
+        this.plannedUsersNum = Math.max((int) ((perfCfg.getExpectedUsersNum() + numShards - 1) / numShards), 16);
+        this.plannedSymbolsNum = Math.max(perfCfg.getExpectedSymbolsNum(), 16);
+
+        // initialize object pools (few margin positions per user, not less than default pool size)
         final HashMap<Integer, Integer> objectsPoolConfig = new HashMap<>();
-        objectsPoolConfig.put(ObjectsPool.SYMBOL_POSITION_RECORD, 1024 * 256);
+        objectsPoolConfig.put(ObjectsPool.SYMBOL_POSITION_RECORD, Math.max(plannedUsersNum * 4, 1024 * 256));
         this.objectsPool = new ObjectsPool(objectsPoolConfig);
 
         this.logDebug = exchangeConfiguration.getLoggingCfg().getLoggingLevels().contains(LoggingConfiguration.LoggingLevel.LOGGING_RISK_DEBUG);
@@ -114,40 +146,7 @@ public final class RiskEngine implements WriteBytesMarshallable {
         if (ISerializationProcessor.canLoadFromSnapshot(serializationProcessor, initStateCfg, shardId, MODULE_RE)) {
 
             // TODO refactor, change to creator (simpler init)`
-            final State state = serializationProcessor.loadData(
-                    initStateCfg.getSnapshotId(),
-                    MODULE_RE,
-                    shardId,
-                    bytesIn -> {
-                        if (shardId != bytesIn.readInt()) {
-                            throw new IllegalStateException("wrong shardId");
-                        }
-                        if (shardMask != bytesIn.readLong()) {
-                            throw new IllegalStateException("wrong shardMask");
-                        }
-                        final SymbolSpecificationProvider symbolSpecificationProvider = new SymbolSpecificationProvider(bytesIn);
-                        final UserProfileService userProfileService = new UserProfileService(bytesIn);
-                        final BinaryCommandsProcessor binaryCommandsProcessor = new BinaryCommandsProcessor(
-                                this::handleBinaryMessage,
-                                this::handleReportQuery,
-                                sharedPool,
-                                exchangeConfiguration.getReportsQueriesCfg(),
-                                bytesIn,
-                                shardId);
-                        final IntObjectHashMap<LastPriceCacheRecord> lastPriceCache = SerializationUtils.readIntHashMap(bytesIn, LastPriceCacheRecord::new);
-                        final IntLongHashMap fees = SerializationUtils.readIntLongHashMap(bytesIn);
-                        final IntLongHashMap adjustments = SerializationUtils.readIntLongHashMap(bytesIn);
-                        final IntLongHashMap suspends = SerializationUtils.readIntLongHashMap(bytesIn);
-
-                        return new State(
-                                symbolSpecificationProvider,
-                                userProfileService,
-                                binaryCommandsProcessor,
-                                lastPriceCache,
-                                fees,
-                                adjustments,
-                                suspends);
-                    });
+            final State state = loadState(initStateCfg.getSnapshotId(), sharedPool, exchangeConfiguration);
 
             this.symbolSpecificationProvider = state.symbolSpecificationProvider;
             this.userProfileService = state.userProfileService;
@@ -158,15 +157,15 @@ public final class RiskEngine implements WriteBytesMarshallable {
             this.suspends = state.suspends;
 
         } else {
-            this.symbolSpecificationProvider = new SymbolSpecificationProvider();
-            this.userProfileService = new UserProfileService();
+            this.symbolSpecificationProvider = new SymbolSpecificationProvider(plannedSymbolsNum);
+            this.userProfileService = new UserProfileService(perfCfg.getUserProfilesStoreFactory().create(plannedUsersNum));
             this.binaryCommandsProcessor = new BinaryCommandsProcessor(
                     this::handleBinaryMessage,
                     this::handleReportQuery,
                     sharedPool,
                     exchangeConfiguration.getReportsQueriesCfg(),
                     shardId);
-            this.lastPriceCache = new IntObjectHashMap<>();
+            this.lastPriceCache = new IntObjectHashMap<>(plannedSymbolsNum);
             this.fees = new IntLongHashMap();
             this.adjustments = new IntLongHashMap();
             this.suspends = new IntLongHashMap();
@@ -175,6 +174,17 @@ public final class RiskEngine implements WriteBytesMarshallable {
         final OrdersProcessingConfiguration ordersProcCfg = exchangeConfiguration.getOrdersProcessingCfg();
         this.cfgIgnoreRiskProcessing = ordersProcCfg.getRiskProcessingMode() == OrdersProcessingConfiguration.RiskProcessingMode.NO_RISK_PROCESSING;
         this.cfgMarginTradingEnabled = ordersProcCfg.getMarginTradingMode() == OrdersProcessingConfiguration.MarginTradingMode.MARGIN_TRADING_ENABLED;
+
+        this.maxIncrementalSnapshots = exchangeConfiguration.getSerializationCfg().getMaxIncrementalSnapshots();
+        if (maxIncrementalSnapshots > 0) {
+            userProfileService.enableChangesTracking();
+        }
+
+        // rebuild incremental margin state (not serialized)
+        userProfileService.forEachUserProfile(userProfile -> userProfile.forEachPosition(position -> {
+            linkPositionRecord(userProfile, position);
+            refreshFreeMargin(position, symbolSpecificationProvider.getSymbolSpecification(position.symbol));
+        }));
     }
 
     @ToString
@@ -230,6 +240,10 @@ public final class RiskEngine implements WriteBytesMarshallable {
      * @return true if caller should publish sequence even if batch was not processed yet
      */
     public boolean preProcessCommand(final long seq, final OrderCommand cmd) {
+
+        // no user profiles references are kept between commands
+        userProfileService.evictProfiles();
+
         switch (cmd.command) {
             case MOVE_ORDER:
             case CANCEL_ORDER:
@@ -291,13 +305,22 @@ public final class RiskEngine implements WriteBytesMarshallable {
                 return true;// true = publish sequence before finishing processing whole batch
 
             case PERSIST_STATE_RISK:
+                final boolean incremental = lastSnapshotId != 0 && incrementalChainLength < maxIncrementalSnapshots;
+                final int chainLength = incremental ? incrementalChainLength + 1 : 0;
                 final boolean isSuccess = serializationProcessor.storeData(
                         cmd.orderId,
                         seq,
                         cmd.timestamp,
                         MODULE_RE,
                         shardId,
-                        this);
+                        incremental ? lastSnapshotId : 0,
+                        chainLength,
+                        incremental ? bytes -> writeSnapshot(bytes, true) : this);
+                if (isSuccess && maxIncrementalSnapshots > 0) {
+                    lastSnapshotId = cmd.orderId;
+                    incrementalChainLength = chainLength;
+                    userProfileService.clearChanges();
+                }
                 UnsafeUtils.setResultVolatile(cmd, isSuccess, CommandResultCode.SUCCESS, CommandResultCode.STATE_PERSIST_RISK_ENGINE_FAILED);
                 return false;
         }
@@ -352,7 +375,7 @@ public final class RiskEngine implements WriteBytesMarshallable {
     }
 
     public boolean uidForThisHandler(final long uid) {
-        return (shardMask == 0) || ((uid & shardMask) == shardId);
+        return (shardsNum == 1) || (ShardingUtils.shardByKey(uid, shardsNum) == shardId);
     }
 
     private CommandResultCode placeOrderRiskCheck(final OrderCommand cmd) {
@@ -403,16 +426,22 @@ public final class RiskEngine implements WriteBytesMarshallable {
                 return CommandResultCode.RISK_MARGIN_TRADING_DISABLED;
             }
 
-            SymbolPositionRecord position = userProfile.positions.get(spec.symbolId); // TODO getIfAbsentPut?
+            SymbolPositionRecord position = userProfile.getPositionRecord(spec.symbolId); // TODO getIfAbsentPut?
             if (position == null) {
                 position = objectsPool.get(ObjectsPool.SYMBOL_POSITION_RECORD, SymbolPositionRecord::new);
                 position.initialize(userProfile.uid, spec.symbolId, spec.quoteCurrency);
-                userProfile.positions.put(spec.symbolId, position);
+                userProfile.addPositionRecord(spec.symbolId, position);
+                linkPositionRecord(userProfile, position);
+            }
+
+            if (++marginOrdersCounter % FREE_MARGIN_CHECK_INTERVAL == 0) {
+                checkFreeMargin(userProfile);
             }
 
             final boolean canPlaceOrder = canPlaceMarginOrder(cmd, userProfile, spec, position);
             if (canPlaceOrder) {
                 position.pendingHold(cmd.action, cmd.size);
+                refreshFreeMargin(position, spec);
                 return CommandResultCode.VALID_FOR_MATCHING_ENGINE;
             } else {
                 // try to cleanup position if refusing to place
@@ -433,19 +462,8 @@ public final class RiskEngine implements WriteBytesMarshallable {
 
         final int currency = (cmd.action == OrderAction.BID) ? spec.quoteCurrency : spec.baseCurrency;
 
-        // futures positions check for this currency
-        long freeFuturesMargin = 0L;
-        if (cfgMarginTradingEnabled) {
-            for (final SymbolPositionRecord position : userProfile.positions) {
-                if (position.currency == currency) {
-                    final int recSymbol = position.symbol;
-                    final CoreSymbolSpecification spec2 = symbolSpecificationProvider.getSymbolSpecification(recSymbol);
-                    // add P&L subtract margin
-                    freeFuturesMargin +=
-                            (position.estimateProfit(spec2, lastPriceCache.get(recSymbol)) - position.calculateRequiredMarginForFutures(spec2));
-                }
-            }
-        }
+        // futures positions check for this currency (P&L minus margin)
+        final long freeFuturesMargin = cfgMarginTradingEnabled ? userProfile.getPositionsFreeMargin(currency) : 0L;
 
         final long size = cmd.size;
         final long orderHoldAmount;
@@ -531,22 +549,9 @@ public final class RiskEngine implements WriteBytesMarshallable {
 
         // extra margin is required
 
-        final int symbol = cmd.symbol;
-        // calculate free margin for all positions same currency
-        long freeMargin = 0L;
-        for (final SymbolPositionRecord positionRecord : userProfile.positions) {
-            final int recSymbol = positionRecord.symbol;
-            if (recSymbol != symbol) {
-                if (positionRecord.currency == spec.quoteCurrency) {
-                    final CoreSymbolSpecification spec2 = symbolSpecificationProvider.getSymbolSpecification(recSymbol);
-                    // add P&L subtract margin
-                    freeMargin += positionRecord.estimateProfit(spec2, lastPriceCache.get(recSymbol));
-                    freeMargin -= positionRecord.calculateRequiredMarginForFutures(spec2);
-                }
-            } else {
-                freeMargin = position.estimateProfit(spec, lastPriceCache.get(spec.symbolId));
-            }
-        }
+        // free margin of other positions in same currency (P&L minus margin) plus P&L of this position
+        final long freeMargin = userProfile.getPositionsFreeMargin(spec.quoteCurrency) - position.freeMargin
+                + position.estimateProfit(spec, lastPriceCache.get(spec.symbolId));
 
 //        log.debug("newMargin={} <= account({})={} + free {}",
 //                newRequiredMarginForSymbol, position.currency, userProfile.accounts.get(position.currency), freeMargin);
@@ -560,10 +565,11 @@ public final class RiskEngine implements WriteBytesMarshallable {
         final int symbol = cmd.symbol;
 
         final L2MarketData marketData = cmd.marketData;
-        MatcherTradeEvent mte = cmd.matcherEvent;
+        final MatcherEventsRing.Cursor events = this.events;
+        final boolean hasEvents = events.wrap(cmd) && events.eventType() != MatcherEventType.BINARY_EVENT;
 
         // skip events processing if no events (or if contains BINARY EVENT)
-        if (marketData == null && (mte == null || mte.eventType == MatcherEventType.BINARY_EVENT)) {
+        if (marketData == null && !hasEvents) {
             return false;
         }
 
@@ -574,7 +580,7 @@ public final class RiskEngine implements WriteBytesMarshallable {
 
         final boolean takerSell = cmd.action == OrderAction.ASK;
 
-        if (mte != null && mte.eventType != MatcherEventType.BINARY_EVENT) {
+        if (hasEvents) {
             // at least one event to process, resolving primary/taker user profile
             // TODO processing order is reversed
             if (spec.type == SymbolType.CURRENCY_EXCHANGE_PAIR) {
@@ -584,18 +590,20 @@ public final class RiskEngine implements WriteBytesMarshallable {
                         : null;
 
                 // REJECT always comes first; REDUCE is always single event
-                if (mte.eventType == MatcherEventType.REDUCE || mte.eventType == MatcherEventType.REJECT) {
+                boolean hasTrades = true;
+                final MatcherEventType firstEventType = events.eventType();
+                if (firstEventType == MatcherEventType.REDUCE || firstEventType == MatcherEventType.REJECT) {
                     if (takerUp != null) {
-                        handleMatcherRejectReduceEventExchange(cmd, mte, spec, takerSell, takerUp);
+                        handleMatcherRejectReduceEventExchange(cmd, events, spec, takerSell, takerUp);
                     }
-                    mte = mte.nextEvent;
+                    hasTrades = events.next();
                 }
 
-                if (mte != null) {
+                if (hasTrades) {
                     if (takerSell) {
-                        handleMatcherEventsExchangeSell(mte, spec, takerUp);
+                        handleMatcherEventsExchangeSell(events, spec, takerUp);
                     } else {
-                        handleMatcherEventsExchangeBuy(mte, spec, takerUp, cmd);
+                        handleMatcherEventsExchangeBuy(events, spec, takerUp, cmd);
                     }
                 }
             } else {
@@ -605,61 +613,69 @@ public final class RiskEngine implements WriteBytesMarshallable {
                 // for margin-mode symbols also resolve position record
                 final SymbolPositionRecord takerSpr = (takerUp != null) ? takerUp.getPositionRecordOrThrowEx(symbol) : null;
                 do {
-                    handleMatcherEventMargin(mte, spec, cmd.action, takerUp, takerSpr);
-                    mte = mte.nextEvent;
-                } while (mte != null);
+                    handleMatcherEventMargin(events, spec, cmd.action, takerUp, takerSpr);
+                } while (events.next());
             }
         }
 
-        // Process marked data
+        // Process marked data (can belong to another symbol of the same matching engine shard)
         if (marketData != null && cfgMarginTradingEnabled) {
-            final RiskEngine.LastPriceCacheRecord record = lastPriceCache.getIfAbsentPut(symbol, RiskEngine.LastPriceCacheRecord::new);
-            record.askPrice = (marketData.askSize != 0) ? marketData.askPrices[0] : Long.MAX_VALUE;
-            record.bidPrice = (marketData.bidSize != 0) ? marketData.bidPrices[0] : 0;
+            final RiskEngine.LastPriceCacheRecord record = lastPriceCache.getIfAbsentPut(cmd.marketDataSymbol, RiskEngine.LastPriceCacheRecord::new);
+            final long askPrice = (marketData.askSize != 0) ? marketData.askPrices[0] : Long.MAX_VALUE;
+            final long bidPrice = (marketData.bidSize != 0) ? marketData.bidPrices[0] : 0;
+            if (record.askPrice != askPrice || record.bidPrice != bidPrice) {
+                record.askPrice = askPrice;
+                record.bidPrice = bidPrice;
+                refreshSymbolFreeMargin(cmd.marketDataSymbol, record);
+            }
         }
 
         return false;
     }
 
-    private void handleMatcherEventMargin(final MatcherTradeEvent ev,
+    private void handleMatcherEventMargin(final MatcherEventsRing.Cursor ev,
                                           final CoreSymbolSpecification spec,
                                           final OrderAction takerAction,
                                           final UserProfile takerUp,
                                           final SymbolPositionRecord takerSpr) {
         if (takerUp != null) {
-            if (ev.eventType == MatcherEventType.TRADE) {
+            if (ev.eventType() == MatcherEventType.TRADE) {
                 // update taker's position
-                final long sizeOpen = takerSpr.updatePositionForMarginTrade(takerAction, ev.size, ev.price);
+                final long sizeOpen = takerSpr.updatePositionForMarginTrade(takerAction, ev.size(), ev.price());
                 final long fee = spec.takerFee * sizeOpen;
                 takerUp.accounts.addToValue(spec.quoteCurrency, -fee);
                 fees.addToValue(spec.quoteCurrency, fee);
-            } else if (ev.eventType == MatcherEventType.REJECT || ev.eventType == MatcherEventType.REDUCE) {
+            } else if (ev.eventType() == MatcherEventType.REJECT || ev.eventType() == MatcherEventType.REDUCE) {
                 // for cancel/rejection only one party is involved
-                takerSpr.pendingRelease(takerAction, ev.size);
+                takerSpr.pendingRelease(takerAction, ev.size());
             }
 
             if (takerSpr.isEmpty()) {
                 removePositionRecord(takerSpr, takerUp);
+            } else {
+                refreshFreeMargin(takerSpr, spec);
             }
         }
 
-        if (ev.eventType == MatcherEventType.TRADE && uidForThisHandler(ev.matchedOrderUid)) {
+        if (ev.eventType() == MatcherEventType.TRADE && uidForThisHandler(ev.matchedOrderUid())) {
             // update maker's position
-            final UserProfile maker = userProfileService.getUserProfileOrAddSuspended(ev.matchedOrderUid);
+            final UserProfile maker = userProfileService.getUserProfileOrAddSuspended(ev.matchedOrderUid());
             final SymbolPositionRecord makerSpr = maker.getPositionRecordOrThrowEx(spec.symbolId);
-            long sizeOpen = makerSpr.updatePositionForMarginTrade(takerAction.opposite(), ev.size, ev.price);
+            long sizeOpen = makerSpr.updatePositionForMarginTrade(takerAction.opposite(), ev.size(), ev.price());
             final long fee = spec.makerFee * sizeOpen;
             maker.accounts.addToValue(spec.quoteCurrency, -fee);
             fees.addToValue(spec.quoteCurrency, fee);
             if (makerSpr.isEmpty()) {
                 removePositionRecord(makerSpr, maker);
+            } else {
+                refreshFreeMargin(makerSpr, spec);
             }
         }
 
     }
 
     private void handleMatcherRejectReduceEventExchange(final OrderCommand cmd,
-                                                        final MatcherTradeEvent ev,
+                                                        final MatcherEventsRing.Cursor ev,
                                                         final CoreSymbolSpecification spec,
                                                         final boolean takerSell,
                                                         final UserProfile taker) {
@@ -669,14 +685,14 @@ public final class RiskEngine implements WriteBytesMarshallable {
         // for cancel/rejection only one party is involved
         if (takerSell) {
 
-            taker.accounts.addToValue(spec.baseCurrency, CoreArithmeticUtils.calculateAmountAsk(ev.size, spec));
+            taker.accounts.addToValue(spec.baseCurrency, CoreArithmeticUtils.calculateAmountAsk(ev.size(), spec));
 
         } else {
 
             if (cmd.command == OrderCommandType.PLACE_ORDER && cmd.orderType == OrderType.FOK_BUDGET) {
-                taker.accounts.addToValue(spec.quoteCurrency, CoreArithmeticUtils.calculateAmountBidTakerFeeForBudget(ev.size, ev.price, spec));
+                taker.accounts.addToValue(spec.quoteCurrency, CoreArithmeticUtils.calculateAmountBidTakerFeeForBudget(ev.size(), ev.price(), spec));
             } else {
-                taker.accounts.addToValue(spec.quoteCurrency, CoreArithmeticUtils.calculateAmountBidTakerFee(ev.size, ev.bidderHoldPrice, spec));
+                taker.accounts.addToValue(spec.quoteCurrency, CoreArithmeticUtils.calculateAmountBidTakerFee(ev.size(), ev.bidderHoldPrice(), spec));
             }
             // TODO for OrderType.IOC_BUDGET - for REJECT should release leftover deposit after all trades calculated
         }
@@ -684,7 +700,7 @@ public final class RiskEngine implements WriteBytesMarshallable {
     }
 
 
-    private void handleMatcherEventsExchangeSell(MatcherTradeEvent ev,
+    private void handleMatcherEventsExchangeSell(final MatcherEventsRing.Cursor ev,
                                                  final CoreSymbolSpecification spec,
                                                  final UserProfile taker) {
 
@@ -697,22 +713,22 @@ public final class RiskEngine implements WriteBytesMarshallable {
 
         final int quoteCurrency = spec.quoteCurrency;
 
-        while (ev != null) {
-            assert ev.eventType == MatcherEventType.TRADE;
+        do {
+            assert ev.eventType() == MatcherEventType.TRADE;
 
             // aggregate transfers for selling taker
             if (taker != null) {
-                takerSizePriceForThisHandler += ev.size * ev.price;
-                takerSizeForThisHandler += ev.size;
+                takerSizePriceForThisHandler += ev.size() * ev.price();
+                takerSizeForThisHandler += ev.size();
             }
 
             // process transfers for buying maker
-            if (uidForThisHandler(ev.matchedOrderUid)) {
-                final long size = ev.size;
-                final UserProfile maker = userProfileService.getUserProfileOrAddSuspended(ev.matchedOrderUid);
+            if (uidForThisHandler(ev.matchedOrderUid())) {
+                final long size = ev.size();
+                final UserProfile maker = userProfileService.getUserProfileOrAddSuspended(ev.matchedOrderUid());
 
                 // buying, use bidderHoldPrice to calculate released amount based on price difference
-                final long priceDiff = ev.bidderHoldPrice - ev.price;
+                final long priceDiff = ev.bidderHoldPrice() - ev.price();
                 final long amountDiffToReleaseInQuoteCurrency = CoreArithmeticUtils.calculateAmountBidReleaseCorrMaker(size, priceDiff, spec);
                 maker.accounts.addToValue(quoteCurrency, amountDiffToReleaseInQuoteCurrency);
 
@@ -722,8 +738,7 @@ public final class RiskEngine implements WriteBytesMarshallable {
                 makerSizeForThisHandler += size;
             }
 
-            ev = ev.nextEvent;
-        }
+        } while (ev.next());
 
         if (taker != null) {
             taker.accounts.addToValue(quoteCurrency, takerSizePriceForThisHandler * spec.quoteScaleK - spec.takerFee * takerSizeForThisHandler);
@@ -735,7 +750,7 @@ public final class RiskEngine implements WriteBytesMarshallable {
         }
     }
 
-    private void handleMatcherEventsExchangeBuy(MatcherTradeEvent ev,
+    private void handleMatcherEventsExchangeBuy(final MatcherEventsRing.Cursor ev,
                                                 final CoreSymbolSpecification spec,
                                                 final UserProfile taker,
                                                 final OrderCommand cmd) {
@@ -749,29 +764,28 @@ public final class RiskEngine implements WriteBytesMarshallable {
 
         final int quoteCurrency = spec.quoteCurrency;
 
-        while (ev != null) {
-            assert ev.eventType == MatcherEventType.TRADE;
+        do {
+            assert ev.eventType() == MatcherEventType.TRADE;
 
             // perform transfers for taker
             if (taker != null) {
 
-                takerSizePriceSum += ev.size * ev.price;
-                takerSizePriceHeldSum += ev.size * ev.bidderHoldPrice;
+                takerSizePriceSum += ev.size() * ev.price();
+                takerSizePriceHeldSum += ev.size() * ev.bidderHoldPrice();
 
-                takerSizeForThisHandler += ev.size;
+                takerSizeForThisHandler += ev.size();
             }
 
             // process transfers for maker
-            if (uidForThisHandler(ev.matchedOrderUid)) {
-                final long size = ev.size;
-                final UserProfile maker = userProfileService.getUserProfileOrAddSuspended(ev.matchedOrderUid);
-                final long gainedAmountInQuoteCurrency = CoreArithmeticUtils.calculateAmountBid(size, ev.price, spec);
+            if (uidForThisHandler(ev.matchedOrderUid())) {
+                final long size = ev.size();
+                final UserProfile maker = userProfileService.getUserProfileOrAddSuspended(ev.matchedOrderUid());
+                final long gainedAmountInQuoteCurrency = CoreArithmeticUtils.calculateAmountBid(size, ev.price(), spec);
                 maker.accounts.addToValue(quoteCurrency, gainedAmountInQuoteCurrency - spec.makerFee * size);
                 makerSizeForThisHandler += size;
             }
 
-            ev = ev.nextEvent;
-        }
+        } while (ev.next());
 
         if (taker != null) {
 
@@ -792,17 +806,123 @@ public final class RiskEngine implements WriteBytesMarshallable {
 
     private void removePositionRecord(SymbolPositionRecord record, UserProfile userProfile) {
         userProfile.accounts.addToValue(record.currency, record.profit);
-        userProfile.positions.removeKey(record.symbol);
+        userProfile.addPositionsFreeMargin(record.currency, -record.freeMargin);
+        userProfile.removePositionRecord(record.symbol);
+        unlinkPositionRecord(record);
         objectsPool.put(ObjectsPool.SYMBOL_POSITION_RECORD, record);
     }
 
+    private void linkPositionRecord(final UserProfile userProfile, final SymbolPositionRecord record) {
+        record.owner = userProfile;
+        final SymbolPositionRecord head = symbolPositions.get(record.symbol);
+        record.prevInSymbol = null;
+        record.nextInSymbol = head;
+        if (head != null) {
+            head.prevInSymbol = record;
+        }
+        symbolPositions.put(record.symbol, record);
+    }
+
+    private void unlinkPositionRecord(final SymbolPositionRecord record) {
+        final SymbolPositionRecord prev = record.prevInSymbol;
+        final SymbolPositionRecord next = record.nextInSymbol;
+        if (prev != null) {
+            prev.nextInSymbol = next;
+        } else if (next != null) {
+            symbolPositions.put(record.symbol, next);
+        } else {
+            symbolPositions.remove(record.symbol);
+        }
+        if (next != null) {
+            next.prevInSymbol = prev;
+        }
+        record.prevInSymbol = null;
+        record.nextInSymbol = null;
+        record.owner = null;
+    }
+
+    /**
+     * Update position free margin (P&L minus required margin) and owner's aggregate for position currency.
+     * Should be called after any position change.
+     */
+    private void refreshFreeMargin(final SymbolPositionRecord record, final CoreSymbolSpecification spec) {
+        final long freeMargin = record.estimateProfit(spec, lastPriceCache.get(record.symbol)) - record.calculateRequiredMarginForFutures(spec);
+        if (freeMargin != record.freeMargin) {
+            record.owner.addPositionsFreeMargin(record.currency, freeMargin - record.freeMargin);
+            record.freeMargin = freeMargin;
+        }
+    }
+
+    /**
+     * Update free margin of all positions for symbol after last price change
+     */
+    private void refreshSymbolFreeMargin(final int symbol, final LastPriceCacheRecord lastPrice) {
+        SymbolPositionRecord record = symbolPositions.get(symbol);
+        if (record == null) {
+            return;
+        }
+        final CoreSymbolSpecification spec = symbolSpecificationProvider.getSymbolSpecification(symbol);
+        do {
+            final long freeMargin = record.estimateProfit(spec, lastPrice) - record.calculateRequiredMarginForFutures(spec);
+            if (freeMargin != record.freeMargin) {
+                record.owner.addPositionsFreeMargin(record.currency, freeMargin - record.freeMargin);
+                record.freeMargin = freeMargin;
+            }
+            record = record.nextInSymbol;
+        } while (record != null);
+    }
+
+    /**
+     * Consistency check - full re-calculation of user free margin aggregates.
+     * Mismatch means a bug in incremental updates, aggregates are repaired.
+     */
+    private void recalculateFreeMargin(final SymbolPositionRecord record) {
+        final CoreSymbolSpecification spec = symbolSpecificationProvider.getSymbolSpecification(record.symbol);
+        record.freeMargin = record.estimateProfit(spec, lastPriceCache.get(record.symbol)) - record.calculateRequiredMarginForFutures(spec);
+        freeMarginCheckDiff.addToValue(record.currency, record.freeMargin);
+    }
+
+    private void checkFreeMargin(final UserProfile userProfile) {
+
+        // difference between re-calculated values and aggregates (garbage-free)
+        freeMarginCheckDiff.clear();
+        userProfile.forEachPosition(freeMarginRecalculator);
+        userProfile.getPositionsFreeMarginAggregates().forEachKeyValue(freeMarginAggregateSubtractor);
+
+        if (!freeMarginCheckDiff.allSatisfy(diff -> diff == 0)) {
+            // unexpected - repairing aggregates, mismatches are exposed via TotalCurrencyBalanceReportResult
+            freeMarginMismatchesCounter++;
+            final CurrencyAccounts aggregates = userProfile.getPositionsFreeMarginAggregates();
+            log.error("uid={} free margin aggregates mismatch: {} difference: {}", userProfile.uid, aggregates, freeMarginCheckDiff);
+            freeMarginCheckDiff.clear();
+            userProfile.forEachPosition(freeMarginRecalculator);
+            aggregates.clear();
+            freeMarginCheckDiff.forEachKeyValue(aggregates::put);
+        }
+    }
+
     @Override
     public void writeMarshallable(BytesOut bytes) {
+        writeSnapshot(bytes, false);
+    }
+
+    /**
+     * Incremental snapshot has the same format, but contains only user profiles changed since last snapshot (based on).
+     */
+    private void writeSnapshot(final BytesOut bytes, final boolean incremental) {
+
+        if (incremental) {
+            bytes.writeInt(ISerializationProcessor.INCREMENTAL_SNAPSHOT_MARKER).writeLong(lastSnapshotId);
+        }
 
         bytes.writeInt(shardId).writeLong(shardMask);
 
         symbolSpecificationProvider.writeMarshallable(bytes);
-        userProfileService.writeMarshallable(bytes);
+        if (incremental) {
+            userProfileService.writeChanges(bytes);
+        } else {
+            userProfileService.writeMarshallable(bytes);
+        }
         binaryCommandsProcessor.writeMarshallable(bytes);
         SerializationUtils.marshallIntHashMap(lastPriceCache, bytes);
         SerializationUtils.marshallIntLongHashMap(fees, bytes);
@@ -810,8 +930,68 @@ public final class RiskEngine implements WriteBytesMarshallable {
         SerializationUtils.marshallIntLongHashMap(suspends, bytes);
     }
 
+    /**
+     * Load snapshot, incremental snapshot is merged with its base snapshot (recursively)
+     */
+    private State loadState(final long snapshotId, final SharedPool sharedPool, final ExchangeConfiguration exchangeConfiguration) {
+
+        return serializationProcessor.loadData(
+                snapshotId,
+                MODULE_RE,
+                shardId,
+                bytesIn -> {
+                    int snapshotShardId = bytesIn.readInt();
+                    State base = null;
+                    if (snapshotShardId == ISerializationProcessor.INCREMENTAL_SNAPSHOT_MARKER) {
+                        final long baseSnapshotId = bytesIn.readLong();
+                        log.debug("Snapshot {} is incremental, loading base snapshot {}", snapshotId, baseSnapshotId);
+                        base = loadState(baseSnapshotId, sharedPool, exchangeConfiguration);
+                        snapshotShardId = bytesIn.readInt();
+                    }
+                    if (shardId != snapshotShardId) {
+                        throw new IllegalStateException("wrong shardId");
+                    }
+                    if (shardMask != bytesIn.readLong()) {
+                        throw new IllegalStateException("wrong shardMask");
+                    }
+                    final SymbolSpecificationProvider symbolSpecificationProvider = new SymbolSpecificationProvider(bytesIn);
+                    final UserProfileService userProfileService;
+                    if (base == null) {
+                        userProfileService = new UserProfileService(
+                                bytesIn, exchangeConfiguration.getPerformanceCfg().getUserProfilesStoreFactory().create(plannedUsersNum));
+                    } else {
+                        userProfileService = base.userProfileService;
+                        userProfileService.applyChanges(bytesIn);
+                    }
+                    final BinaryCommandsProcessor binaryCommandsProcessor = new BinaryCommandsProcessor(
+                            this::handleBinaryMessage,
+                            this::handleReportQuery,
+                            sharedPool,
+                            exchangeConfiguration.getReportsQueriesCfg(),
+                            bytesIn,
+                            shardId);
+                    final IntObjectHashMap<LastPriceCacheRecord> lastPriceCache = SerializationUtils.readIntHashMap(bytesIn, LastPriceCacheRecord::new);
+                    final IntLongHashMap fees = SerializationUtils.readIntLongHashMap(bytesIn);
+                    final IntLongHashMap adjustments = SerializationUtils.readIntLongHashMap(bytesIn);
+                    final IntLongHashMap suspends = SerializationUtils.readIntLongHashMap(bytesIn);
+
+                    return new State(
+                            symbolSpecificationProvider,
+                            userProfileService,
+                            binaryCommandsProcessor,
+                            lastPriceCache,
+                            fees,
+                            adjustments,
+                            suspends);
+                });
+    }
+
     public void reset() {
+        // next snapshot is full
+        lastSnapshotId = 0;
+        incrementalChainLength = 0;
         userProfileService.reset();
+        symbolPositions.clear();
         symbolSpecificationProvider.reset();
         binaryCommandsProcessor.reset();
         lastPriceCache.clear();
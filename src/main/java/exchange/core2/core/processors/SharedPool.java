@@ -16,23 +16,68 @@
 package exchange.core2.core.processors;
 
 import exchange.core2.core.common.MatcherTradeEvent;
+import exchange.core2.core.common.config.PerformanceConfiguration;
+import exchange.core2.core.orderbook.OrderBookEventsHelper;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.agrona.concurrent.ManyToManyConcurrentArrayQueue;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 public final class SharedPool {
 
-    private final LinkedBlockingQueue<MatcherTradeEvent> eventChainsBuffer;
+    public static final int MIN_AUTO_CHAIN_LENGTH = 16;
+    public static final int MAX_AUTO_CHAIN_LENGTH = 1024;
+
+    // lock-free bounded queue: chains are offered by grouping processor and requested by all ME/RE threads
+    private final ManyToManyConcurrentArrayQueue<MatcherTradeEvent> eventChainsBuffer;
 
     @Getter
     private final int chainLength;
 
+    @Getter
+    private final boolean eventsPooling;
+
+    // number of chains allocated because pool was empty
+    private final AtomicLong chainsMissed = new AtomicLong();
+
+    // number of chains released to GC because pool was full
+    private final AtomicLong chainsDropped = new AtomicLong();
+
     public static SharedPool createTestSharedPool() {
         return new SharedPool(8, 4, 256);
     }
 
+    /**
+     * Create shared pool according to performance configuration.
+     * If events pooling is disabled, pool is not used (every event is allocated by its producer).
+     * Chain length is auto-sized if eventsPoolChainLength is 0:
+     * shorter chains for small ring buffers (less events parked in processors), longer chains for big ring buffers (less pool requests).
+     * Pool should keep about two ring buffers of events, so ME/RE threads rarely miss when all ring buffer slots are carrying trades.
+     *
+     * @param perfCfg - performance configuration
+     * @return new shared pool
+     */
+    public static SharedPool createFromConfiguration(final PerformanceConfiguration perfCfg) {
+
+        final int modulesNum = perfCfg.getMatchingEnginesNum() + perfCfg.getRiskEnginesNum();
+
+        if (!perfCfg.isEventsPooling()) {
+            return new SharedPool(modulesNum, 0, 1, false);
+        }
+
+        final int chainLength = perfCfg.getEventsPoolChainLength() > 0
+                ? perfCfg.getEventsPoolChainLength()
+                : Math.max(MIN_AUTO_CHAIN_LENGTH, Math.min(MAX_AUTO_CHAIN_LENGTH, perfCfg.getRingBufferSize() / (modulesNum * 16)));
+
+        final int poolInitialSize = Math.max(modulesNum * 8, perfCfg.getRingBufferSize() * 2 / chainLength);
+
+        log.debug("Events pooling enabled: chainLength={} poolInitialSize={}", chainLength, poolInitialSize);
+
+        return new SharedPool(poolInitialSize * 4, poolInitialSize, chainLength, true);
+    }
+
     /**
      * Create new shared pool
      *
@@ -41,19 +86,39 @@ public final class SharedPool {
      * @param chainLength     - target chain length. Longer chain means rare requests for new chains. However longer chains can cause event placeholders starvation.
      */
     public SharedPool(final int poolMaxSize, final int poolInitialSize, final int chainLength) {
+        this(poolMaxSize, poolInitialSize, chainLength, true);
+    }
+
+    private SharedPool(final int poolMaxSize, final int poolInitialSize, final int chainLength, final boolean eventsPooling) {
 
         if (poolInitialSize > poolMaxSize) {
             throw new IllegalArgumentException("too big poolInitialSize");
         }
 
-        this.eventChainsBuffer = new LinkedBlockingQueue<>(poolMaxSize);
+        if (chainLength < 1) {
+            throw new IllegalArgumentException("chainLength should be positive");
+        }
+
+        // capacity is rounded up to the next power of two
+        this.eventChainsBuffer = new ManyToManyConcurrentArrayQueue<>(Math.max(poolMaxSize, 2));
         this.chainLength = chainLength;
+        this.eventsPooling = eventsPooling;
 
         for (int i = 0; i < poolInitialSize; i++) {
             this.eventChainsBuffer.add(MatcherTradeEvent.createEventChain(chainLength));
         }
     }
 
+    /**
+     * Create events helper for single ME/RE thread.
+     * Helper takes event chains from this pool if events pooling is enabled, otherwise allocates new events.
+     *
+     * @return events helper
+     */
+    public OrderBookEventsHelper createEventsHelper() {
+        return eventsPooling ? new OrderBookEventsHelper(this::getChain) : OrderBookEventsHelper.NON_POOLED_EVENTS_HELPER;
+    }
+
     /**
      * Request next chain from buffer
      * Threadsafe
@@ -64,6 +129,7 @@ public final class SharedPool {
         MatcherTradeEvent poll = eventChainsBuffer.poll();
 //        log.debug("<<< POLL CHAIN HEAD  size={}", poll == null ? 0 : poll.getChainSize());
         if (poll == null) {
+            chainsMissed.incrementAndGet();
             poll = MatcherTradeEvent.createEventChain(chainLength);
         }
 
@@ -79,6 +145,41 @@ public final class SharedPool {
     public void putChain(MatcherTradeEvent head) {
         boolean offer = eventChainsBuffer.offer(head);
 //        log.debug(">>> OFFER CHAIN HEAD  size={} orrder={}", head.getChainSize(), offer);
+        if (!offer) {
+            chainsDropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of chains allocated because pool was empty (non-zero value means ME/RE threads produce garbage)
+     */
+    public long getChainsMissed() {
+        return chainsMissed.get();
+    }
+
+    /**
+     * @return number of chains released to GC because pool was full
+     */
+    public long getChainsDropped() {
+        return chainsDropped.get();
+    }
+
+    /**
+     * @return number of chains currently available in the pool (approximate)
+     */
+    public int getChainsAvailable() {
+        return eventChainsBuffer.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedPool{" +
+                "eventsPooling=" + eventsPooling +
+                ", chainLength=" + chainLength +
+                ", chainsAvailable=" + eventChainsBuffer.size() +
+                ", chainsMissed=" + chainsMissed.get() +
+                ", chainsDropped=" + chainsDropped.get() +
+                '}';
     }
 
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.processors;
+
+import exchange.core2.core.common.cmd.OrderCommandType;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per-stage latency tracking (enabled by PerformanceConfiguration.stageLatencyTracking).
+ * <p>
+ * Stages write nanosecond timestamps into array parallel to ring buffer (indexed by seq & (ringSize - 1)) when they start processing a command.
+ * Following stage reads timestamps of previous stages (visibility is guaranteed by disruptor sequence barriers)
+ * and records differences into HdrHistogram recorders: per stage and per command type (total latency).
+ * <p>
+ * Sharded stages are stamped by the first shard only - next stage can not start before all shards processed the command,
+ * so the slowest shard is accounted anyway.
+ * <p>
+ * Histograms can be requested from any thread, or periodically written into log by results handler thread.
+ */
+@Slf4j
+public final class StageLatencyTracker {
+
+    // timestamps of command processing start
+    public static final int POINT_GROUPING = 0;
+    public static final int POINT_RISK_HOLD = 1;
+    public static final int POINT_MATCHING = 2;
+    private static final int POINTS_NUM = 3;
+
+    private static final long MAX_LATENCY_NS = 10_000_000_000L;
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    public enum Stage {
+        GROUPING, // grouping processor (G) start -> risk hold (R1) start
+        RISK_HOLD, // R1 start -> matching engine (ME) start
+        MATCHING, // ME start -> results handler (E) start, includes waiting for journaling (J)
+        RISK_RELEASE_WAIT, // ME start -> risk release (R2) start, includes waiting for events group completion
+        RISK_RELEASE, // R2 processing
+        JOURNALING, // J processing
+        RESULTS, // E processing
+        TOTAL // G start -> E end
+    }
+
+    private final long[] timestamps;
+    private final int indexMask;
+
+    private final Recorder[] stageRecorders;
+    private final Recorder[] commandTypeRecorders;
+
+    // accumulated histograms (since creation or last reset)
+    private final Histogram[] stageHistograms;
+    private final Histogram[] commandTypeHistograms;
+
+    private final long reportIntervalNs;
+    private long nextReportNs;
+
+    public StageLatencyTracker(final int ringBufferSize, final long reportIntervalNs) {
+
+        this.timestamps = new long[ringBufferSize * POINTS_NUM];
+        this.indexMask = ringBufferSize - 1;
+
+        final int stagesNum = Stage.values().length;
+        this.stageRecorders = new Recorder[stagesNum];
+        this.stageHistograms = new Histogram[stagesNum];
+        for (int i = 0; i < stagesNum; i++) {
+            stageRecorders[i] = new Recorder(MAX_LATENCY_NS, SIGNIFICANT_DIGITS);
+            stageHistograms[i] = new Histogram(MAX_LATENCY_NS, SIGNIFICANT_DIGITS);
+        }
+
+        final int commandTypesNum = OrderCommandType.values().length;
+        this.commandTypeRecorders = new Recorder[commandTypesNum];
+        this.commandTypeHistograms = new Histogram[commandTypesNum];
+        for (int i = 0; i < commandTypesNum; i++) {
+            commandTypeRecorders[i] = new Recorder(MAX_LATENCY_NS, SIGNIFICANT_DIGITS);
+            commandTypeHistograms[i] = new Histogram(MAX_LATENCY_NS, SIGNIFICANT_DIGITS);
+        }
+
+        this.reportIntervalNs = reportIntervalNs;
+        this.nextReportNs = System.nanoTime() + reportIntervalNs;
+    }
+
+    /**
+     * Write stage start timestamp (called by stage thread before processing the command)
+     *
+     * @param seq   - sequence
+     * @param point - stage point (POINT_*)
+     */
+    public void stamp(final long seq, final int point) {
+        timestamps[((int) seq & indexMask) * POINTS_NUM + point] = System.nanoTime();
+    }
+
+    /**
+     * Record risk release stage (called by R2 thread after processing the command)
+     *
+     * @param seq     - sequence
+     * @param startNs - R2 processing start time
+     */
+    public void recordRiskRelease(final long seq, final long startNs) {
+        final long matchingStartNs = timestamps[((int) seq & indexMask) * POINTS_NUM + POINT_MATCHING];
+        record(stageRecorders[Stage.RISK_RELEASE_WAIT.ordinal()], startNs - matchingStartNs);
+        record(stageRecorders[Stage.RISK_RELEASE.ordinal()], System.nanoTime() - startNs);
+    }
+
+    /**
+     * Record journaling stage (called by J thread after processing the command)
+     *
+     * @param startNs - J processing start time
+     */
+    public void recordJournaling(final long startNs) {
+        record(stageRecorders[Stage.JOURNALING.ordinal()], System.nanoTime() - startNs);
+    }
+
+    /**
+     * Record all stages preceding results handler, results handler itself and total latency (called by E thread after processing the command).
+     * Also writes report into log if report interval is configured.
+     *
+     * @param seq         - sequence
+     * @param commandType - command type
+     * @param startNs     - E processing start time
+     */
+    public void recordResults(final long seq, final OrderCommandType commandType, final long startNs) {
+        final int idx = ((int) seq & indexMask) * POINTS_NUM;
+        final long groupingStartNs = timestamps[idx + POINT_GROUPING];
+        final long riskHoldStartNs = timestamps[idx + POINT_RISK_HOLD];
+        final long matchingStartNs = timestamps[idx + POINT_MATCHING];
+        final long endNs = System.nanoTime();
+
+        record(stageRecorders[Stage.GROUPING.ordinal()], riskHoldStartNs - groupingStartNs);
+        record(stageRecorders[Stage.RISK_HOLD.ordinal()], matchingStartNs - riskHoldStartNs);
+        record(stageRecorders[Stage.MATCHING.ordinal()], startNs - matchingStartNs);
+        record(stageRecorders[Stage.RESULTS.ordinal()], endNs - startNs);
+        record(stageRecorders[Stage.TOTAL.ordinal()], endNs - groupingStartNs);
+        record(commandTypeRecorders[commandType.ordinal()], endNs - groupingStartNs);
+
+        if (reportIntervalNs > 0 && endNs > nextReportNs) {
+            nextReportNs = endNs + reportIntervalNs;
+            log.info("Stage latency: {}", createReport());
+        }
+    }
+
+    private static void record(final Recorder recorder, final long latencyNs) {
+        recorder.recordValue(Math.max(0L, Math.min(latencyNs, MAX_LATENCY_NS)));
+    }
+
+    /**
+     * @return accumulated latency histograms per stage (copies)
+     */
+    public synchronized Map<Stage, Histogram> getStageHistograms() {
+        final Map<Stage, Histogram> result = new EnumMap<>(Stage.class);
+        for (final Stage stage : Stage.values()) {
+            final Histogram histogram = stageHistograms[stage.ordinal()];
+            histogram.add(stageRecorders[stage.ordinal()].getIntervalHistogram());
+            result.put(stage, histogram.copy());
+        }
+        return result;
+    }
+
+    /**
+     * @return accumulated total latency histograms per command type (copies, only command types that were processed)
+     */
+    public synchronized Map<OrderCommandType, Histogram> getCommandTypeHistograms() {
+        final Map<OrderCommandType, Histogram> result = new EnumMap<>(OrderCommandType.class);
+        for (final OrderCommandType commandType : OrderCommandType.values()) {
+            final Histogram histogram = commandTypeHistograms[commandType.ordinal()];
+            histogram.add(commandTypeRecorders[commandType.ordinal()].getIntervalHistogram());
+            if (histogram.getTotalCount() != 0) {
+                result.put(commandType, histogram.copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clear accumulated histograms
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < stageRecorders.length; i++) {
+            stageRecorders[i].getIntervalHistogram();
+            stageHistograms[i].reset();
+        }
+        for (int i = 0; i < commandTypeRecorders.length; i++) {
+            commandTypeRecorders[i].getIntervalHistogram();
+            commandTypeHistograms[i].reset();
+        }
+    }
+
+    /**
+     * @return text report: median, 99%, 99.99% and max latency (microseconds) for each stage and command type
+     */
+    public String createReport() {
+        final StringBuilder sb = new StringBuilder();
+        getStageHistograms().forEach((stage, histogram) -> appendReport(sb, stage.name(), histogram));
+        getCommandTypeHistograms().forEach((commandType, histogram) -> appendReport(sb, commandType.name(), histogram));
+        return sb.toString();
+    }
+
+    private static void appendReport(final StringBuilder sb, final String name, final Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return;
+        }
+        sb.append(String.format("%n  %s: n=%d 50%%=%.1fus 99%%=%.1fus 99.99%%=%.1fus max=%.1fus",
+                name,
+                histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.99) / 1000.0,
+                histogram.getMaxValue() / 1000.0));
+    }
+}
@@ -34,8 +34,8 @@ public final class SymbolSpecificationProvider implements WriteBytesMarshallable
     // symbol->specs
     private final IntObjectHashMap<CoreSymbolSpecification> symbolSpecs;
 
-    public SymbolSpecificationProvider() {
-        this.symbolSpecs = new IntObjectHashMap<>();
+    public SymbolSpecificationProvider(final int expectedSymbolsNum) {
+        this.symbolSpecs = new IntObjectHashMap<>(expectedSymbolsNum);
     }
 
     public SymbolSpecificationProvider(BytesIn bytes) {
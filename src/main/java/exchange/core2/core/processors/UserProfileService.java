@@ -19,14 +19,15 @@ import exchange.core2.core.common.StateHash;
 import exchange.core2.core.common.UserProfile;
 import exchange.core2.core.common.UserStatus;
 import exchange.core2.core.common.cmd.CommandResultCode;
-import exchange.core2.core.utils.HashingUtils;
-import exchange.core2.core.utils.SerializationUtils;
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.bytes.BytesIn;
 import net.openhft.chronicle.bytes.BytesOut;
 import net.openhft.chronicle.bytes.WriteBytesMarshallable;
-import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import org.agrona.collections.MutableLong;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+
+import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * Stateful (!) User profile service
@@ -39,15 +40,25 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
     /*
      * State: uid to UserProfile
      */
-    @Getter
-    private final LongObjectHashMap<UserProfile> userProfiles;
+    private final IUserProfilesStore userProfiles;
+
+    // uids of profiles accessed for modification since last snapshot (null if incremental snapshots are disabled)
+    private LongHashSet changedUids = null;
 
-    public UserProfileService() {
-        this.userProfiles = new LongObjectHashMap<>(1024);
+    public UserProfileService(final IUserProfilesStore userProfiles) {
+        this.userProfiles = userProfiles;
     }
 
-    public UserProfileService(BytesIn bytes) {
-        this.userProfiles = SerializationUtils.readLongHashMap(bytes, UserProfile::new);
+    public UserProfileService(final BytesIn bytes, final IUserProfilesStore userProfiles) {
+        this.userProfiles = userProfiles;
+
+        // same format for any store implementation (uid -> UserProfile hash map)
+        final int length = bytes.readInt();
+        for (int i = 0; i < length; i++) {
+            bytes.readLong();
+            userProfiles.put(new UserProfile(bytes));
+            userProfiles.evictProfiles();
+        }
     }
 
     /**
@@ -57,11 +68,38 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
      * @return user profile
      */
     public UserProfile getUserProfile(long uid) {
+        markChanged(uid);
         return userProfiles.get(uid);
     }
 
     public UserProfile getUserProfileOrAddSuspended(long uid) {
-        return userProfiles.getIfAbsentPut(uid, () -> new UserProfile(uid, UserStatus.SUSPENDED));
+        markChanged(uid);
+        UserProfile userProfile = userProfiles.get(uid);
+        if (userProfile == null) {
+            userProfile = new UserProfile(uid, UserStatus.SUSPENDED);
+            userProfiles.put(userProfile);
+        }
+        return userProfile;
+    }
+
+    public int getUserProfilesNum() {
+        return userProfiles.size();
+    }
+
+    /**
+     * Iterate over all user profiles (for reports)
+     *
+     * @param consumer profiles consumer, should not keep or modify provided objects
+     */
+    public void forEachUserProfile(final Consumer<UserProfile> consumer) {
+        userProfiles.forEach(consumer);
+    }
+
+    /**
+     * Should be called between commands processing
+     */
+    public void evictProfiles() {
+        userProfiles.evictProfiles();
     }
 
 
@@ -113,8 +151,9 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
      * @return true if user was added
      */
     public boolean addEmptyUserProfile(long uid) {
+        markChanged(uid);
         if (userProfiles.get(uid) == null) {
-            userProfiles.put(uid, new UserProfile(uid, UserStatus.ACTIVE));
+            userProfiles.put(new UserProfile(uid, UserStatus.ACTIVE));
             return true;
         } else {
             log.debug("Can not add user, already exists: {}", uid);
@@ -134,6 +173,7 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
      * @return result code
      */
     public CommandResultCode suspendUserProfile(long uid) {
+        markChanged(uid);
         final UserProfile userProfile = userProfiles.get(uid);
         if (userProfile == null) {
             return CommandResultCode.USER_MGMT_USER_NOT_FOUND;
@@ -141,7 +181,7 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
         } else if (userProfile.userStatus == UserStatus.SUSPENDED) {
             return CommandResultCode.USER_MGMT_USER_ALREADY_SUSPENDED;
 
-        } else if (userProfile.positions.anySatisfy(pos -> !pos.isEmpty())) {
+        } else if (userProfile.anyPositionSatisfy(pos -> !pos.isEmpty())) {
             return CommandResultCode.USER_MGMT_USER_NOT_SUSPENDABLE_HAS_POSITIONS;
 
         } else if (userProfile.accounts.anySatisfy(acc -> acc != 0)) {
@@ -156,11 +196,12 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
     }
 
     public CommandResultCode resumeUserProfile(long uid) {
+        markChanged(uid);
         final UserProfile userProfile = userProfiles.get(uid);
         if (userProfile == null) {
             // create new empty user profile
             // account balance adjustments should be applied later
-            userProfiles.put(uid, new UserProfile(uid, UserStatus.ACTIVE));
+            userProfiles.put(new UserProfile(uid, UserStatus.ACTIVE));
             return CommandResultCode.SUCCESS;
         } else if (userProfile.userStatus != UserStatus.SUSPENDED) {
             // attempt to resume non-suspended account (or resume twice)
@@ -178,18 +219,83 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
      */
     public void reset() {
         userProfiles.clear();
+        clearChanges();
+    }
+
+    /**
+     * Start tracking profiles changes (for incremental snapshots)
+     */
+    public void enableChangesTracking() {
+        changedUids = new LongHashSet();
+    }
+
+    /**
+     * Forget tracked changes (after successful snapshot)
+     */
+    public void clearChanges() {
+        if (changedUids != null) {
+            changedUids.clear();
+        }
+    }
+
+    private void markChanged(final long uid) {
+        if (changedUids != null) {
+            changedUids.add(uid);
+        }
+    }
+
+    /**
+     * Write profiles changed since last snapshot: uid and profile, or removal flag.
+     *
+     * @param bytes - output
+     */
+    public void writeChanges(final BytesOut bytes) {
+        bytes.writeInt(changedUids.size());
+        changedUids.forEach(uid -> {
+            bytes.writeLong(uid);
+            final UserProfile userProfile = userProfiles.get(uid);
+            bytes.writeBoolean(userProfile != null);
+            if (userProfile != null) {
+                userProfile.writeMarshallable(bytes);
+            }
+            userProfiles.evictProfiles();
+        });
+    }
+
+    /**
+     * Apply changes written by writeChanges (loading incremental snapshot)
+     *
+     * @param bytes - input
+     */
+    public void applyChanges(final BytesIn bytes) {
+        final int length = bytes.readInt();
+        for (int i = 0; i < length; i++) {
+            final long uid = bytes.readLong();
+            userProfiles.remove(uid);
+            if (bytes.readBoolean()) {
+                userProfiles.put(new UserProfile(bytes));
+            }
+            userProfiles.evictProfiles();
+        }
     }
 
     @Override
     public void writeMarshallable(BytesOut bytes) {
 
-        // write symbolSpecs
-        SerializationUtils.marshallLongHashMap(userProfiles, bytes);
+        // write user profiles
+        bytes.writeInt(userProfiles.size());
+        userProfiles.forEach(userProfile -> {
+            bytes.writeLong(userProfile.uid);
+            userProfile.writeMarshallable(bytes);
+        });
     }
 
     @Override
     public int stateHash() {
-        return HashingUtils.stateHash(userProfiles);
+        // same as HashingUtils.stateHash for uid -> UserProfile hash map (does not depend on store implementation)
+        final MutableLong mutableLong = new MutableLong();
+        userProfiles.forEach(userProfile -> mutableLong.addAndGet(Objects.hash(userProfile.uid, userProfile.stateHash())));
+        return Long.hashCode(mutableLong.value);
     }
 
 }
\ No newline at end of file
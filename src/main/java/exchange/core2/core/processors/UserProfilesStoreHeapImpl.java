@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.processors;
+
+import exchange.core2.core.common.UserProfile;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+
+import java.util.function.Consumer;
+
+/**
+ * Default store - all user profiles are kept in the heap
+ */
+public final class UserProfilesStoreHeapImpl implements IUserProfilesStore {
+
+    private final LongObjectHashMap<UserProfile> userProfiles;
+
+    public UserProfilesStoreHeapImpl(final int expectedUsersNum) {
+        this.userProfiles = new LongObjectHashMap<>(expectedUsersNum);
+    }
+
+    @Override
+    public UserProfile get(final long uid) {
+        return userProfiles.get(uid);
+    }
+
+    @Override
+    public void put(final UserProfile userProfile) {
+        userProfiles.put(userProfile.uid, userProfile);
+    }
+
+    @Override
+    public void remove(final long uid) {
+        userProfiles.remove(uid);
+    }
+
+    @Override
+    public int size() {
+        return userProfiles.size();
+    }
+
+    @Override
+    public void forEach(final Consumer<UserProfile> consumer) {
+        userProfiles.forEachValue(consumer::accept);
+    }
+
+    @Override
+    public void evictProfiles() {
+        // all profiles are kept in the heap
+    }
+
+    @Override
+    public void clear() {
+        userProfiles.clear();
+    }
+}
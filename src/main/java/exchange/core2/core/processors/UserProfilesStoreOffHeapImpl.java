@@ -0,0 +1,374 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.processors;
+
+import exchange.core2.core.common.CurrencyAccounts;
+import exchange.core2.core.common.UserProfile;
+import exchange.core2.core.common.UserStatus;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.eclipse.collections.api.block.procedure.primitive.IntLongProcedure;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * User profiles store for large number of users.
+ * <p>
+ * Every user has a fixed-width record in off-heap open addressing table (uid -> record, linear probing),
+ * so inactive users do not produce any objects in the heap.
+ * Record contains uid, status, adjustments counter and up to INLINE_ACCOUNTS currency balances.
+ * <p>
+ * Profiles accessed by risk engine are materialized into the working set (regular UserProfile objects).
+ * When working set grows over the limit, oldest profiles are written back into their records.
+ * Profiles which do not fit into the record (margin positions or more than INLINE_ACCOUNTS currencies) stay in the working set,
+ * because risk engine keeps references to margin positions between commands.
+ */
+@Slf4j
+public final class UserProfilesStoreOffHeapImpl implements IUserProfilesStore {
+
+    public static final int DEFAULT_WORKING_SET_SIZE = 16 * 1024;
+
+    // same number of accounts as inlined into CurrencyAccounts
+    private static final int INLINE_ACCOUNTS = CurrencyAccounts.INLINE_ACCOUNTS;
+
+    // record layout (64 bytes): uid, adjustmentsCounter, used flag, status, accounts number, currencies (int x3), balances (long x3)
+    private static final int RECORD_SIZE = 64;
+    private static final int OFFSET_UID = 0;
+    private static final int OFFSET_ADJUSTMENTS_COUNTER = 8;
+    private static final int OFFSET_USED = 16;
+    private static final int OFFSET_STATUS = 17;
+    private static final int OFFSET_ACCOUNTS_NUM = 18;
+    private static final int OFFSET_CURRENCIES = 20;
+    private static final int OFFSET_BALANCES = (OFFSET_CURRENCIES + INLINE_ACCOUNTS * 4 + 7) & ~7;
+
+    static {
+        if (OFFSET_BALANCES + INLINE_ACCOUNTS * 8 > RECORD_SIZE) {
+            throw new IllegalStateException("CurrencyAccounts.INLINE_ACCOUNTS=" + INLINE_ACCOUNTS + " does not fit into off-heap record of " + RECORD_SIZE + " bytes");
+        }
+    }
+
+    // table is split into segments of 1GB max (direct buffers are int-addressed)
+    private static final int SEGMENT_BITS = 24;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private UnsafeBuffer[] segments;
+    private int mask;
+    private int size = 0;
+    private int resizeThreshold;
+
+    // materialized profiles (authoritative while present)
+    private final LongObjectHashMap<UserProfile> workingSet;
+    private final int workingSetSize;
+
+    // uids in order of materialization (can contain removed uids)
+    private long[] evictionQueue = new long[1024];
+    private long queueHead = 0;
+    private long queueTail = 0;
+
+    // reused for writing balances into records (no allocations on eviction)
+    private final AccountsWriter accountsWriter = new AccountsWriter();
+
+    @Getter
+    private long evictionsCounter = 0;
+
+    public UserProfilesStoreOffHeapImpl(final int expectedUsersNum) {
+        this(expectedUsersNum, DEFAULT_WORKING_SET_SIZE);
+    }
+
+    public UserProfilesStoreOffHeapImpl(final int expectedUsersNum, final int workingSetSize) {
+        if (workingSetSize < 1) {
+            throw new IllegalArgumentException("workingSetSize should be positive");
+        }
+        // load factor 0.75
+        allocateTable(Math.max(Integer.highestOneBit(Math.max(expectedUsersNum, 16) * 4 / 3 - 1) << 1, 64));
+        this.workingSetSize = workingSetSize;
+        this.workingSet = new LongObjectHashMap<>(Math.min(workingSetSize, expectedUsersNum) * 2);
+    }
+
+    @Override
+    public UserProfile get(final long uid) {
+
+        UserProfile userProfile = workingSet.get(uid);
+        if (userProfile != null) {
+            return userProfile;
+        }
+
+        final int idx = findRecord(uid);
+        if (idx == -1) {
+            return null;
+        }
+
+        // new object is required: materialized profile becomes authoritative and risk engine can keep reference to it
+        // (UserProfile.uid is final, so evicted objects can not be recycled either)
+        userProfile = readRecord(idx);
+        attach(userProfile);
+        return userProfile;
+    }
+
+    @Override
+    public void put(final UserProfile userProfile) {
+        if (size >= resizeThreshold) {
+            resize();
+        }
+        final int idx = insertRecord(userProfile.uid);
+        if (isCompact(userProfile)) {
+            writeRecord(idx, userProfile);
+        }
+        attach(userProfile);
+    }
+
+    @Override
+    public void remove(final long uid) {
+        workingSet.remove(uid);
+        final int idx = findRecord(uid);
+        if (idx != -1) {
+            deleteRecord(idx);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(final Consumer<UserProfile> consumer) {
+        final int capacity = mask + 1;
+        for (int idx = 0; idx < capacity; idx++) {
+            final UnsafeBuffer segment = segments[idx >>> SEGMENT_BITS];
+            final int offset = (idx & SEGMENT_MASK) * RECORD_SIZE;
+            if (segment.getByte(offset + OFFSET_USED) != 0) {
+                final UserProfile userProfile = workingSet.get(segment.getLong(offset + OFFSET_UID));
+                // cold profiles are materialized into new objects - consumers (snapshots, reports) are not latency critical
+                consumer.accept(userProfile != null ? userProfile : readRecord(idx));
+            }
+        }
+    }
+
+    @Override
+    public void evictProfiles() {
+
+        if (workingSet.size() <= workingSetSize) {
+            return;
+        }
+
+        // single pass over the queue - profiles which do not fit into records are re-queued
+        for (long n = queueTail - queueHead; n > 0 && workingSet.size() > workingSetSize; n--) {
+            final long uid = evictionQueue[(int) (queueHead++ & (evictionQueue.length - 1))];
+            final UserProfile userProfile = workingSet.get(uid);
+            if (userProfile == null) {
+                // removed or evicted already
+                continue;
+            }
+            if (isCompact(userProfile)) {
+                writeRecord(findRecord(uid), userProfile);
+                workingSet.remove(uid);
+                evictionsCounter++;
+            } else {
+                enqueue(uid);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (final UnsafeBuffer segment : segments) {
+            segment.setMemory(0, segment.capacity(), (byte) 0);
+        }
+        size = 0;
+        workingSet.clear();
+        queueHead = 0;
+        queueTail = 0;
+    }
+
+    public int getWorkingSetNum() {
+        return workingSet.size();
+    }
+
+    private static boolean isCompact(final UserProfile userProfile) {
+        return !userProfile.hasPositions() && userProfile.accounts.size() <= INLINE_ACCOUNTS;
+    }
+
+    private void attach(final UserProfile userProfile) {
+        workingSet.put(userProfile.uid, userProfile);
+        enqueue(userProfile.uid);
+    }
+
+    private void enqueue(final long uid) {
+        if (queueTail - queueHead == evictionQueue.length) {
+            final long[] extended = new long[evictionQueue.length * 2];
+            for (long i = queueHead; i < queueTail; i++) {
+                extended[(int) (i & (extended.length - 1))] = evictionQueue[(int) (i & (evictionQueue.length - 1))];
+            }
+            evictionQueue = extended;
+        }
+        evictionQueue[(int) (queueTail++ & (evictionQueue.length - 1))] = uid;
+    }
+
+    private UserProfile readRecord(final int idx) {
+        final UnsafeBuffer segment = segments[idx >>> SEGMENT_BITS];
+        final int offset = (idx & SEGMENT_MASK) * RECORD_SIZE;
+
+        final UserProfile userProfile = new UserProfile(
+                segment.getLong(offset + OFFSET_UID),
+                UserStatus.of(segment.getByte(offset + OFFSET_STATUS)));
+
+        userProfile.adjustmentsCounter = segment.getLong(offset + OFFSET_ADJUSTMENTS_COUNTER);
+
+        final int accountsNum = segment.getByte(offset + OFFSET_ACCOUNTS_NUM);
+        for (int i = 0; i < accountsNum; i++) {
+            userProfile.accounts.put(
+                    segment.getInt(offset + OFFSET_CURRENCIES + i * 4),
+                    segment.getLong(offset + OFFSET_BALANCES + i * 8));
+        }
+        return userProfile;
+    }
+
+    private void writeRecord(final int idx, final UserProfile userProfile) {
+        final UnsafeBuffer segment = segments[idx >>> SEGMENT_BITS];
+        final int offset = (idx & SEGMENT_MASK) * RECORD_SIZE;
+
+        segment.putLong(offset + OFFSET_ADJUSTMENTS_COUNTER, userProfile.adjustmentsCounter);
+        segment.putByte(offset + OFFSET_STATUS, userProfile.userStatus.getCode());
+        segment.putByte(offset + OFFSET_ACCOUNTS_NUM, (byte) userProfile.accounts.size());
+
+        // zero balances are kept, because they are affecting profile state hash
+        accountsWriter.segment = segment;
+        accountsWriter.offset = offset;
+        accountsWriter.index = 0;
+        userProfile.accounts.forEachKeyValue(accountsWriter);
+        accountsWriter.segment = null;
+    }
+
+    private static final class AccountsWriter implements IntLongProcedure {
+
+        private UnsafeBuffer segment;
+        private int offset;
+        private int index;
+
+        @Override
+        public void value(final int currency, final long balance) {
+            segment.putInt(offset + OFFSET_CURRENCIES + index * 4, currency);
+            segment.putLong(offset + OFFSET_BALANCES + index * 8, balance);
+            index++;
+        }
+    }
+
+    private int findRecord(final long uid) {
+        int idx = hash(uid) & mask;
+        while (true) {
+            final UnsafeBuffer segment = segments[idx >>> SEGMENT_BITS];
+            final int offset = (idx & SEGMENT_MASK) * RECORD_SIZE;
+            if (segment.getByte(offset + OFFSET_USED) == 0) {
+                return -1;
+            }
+            if (segment.getLong(offset + OFFSET_UID) == uid) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private int insertRecord(final long uid) {
+        int idx = hash(uid) & mask;
+        while (true) {
+            final UnsafeBuffer segment = segments[idx >>> SEGMENT_BITS];
+            final int offset = (idx & SEGMENT_MASK) * RECORD_SIZE;
+            if (segment.getByte(offset + OFFSET_USED) == 0) {
+                segment.setMemory(offset, RECORD_SIZE, (byte) 0);
+                segment.putLong(offset + OFFSET_UID, uid);
+                segment.putByte(offset + OFFSET_USED, (byte) 1);
+                size++;
+                return idx;
+            }
+            if (segment.getLong(offset + OFFSET_UID) == uid) {
+                throw new IllegalStateException("User profile already exists: " + uid);
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    /**
+     * Backward shift deletion (no tombstones for linear probing)
+     */
+    private void deleteRecord(final int idx) {
+        int hole = idx;
+        int i = (idx + 1) & mask;
+        while (true) {
+            final UnsafeBuffer segment = segments[i >>> SEGMENT_BITS];
+            final int offset = (i & SEGMENT_MASK) * RECORD_SIZE;
+            if (segment.getByte(offset + OFFSET_USED) == 0) {
+                break;
+            }
+            final int home = hash(segment.getLong(offset + OFFSET_UID)) & mask;
+            // move record into the hole if its home position is not within (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                segments[hole >>> SEGMENT_BITS].putBytes((hole & SEGMENT_MASK) * RECORD_SIZE, segment, offset, RECORD_SIZE);
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        segments[hole >>> SEGMENT_BITS].setMemory((hole & SEGMENT_MASK) * RECORD_SIZE, RECORD_SIZE, (byte) 0);
+        size--;
+    }
+
+    private void resize() {
+        final UnsafeBuffer[] oldSegments = segments;
+        final int oldCapacity = mask + 1;
+        if (oldCapacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("User profiles store capacity exceeded: " + size);
+        }
+
+        allocateTable(oldCapacity * 2);
+
+        for (int oldIdx = 0; oldIdx < oldCapacity; oldIdx++) {
+            final UnsafeBuffer oldSegment = oldSegments[oldIdx >>> SEGMENT_BITS];
+            final int oldOffset = (oldIdx & SEGMENT_MASK) * RECORD_SIZE;
+            if (oldSegment.getByte(oldOffset + OFFSET_USED) != 0) {
+                int idx = hash(oldSegment.getLong(oldOffset + OFFSET_UID)) & mask;
+                while (segments[idx >>> SEGMENT_BITS].getByte((idx & SEGMENT_MASK) * RECORD_SIZE + OFFSET_USED) != 0) {
+                    idx = (idx + 1) & mask;
+                }
+                segments[idx >>> SEGMENT_BITS].putBytes((idx & SEGMENT_MASK) * RECORD_SIZE, oldSegment, oldOffset, RECORD_SIZE);
+            }
+        }
+        log.debug("User profiles table extended to {} records", mask + 1);
+    }
+
+    private void allocateTable(final int capacity) {
+        final int segmentRecords = Math.min(capacity, SEGMENT_MASK + 1);
+        this.segments = new UnsafeBuffer[capacity / segmentRecords];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new UnsafeBuffer(ByteBuffer.allocateDirect(segmentRecords * RECORD_SIZE));
+        }
+        this.mask = capacity - 1;
+        this.resizeThreshold = (int) (capacity * 3L / 4);
+    }
+
+    private static int hash(long uid) {
+        // uids are sharded by lower bits, so mixing all bits (murmur3 finalizer)
+        uid ^= uid >>> 33;
+        uid *= 0xff51afd7ed558ccdL;
+        uid ^= uid >>> 33;
+        uid *= 0xc4ceb9fe1a85ec53L;
+        uid ^= uid >>> 33;
+        return (int) uid;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.processors.journaling;
+
+import exchange.core2.core.common.OrderAction;
+import exchange.core2.core.common.OrderType;
+import exchange.core2.core.common.cmd.OrderCommand;
+import exchange.core2.core.common.cmd.OrderCommandType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact journal record encoding (format version 1).
+ * <p>
+ * Sequence, timestamp, events group, order id and price are encoded as varint deltas against previous record,
+ * other numeric fields as zig-zag varints. Uid and symbol (currency) are looked up in small direct-mapped dictionaries
+ * of recently used values: one byte slot reference if found, otherwise zero byte followed by the value.
+ * <p>
+ * Encoder and decoder state is reset at the beginning of each flushed batch (RESERVED_BATCH_START marker or compressed block),
+ * so every batch can be decoded independently.
+ * <p>
+ * Not thread safe.
+ */
+final class CompactJournalCodec {
+
+    static final byte VERSION = 1;
+
+    private static final int DICTIONARY_BITS = 6;
+    private static final int DICTIONARY_SIZE = 1 << DICTIONARY_BITS;
+
+    private long lastSeq;
+    private long lastTimestamp;
+    private long lastEventsGroup;
+    private long lastOrderId;
+    private long lastPrice;
+
+    private final long[] uids = new long[DICTIONARY_SIZE];
+    private final int[] symbols = new int[DICTIONARY_SIZE];
+
+    void reset() {
+        lastSeq = 0;
+        lastTimestamp = 0;
+        lastEventsGroup = 0;
+        lastOrderId = 0;
+        lastPrice = 0;
+        Arrays.fill(uids, 0L);
+        Arrays.fill(symbols, 0);
+    }
+
+    /**
+     * Write command (mutating commands only) into buffer
+     *
+     * @param buffer - buffer
+     * @param cmd    - command
+     * @param seq    - sequence
+     */
+    void encode(final ByteBuffer buffer, final OrderCommand cmd, final long seq) {
+
+        final OrderCommandType cmdType = cmd.command;
+
+        buffer.put(cmdType.getCode());
+        putVarLong(buffer, seq - lastSeq); // normally 1
+        putZigZag(buffer, cmd.timestamp - lastTimestamp);
+        putVarLong(buffer, cmd.serviceFlags & 0xFFFF_FFFFL);
+        putZigZag(buffer, cmd.eventsGroup - lastEventsGroup);
+
+        lastSeq = seq;
+        lastTimestamp = cmd.timestamp;
+        lastEventsGroup = cmd.eventsGroup;
+
+        if (cmdType == OrderCommandType.MOVE_ORDER) {
+
+            putUid(buffer, cmd.uid);
+            putSymbol(buffer, cmd.symbol);
+            putOrderId(buffer, cmd.orderId);
+            putPrice(buffer, cmd.price);
+
+        } else if (cmdType == OrderCommandType.CANCEL_ORDER) {
+
+            putUid(buffer, cmd.uid);
+            putSymbol(buffer, cmd.symbol);
+            putOrderId(buffer, cmd.orderId);
+
+        } else if (cmdType == OrderCommandType.REDUCE_ORDER) {
+
+            putUid(buffer, cmd.uid);
+            putSymbol(buffer, cmd.symbol);
+            putOrderId(buffer, cmd.orderId);
+            putZigZag(buffer, cmd.size);
+
+        } else if (cmdType == OrderCommandType.PLACE_ORDER) {
+
+            putUid(buffer, cmd.uid);
+            putSymbol(buffer, cmd.symbol);
+            putOrderId(buffer, cmd.orderId);
+            putPrice(buffer, cmd.price);
+            putZigZag(buffer, cmd.reserveBidPrice - cmd.price);
+            putZigZag(buffer, cmd.size);
+            putZigZag(buffer, cmd.userCookie);
+            buffer.put((byte) ((cmd.orderType.getCode() << 1) | cmd.action.getCode()));
+
+        } else if (cmdType == OrderCommandType.BALANCE_ADJUSTMENT) {
+
+            putUid(buffer, cmd.uid);
+            putSymbol(buffer, cmd.symbol); // currency
+            putZigZag(buffer, cmd.orderId); // transaction id
+            putZigZag(buffer, cmd.price); // amount
+            buffer.put(cmd.orderType.getCode()); // adjustment type
+
+        } else if (cmdType == OrderCommandType.ADD_USER ||
+                cmdType == OrderCommandType.SUSPEND_USER ||
+                cmdType == OrderCommandType.RESUME_USER) {
+
+            putUid(buffer, cmd.uid);
+
+        } else if (cmdType == OrderCommandType.BINARY_DATA_COMMAND) {
+
+            // binary words are not compressible this way
+            buffer.put((byte) cmd.symbol);
+            buffer.putLong(cmd.orderId);
+            buffer.putLong(cmd.price);
+            buffer.putLong(cmd.reserveBidPrice);
+            buffer.putLong(cmd.size);
+            buffer.putLong(cmd.uid);
+        }
+    }
+
+    /**
+     * Read command record fields into provided command object
+     *
+     * @param in   - input
+     * @param code - command code (already read)
+     * @param cmd  - command to fill
+     * @return command sequence
+     */
+    long decode(final ByteBuffer in, final byte code, final OrderCommand cmd) {
+
+        final OrderCommandType cmdType = OrderCommandType.fromCode(code);
+        cmd.command = cmdType;
+
+        lastSeq += readVarLong(in);
+        lastTimestamp += readZigZag(in);
+        cmd.timestamp = lastTimestamp;
+        cmd.serviceFlags = (int) readVarLong(in);
+        lastEventsGroup += readZigZag(in);
+        cmd.eventsGroup = lastEventsGroup;
+
+        if (cmdType == OrderCommandType.MOVE_ORDER) {
+
+            cmd.uid = readUid(in);
+            cmd.symbol = readSymbol(in);
+            cmd.orderId = readOrderId(in);
+            cmd.price = readPrice(in);
+
+        } else if (cmdType == OrderCommandType.CANCEL_ORDER) {
+
+            cmd.uid = readUid(in);
+            cmd.symbol = readSymbol(in);
+            cmd.orderId = readOrderId(in);
+
+        } else if (cmdType == OrderCommandType.REDUCE_ORDER) {
+
+            cmd.uid = readUid(in);
+            cmd.symbol = readSymbol(in);
+            cmd.orderId = readOrderId(in);
+            cmd.size = readZigZag(in);
+
+        } else if (cmdType == OrderCommandType.PLACE_ORDER) {
+
+            cmd.uid = readUid(in);
+            cmd.symbol = readSymbol(in);
+            cmd.orderId = readOrderId(in);
+            cmd.price = readPrice(in);
+            cmd.reserveBidPrice = cmd.price + readZigZag(in);
+            cmd.size = readZigZag(in);
+            cmd.userCookie = (int) readZigZag(in);
+            final byte actionAndType = in.get();
+            cmd.action = OrderAction.of((byte) (actionAndType & 0b1));
+            cmd.orderType = OrderType.of((byte) ((actionAndType >> 1) & 0b1111));
+
+        } else if (cmdType == OrderCommandType.BALANCE_ADJUSTMENT) {
+
+            cmd.uid = readUid(in);
+            cmd.symbol = readSymbol(in);
+            cmd.orderId = readZigZag(in);
+            cmd.price = readZigZag(in);
+            cmd.orderType = OrderType.of(in.get());
+
+        } else if (cmdType == OrderCommandType.ADD_USER ||
+                cmdType == OrderCommandType.SUSPEND_USER ||
+                cmdType == OrderCommandType.RESUME_USER) {
+
+            cmd.uid = readUid(in);
+
+        } else if (cmdType == OrderCommandType.BINARY_DATA_COMMAND) {
+
+            cmd.symbol = in.get();
+            cmd.orderId = in.getLong();
+            cmd.price = in.getLong();
+            cmd.reserveBidPrice = in.getLong();
+            cmd.size = in.getLong();
+            cmd.uid = in.getLong();
+        }
+
+        return lastSeq;
+    }
+
+    private void putUid(final ByteBuffer buffer, final long uid) {
+        final int slot = uidSlot(uid);
+        if (uids[slot] == uid) {
+            buffer.put((byte) (slot + 1));
+        } else {
+            uids[slot] = uid;
+            buffer.put((byte) 0);
+            putZigZag(buffer, uid);
+        }
+    }
+
+    private long readUid(final ByteBuffer in) {
+        final int ref = in.get() & 0xFF;
+        if (ref != 0) {
+            return uids[ref - 1];
+        }
+        final long uid = readZigZag(in);
+        uids[uidSlot(uid)] = uid;
+        return uid;
+    }
+
+    private void putSymbol(final ByteBuffer buffer, final int symbol) {
+        final int slot = symbolSlot(symbol);
+        if (symbols[slot] == symbol) {
+            buffer.put((byte) (slot + 1));
+        } else {
+            symbols[slot] = symbol;
+            buffer.put((byte) 0);
+            putZigZag(buffer, symbol);
+        }
+    }
+
+    private int readSymbol(final ByteBuffer in) {
+        final int ref = in.get() & 0xFF;
+        if (ref != 0) {
+            return symbols[ref - 1];
+        }
+        final int symbol = (int) readZigZag(in);
+        symbols[symbolSlot(symbol)] = symbol;
+        return symbol;
+    }
+
+    private void putOrderId(final ByteBuffer buffer, final long orderId) {
+        putZigZag(buffer, orderId - lastOrderId);
+        lastOrderId = orderId;
+    }
+
+    private long readOrderId(final ByteBuffer in) {
+        lastOrderId += readZigZag(in);
+        return lastOrderId;
+    }
+
+    private void putPrice(final ByteBuffer buffer, final long price) {
+        putZigZag(buffer, price - lastPrice);
+        lastPrice = price;
+    }
+
+    private long readPrice(final ByteBuffer in) {
+        lastPrice += readZigZag(in);
+        return lastPrice;
+    }
+
+    private static int uidSlot(final long uid) {
+        return ((int) (uid ^ (uid >>> 32)) * 0x9E3779B9) >>> (32 - DICTIONARY_BITS);
+    }
+
+    private static int symbolSlot(final int symbol) {
+        return (symbol * 0x9E3779B9) >>> (32 - DICTIONARY_BITS);
+    }
+
+    static void putZigZag(final ByteBuffer buffer, final long value) {
+        putVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    static void putVarLong(final ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long readZigZag(final ByteBuffer in) {
+        final long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readVarLong(final ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint (data corrupted)");
+    }
+}
@@ -16,9 +16,6 @@
 package exchange.core2.core.processors.journaling;
 
 import exchange.core2.core.ExchangeApi;
-import exchange.core2.core.common.BalanceAdjustmentType;
-import exchange.core2.core.common.OrderAction;
-import exchange.core2.core.common.OrderType;
 import exchange.core2.core.common.cmd.OrderCommand;
 import exchange.core2.core.common.cmd.OrderCommandType;
 import exchange.core2.core.common.config.ExchangeConfiguration;
@@ -33,7 +30,6 @@ import net.openhft.chronicle.bytes.WriteBytesMarshallable;
 import net.openhft.chronicle.wire.InputStreamToWire;
 import net.openhft.chronicle.wire.Wire;
 import net.openhft.chronicle.wire.WireType;
-import org.agrona.collections.MutableLong;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -43,9 +39,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 
 
 @Slf4j
@@ -55,6 +53,24 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
     private final long journalFileMaxSize;
     private final int journalBatchCompressThreshold;
 
+    // null if legacy format
+    private final CompactJournalCodec journalEncoder;
+
+    // sparse journal index
+    private final long journalIndexInterval;
+    private JournalIndex journalIndex;
+    private long journalBufferFirstSeq;
+    private long lastIndexedOffset;
+
+    // journal replay
+    private final int journalReplayThreads;
+
+    private final boolean journalMemoryMapped;
+    private final long journalSegmentSize;
+    private final DiskSerializationProcessorConfiguration.JournalDurability journalDurability;
+    private final long journalForceIntervalNs;
+    private long lastForceNs = 0;
+
     private final String exchangeId; // TODO validate
     private final Path folder;
 
@@ -66,13 +82,15 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
     // TODO configurable
     private final LZ4Compressor lz4CompressorSnapshot;
     private final LZ4Compressor lz4CompressorJournal;
-    private final LZ4SafeDecompressor lz4SafeDecompressor = LZ4Factory.fastestInstance().safeDecompressor();
 
     private ConcurrentSkipListMap<Long, SnapshotDescriptor> snapshotsIndex;
 
     private SnapshotDescriptor lastSnapshotDescriptor;
     private JournalDescriptor lastJournalDescriptor;
 
+    // snapshot data written by engines, matched with snapshot registered by journaling thread (null if journaling disabled)
+    private final ConcurrentHashMap<Long, SnapshotReports> snapshotReports;
+
 
     private long baseSnapshotId;
 
@@ -81,12 +99,18 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
     private RandomAccessFile raf;
     private FileChannel channel;
 
+    // memory-mapped journal writer (created on first journal file)
+    private MappedJournalWriter mappedJournalWriter;
+
     private int filesCounter = 0;
 
     private long writtenBytes = 0;
 
     private static final int MAX_COMMAND_SIZE_BYTES = 256;
 
+    // also maximum block size accepted by journal replay, so journal written with any valid configuration can be replayed
+    private static final int MAX_JOURNAL_BUFFER_SIZE = 64 * 1024 * 1024;
+
 //    private List<Integer> batchSizes = new ArrayList<>(100000);
 //    final SingleWriterRecorder hdrRecorderRaw = new SingleWriterRecorder(Integer.MAX_VALUE, 2);
 //    final SingleWriterRecorder hdrRecorderLz4 = new SingleWriterRecorder(Integer.MAX_VALUE, 2);
@@ -105,8 +129,16 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
 
         this.lastJournalDescriptor = null; // no journal
         this.lastSnapshotDescriptor = SnapshotDescriptor.createEmpty(perfCfg.getMatchingEnginesNum(), perfCfg.getRiskEnginesNum());
+        this.snapshotsIndex = new ConcurrentSkipListMap<>();
+        this.snapshotReports = exchangeConfig.getSerializationCfg().isEnableJournaling() ? new ConcurrentHashMap<>() : null;
 
-        final int journalBufferSize = diskConfig.getJournalBufferSize();
+        if (diskConfig.getJournalBufferSize() > MAX_JOURNAL_BUFFER_SIZE) {
+            throw new IllegalArgumentException("journalBufferSize can not exceed " + MAX_JOURNAL_BUFFER_SIZE + " bytes");
+        }
+
+        final int journalBufferSize = diskConfig.getJournalBufferSize() > 0
+                ? diskConfig.getJournalBufferSize()
+                : calculateJournalBufferSize(perfCfg.getRingBufferSize());
 
         this.journalFileMaxSize = diskConfig.getJournalFileMaxSize() - journalBufferSize;
 
@@ -120,6 +152,23 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
 
         final int maxCompressedBlockLength = lz4CompressorJournal.maxCompressedLength(journalBufferSize);
         this.lz4WriteBuffer = ByteBuffer.allocate(maxCompressedBlockLength);
+
+        this.journalMemoryMapped = diskConfig.isJournalMemoryMapped();
+        // enough space for the last (possibly compressed) buffer flush
+        this.journalSegmentSize = diskConfig.getJournalFileMaxSize() + maxCompressedBlockLength + 9;
+        this.journalDurability = diskConfig.getJournalDurability();
+        this.journalForceIntervalNs = diskConfig.getJournalForceIntervalNs();
+
+        this.journalEncoder = diskConfig.isJournalCompactEncoding() ? new CompactJournalCodec() : null;
+
+        this.journalReplayThreads = diskConfig.getJournalReplayThreads();
+
+        this.journalIndexInterval = diskConfig.getJournalIndexInterval();
+    }
+
+    // about 64 bytes per command for the whole ring buffer, 256KB..64MB
+    private static int calculateJournalBufferSize(final int ringBufferSize) {
+        return (int) Math.min(Math.max(ringBufferSize * 64L, 256 * 1024), MAX_JOURNAL_BUFFER_SIZE);
     }
 
     @Override
@@ -128,8 +177,32 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
                              long timestampNs,
                              SerializedModuleType type,
                              int instanceId,
+                             long baseSnapshotId,
+                             int incrementalChainLength,
                              WriteBytesMarshallable obj) {
 
+        final boolean isSuccess = writeSnapshotData(snapshotId, seq, timestampNs, type, instanceId, baseSnapshotId, incrementalChainLength, obj);
+
+        if (snapshotReports != null) {
+            snapshotReports.compute(snapshotId, (id, reports) -> {
+                final SnapshotReports r = reports != null ? reports : new SnapshotReports();
+                r.addModuleReport(isSuccess, baseSnapshotId, incrementalChainLength);
+                return completeSnapshotDescriptor(r) ? null : r;
+            });
+        }
+
+        return isSuccess;
+    }
+
+    private boolean writeSnapshotData(long snapshotId,
+                                      long seq,
+                                      long timestampNs,
+                                      SerializedModuleType type,
+                                      int instanceId,
+                                      long baseSnapshotId,
+                                      int incrementalChainLength,
+                                      WriteBytesMarshallable obj) {
+
         final Path path = resolveSnapshotPath(snapshotId, type, instanceId);
 
         log.debug("Writing state into file {} ...", path);
@@ -162,7 +235,8 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
         synchronized (this) {
             // TODO improve format
             try (final OutputStream os = Files.newOutputStream(resolveMainLogPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-                os.write((System.currentTimeMillis() + " seq=" + seq + " timestampNs=" + timestampNs + " snapshotId=" + snapshotId + " type=" + type.code + " instance=" + instanceId + "\n").getBytes());
+                os.write((System.currentTimeMillis() + " seq=" + seq + " timestampNs=" + timestampNs + " snapshotId=" + snapshotId + " type=" + type.code + " instance=" + instanceId
+                        + " base=" + baseSnapshotId + " chain=" + incrementalChainLength + "\n").getBytes());
             } catch (final IOException ex) {
                 log.error("Can not write main log file: ", ex);
                 return false;
@@ -249,14 +323,21 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
             log.info("Enabled journaling at seq = {} ({}+{})", enableJournalAfterSeq + 1, baseSeq, dSeq);
         }
 
-        boolean debug = false;
-
 //        log.debug("Writing {}", cmd);
 
         final OrderCommandType cmdType = cmd.command;
 
         if (cmdType == OrderCommandType.SHUTDOWN_SIGNAL) {
             flushBufferSync(false, cmd.timestamp);
+            if (journalIndex != null) {
+                journalIndex.close();
+                journalIndex = null;
+            }
+            if (mappedJournalWriter != null) {
+                // truncate last file and release prepared one
+                mappedJournalWriter.close();
+                mappedJournalWriter = null;
+            }
             log.debug("Shutdown signal received, flushed to disk");
             return;
         }
@@ -266,21 +347,65 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
             return;
         }
 
-        if (channel == null) {
+        if (!isJournalFileStarted()) {
             startNewFile(cmd.timestamp);
         }
 
         final ByteBuffer buffer = journalWriteBuffer;
 
+        if (buffer.position() == 0) {
+            journalBufferFirstSeq = baseSeq + dSeq;
+        }
+
+        if (journalEncoder != null) {
+            if (buffer.position() == 0) {
+                // encoder state is reset for each batch
+                buffer.put(OrderCommandType.RESERVED_BATCH_START.getCode());
+            }
+            journalEncoder.encode(buffer, cmd, baseSeq + dSeq);
+        } else {
+            writeLegacyRecord(buffer, cmd, baseSeq + dSeq);
+        }
+
+        if (cmdType == OrderCommandType.PERSIST_STATE_RISK) {
+
+            // register snapshot change
+            registerNextSnapshot(cmd.orderId, baseSeq + dSeq, cmd.timestamp);
+
+            // start new file
+            baseSnapshotId = cmd.orderId;
+            filesCounter = 0;
+
+            flushBufferSync(true, cmd.timestamp);
+
+        } else if (cmdType == OrderCommandType.RESET) {
+
+            // forcing to start next journal file on reset (useful for testing)
+            flushBufferSync(true, cmd.timestamp);
+
+        } else if (eob || buffer.position() >= journalBufferFlushTrigger) {
+
+            // flushing on end of batch or when buffer is full
+            flushBufferSync(false, cmd.timestamp);
+        }
+
+    }
+
+    private void writeLegacyRecord(final ByteBuffer buffer, final OrderCommand cmd, final long seq) {
+
+        boolean debug = false;
+
+        final OrderCommandType cmdType = cmd.command;
+
         // mandatory fields
         buffer.put(cmdType.getCode()); // 1 byte
-        buffer.putLong(baseSeq + dSeq); // 8 bytes - can be compressed as delta
+        buffer.putLong(seq); // 8 bytes - can be compressed as delta
         buffer.putLong(cmd.timestamp); // 8 bytes - can be compressed as delta
         buffer.putInt(cmd.serviceFlags); // 4 bytes - can be compressed as dictionary
         buffer.putLong(cmd.eventsGroup); // 8 bytes - can be compressed as delta
 
         if (debug)
-            log.debug("LOG {} eventsGroup={} serviceFlags={}", String.format("seq=%d t=%d cmd=%X (%s) ", baseSeq + dSeq, cmd.timestamp, cmdType.getCode(), cmdType), cmd.eventsGroup, cmd.serviceFlags);
+            log.debug("LOG {} eventsGroup={} serviceFlags={}", String.format("seq=%d t=%d cmd=%X (%s) ", seq, cmd.timestamp, cmdType.getCode(), cmdType), cmd.eventsGroup, cmd.serviceFlags);
 
         if (cmdType == OrderCommandType.MOVE_ORDER) {
 
@@ -289,7 +414,7 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
             buffer.putLong(cmd.orderId); // 8 bytes - can be compressed as delta
             buffer.putLong(cmd.price); // 8 bytes - can be compressed as delta
 
-            if (debug) log.debug("move order seq={} t={} orderId={} symbol={} uid={} price={}", baseSeq + dSeq, cmd.timestamp, cmd.orderId, cmd.symbol, cmd.uid, cmd.price);
+            if (debug) log.debug("move order seq={} t={} orderId={} symbol={} uid={} price={}", seq, cmd.timestamp, cmd.orderId, cmd.symbol, cmd.uid, cmd.price);
 
         } else if (cmdType == OrderCommandType.CANCEL_ORDER) {
 
@@ -297,7 +422,7 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
             buffer.putInt(cmd.symbol); // 4 bytes can be compressed as dictionary
             buffer.putLong(cmd.orderId); // 8 bytes - can be compressed as delta
 
-            if (debug) log.debug("cancel order seq={} t={} orderId={} symbol={} uid={}", baseSeq + dSeq, cmd.timestamp, cmd.orderId, cmd.symbol, cmd.uid);
+            if (debug) log.debug("cancel order seq={} t={} orderId={} symbol={} uid={}", seq, cmd.timestamp, cmd.orderId, cmd.symbol, cmd.uid);
 
         } else if (cmdType == OrderCommandType.REDUCE_ORDER) {
 
@@ -306,7 +431,7 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
             buffer.putLong(cmd.orderId); // 8 bytes - can be compressed as delta
             buffer.putLong(cmd.size); // 8 bytes - can be compressed as low value
 
-            if (debug) log.debug("reduce order seq={} t={} orderId={} symbol={} uid={} size={}", baseSeq + dSeq, cmd.timestamp, cmd.orderId, cmd.symbol, cmd.uid, cmd.size);
+            if (debug) log.debug("reduce order seq={} t={} orderId={} symbol={} uid={} size={}", seq, cmd.timestamp, cmd.orderId, cmd.symbol, cmd.uid, cmd.size);
 
         } else if (cmdType == OrderCommandType.PLACE_ORDER) {
 
@@ -323,7 +448,7 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
             buffer.put(actionAndType1); // 1 byte
 
             if (debug) log.debug("place order seq={} t={} orderId={} symbol={} uid={} price={} reserveBidPrice={} size={} userCookie={} {}/{} actionAndType={}",
-                    baseSeq + dSeq, cmd.timestamp, cmd.orderId, cmd.symbol, cmd.uid, cmd.price, cmd.reserveBidPrice, cmd.size, cmd.userCookie, cmd.action, cmd.orderType, actionAndType1);
+                    seq, cmd.timestamp, cmd.orderId, cmd.symbol, cmd.uid, cmd.price, cmd.reserveBidPrice, cmd.size, cmd.userCookie, cmd.action, cmd.orderType, actionAndType1);
 
         } else if (cmdType == OrderCommandType.BALANCE_ADJUSTMENT) {
 
@@ -355,29 +480,6 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
 //                cmdType == OrderCommandType.PERSIST_STATE_RISK) {
 //            buffer.putLong(cmd.orderId); // 8 bytes
         }
-
-        if (cmdType == OrderCommandType.PERSIST_STATE_RISK) {
-
-            // register snapshot change
-            registerNextSnapshot(cmd.orderId, baseSeq + dSeq, cmd.timestamp);
-
-            // start new file
-            baseSnapshotId = cmd.orderId;
-            filesCounter = 0;
-
-            flushBufferSync(true, cmd.timestamp);
-
-        } else if (cmdType == OrderCommandType.RESET) {
-
-            // forcing to start next journal file on reset (useful for testing)
-            flushBufferSync(true, cmd.timestamp);
-
-        } else if (eob || buffer.position() >= journalBufferFlushTrigger) {
-
-            // flushing on end of batch or when buffer is full
-            flushBufferSync(false, cmd.timestamp);
-        }
-
     }
 
     @Override
@@ -399,238 +501,48 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
     }
 
     @Override
-    public void replayJournalStep(long snapshotId, long seqFrom, long seqTo, ExchangeApi exchangeApi) {
-        throw new UnsupportedOperationException();
-    }
+    public void replayJournalStep(long snapshotId, long seqFrom, long seqTo, ExchangeApi api) {
 
-    @Override
-    public long replayJournalFull(InitialStateConfiguration initialCfg, ExchangeApi api) {
-        if (initialCfg.getJournalTimestampNs() == 0) {
-            log.debug("No need to replay journal, returning baseSeq={}", baseSeq);
-
-            return baseSeq;
+        if (seqTo <= seqFrom) {
+            throw new IllegalArgumentException("Invalid sequence range: seqFrom=" + seqFrom + " seqTo=" + seqTo);
         }
-        log.debug("Replaying journal...");
-
-//        log.info("Read total: {} bytes ", totalBytesRead);
-
-        api.groupingControl(0, 0);
-
-
-        final MutableLong lastSeq = new MutableLong();
-        // TODO refactor reading, use EOF flag
-
-        int partitionCounter = 1;
-        while (true) {
 
-            final Path path = resolveJournalPath(partitionCounter, initialCfg.getSnapshotId());
+        final IntFunction<Path> journalPathResolver = partition -> resolveJournalPath(partition, snapshotId);
 
-            log.debug("Reading journal file: {}", path.toFile());
-            try (final FileInputStream fis = new FileInputStream(path.toFile());
-                 final BufferedInputStream bis = new BufferedInputStream(fis);
-                 final DataInputStream dis = new DataInputStream(bis)) {
-
-                readCommands(dis, api, lastSeq, false);
-                partitionCounter++;
-                log.debug("File end reached, try next partition {}...", partitionCounter);
-
-            } catch (FileNotFoundException ex) {
-                log.debug("return lastSeq={}, file not found: {}", lastSeq, ex.getMessage());
-                return lastSeq.value;
-
-            } catch (IOException ex) {
-                partitionCounter++;
-                log.debug("File end reached through exception");
-            }
+        // skip journal before seqFrom using sparse index
+        final JournalIndex.SeekPoint seekPoint;
+        try {
+            seekPoint = JournalIndex.findSeekPoint(journalPathResolver, partition -> resolveJournalIndexPath(partition, snapshotId), seqFrom);
+        } catch (final IOException ex) {
+            throw new IllegalStateException("Can not read journal index", ex);
         }
-    }
-
-
-    private void readCommands(final DataInputStream jr,
-                              final ExchangeApi api,
-                              final MutableLong lastSeq,
-                              boolean insideCompressedBlock) throws IOException {
-
-        while (jr.available() != 0) {
-
-            boolean debug = false;
-//            boolean debug = insideCompressedBlock;
-
-            final byte cmd = jr.readByte();
-
-            if (debug) log.debug("COMPR STEP lastSeq={} ", lastSeq);
-
-            if (cmd == OrderCommandType.RESERVED_COMPRESSED.getCode()) {
-
-                if (insideCompressedBlock) {
-                    throw new IllegalStateException("Recursive compression block (data corrupted)");
-                }
 
-                int size = jr.readInt();
-                int origSize = jr.readInt();
+        log.debug("Replaying journal step ({}..{}] from {}", seqFrom, seqTo, seekPoint);
 
-//                log.debug("{}->{}", size, origSize);
-
-                if (size > 1000000) {
-                    throw new IllegalStateException("Bad compressed block size = " + size + "(data corrupted)");
-                }
-
-                if (origSize > 1000000) {
-                    throw new IllegalStateException("Bad original block size = " + size + "(data corrupted)");
-                }
-
-                byte[] compressedArray = new byte[size];
-                int read = jr.read(compressedArray);
-                if (read < size) {
-                    throw new IOException("Can not read full block (only " + read + " bytes, not all " + size + " bytes) ");
-                }
-
-//                log.debug("Decoding block {}", origSize);
-                byte[] originalArray = lz4SafeDecompressor.decompress(compressedArray, origSize);
-
-                // read compressed block recursively
-                try (final ByteArrayInputStream bis = new ByteArrayInputStream(originalArray);
-                     final DataInputStream dis = new DataInputStream(bis)) {
-
-                    readCommands(dis, api, lastSeq, true);
-                }
-
-            } else {
-
-                final long seq = jr.readLong();
-
-                final long timestampNs = jr.readLong();
-                final int serviceFlags = jr.readInt();
-                final long eventsGroup = jr.readLong();
-                final OrderCommandType cmdType = OrderCommandType.fromCode(cmd);
-
-                if (seq != lastSeq.value + 1) {
-                    log.warn("Sequence gap {}->{} ({})", lastSeq, seq, seq - lastSeq.value);
-//                    log.debug("timestampNs={} eventsGroup={} serviceFlags={} cmdType={}", timestampNs, eventsGroup, serviceFlags, cmdType);
-                }
-
-                lastSeq.value = seq;
-
-//                log.debug("command seq={} {}", lastSeq, cmdType);
-
-                if (debug) log.debug("eventsGroup={} serviceFlags={} cmdType={}", eventsGroup, serviceFlags, cmdType);
-
-                if (cmdType == OrderCommandType.MOVE_ORDER) {
-
-                    final long uid = jr.readLong(); // 8 bytes can be compressed as dictionary
-                    final int symbol = jr.readInt();// 4 bytes can be compressed as dictionary
-                    final long orderId = jr.readLong(); // 8 bytes - can be compressed as delta
-                    final long price = jr.readLong(); // 8 bytes - can be compressed as delta
-
-                    if (debug) log.debug("move order seq={} t={} orderId={} symbol={} uid={} price={}", lastSeq, timestampNs, orderId, symbol, uid, price);
-
-                    api.moveOrder(serviceFlags, eventsGroup, timestampNs, price, orderId, symbol, uid);
-
-                } else if (cmdType == OrderCommandType.CANCEL_ORDER) {
-
-                    final long uid = jr.readLong(); // 8 bytes can be compressed as dictionary
-                    final int symbol = jr.readInt();// 4 bytes can be compressed as dictionary
-                    final long orderId = jr.readLong(); // 8 bytes - can be compressed as delta
-
-                    if (debug) log.debug("cancel order seq={} t={} orderId={} symbol={} uid={}", lastSeq, timestampNs, orderId, symbol, uid);
-
-                    api.cancelOrder(serviceFlags, eventsGroup, timestampNs, orderId, symbol, uid);
-
-                } else if (cmdType == OrderCommandType.REDUCE_ORDER) {
-
-                    final long uid = jr.readLong(); // 8 bytes can be compressed as dictionary
-                    final int symbol = jr.readInt();// 4 bytes can be compressed as dictionary
-                    final long orderId = jr.readLong(); // 8 bytes - can be compressed as delta
-                    final long reduceSize = jr.readLong(); // 8 bytes - can be compressed as low value
-
-                    if (debug) log.debug("reduce order seq={} t={} orderId={} symbol={} uid={} reduceSize={}", lastSeq, timestampNs, orderId, symbol, uid, reduceSize);
-
-                    api.reduceOrder(serviceFlags, eventsGroup, timestampNs, reduceSize, orderId, symbol, uid);
-
-                } else if (cmdType == OrderCommandType.PLACE_ORDER) {
-
-                    final long uid = jr.readLong(); // 8 bytes can be compressed as dictionary
-                    final int symbol = jr.readInt();// 4 bytes can be compressed as dictionary
-                    final long orderId = jr.readLong(); // 8 bytes - can be compressed as delta
-                    final long price = jr.readLong(); // 8 bytes - can be compressed as delta
-                    final long reservedBidPrice = jr.readLong(); // 8 bytes - can be compressed (diff to price or 0)
-                    final long size = jr.readLong(); // 8 bytes - can be compressed
-                    final int userCookie = jr.readInt(); // 4 bytes can be compressed as a optional low value
-
-                    final byte actionAndType = jr.readByte(); // 1 byte
-                    final OrderAction orderAction = OrderAction.of((byte) (actionAndType & 0b1));
-                    final OrderType orderType = OrderType.of((byte) ((actionAndType >> 1) & 0b1111));
-
-                    if (debug)
-                        log.debug("place order seq={} t={} orderId={} symbol={} uid={} price={} reserveBidPrice={} size={} userCookie={} {}/{} actionAndType={}", lastSeq, timestampNs, orderId, symbol, uid, price, reservedBidPrice, size, userCookie, orderAction, orderType, actionAndType);
-
-                    api.placeNewOrder(serviceFlags, eventsGroup, timestampNs, orderId, userCookie, price, reservedBidPrice, size, orderAction, orderType, symbol, uid);
-
-                } else if (cmdType == OrderCommandType.BALANCE_ADJUSTMENT) {
-
-                    final long uid = jr.readLong(); // 8 bytes can be compressed as dictionary
-                    final int currency = jr.readInt();// 4 bytes can be compressed as dictionary (currency)
-                    final long transactionId = jr.readLong(); // 8 bytes can be compressed as delta (transaction)
-                    final long amount = jr.readLong(); // 8 bytes - can be compressed as low value (amount)
-                    final BalanceAdjustmentType adjustmentType = BalanceAdjustmentType.of(jr.readByte()); // 1 byte (adjustment or suspend)
-
-                    if (debug) log.debug("balanceAdjustment seq={}  {} uid:{} curre:{}", lastSeq, timestampNs, uid, currency);
-
-                    api.balanceAdjustment(serviceFlags, eventsGroup, timestampNs, uid, transactionId, currency, amount, adjustmentType);
-
-                } else if (cmdType == OrderCommandType.ADD_USER) {
-
-                    final long uid = jr.readLong(); // 8 bytes can be compressed as dictionary
-
-                    if (debug) log.debug("add user  seq={}  {} uid:{} ", lastSeq, timestampNs, uid);
-
-                    api.createUser(serviceFlags, eventsGroup, timestampNs, uid);
-
-                } else if (cmdType == OrderCommandType.SUSPEND_USER) {
-
-                    final long uid = jr.readLong(); // 8 bytes can be compressed as dictionary
-
-                    if (debug) log.debug("suspend user seq={}  {} uid:{} ", lastSeq, timestampNs, uid);
-
-                    api.suspendUser(serviceFlags, eventsGroup, timestampNs, uid);
-
-                } else if (cmdType == OrderCommandType.RESUME_USER) {
-
-                    final long uid = jr.readLong(); // 8 bytes can be compressed as dictionary
-
-                    if (debug) log.debug("resume user seq={}  {} uid:{} ", lastSeq, timestampNs, uid);
-
-                    api.resumeUser(serviceFlags, eventsGroup, timestampNs, uid);
-
-                } else if (cmdType == OrderCommandType.BINARY_DATA_COMMAND) {
-
-                    final byte lastFlag = jr.readByte(); // 1 byte (0 or -1)
-                    final long word0 = jr.readLong(); // 8 bytes word0
-                    final long word1 = jr.readLong(); // 8 bytes word1
-                    final long word2 = jr.readLong(); // 8 bytes word2
-                    final long word3 = jr.readLong(); // 8 bytes word3
-                    final long word4 = jr.readLong(); // 8 bytes word4
-
-                    if (debug)
-                        log.debug("binary data seq={} t:{} {}", lastSeq, timestampNs, String.format("f=%d word0=%X word1=%X word2=%X word3=%X word4=%X", lastFlag, word0, word1, word2, word3, word4));
-
-                    api.binaryData(serviceFlags, eventsGroup, timestampNs, lastFlag, word0, word1, word2, word3, word4);
+        api.groupingControl(0, 0);
 
-                } else if (cmdType == OrderCommandType.RESET) {
+        final JournalReplayer replayer = new JournalReplayer(MAX_JOURNAL_BUFFER_SIZE, journalReplayThreads);
+        final long lastSeq = replayer.replay(journalPathResolver, seekPoint.partition, seekPoint.offset, seqFrom, seqTo, api);
 
-                    api.reset(timestampNs);
+        log.debug("Journal step replayed, lastSeq={}", lastSeq);
 
-                } else {
+        api.groupingControl(0, 1);
+    }
 
-                    log.debug("eventsGroup={} serviceFlags={} cmdType={}", eventsGroup, serviceFlags, cmdType);
+    @Override
+    public long replayJournalFull(InitialStateConfiguration initialCfg, ExchangeApi api) {
+        if (initialCfg.getJournalTimestampNs() == 0) {
+            log.debug("No need to replay journal, returning baseSeq={}", baseSeq);
 
-                    throw new IllegalStateException("unexpected command");
-                }
-            }
+            return baseSeq;
         }
+        log.debug("Replaying journal...");
 
-    }
+        api.groupingControl(0, 0);
 
+        final JournalReplayer replayer = new JournalReplayer(MAX_JOURNAL_BUFFER_SIZE, journalReplayThreads);
+        return replayer.replay(partition -> resolveJournalPath(partition, initialCfg.getSnapshotId()), api);
+    }
 
     @Override
     public void replayJournalFullAndThenEnableJouraling(InitialStateConfiguration initialStateConfiguration, ExchangeApi exchangeApi) {
@@ -656,12 +568,16 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
 //            batchSizes = new ArrayList<>();
 //        }
 
+        // flushed batch can be read independently - possible index entry
+        final long batchOffset = writtenBytes;
+        final boolean batchNotEmpty = journalWriteBuffer.position() != 0;
+
         if (journalWriteBuffer.position() < journalBatchCompressThreshold) {
             // uncompressed write for single messages or small batches
             writtenBytes += journalWriteBuffer.position();
             journalWriteBuffer.flip();
 //            long t = System.nanoTime();
-            channel.write(journalWriteBuffer);
+            writeJournalData(journalWriteBuffer);
 //            hdrRecorderRaw.recordValue(System.nanoTime() - t);
             journalWriteBuffer.clear();
 
@@ -681,36 +597,94 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
             lz4WriteBuffer.putInt(5, originalLength); // 1 + 4 bytes offset
             lz4WriteBuffer.flip();
 //            hdrRecorderLz4.recordValue(System.nanoTime() - t);
-            channel.write(lz4WriteBuffer);
+            writeJournalData(lz4WriteBuffer);
             lz4WriteBuffer.clear();
         }
 
+        if (journalEncoder != null) {
+            journalEncoder.reset();
+        }
+
+        if (batchNotEmpty && (lastIndexedOffset < 0 || batchOffset - lastIndexedOffset >= journalIndexInterval)) {
+            journalIndex.add(journalBufferFirstSeq, batchOffset);
+            lastIndexedOffset = batchOffset;
+        }
+
+        if (channel != null && journalDurability == DiskSerializationProcessorConfiguration.JournalDurability.PERIODIC_FORCE) {
+            final long t = System.nanoTime();
+            if (t - lastForceNs >= journalForceIntervalNs) {
+                channel.force(false);
+                lastForceNs = t;
+            }
+        }
+
         if (forceStartNextFile || writtenBytes >= journalFileMaxSize) {
 
 //            log.info("RAW {}", LatencyTools.createLatencyReportFast(hdrRecorderRaw.getIntervalHistogram()));
 //            log.info("LZ4-compression {}", LatencyTools.createLatencyReportFast(hdrRecorderLz4.getIntervalHistogram()));
 
-            // todo start preparing new file asynchronously, but ONLY ONCE
+            // memory-mapped journal writer prepares next file in background
             startNewFile(timestampNs);
-            writtenBytes = 0;
         }
     }
 
+    private void writeJournalData(final ByteBuffer data) throws IOException {
+        if (mappedJournalWriter != null) {
+            mappedJournalWriter.write(data);
+        } else {
+            channel.write(data);
+        }
+    }
+
+    private boolean isJournalFileStarted() {
+        return mappedJournalWriter != null ? mappedJournalWriter.isSegmentStarted() : channel != null;
+    }
+
     private void startNewFile(final long timestampNs) throws IOException {
         filesCounter++;
-        if (channel != null) {
-            channel.close();
-            raf.close();
-        }
         final Path fileName = resolveJournalPath(filesCounter, baseSnapshotId);
 //        log.debug("Starting new journal file: {}", fileName);
 
-        if (Files.exists(fileName)) {
-            throw new IllegalStateException("File already exists: " + fileName);
+        if (journalMemoryMapped) {
+
+            if (mappedJournalWriter == null) {
+                mappedJournalWriter = new MappedJournalWriter(folder, exchangeId, journalSegmentSize, journalDurability, journalForceIntervalNs);
+            }
+            mappedJournalWriter.startSegment(fileName);
+
+        } else {
+
+            if (channel != null) {
+                channel.close();
+                raf.close();
+            }
+
+            if (Files.exists(fileName)) {
+                throw new IllegalStateException("File already exists: " + fileName);
+            }
+
+            // synchronous writes only if forcing on every flush
+            final String mode = journalDurability == DiskSerializationProcessorConfiguration.JournalDurability.FORCE_PER_FLUSH ? "rwd" : "rw";
+            raf = new RandomAccessFile(fileName.toString(), mode);
+            channel = raf.getChannel();
         }
 
-        raf = new RandomAccessFile(fileName.toString(), "rwd");
-        channel = raf.getChannel();
+        writtenBytes = 0;
+
+        if (journalEncoder != null) {
+            final ByteBuffer header = ByteBuffer.allocate(2);
+            header.put(OrderCommandType.RESERVED_JOURNAL_HEADER.getCode());
+            header.put(CompactJournalCodec.VERSION);
+            header.flip();
+            writeJournalData(header);
+            writtenBytes += 2;
+        }
+
+        if (journalIndex != null) {
+            journalIndex.close();
+        }
+        journalIndex = new JournalIndex(resolveJournalIndexPath(filesCounter, baseSnapshotId));
+        lastIndexedOffset = -1;
 
         registerNextJournal(baseSnapshotId, timestampNs); // TODO fix time
     }
@@ -738,7 +712,68 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
                                       long seq,
                                       long timestampNs) {
 
-        lastSnapshotDescriptor = lastSnapshotDescriptor.createNext(snapshotId, seq, timestampNs);
+        final SnapshotDescriptor descriptor = lastSnapshotDescriptor.createNext(snapshotId, seq, timestampNs);
+        lastSnapshotDescriptor = descriptor;
+        snapshotsIndex.put(seq, descriptor);
+
+        // engines can report written data before or after journaling thread reaches persist command
+        snapshotReports.compute(snapshotId, (id, reports) -> {
+            final SnapshotReports r = reports != null ? reports : new SnapshotReports();
+            r.descriptor = descriptor;
+            return completeSnapshotDescriptor(r) ? null : r;
+        });
+    }
+
+    /**
+     * Fill snapshot descriptor with data reported by engines (only when snapshot is registered and all modules reported)
+     *
+     * @param r - collected reports
+     * @return true if descriptor is completed
+     */
+    private boolean completeSnapshotDescriptor(final SnapshotReports r) {
+
+        final SnapshotDescriptor descriptor = r.descriptor;
+        if (descriptor == null || r.reportedModules < descriptor.getModulesNum()) {
+            return false;
+        }
+
+        if (r.failedModules != 0) {
+            // can not restore from this snapshot
+            log.warn("Snapshot {} is incomplete: {} modules failed to write data", descriptor.getSnapshotId(), r.failedModules);
+            snapshotsIndex.remove(descriptor.getSeq(), descriptor);
+            return true;
+        }
+
+        descriptor.setBaseSnapshotId(r.baseSnapshotId);
+        descriptor.setIncrementalChainLength(r.incrementalChainLength);
+
+        if (descriptor.isIncremental()) {
+            log.debug("Incremental snapshot {} based on {} (chain length {})", descriptor.getSnapshotId(), r.baseSnapshotId, r.incrementalChainLength);
+        }
+        return true;
+    }
+
+    // guarded by snapshotReports map entry
+    private static final class SnapshotReports {
+
+        private SnapshotDescriptor descriptor = null;
+        private int reportedModules = 0;
+        private int failedModules = 0;
+
+        // longest chain reported by modules (latest base if same length)
+        private long baseSnapshotId = 0;
+        private int incrementalChainLength = -1;
+
+        private void addModuleReport(final boolean isSuccess, final long baseSnapshotId, final int incrementalChainLength) {
+            reportedModules++;
+            if (!isSuccess) {
+                failedModules++;
+            } else if (incrementalChainLength > this.incrementalChainLength
+                    || (incrementalChainLength == this.incrementalChainLength && baseSnapshotId > this.baseSnapshotId)) {
+                this.baseSnapshotId = baseSnapshotId;
+                this.incrementalChainLength = incrementalChainLength;
+            }
+        }
     }
 
     private Path resolveSnapshotPath(long snapshotId, SerializedModuleType type, int instanceId) {
@@ -753,4 +788,8 @@ public final class DiskSerializationProcessor implements ISerializationProcessor
     private Path resolveJournalPath(int partitionId, long snapshotId) {
         return folder.resolve(String.format("%s_journal_%d_%04X.ecj", exchangeId, snapshotId, partitionId));
     }
+
+    private Path resolveJournalIndexPath(int partitionId, long snapshotId) {
+        return folder.resolve(String.format("%s_journal_%d_%04X.eci", exchangeId, snapshotId, partitionId));
+    }
 }
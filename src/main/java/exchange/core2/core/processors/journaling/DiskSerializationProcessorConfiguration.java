@@ -11,7 +11,7 @@ import java.util.function.Supplier;
 
 @AllArgsConstructor
 @Getter
-@Builder
+@Builder(toBuilder = true)
 public class DiskSerializationProcessorConfiguration {
 
     public static final String DEFAULT_FOLDER = "./dumps";
@@ -32,6 +32,8 @@ public class DiskSerializationProcessorConfiguration {
     // -------- journal settings ---------------
 
     private final long journalFileMaxSize;
+
+    // journal write buffer size (up to 64MB), if 0 - calculated based on ringBufferSize (to fit a batch of commands without intermediate flushes)
     private final int journalBufferSize;
 
     // use LZ4 compression if batch size (in bytes) exceeds this value for batches threshold
@@ -43,15 +45,66 @@ public class DiskSerializationProcessorConfiguration {
     // note: using LZ4 HIGH is not recommended because of very high impact on throughput
     private final Supplier<LZ4Compressor> journalLz4CompressorFactory;
 
+    // write journal into preallocated memory-mapped files, prepared in background (file size is limited by 2GB)
+    // if false - journal is written through file channel, new files are created by journaling thread
+    private final boolean journalMemoryMapped;
+
+    // when journal data is forced to the storage device
+    private final JournalDurability journalDurability;
+
+    // force interval for PERIODIC_FORCE durability mode
+    private final long journalForceIntervalNs;
+
+    // compact journal records format (delta and varint encoding), about twice smaller than legacy format after LZ4 compression
+    // both formats can be read, format is specified in journal file header
+    private final boolean journalCompactEncoding;
+
+    // minimal distance (in bytes) between sparse journal index entries, first flushed batch of each journal file is always indexed
+    // index is used for seeking by sequence (replayJournalStep)
+    private final long journalIndexInterval;
+
+    // number of threads decompressing and decoding journal blocks during replay (reading and publishing threads are separate)
+    private final int journalReplayThreads;
+
     public static DiskSerializationProcessorConfiguration createDefaultConfig() {
 
         return DiskSerializationProcessorConfiguration.builder()
                 .storageFolder(DEFAULT_FOLDER)
                 .snapshotLz4CompressorFactory(LZ4_FAST)
                 .journalFileMaxSize(4000 * ONE_MEGABYTE)
-                .journalBufferSize(256 * 1024) // 256 KB - TODO calculate based on ringBufferSize
+                .journalBufferSize(0)
+                .journalBatchCompressThreshold(2048)
+                .journalLz4CompressorFactory(LZ4_FAST)
+                .journalMemoryMapped(false)
+                .journalDurability(JournalDurability.FORCE_PER_FLUSH)
+                .journalForceIntervalNs(10_000_000)
+                .journalCompactEncoding(false)
+                .journalIndexInterval(ONE_MEGABYTE)
+                .journalReplayThreads(4)
+                .build();
+    }
+
+    public static DiskSerializationProcessorConfiguration createMemoryMappedConfig() {
+
+        return DiskSerializationProcessorConfiguration.builder()
+                .storageFolder(DEFAULT_FOLDER)
+                .snapshotLz4CompressorFactory(LZ4_FAST)
+                .journalFileMaxSize(512 * ONE_MEGABYTE)
+                .journalBufferSize(0)
                 .journalBatchCompressThreshold(2048)
                 .journalLz4CompressorFactory(LZ4_FAST)
+                .journalMemoryMapped(true)
+                .journalDurability(JournalDurability.PERIODIC_FORCE)
+                .journalForceIntervalNs(10_000_000)
+                .journalCompactEncoding(false)
+                .journalIndexInterval(ONE_MEGABYTE)
+                .journalReplayThreads(4)
                 .build();
     }
+
+    public enum JournalDurability {
+        PAGE_CACHE, // never force, data is written by OS (survives process crash, but not OS crash or power failure)
+        PERIODIC_FORCE, // force every journalForceIntervalNs (memory-mapped journal - in background)
+        FORCE_PER_FLUSH // force on each buffer flush (end of batch), synchronously by journaling thread
+    }
 }
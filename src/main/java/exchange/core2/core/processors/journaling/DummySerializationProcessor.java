@@ -14,7 +14,7 @@ public class DummySerializationProcessor implements ISerializationProcessor {
     public static final DummySerializationProcessor INSTANCE = new DummySerializationProcessor();
 
     @Override
-    public boolean storeData(long snapshotId, long seq, long timestampNs, SerializedModuleType type, int instanceId, WriteBytesMarshallable obj) {
+    public boolean storeData(long snapshotId, long seq, long timestampNs, SerializedModuleType type, int instanceId, long baseSnapshotId, int incrementalChainLength, WriteBytesMarshallable obj) {
         throw new UnsupportedOperationException();
     }
 
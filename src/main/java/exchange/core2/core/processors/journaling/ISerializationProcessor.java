@@ -28,6 +28,9 @@ import java.util.function.Function;
 
 public interface ISerializationProcessor {
 
+    // incremental snapshot data starts with this value followed by base snapshot id (full snapshot data starts with shard id)
+    int INCREMENTAL_SNAPSHOT_MARKER = -1;
+
     /**
      * Serialize state into a storage (disk, NAS, etc).<p>
      * Method is threadsafe - called from each module's thread upon receiving serialization command.<p>
@@ -37,8 +40,10 @@ public interface ISerializationProcessor {
      * @param seq         - sequence of serialization
      * @param timestampNs - timestamp
      * @param type        - module (risk engine or matching engine)
-     * @param instanceId  - module instance number (starting from 0 for each module type)
-     * @param obj         - serialized data
+     * @param instanceId             - module instance number (starting from 0 for each module type)
+     * @param baseSnapshotId         - snapshot which incremental data is based on, 0 for full snapshot
+     * @param incrementalChainLength - number of incremental snapshots since last full snapshot of this module (0 for full snapshot)
+     * @param obj                    - serialized data
      * @return true if serialization succeeded, false otherwise
      */
     boolean storeData(long snapshotId,
@@ -46,6 +51,8 @@ public interface ISerializationProcessor {
                       long timestampNs,
                       SerializedModuleType type,
                       int instanceId,
+                      long baseSnapshotId,
+                      int incrementalChainLength,
                       WriteBytesMarshallable obj);
 
     /**
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.processors.journaling;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.IntFunction;
+
+/**
+ * Sparse journal index: sequence of the first command of a flushed batch -> journal file offset of that batch.
+ * <p>
+ * One index file per journal file, 16 bytes per entry (sequence, offset).
+ * Entries point to flush boundaries only (compressed block or batch start), where compact codec state is reset,
+ * so reading can start from any entry without decoding preceding records.
+ * <p>
+ * Entries are written after corresponding journal data, so index never points beyond written journal.
+ * Index is optional for reading: missing or truncated index files only make seeking less precise.
+ */
+@Slf4j
+final class JournalIndex implements AutoCloseable {
+
+    static final int ENTRY_SIZE = 16;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteBuffer entryBuffer = ByteBuffer.allocate(ENTRY_SIZE);
+
+    JournalIndex(final Path path) throws IOException {
+        if (Files.exists(path)) {
+            throw new IllegalStateException("File already exists: " + path);
+        }
+        this.raf = new RandomAccessFile(path.toFile(), "rw");
+        this.channel = raf.getChannel();
+    }
+
+    void add(final long seq, final long offset) throws IOException {
+        entryBuffer.clear();
+        entryBuffer.putLong(seq);
+        entryBuffer.putLong(offset);
+        entryBuffer.flip();
+        channel.write(entryBuffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        raf.close();
+    }
+
+    /**
+     * Find position to start reading journal from, to replay commands with sequence greater than seqFrom.
+     *
+     * @param journalPathResolver - journal file path by partition number
+     * @param indexPathResolver   - index file path by partition number
+     * @param seqFrom             - last sequence to skip
+     * @return journal partition and offset (beginning of the first partition if nothing found)
+     */
+    static SeekPoint findSeekPoint(final IntFunction<Path> journalPathResolver,
+                                   final IntFunction<Path> indexPathResolver,
+                                   final long seqFrom) throws IOException {
+
+        SeekPoint found = new SeekPoint(1, 0L);
+
+        for (int partition = 1; Files.exists(journalPathResolver.apply(partition)); partition++) {
+
+            final Path indexPath = indexPathResolver.apply(partition);
+            if (!Files.exists(indexPath)) {
+                log.warn("Journal index not found: {}", indexPath);
+                continue;
+            }
+
+            final ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+            while (entries.remaining() >= ENTRY_SIZE) {
+                final long seq = entries.getLong();
+                final long offset = entries.getLong();
+                if (seq > seqFrom + 1) {
+                    // entries are ordered by sequence
+                    return found;
+                }
+                found = new SeekPoint(partition, offset);
+            }
+        }
+
+        return found;
+    }
+
+    @AllArgsConstructor
+    static final class SeekPoint {
+        final int partition;
+        final long offset;
+
+        @Override
+        public String toString() {
+            return "SeekPoint{partition=" + partition + ", offset=" + offset + '}';
+        }
+    }
+}
@@ -0,0 +1,576 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.processors.journaling;
+
+import exchange.core2.core.ExchangeApi;
+import exchange.core2.core.common.OrderAction;
+import exchange.core2.core.common.OrderType;
+import exchange.core2.core.common.cmd.CommandResultCode;
+import exchange.core2.core.common.cmd.OrderCommand;
+import exchange.core2.core.common.cmd.OrderCommandType;
+import lombok.extern.slf4j.Slf4j;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import net.openhft.chronicle.core.io.IOTools;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+
+/**
+ * Pipelined journal replay:
+ * <p>
+ * 1. Reader thread - large sequential reads of journal files, splitting data into compressed blocks,
+ * decoding uncompressed records into command batches.
+ * <p>
+ * 2. Decompression pool - parallel LZ4 decompression and decoding of compressed blocks into command batches
+ * (blocks are independent: compact format codec state is reset for every block).
+ * <p>
+ * 3. Calling thread - publishing command batches into ring buffer (one sequences range claim per batch) in journal order.
+ * <p>
+ * Published batches (and their commands) are returned to the free batches queue and reused for decoding.
+ */
+@Slf4j
+final class JournalReplayer {
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_RECORD_SIZE_BYTES = 256;
+    private static final int BLOCK_HEADER_SIZE = 9; // 1 + 4 + 4
+
+    // uncompressed records batch size
+    private static final int RAW_BATCH_SIZE = 4096;
+
+    private static final CommandsBatch END_OF_JOURNAL = new CommandsBatch(0);
+
+    private final int maxBlockSize;
+    private final int maxCompressedBlockSize;
+    private final int decompressionThreads;
+
+    private final LZ4SafeDecompressor lz4SafeDecompressor = LZ4Factory.fastestInstance().safeDecompressor();
+
+    JournalReplayer(final int maxBlockSize, final int decompressionThreads) {
+        if (decompressionThreads < 1) {
+            throw new IllegalArgumentException("At least one decompression thread required");
+        }
+        this.maxBlockSize = maxBlockSize;
+        this.maxCompressedBlockSize = LZ4Factory.fastestInstance().fastCompressor().maxCompressedLength(maxBlockSize);
+        this.decompressionThreads = decompressionThreads;
+    }
+
+    /**
+     * Replay journal files (partitions are numbered from 1, replay stops at first missing file)
+     *
+     * @param pathResolver - journal file path by partition number
+     * @param api          - exchange API
+     * @return last replayed command sequence (0 if journal is empty)
+     */
+    long replay(final IntFunction<Path> pathResolver, final ExchangeApi api) {
+        return replay(pathResolver, 1, 0L, 0L, Long.MAX_VALUE, api);
+    }
+
+    /**
+     * Replay commands with sequences in range (seqFrom, seqTo], starting from specified journal file position.
+     * Reading stops as soon as seqTo is reached.
+     *
+     * @param pathResolver   - journal file path by partition number
+     * @param startPartition - first partition to read
+     * @param startOffset    - offset in the first partition (should point to the beginning of a flushed batch or 0)
+     * @param seqFrom        - last sequence to skip (exclusive)
+     * @param seqTo          - last sequence to replay (inclusive)
+     * @param api            - exchange API
+     * @return last replayed command sequence (seqFrom if nothing replayed)
+     */
+    long replay(final IntFunction<Path> pathResolver,
+                final int startPartition,
+                final long startOffset,
+                final long seqFrom,
+                final long seqTo,
+                final ExchangeApi api) {
+
+        final ExecutorService decompressionPool = Executors.newFixedThreadPool(decompressionThreads, daemonThreadFactory("journal-decompression"));
+        final BlockingQueue<Future<CommandsBatch>> queue = new ArrayBlockingQueue<>(decompressionThreads * 2 + 2);
+        // enough for all queued and currently decoded batches
+        final BlockingQueue<CommandsBatch> freeBatches = new ArrayBlockingQueue<>(decompressionThreads * 3 + 4);
+
+        final Thread readerThread = daemonThreadFactory("journal-reader")
+                .newThread(() -> readFiles(pathResolver, startPartition, startOffset, decompressionPool, queue, freeBatches));
+
+        readerThread.start();
+
+        final long t = System.nanoTime();
+        long lastSeq = seqFrom;
+        long commandsNum = 0;
+        boolean seqToReached = false;
+
+        try {
+            while (!seqToReached) {
+
+                final CommandsBatch batch = queue.take().get();
+                if (batch == END_OF_JOURNAL) {
+                    break;
+                }
+
+                // find commands range within (seqFrom, seqTo]
+                int from = 0;
+                while (from < batch.size && batch.seqs[from] <= seqFrom) {
+                    from++;
+                }
+                int to = from;
+                while (to < batch.size && batch.seqs[to] <= seqTo) {
+                    final long seq = batch.seqs[to];
+                    if (seq != lastSeq + 1) {
+                        log.warn("Sequence gap {}->{} ({})", lastSeq, seq, seq - lastSeq);
+                    }
+                    lastSeq = seq;
+                    to++;
+                }
+
+                seqToReached = to < batch.size || lastSeq == seqTo;
+
+                final int offset = from;
+                final int num = to - from;
+                if (num != 0) {
+                    api.publishCommandsBatch(num, (slot, seq, idx) -> translate(batch.commands[offset + idx], slot), null);
+                    commandsNum += num;
+                }
+
+                // commands are copied into ring buffer - batch can be reused
+                batch.clear();
+                freeBatches.offer(batch);
+            }
+
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Journal replay interrupted", ex);
+
+        } catch (final ExecutionException ex) {
+            throw new IllegalStateException("Can not read journal", ex.getCause());
+
+        } finally {
+            readerThread.interrupt();
+            decompressionPool.shutdownNow();
+        }
+
+        final long durationNs = Math.max(1, System.nanoTime() - t);
+        log.info("Replayed {} commands in {}ms ({} commands/sec), lastSeq={}",
+                commandsNum, durationNs / 1_000_000, commandsNum * 1_000_000_000L / durationNs, lastSeq);
+
+        return lastSeq;
+    }
+
+    private void readFiles(final IntFunction<Path> pathResolver,
+                           final int startPartition,
+                           final long startOffset,
+                           final ExecutorService decompressionPool,
+                           final BlockingQueue<Future<CommandsBatch>> queue,
+                           final BlockingQueue<CommandsBatch> freeBatches) {
+
+        // bigger compressed blocks are read directly
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        try {
+            for (int partition = startPartition; ; partition++) {
+                final Path path = pathResolver.apply(partition);
+                if (!Files.exists(path)) {
+                    log.debug("File not found: {}, journal end reached", path);
+                    break;
+                }
+                log.debug("Reading journal file: {}", path);
+                readFile(path, partition == startPartition ? startOffset : 0L, readBuffer, decompressionPool, queue, freeBatches);
+            }
+            queue.put(CompletableFuture.completedFuture(END_OF_JOURNAL));
+
+        } catch (final Exception ex) {
+            final CompletableFuture<CommandsBatch> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            // publisher can be already stopped
+            queue.offer(failed);
+
+        } finally {
+            IOTools.clean(readBuffer);
+        }
+    }
+
+    private void readFile(final Path path,
+                          final long startOffset,
+                          final ByteBuffer buffer,
+                          final ExecutorService decompressionPool,
+                          final BlockingQueue<Future<CommandsBatch>> queue,
+                          final BlockingQueue<CommandsBatch> freeBatches) throws IOException, InterruptedException {
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            buffer.clear().limit(0);
+            boolean eof = fill(channel, buffer);
+
+            final CompactJournalCodec codec = readHeader(buffer) ? new CompactJournalCodec() : null;
+
+            if (startOffset > buffer.position()) {
+                // seek to the beginning of a flushed batch
+                channel.position(startOffset);
+                buffer.clear().limit(0);
+                eof = fill(channel, buffer);
+            }
+
+            CommandsBatch rawBatch = takeBatch(freeBatches);
+
+            while (true) {
+
+                if (!eof && buffer.remaining() < MAX_RECORD_SIZE_BYTES + BLOCK_HEADER_SIZE) {
+                    eof = fill(channel, buffer);
+                }
+
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+
+                try {
+                    final byte code = buffer.get();
+
+                    if (code == 0) {
+                        // zero-filled tail of preallocated memory-mapped file (was not truncated because of crash)
+                        break;
+
+                    } else if (code == OrderCommandType.RESERVED_COMPRESSED.getCode()) {
+
+                        final int size = buffer.getInt();
+                        final int origSize = buffer.getInt();
+
+                        if (size <= 0 || size > maxCompressedBlockSize) {
+                            throw new IllegalStateException("Bad compressed block size = " + size + " (data corrupted)");
+                        }
+
+                        if (origSize <= 0 || origSize > maxBlockSize) {
+                            throw new IllegalStateException("Bad original block size = " + origSize + " (data corrupted)");
+                        }
+
+                        final byte[] compressed = new byte[size];
+                        final int buffered = Math.min(size, buffer.remaining());
+                        buffer.get(compressed, 0, buffered);
+                        if (buffered < size) {
+                            // read the rest of the block directly from the file
+                            final ByteBuffer rest = ByteBuffer.wrap(compressed, buffered, size - buffered);
+                            while (rest.hasRemaining() && channel.read(rest) >= 0) {
+                                // continue reading
+                            }
+                            if (rest.hasRemaining()) {
+                                log.warn("Incomplete compressed block at the end of file {}", path);
+                                break;
+                            }
+                        }
+
+                        // keep journal order
+                        if (rawBatch.size != 0) {
+                            queue.put(CompletableFuture.completedFuture(rawBatch));
+                            rawBatch = takeBatch(freeBatches);
+                        }
+
+                        final boolean compactFormat = codec != null;
+                        queue.put(decompressionPool.submit(() -> decodeBlock(compressed, origSize, compactFormat, freeBatches)));
+
+                    } else if (code == OrderCommandType.RESERVED_BATCH_START.getCode()) {
+
+                        if (codec == null) {
+                            throw new IllegalStateException("Unexpected batch start in legacy format (data corrupted)");
+                        }
+                        codec.reset();
+
+                    } else {
+
+                        decodeRecord(buffer, code, codec, rawBatch);
+
+                        if (rawBatch.size == RAW_BATCH_SIZE) {
+                            queue.put(CompletableFuture.completedFuture(rawBatch));
+                            rawBatch = takeBatch(freeBatches);
+                        }
+                    }
+
+                } catch (final BufferUnderflowException ex) {
+                    if (eof) {
+                        log.warn("Incomplete record at the end of file {}", path);
+                        break;
+                    }
+                    throw new IllegalStateException("Record is too big (data corrupted)", ex);
+                }
+            }
+
+            if (rawBatch.size != 0) {
+                queue.put(CompletableFuture.completedFuture(rawBatch));
+            }
+        }
+    }
+
+    // returns true if file is in compact format
+    private static boolean readHeader(final ByteBuffer buffer) {
+        if (buffer.remaining() >= 2 && buffer.get(buffer.position()) == OrderCommandType.RESERVED_JOURNAL_HEADER.getCode()) {
+            final byte version = buffer.get(buffer.position() + 1);
+            if (version != CompactJournalCodec.VERSION) {
+                throw new IllegalStateException("Unsupported journal format version: " + version);
+            }
+            buffer.position(buffer.position() + 2);
+            return true;
+        }
+        // legacy format has no header
+        return false;
+    }
+
+    // read until buffer is full or end of file reached, returns true if end of file reached
+    private static boolean fill(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        buffer.compact();
+        int read = 0;
+        while (buffer.hasRemaining() && (read = channel.read(buffer)) >= 0) {
+            // continue reading
+        }
+        buffer.flip();
+        return read < 0;
+    }
+
+    private CommandsBatch decodeBlock(final byte[] compressed,
+                                      final int origSize,
+                                      final boolean compactFormat,
+                                      final BlockingQueue<CommandsBatch> freeBatches) {
+
+        final ByteBuffer buffer = ByteBuffer.wrap(lz4SafeDecompressor.decompress(compressed, origSize));
+        final CompactJournalCodec codec = compactFormat ? new CompactJournalCodec() : null;
+
+        final CommandsBatch batch = takeBatch(freeBatches);
+
+        while (buffer.hasRemaining()) {
+
+            final byte code = buffer.get();
+
+            if (code == OrderCommandType.RESERVED_BATCH_START.getCode()) {
+                if (codec == null) {
+                    throw new IllegalStateException("Unexpected batch start in legacy format (data corrupted)");
+                }
+                codec.reset();
+            } else if (code == OrderCommandType.RESERVED_COMPRESSED.getCode()) {
+                throw new IllegalStateException("Recursive compression block (data corrupted)");
+            } else {
+                decodeRecord(buffer, code, codec, batch);
+            }
+        }
+
+        return batch;
+    }
+
+    private static void decodeRecord(final ByteBuffer buffer, final byte code, final CompactJournalCodec codec, final CommandsBatch batch) {
+        final OrderCommand cmd = batch.next();
+        final long seq = codec != null ? codec.decode(buffer, code, cmd) : decodeLegacyRecord(buffer, code, cmd);
+        batch.commit(seq);
+    }
+
+    private static CommandsBatch takeBatch(final BlockingQueue<CommandsBatch> freeBatches) {
+        final CommandsBatch batch = freeBatches.poll();
+        return batch != null ? batch : new CommandsBatch(RAW_BATCH_SIZE);
+    }
+
+    private static long decodeLegacyRecord(final ByteBuffer buffer, final byte code, final OrderCommand cmd) {
+
+        final OrderCommandType cmdType = OrderCommandType.fromCode(code);
+        cmd.command = cmdType;
+
+        final long seq = buffer.getLong();
+        cmd.timestamp = buffer.getLong();
+        cmd.serviceFlags = buffer.getInt();
+        cmd.eventsGroup = buffer.getLong();
+
+        if (cmdType == OrderCommandType.MOVE_ORDER) {
+
+            cmd.uid = buffer.getLong();
+            cmd.symbol = buffer.getInt();
+            cmd.orderId = buffer.getLong();
+            cmd.price = buffer.getLong();
+
+        } else if (cmdType == OrderCommandType.CANCEL_ORDER) {
+
+            cmd.uid = buffer.getLong();
+            cmd.symbol = buffer.getInt();
+            cmd.orderId = buffer.getLong();
+
+        } else if (cmdType == OrderCommandType.REDUCE_ORDER) {
+
+            cmd.uid = buffer.getLong();
+            cmd.symbol = buffer.getInt();
+            cmd.orderId = buffer.getLong();
+            cmd.size = buffer.getLong();
+
+        } else if (cmdType == OrderCommandType.PLACE_ORDER) {
+
+            cmd.uid = buffer.getLong();
+            cmd.symbol = buffer.getInt();
+            cmd.orderId = buffer.getLong();
+            cmd.price = buffer.getLong();
+            cmd.reserveBidPrice = buffer.getLong();
+            cmd.size = buffer.getLong();
+            cmd.userCookie = buffer.getInt();
+
+            final byte actionAndType = buffer.get();
+            cmd.action = OrderAction.of((byte) (actionAndType & 0b1));
+            cmd.orderType = OrderType.of((byte) ((actionAndType >> 1) & 0b1111));
+
+        } else if (cmdType == OrderCommandType.BALANCE_ADJUSTMENT) {
+
+            cmd.uid = buffer.getLong();
+            cmd.symbol = buffer.getInt();
+            cmd.orderId = buffer.getLong();
+            cmd.price = buffer.getLong();
+            cmd.orderType = OrderType.of(buffer.get());
+
+        } else if (cmdType == OrderCommandType.ADD_USER ||
+                cmdType == OrderCommandType.SUSPEND_USER ||
+                cmdType == OrderCommandType.RESUME_USER) {
+
+            cmd.uid = buffer.getLong();
+
+        } else if (cmdType == OrderCommandType.BINARY_DATA_COMMAND) {
+
+            cmd.symbol = buffer.get();
+            cmd.orderId = buffer.getLong();
+            cmd.price = buffer.getLong();
+            cmd.reserveBidPrice = buffer.getLong();
+            cmd.size = buffer.getLong();
+            cmd.uid = buffer.getLong();
+
+        } else if (cmdType != OrderCommandType.RESET) {
+
+            throw new IllegalStateException("unexpected command " + cmdType);
+        }
+
+        return seq;
+    }
+
+    /**
+     * Write decoded command into ring buffer slot (same fields as corresponding ExchangeApi methods)
+     */
+    private static void translate(final OrderCommand src, final OrderCommand cmd) {
+
+        final OrderCommandType cmdType = src.command;
+
+        cmd.command = cmdType;
+        cmd.resultCode = CommandResultCode.NEW;
+        cmd.timestamp = src.timestamp;
+
+        if (cmdType == OrderCommandType.RESET) {
+            return;
+        }
+
+        cmd.serviceFlags = src.serviceFlags;
+        cmd.eventsGroup = src.eventsGroup;
+        cmd.uid = src.uid;
+
+        if (cmdType == OrderCommandType.MOVE_ORDER) {
+
+            cmd.symbol = src.symbol;
+            cmd.orderId = src.orderId;
+            cmd.price = src.price;
+
+        } else if (cmdType == OrderCommandType.CANCEL_ORDER) {
+
+            cmd.symbol = src.symbol;
+            cmd.orderId = src.orderId;
+
+        } else if (cmdType == OrderCommandType.REDUCE_ORDER) {
+
+            cmd.symbol = src.symbol;
+            cmd.orderId = src.orderId;
+            cmd.size = src.size;
+
+        } else if (cmdType == OrderCommandType.PLACE_ORDER) {
+
+            cmd.symbol = src.symbol;
+            cmd.orderId = src.orderId;
+            cmd.price = src.price;
+            cmd.reserveBidPrice = src.reserveBidPrice;
+            cmd.size = src.size;
+            cmd.userCookie = src.userCookie;
+            cmd.action = src.action;
+            cmd.orderType = src.orderType;
+
+        } else if (cmdType == OrderCommandType.BALANCE_ADJUSTMENT) {
+
+            cmd.symbol = src.symbol;
+            cmd.orderId = src.orderId;
+            cmd.price = src.price;
+            cmd.orderType = src.orderType;
+            cmd.size = 0;
+
+        } else if (cmdType == OrderCommandType.ADD_USER ||
+                cmdType == OrderCommandType.SUSPEND_USER ||
+                cmdType == OrderCommandType.RESUME_USER) {
+
+            cmd.orderId = -1;
+            cmd.symbol = -1;
+
+        } else if (cmdType == OrderCommandType.BINARY_DATA_COMMAND) {
+
+            cmd.symbol = src.symbol;
+            cmd.orderId = src.orderId;
+            cmd.price = src.price;
+            cmd.reserveBidPrice = src.reserveBidPrice;
+            cmd.size = src.size;
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        return r -> {
+            final Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class CommandsBatch {
+
+        private OrderCommand[] commands;
+        private long[] seqs;
+        private int size = 0;
+
+        private CommandsBatch(final int capacity) {
+            this.commands = new OrderCommand[capacity];
+            this.seqs = new long[capacity];
+        }
+
+        // command to decode next record into (instances are reused)
+        private OrderCommand next() {
+            if (size == commands.length) {
+                commands = Arrays.copyOf(commands, Math.max(16, size * 2));
+                seqs = Arrays.copyOf(seqs, commands.length);
+            }
+            OrderCommand cmd = commands[size];
+            if (cmd == null) {
+                cmd = new OrderCommand();
+                commands[size] = cmd;
+            }
+            return cmd;
+        }
+
+        private void commit(final long seq) {
+            seqs[size++] = seq;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+    }
+}
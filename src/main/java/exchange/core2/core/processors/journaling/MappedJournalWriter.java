@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.processors.journaling;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.core.io.IOTools;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+
+/**
+ * Journal writer backed by preallocated memory-mapped segment files.
+ * <p>
+ * Next segment file is created, filled with zeros, mapped and pre-touched by background thread in advance,
+ * so journaling thread only copies bytes into mapped memory and renames prepared file on roll-over.
+ * <p>
+ * Background thread also forces and truncates finished segments (to written size).
+ * Periodic forcing of the current segment is performed by separate thread, so it is not delayed by segment preparation.
+ * Unused tail of a segment that was not closed properly (crash) remains zero-filled, zero command code marks end of data.
+ * <p>
+ * Methods (except constructor) should be called from journaling thread only.
+ */
+@Slf4j
+final class MappedJournalWriter implements AutoCloseable {
+
+    private static final int ZEROS_CHUNK_SIZE = 1024 * 1024;
+
+    private final Path folder;
+    private final String preparedFilePrefix;
+    private final int segmentSize;
+    private final DiskSerializationProcessorConfiguration.JournalDurability durability;
+
+    // single thread: preparing and closing segments
+    private final ScheduledExecutorService executor;
+
+    // periodic forcing of current segment (PERIODIC_FORCE mode only, otherwise null)
+    private final ScheduledExecutorService forceExecutor;
+
+    private Future<Segment> preparedSegment;
+    private int preparedFilesCounter = 0;
+
+    private Segment segment = null;
+
+    // current segment for periodic forcing
+    private volatile Segment activeSegment = null;
+
+    MappedJournalWriter(final Path folder,
+                        final String exchangeId,
+                        final long segmentSize,
+                        final DiskSerializationProcessorConfiguration.JournalDurability durability,
+                        final long forceIntervalNs) {
+
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Memory-mapped journal segment size should be in range 1.." + Integer.MAX_VALUE + " bytes: " + segmentSize);
+        }
+
+        this.folder = folder;
+        this.preparedFilePrefix = exchangeId + "_journal_prepared_";
+        this.segmentSize = (int) segmentSize;
+        this.durability = durability;
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "journal-segments");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.preparedSegment = executor.submit(this::prepareSegment);
+
+        if (durability == DiskSerializationProcessorConfiguration.JournalDurability.PERIODIC_FORCE) {
+            this.forceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "journal-force");
+                thread.setDaemon(true);
+                return thread;
+            });
+            forceExecutor.scheduleAtFixedRate(this::forceActiveSegment, forceIntervalNs, forceIntervalNs, TimeUnit.NANOSECONDS);
+        } else {
+            this.forceExecutor = null;
+        }
+    }
+
+    /**
+     * Close current segment (in background) and continue writing into prepared segment renamed to the provided path.
+     * Waits only if next segment is not prepared yet.
+     *
+     * @param path - journal file path
+     * @throws IOException - if can not prepare or rename segment file
+     */
+    void startSegment(final Path path) throws IOException {
+
+        if (Files.exists(path)) {
+            throw new IllegalStateException("File already exists: " + path);
+        }
+
+        retireSegment();
+
+        final Segment next;
+        try {
+            next = preparedSegment.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for journal segment", ex);
+        } catch (final ExecutionException ex) {
+            throw new IOException("Can not prepare journal segment", ex.getCause());
+        }
+
+        Files.move(next.path, path);
+        next.path = path;
+
+        segment = next;
+        activeSegment = next;
+
+        preparedSegment = executor.submit(this::prepareSegment);
+    }
+
+    boolean isSegmentStarted() {
+        return segment != null;
+    }
+
+    /**
+     * Copy remaining bytes of the buffer into current segment.
+     *
+     * @param src - source buffer
+     */
+    void write(final ByteBuffer src) {
+        if (src.remaining() > segment.buffer.remaining()) {
+            throw new IllegalStateException("Journal segment overflow: " + src.remaining() + " bytes, remaining " + segment.buffer.remaining() + " bytes");
+        }
+        segment.buffer.put(src);
+        if (durability == DiskSerializationProcessorConfiguration.JournalDurability.FORCE_PER_FLUSH) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Close current segment and release prepared one, waits for background thread to finish.
+     */
+    @Override
+    public void close() {
+        if (forceExecutor != null) {
+            forceExecutor.shutdown();
+        }
+
+        retireSegment();
+
+        executor.execute(() -> {
+            try {
+                final Segment prepared = preparedSegment.get();
+                releaseSegment(prepared);
+                Files.deleteIfExists(prepared.path);
+            } catch (final Exception ex) {
+                log.warn("Can not delete prepared journal segment: {}", ex.getMessage());
+            }
+        });
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                log.warn("Journal segments were not closed in time");
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void retireSegment() {
+        if (segment != null) {
+            final Segment retired = segment;
+            final int writtenBytes = retired.buffer.position();
+            segment = null;
+            activeSegment = null;
+            executor.execute(() -> closeSegment(retired, writtenBytes));
+        }
+    }
+
+    // -------- background thread ---------------
+
+    private Segment prepareSegment() throws IOException {
+
+        final Path path = folder.resolve(preparedFilePrefix + (preparedFilesCounter++) + ".tmp");
+        Files.deleteIfExists(path);
+
+        try (final RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            final FileChannel channel = raf.getChannel();
+
+            // allocate disk space (setLength alone creates sparse file)
+            final ByteBuffer zeros = ByteBuffer.allocateDirect(Math.min(ZEROS_CHUNK_SIZE, segmentSize));
+            long position = 0;
+            while (position < segmentSize) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), segmentSize - position));
+                position += channel.write(zeros, position);
+            }
+            IOTools.clean(zeros);
+
+            // mapping remains valid after channel is closed
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.load();
+
+            return new Segment(path, buffer);
+        }
+    }
+
+    private void closeSegment(final Segment retired, final int writtenBytes) {
+        try {
+            if (durability != DiskSerializationProcessorConfiguration.JournalDurability.PAGE_CACHE) {
+                retired.buffer.force();
+            }
+            releaseSegment(retired);
+
+            try (final RandomAccessFile raf = new RandomAccessFile(retired.path.toFile(), "rw")) {
+                raf.setLength(writtenBytes);
+            }
+        } catch (final IOException ex) {
+            log.error("Can not close journal segment {}: ", retired.path, ex);
+        }
+    }
+
+    // force thread
+    private void forceActiveSegment() {
+        final Segment active = activeSegment;
+        if (active != null) {
+            // segment can not be released (unmapped) while forcing
+            synchronized (active) {
+                if (!active.released) {
+                    active.buffer.force();
+                }
+            }
+        }
+    }
+
+    private static void releaseSegment(final Segment segment) {
+        synchronized (segment) {
+            segment.released = true;
+            IOTools.clean(segment.buffer);
+        }
+    }
+
+    private static final class Segment {
+
+        private Path path;
+        private final MappedByteBuffer buffer;
+
+        // guarded by segment monitor (background and force threads)
+        private boolean released = false;
+
+        private Segment(final Path path, final MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
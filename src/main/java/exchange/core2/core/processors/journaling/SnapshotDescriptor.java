@@ -22,6 +22,14 @@ public class SnapshotDescriptor implements Comparable<SnapshotDescriptor> {
     private final int numMatchingEngines;
     private final int numRiskEngines;
 
+    // reported by matching and risk engines after writing snapshot data (set once all modules reported)
+    // snapshot which incremental snapshot is based on, 0 for full snapshot
+    // (modules can be based on different snapshots if some module failed to write previous one - longest chain is taken)
+    private volatile long baseSnapshotId = 0;
+
+    // number of incremental snapshots in the chain since last full snapshot
+    private volatile int incrementalChainLength = 0;
+
     // all journals based on this snapshot
     // mapping: startingSeq -> JournalDescriptor
     private final NavigableMap<Long, JournalDescriptor> journals = new TreeMap<>();
@@ -41,6 +49,14 @@ public class SnapshotDescriptor implements Comparable<SnapshotDescriptor> {
         return new SnapshotDescriptor(snapshotId, seq, timestampNs, this, numMatchingEngines, numRiskEngines);
     }
 
+    public int getModulesNum() {
+        return numMatchingEngines + numRiskEngines;
+    }
+
+    public boolean isIncremental() {
+        return baseSnapshotId != 0;
+    }
+
     @Override
     public int compareTo(@NotNull SnapshotDescriptor o) {
         return Long.compare(this.seq, o.seq);
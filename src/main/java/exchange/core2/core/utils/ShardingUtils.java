@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.utils;
+
+public final class ShardingUtils {
+
+    // 2^64 / golden ratio
+    private static final long FIBONACCI_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Maps key (uid or symbol id) to shard.
+     * For power of 2 number of shards lowest bits are used (same routing as in previous versions, so old snapshots remain valid).
+     * For other numbers key is scrambled using Fibonacci hashing (sequential keys are spread evenly),
+     * then mapped into [0, shardsNum) range using multiply-shift - no division needed.
+     *
+     * @param key       - uid or symbol id
+     * @param shardsNum - number of shards (positive)
+     * @return shard id
+     */
+    public static int shardByKey(final long key, final int shardsNum) {
+        if ((shardsNum & (shardsNum - 1)) == 0) {
+            return (int) (key & (shardsNum - 1));
+        }
+        final long hash = (key * FIBONACCI_MULTIPLIER) >>> 32;
+        return (int) ((hash * shardsNum) >>> 32);
+    }
+
+    /**
+     * Checks number of shards. Limited because binary results sections are shardId for risk engines and 1024 + shardId for matching engines.
+     *
+     * @param shardsNum - number of shards
+     */
+    public static void checkShardsNum(final long shardsNum) {
+        if (shardsNum < 1 || shardsNum > 1024) {
+            throw new IllegalArgumentException("Invalid number of shards " + shardsNum + " - must be between 1 and 1024");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package exchange.core2.core.common;
+
+import exchange.core2.core.utils.SerializationUtils;
+import net.openhft.chronicle.bytes.Bytes;
+import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public final class CurrencyAccountsTest {
+
+    @Test
+    public void shouldBehaveAsHashMap() {
+
+        final Random rand = new Random(1L);
+
+        for (int i = 0; i < 1000; i++) {
+            final CurrencyAccounts accounts = new CurrencyAccounts();
+            final IntLongHashMap expected = new IntLongHashMap();
+
+            // most users have few currencies
+            final int currencies = i % 10 == 0 ? 10 : 1 + rand.nextInt(CurrencyAccounts.INLINE_ACCOUNTS);
+
+            for (int j = 0; j < 30; j++) {
+                final int currency = rand.nextInt(currencies) * 7;
+                final long amount = rand.nextInt(2000) - 1000;
+                if (rand.nextBoolean()) {
+                    assertThat(accounts.addToValue(currency, amount), is(expected.addToValue(currency, amount)));
+                } else {
+                    accounts.put(currency, amount);
+                    expected.put(currency, amount);
+                }
+
+                assertThat(accounts.size(), is(expected.size()));
+                assertThat(accounts.get(currency), is(expected.get(currency)));
+                assertThat(accounts.get(-1), is(0L));
+                assertThat(accounts.toIntLongHashMap(), is(expected));
+                assertThat(accounts.hashCode(), is(expected.hashCode()));
+                assertThat(accounts.anySatisfy(b -> b > 500), is(expected.anySatisfy(b -> b > 500)));
+            }
+
+            assertThat(accounts.isInline(), is(expected.size() <= CurrencyAccounts.INLINE_ACCOUNTS));
+
+            // same serialization format as IntLongHashMap
+            final Bytes<?> bytes = Bytes.allocateElasticDirect();
+            accounts.writeMarshallable(bytes);
+            assertThat(SerializationUtils.readIntLongHashMap(bytes), is(expected));
+            SerializationUtils.marshallIntLongHashMap(expected, bytes);
+            assertThat(new CurrencyAccounts(bytes), is(accounts));
+        }
+    }
+}
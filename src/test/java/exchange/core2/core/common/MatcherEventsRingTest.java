@@ -0,0 +1,156 @@
+package exchange.core2.core.common;
+
+import exchange.core2.core.common.cmd.OrderCommand;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+public final class MatcherEventsRingTest {
+
+    @Test
+    public void shouldWriteAndReadEvents() {
+
+        final MatcherEventsRing ring = new MatcherEventsRing(16, 16);
+        final OrderCommand cmd = new OrderCommand();
+        addTrade(ring, 1);
+        addTrade(ring, 2);
+        ring.addFirstEvent(MatcherEventType.REJECT, true, 0, 0, false, 1500, 30, 1600);
+
+        ring.commit(0, cmd);
+
+        assertNull(cmd.matcherEvent);
+        assertThat(cmd.flatEventsNum, is(3));
+
+        final List<MatcherTradeEvent> events = cmd.extractEvents();
+        assertThat(events.size(), is(3));
+        assertThat(events.get(0).eventType, is(MatcherEventType.REJECT));
+        assertThat(events.get(1), is(createEvent(1)));
+        assertThat(events.get(2), is(createEvent(2)));
+
+        final MatcherEventsRing.Cursor cursor = new MatcherEventsRing.Cursor();
+        assertTrue(cursor.wrap(cmd));
+        assertThat(cursor.eventType(), is(MatcherEventType.REJECT));
+        assertThat(cursor.size(), is(30L));
+        assertThat(cursor.price(), is(1500L));
+        assertThat(cursor.bidderHoldPrice(), is(1600L));
+        assertTrue(cursor.activeOrderCompleted());
+        assertTrue(cursor.next());
+        assertTrue(cursor.next());
+        assertThat(cursor.eventType(), is(MatcherEventType.TRADE));
+        assertThat(cursor.matchedOrderId(), is(2L));
+        assertThat(cursor.matchedOrderUid(), is(20L));
+        assertTrue(cursor.activeOrderCompleted());
+        assertFalse(cursor.matchedOrderCompleted());
+        assertThat(cursor.size(), is(14L));
+        assertFalse(cursor.next());
+
+        // command without events
+        final OrderCommand cmd2 = new OrderCommand();
+        ring.commit(1, cmd2);
+        assertThat(cmd2.flatEventsNum, is(0));
+        assertFalse(cursor.wrap(cmd2));
+
+        // events chain is read by the same cursor
+        cmd2.matcherEvent = createEvent(5);
+        cmd2.matcherEvent.nextEvent = createEvent(6);
+        assertTrue(cursor.wrap(cmd2));
+        assertThat(cursor.matchedOrderId(), is(5L));
+        assertTrue(cursor.next());
+        assertThat(cursor.matchedOrderId(), is(6L));
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void shouldReuseRecordsOnlyAfterSlotReused() {
+
+        final int ringBufferSize = 16;
+        final MatcherEventsRing ring = new MatcherEventsRing(ringBufferSize, 64);
+        final OrderCommand[] slots = new OrderCommand[ringBufferSize];
+
+        long eventId = 1;
+        for (long seq = 0; seq < 10_000; seq++) {
+            final OrderCommand cmd = new OrderCommand();
+            final int eventsNum = (int) (seq % 7);
+            for (int i = 0; i < eventsNum; i++) {
+                addTrade(ring, eventId + i);
+            }
+            ring.commit(seq, cmd);
+            slots[(int) (seq % ringBufferSize)] = cmd;
+
+            // all commands in the ring buffer still have their events
+            long expectedId = eventId + eventsNum - 1;
+            for (int i = 0; i < ringBufferSize && i <= seq; i++) {
+                final OrderCommand c = slots[(int) ((seq - i) % ringBufferSize)];
+                final List<MatcherTradeEvent> events = c.extractEvents();
+                assertThat(events.size(), is((int) ((seq - i) % 7)));
+                for (int j = events.size() - 1; j >= 0; j--) {
+                    assertThat(events.get(j), is(createEvent(expectedId--)));
+                }
+            }
+            eventId += eventsNum;
+        }
+
+        // any 16 consecutive commands have less than 64 events
+        assertThat(ring.getReallocationsCounter(), is(0));
+    }
+
+    @Test
+    public void shouldExtendCapacity() {
+
+        final MatcherEventsRing ring = new MatcherEventsRing(16, 16);
+
+        // extended while writing: records of the command are moved to the new array
+        final OrderCommand cmd1 = new OrderCommand();
+        for (int id = 1; id <= 20; id++) {
+            addTrade(ring, id);
+        }
+        ring.addFirstEvent(MatcherEventType.REJECT, true, 0, 0, false, 1000, 1, 1000);
+        ring.commit(0, cmd1);
+        assertThat(ring.getReallocationsCounter(), is(1));
+
+        final OrderCommand cmd2 = new OrderCommand();
+        for (int id = 21; id <= 120; id++) {
+            addTrade(ring, id);
+        }
+        ring.commit(1, cmd2);
+
+        assertThat(ring.getReallocationsCounter(), is(3));
+
+        // first command keeps reading previous array
+        final List<MatcherTradeEvent> events1 = cmd1.extractEvents();
+        assertThat(events1.size(), is(21));
+        assertThat(events1.get(0).eventType, is(MatcherEventType.REJECT));
+        for (int id = 1; id <= 20; id++) {
+            assertThat(events1.get(id), is(createEvent(id)));
+        }
+        assertThat(cmd2.extractEvents().get(0), is(createEvent(21)));
+        assertThat(cmd2.extractEvents().get(99), is(createEvent(120)));
+    }
+
+    private static void addTrade(final MatcherEventsRing ring, final long id) {
+        final MatcherTradeEvent ev = createEvent(id);
+        ring.addEvent(ev.eventType, ev.activeOrderCompleted, ev.matchedOrderId, ev.matchedOrderUid, ev.matchedOrderCompleted, ev.price, ev.size, ev.bidderHoldPrice);
+    }
+
+    private static MatcherTradeEvent createEvent(final long id) {
+        return MatcherTradeEvent.builder()
+                .eventType(MatcherEventType.TRADE)
+                .section(0)
+                .activeOrderCompleted(id % 2 == 0)
+                .matchedOrderId(id)
+                .matchedOrderUid(id * 10)
+                .matchedOrderCompleted(id % 3 == 0)
+                .price(1000 + id)
+                .size(id * 7)
+                .bidderHoldPrice(2000 + id)
+                .build();
+    }
+}
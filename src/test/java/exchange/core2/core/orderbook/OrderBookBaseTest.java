@@ -143,6 +143,24 @@ public abstract class OrderBookBaseTest {
 
     }
 
+    @Test
+    public void shouldPublishL2MarketDataIntoPreallocatedObject() {
+
+        final L2MarketData buffer = new L2MarketData(3, 3);
+        orderBook.publishL2MarketDataSnapshot(buffer);
+        assertEquals(orderBook.getL2MarketDataSnapshot(3), buffer);
+
+        // same object can be re-used after order book changed
+        processAndValidate(OrderCommand.cancel(5, UID_1), SUCCESS);
+        processAndValidate(OrderCommand.newOrder(GTC, 93, UID_2, 81598, 0, 1, ASK), SUCCESS);
+        orderBook.publishL2MarketDataSnapshot(buffer);
+        assertEquals(orderBook.getL2MarketDataSnapshot(3), buffer);
+
+        final L2MarketData bigBuffer = new L2MarketData(100, 100);
+        orderBook.publishL2MarketDataSnapshot(bigBuffer);
+        assertEquals(orderBook.getL2MarketDataSnapshot(), bigBuffer);
+    }
+
     // ------------------------ TESTS WITHOUT MATCHING -----------------------
 
     /**
@@ -792,6 +810,42 @@ public abstract class OrderBookBaseTest {
         checkEventTrade(events.get(5), 9L, 201000, 32L);
     }
 
+    // ------------------------ USER ORDERS INDEX -----------------------
+
+    @Test
+    public void shouldFindUserOrders() {
+
+        assertThat(findUserOrderIds(UID_1), is(new long[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13}));
+        assertThat(findUserOrderIds(UID_2).length, is(0));
+
+        // place new order, cancel one, reduce one completely, move one
+        processAndValidate(OrderCommand.newOrder(GTC, 93, UID_2, 81598, 0, 1, ASK), SUCCESS);
+        processAndValidate(OrderCommand.cancel(5, UID_1), SUCCESS);
+        processAndValidate(OrderCommand.reduce(7, UID_1, 20), SUCCESS);
+        processAndValidate(OrderCommand.update(12, UID_1, 10001), SUCCESS);
+
+        assertThat(findUserOrderIds(UID_1), is(new long[]{1, 2, 3, 4, 6, 8, 9, 10, 11, 12, 13}));
+        assertThat(findUserOrderIds(UID_2), is(new long[]{93}));
+
+        // fully match orders 93, 2 and partially match 3
+        processAndValidate(OrderCommand.newOrder(IOC, 94, UID_2, 81599, 81599, 60, BID), SUCCESS);
+
+        assertThat(findUserOrderIds(UID_1), is(new long[]{1, 3, 4, 6, 8, 9, 10, 11, 12, 13}));
+        assertThat(findUserOrderIds(UID_2).length, is(0));
+
+        // moved order fully matched (partially matching order 4)
+        processAndValidate(OrderCommand.newOrder(GTC, 95, UID_2, 81700, 0, 1, ASK), SUCCESS);
+        assertThat(findUserOrderIds(UID_2), is(new long[]{95}));
+        processAndValidate(OrderCommand.update(95, UID_2, 10001), SUCCESS);
+
+        assertThat(findUserOrderIds(UID_1), is(new long[]{1, 3, 4, 6, 8, 9, 10, 11, 12, 13}));
+        assertThat(findUserOrderIds(UID_2).length, is(0));
+    }
+
+    private long[] findUserOrderIds(long uid) {
+        return orderBook.findUserOrders(uid).stream().mapToLong(order -> order.orderId).sorted().toArray();
+    }
+
 
     @Test
     public void multipleCommandsKeepInternalStateTest() {
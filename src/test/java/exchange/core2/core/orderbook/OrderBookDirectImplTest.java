@@ -67,6 +67,8 @@ public abstract class OrderBookDirectImplTest extends OrderBookBaseTest {
                 TestOrdersGenerator.createAsyncProgressLogger(tranNum),
                 1825793762);
 
+        final L2MarketData l2Buffer = new L2MarketData(4, 4);
+
         long i = 0;
         for (OrderCommand cmd : genResult.getCommands()) {
             i++;
@@ -104,7 +106,9 @@ public abstract class OrderBookDirectImplTest extends OrderBookBaseTest {
             }
 
             // TODO compare events!
-            // TODO compare L2 marketdata
+            assertEquals(orderBookRef.getL2MarketDataSnapshot(8), orderBook.getCachedL2MarketDataSnapshot(8));
+            orderBook.publishL2MarketDataSnapshot(l2Buffer);
+            assertEquals(orderBookRef.getL2MarketDataSnapshot(4), l2Buffer);
 
             if (System.currentTimeMillis() > nextUpdateTime) {
                 log.debug("{}% done ({})", (i * 10000 / (float) genResult.size()) / 100f, i);
@@ -115,6 +119,39 @@ public abstract class OrderBookDirectImplTest extends OrderBookBaseTest {
 
     }
 
+    @Test
+    public void shouldReuseL2SnapshotIfTopLevelsNotChanged() {
+
+        final L2MarketData snapshot = orderBook.getCachedL2MarketDataSnapshot(2);
+        assertEquals(orderBook.getL2MarketDataSnapshot(2), snapshot);
+
+        // changes outside of top 2 levels
+        processAndValidate(OrderCommand.newOrder(GTC, 93, UID_2, 201000, 0, 1, ASK), SUCCESS);
+        processAndValidate(OrderCommand.newOrder(GTC, 94, UID_2, 9000, 9000, 1, BID), SUCCESS);
+        processAndValidate(OrderCommand.cancel(13, UID_1), SUCCESS);
+        processAndValidate(OrderCommand.update(7, UID_1, 81000), SUCCESS);
+        assertThat(orderBook.getCachedL2MarketDataSnapshot(2) == snapshot, is(true));
+
+        // change within top levels
+        processAndValidate(OrderCommand.reduce(6, UID_1, 1), SUCCESS);
+        final L2MarketData snapshot2 = orderBook.getCachedL2MarketDataSnapshot(2);
+        assertThat(snapshot2 == snapshot, is(false));
+        assertEquals(orderBook.getL2MarketDataSnapshot(2), snapshot2);
+
+        // change at the last cached level
+        processAndValidate(OrderCommand.newOrder(GTC, 95, UID_2, 81600, 0, 1, ASK), SUCCESS);
+        final L2MarketData snapshot3 = orderBook.getCachedL2MarketDataSnapshot(2);
+        assertThat(snapshot3 == snapshot2, is(false));
+        assertEquals(orderBook.getL2MarketDataSnapshot(2), snapshot3);
+
+        // not changed snapshot remains untouched
+        assertThat(snapshot.bidVolumes[1], is(21L));
+        assertThat(snapshot3.bidVolumes[1], is(20L));
+
+        // different depth requested
+        assertEquals(orderBook.getL2MarketDataSnapshot(3), orderBook.getCachedL2MarketDataSnapshot(3));
+    }
+
     @Test
     public void sequentialAsksTest() {
 
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.orderbook;
+
+import exchange.core2.collections.objpool.ObjectsPool;
+import exchange.core2.core.common.CoreSymbolSpecification;
+import exchange.core2.core.common.config.LoggingConfiguration;
+import exchange.core2.tests.util.TestConstants;
+
+public final class OrderBookPriceLadderImplExchangeTest extends OrderBookDirectImplTest {
+
+    @Override
+    protected IOrderBook createNewOrderBook() {
+        return new OrderBookPriceLadderImpl(
+                getCoreSymbolSpec(),
+                ObjectsPool.createDefaultTestPool(),
+                OrderBookEventsHelper.NON_POOLED_EVENTS_HELPER,
+                LoggingConfiguration.DEFAULT);
+    }
+
+    @Override
+    protected CoreSymbolSpecification getCoreSymbolSpec() {
+        return TestConstants.SYMBOLSPECFEE_XBT_LTC;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.core.orderbook;
+
+import exchange.core2.collections.objpool.ObjectsPool;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@Slf4j
+public final class PriceLadderBucketsIndexTest {
+
+    @Test
+    public void shouldFindNeighborLevels() {
+        final PriceLadderBucketsIndex<String> index = new PriceLadderBucketsIndex<>(ObjectsPool.createDefaultTestPool(), 64);
+
+        // first level defines the band [968..1032)
+        index.put(1000, "1000");
+        index.put(1030, "1030");
+        index.put(970, "970");
+        index.put(5000, "5000");
+        index.put(10, "10");
+        index.validateInternalState();
+
+        assertThat(index.get(1000), is("1000"));
+        assertThat(index.get(5000), is("5000"));
+        assertThat(index.size(Integer.MAX_VALUE), is(5));
+
+        assertThat(index.getLowerValue(1000), is("970"));
+        assertThat(index.getLowerValue(970), is("10"));
+        assertThat(index.getLowerValue(6000), is("5000"));
+        assertThat(index.getLowerValue(4000), is("1030"));
+        assertThat(index.getHigherValue(1000), is("1030"));
+        assertThat(index.getHigherValue(1030), is("5000"));
+        assertThat(index.getHigherValue(5), is("10"));
+        assertThat(index.getHigherValue(100), is("970"));
+        assertThat(index.getHigherValue(5000) == null, is(true));
+
+        index.remove(970);
+        index.remove(1030);
+        index.validateInternalState();
+        assertThat(index.getLowerValue(1000), is("10"));
+        assertThat(index.getHigherValue(1000), is("5000"));
+    }
+
+    @Test
+    public void shouldMatchSortedMap() {
+        final Random rand = new Random(1L);
+        final PriceLadderBucketsIndex<Long> index = new PriceLadderBucketsIndex<>(ObjectsPool.createDefaultTestPool(), 256);
+        final TreeMap<Long, Long> expected = new TreeMap<>();
+
+        long mid = 100_000;
+        for (int i = 0; i < 200_000; i++) {
+            if (rand.nextInt(500) == 0) {
+                mid += rand.nextInt(2001) - 1000;
+            }
+            final long price = mid + (rand.nextInt(10) == 0 ? rand.nextInt(10_000) - 5_000 : rand.nextInt(200) - 100);
+
+            if (expected.containsKey(price)) {
+                index.remove(price);
+                expected.remove(price);
+            } else {
+                index.put(price, price);
+                expected.put(price, price);
+            }
+
+            assertThat(index.get(price), is(expected.get(price)));
+            assertThat(index.getLowerValue(price), is(valueOrNull(expected.lowerEntry(price))));
+            assertThat(index.getHigherValue(price), is(valueOrNull(expected.higherEntry(price))));
+            assertThat(index.size(Integer.MAX_VALUE), is(expected.size()));
+
+            if (i % 1000 == 0) {
+                index.validateInternalState();
+
+                final List<Long> asc = new ArrayList<>();
+                index.forEach((p, v) -> asc.add(p), 100);
+                assertThat(asc, is(new ArrayList<>(expected.keySet()).subList(0, Math.min(100, expected.size()))));
+
+                final List<Long> desc = new ArrayList<>();
+                index.forEachDesc((p, v) -> desc.add(p), 100);
+                assertThat(desc, is(new ArrayList<>(expected.descendingKeySet()).subList(0, Math.min(100, expected.size()))));
+            }
+        }
+    }
+
+    private static Long valueOrNull(final Map.Entry<Long, Long> entry) {
+        return entry == null ? null : entry.getValue();
+    }
+}
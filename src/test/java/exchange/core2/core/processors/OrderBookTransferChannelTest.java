@@ -0,0 +1,64 @@
+package exchange.core2.core.processors;
+
+import net.openhft.chronicle.bytes.Bytes;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public final class OrderBookTransferChannelTest {
+
+    @Test
+    public void shouldPassOrderBookToAllParticipants() throws Exception {
+
+        final OrderBookTransferChannel channel = new OrderBookTransferChannel(3, TimeUnit.SECONDS.toNanos(5));
+
+        final CompletableFuture<Bytes<?>> target = CompletableFuture.supplyAsync(() -> channel.await(1L));
+        final CompletableFuture<Bytes<?>> other = CompletableFuture.supplyAsync(() -> channel.await(1L));
+
+        final Bytes<?> bytes = Bytes.allocateElasticDirect(16);
+        bytes.writeLong(123L);
+        assertThat(channel.offer(1L, bytes), is(true));
+
+        final Bytes<?> received = target.get(5, TimeUnit.SECONDS);
+        assertThat(received, notNullValue());
+        assertThat(received.readLong(), is(123L));
+        assertThat(other.get(5, TimeUnit.SECONDS), notNullValue());
+        received.release();
+    }
+
+    @Test
+    public void shouldFailAllParticipantsIfSourceFailed() throws Exception {
+
+        final OrderBookTransferChannel channel = new OrderBookTransferChannel(2, TimeUnit.SECONDS.toNanos(5));
+
+        final CompletableFuture<Bytes<?>> target = CompletableFuture.supplyAsync(() -> channel.await(1L));
+        assertThat(channel.offer(1L, null), is(false));
+        assertThat(target.get(5, TimeUnit.SECONDS), nullValue());
+    }
+
+    @Test
+    public void shouldAbandonTransferOnTimeout() {
+
+        final OrderBookTransferChannel channel = new OrderBookTransferChannel(2, TimeUnit.MILLISECONDS.toNanos(10));
+
+        // target gives up waiting (e.g. processed by the same thread before source)
+        assertThat(channel.await(1L), nullValue());
+
+        // source keeps order book
+        final Bytes<?> bytes = Bytes.allocateElasticDirect(16);
+        assertThat(channel.offer(1L, bytes), is(false));
+        bytes.release();
+
+        // next transfer is not affected
+        final Bytes<?> nextBytes = Bytes.allocateElasticDirect(16);
+        assertThat(channel.offer(2L, nextBytes), is(true));
+        assertThat(channel.await(2L), is(nextBytes));
+        nextBytes.release();
+    }
+}
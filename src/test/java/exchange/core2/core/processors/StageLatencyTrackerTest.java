@@ -0,0 +1,46 @@
+package exchange.core2.core.processors;
+
+import exchange.core2.core.common.cmd.OrderCommandType;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public final class StageLatencyTrackerTest {
+
+    @Test
+    public void shouldRecordAllStages() {
+
+        final StageLatencyTracker tracker = new StageLatencyTracker(16, 0);
+
+        // sequences wrap around ring buffer
+        for (long seq = 0; seq < 100; seq++) {
+            tracker.stamp(seq, StageLatencyTracker.POINT_GROUPING);
+            tracker.stamp(seq, StageLatencyTracker.POINT_RISK_HOLD);
+            tracker.stamp(seq, StageLatencyTracker.POINT_MATCHING);
+            tracker.recordRiskRelease(seq, System.nanoTime());
+            tracker.recordJournaling(System.nanoTime());
+            tracker.recordResults(seq, seq % 2 == 0 ? OrderCommandType.PLACE_ORDER : OrderCommandType.CANCEL_ORDER, System.nanoTime());
+        }
+
+        final Map<StageLatencyTracker.Stage, Histogram> stageHistograms = tracker.getStageHistograms();
+        assertThat(stageHistograms.size(), is(StageLatencyTracker.Stage.values().length));
+        stageHistograms.values().forEach(h -> assertThat(h.getTotalCount(), is(100L)));
+
+        final Map<OrderCommandType, Histogram> commandTypeHistograms = tracker.getCommandTypeHistograms();
+        assertThat(commandTypeHistograms.size(), is(2));
+        assertThat(commandTypeHistograms.get(OrderCommandType.PLACE_ORDER).getTotalCount(), is(50L));
+        assertThat(commandTypeHistograms.get(OrderCommandType.CANCEL_ORDER).getTotalCount(), is(50L));
+
+        // accumulated between requests
+        tracker.recordJournaling(System.nanoTime());
+        assertThat(tracker.getStageHistograms().get(StageLatencyTracker.Stage.JOURNALING).getTotalCount(), is(101L));
+
+        tracker.reset();
+        tracker.getStageHistograms().values().forEach(h -> assertThat(h.getTotalCount(), is(0L)));
+        assertThat(tracker.getCommandTypeHistograms().isEmpty(), is(true));
+    }
+}
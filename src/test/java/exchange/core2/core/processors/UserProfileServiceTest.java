@@ -0,0 +1,68 @@
+package exchange.core2.core.processors;
+
+import net.openhft.chronicle.bytes.Bytes;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public final class UserProfileServiceTest {
+
+    @Test
+    public void shouldRestoreStateFromIncrementalChanges() {
+
+        final UserProfileService original = new UserProfileService(new UserProfilesStoreHeapImpl(16));
+        original.enableChangesTracking();
+
+        final Random rand = new Random(1L);
+        final long[] transactionIds = new long[2000];
+
+        // full snapshot
+        randomOperations(original, rand, transactionIds, 20_000);
+        final Bytes<?> fullSnapshot = Bytes.allocateElasticDirect(1024);
+        original.writeMarshallable(fullSnapshot);
+        original.clearChanges();
+
+        final UserProfileService restored = new UserProfileService(fullSnapshot, new UserProfilesStoreHeapImpl(16));
+        fullSnapshot.release();
+        assertThat(restored.stateHash(), is(original.stateHash()));
+
+        for (int i = 0; i < 10; i++) {
+
+            // few operations, touching small part of users
+            randomOperations(original, rand, transactionIds, 100);
+            final Bytes<?> changes = Bytes.allocateElasticDirect(1024);
+            original.writeChanges(changes);
+            original.clearChanges();
+
+            final Bytes<?> full = Bytes.allocateElasticDirect(1024);
+            original.writeMarshallable(full);
+            assertThat(changes.readRemaining(), lessThan(full.readRemaining()));
+            full.release();
+
+            restored.applyChanges(changes);
+            changes.release();
+            assertThat(restored.getUserProfilesNum(), is(original.getUserProfilesNum()));
+            assertThat(restored.stateHash(), is(original.stateHash()));
+        }
+    }
+
+    private static void randomOperations(final UserProfileService service, final Random rand, final long[] transactionIds, final int num) {
+        for (int i = 0; i < num; i++) {
+            final int uid = rand.nextInt(transactionIds.length);
+            final int op = rand.nextInt(100);
+            if (op < 10) {
+                service.addEmptyUserProfile(uid);
+            } else if (op < 12) {
+                service.suspendUserProfile(uid);
+            } else if (op < 14) {
+                service.resumeUserProfile(uid);
+            } else {
+                service.balanceAdjustment(uid, rand.nextInt(2), rand.nextInt(1000) - 300, ++transactionIds[uid]);
+            }
+        }
+    }
+}
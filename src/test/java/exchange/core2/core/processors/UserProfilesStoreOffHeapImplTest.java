@@ -0,0 +1,137 @@
+package exchange.core2.core.processors;
+
+import exchange.core2.core.common.SymbolPositionRecord;
+import exchange.core2.core.common.UserProfile;
+import exchange.core2.core.common.UserStatus;
+import exchange.core2.core.common.cmd.CommandResultCode;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.Bytes;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@Slf4j
+public final class UserProfilesStoreOffHeapImplTest {
+
+    @Test
+    public void shouldKeepSameStateAsHeapStore() {
+
+        final UserProfilesStoreOffHeapImpl offHeapStore = new UserProfilesStoreOffHeapImpl(16, 8);
+        final UserProfileService offHeap = new UserProfileService(offHeapStore);
+        final UserProfileService heap = new UserProfileService(new UserProfilesStoreHeapImpl(16));
+
+        final Random rand = new Random(1L);
+        final long[] transactionIds = new long[2000];
+
+        for (int i = 0; i < 100_000; i++) {
+            offHeap.evictProfiles();
+
+            final int uid = rand.nextInt(transactionIds.length);
+            final int op = rand.nextInt(100);
+            if (op < 10) {
+                assertThat(offHeap.addEmptyUserProfile(uid), is(heap.addEmptyUserProfile(uid)));
+            } else if (op < 12) {
+                assertThat(offHeap.suspendUserProfile(uid), is(heap.suspendUserProfile(uid)));
+            } else if (op < 14) {
+                assertThat(offHeap.resumeUserProfile(uid), is(heap.resumeUserProfile(uid)));
+            } else {
+                // few users have more currencies than can be stored in the record
+                final int currency = uid % 10 == 0 ? rand.nextInt(6) : rand.nextInt(2);
+                final long amount = rand.nextInt(1000) - 300;
+                final long transactionId = ++transactionIds[uid];
+                final CommandResultCode resultCode = offHeap.balanceAdjustment(uid, currency, amount, transactionId);
+                assertThat(resultCode, is(heap.balanceAdjustment(uid, currency, amount, transactionId)));
+            }
+
+            if (i % 1000 == 0) {
+                assertThat(offHeap.getUserProfilesNum(), is(heap.getUserProfilesNum()));
+                assertThat(offHeap.stateHash(), is(heap.stateHash()));
+            }
+        }
+
+        assertThat(offHeap.getUserProfilesNum(), is(heap.getUserProfilesNum()));
+        assertThat(offHeap.stateHash(), is(heap.stateHash()));
+        heap.forEachUserProfile(expected -> {
+            final UserProfile userProfile = offHeap.getUserProfile(expected.uid);
+            assertNotNull(userProfile);
+            assertThat(userProfile.stateHash(), is(expected.stateHash()));
+        });
+
+        log.debug("users: {} working set: {} evictions: {}",
+                offHeap.getUserProfilesNum(), offHeapStore.getWorkingSetNum(), offHeapStore.getEvictionsCounter());
+    }
+
+    @Test
+    public void shouldKeepProfilesWithPositionsInWorkingSet() {
+
+        final UserProfilesStoreOffHeapImpl store = new UserProfilesStoreOffHeapImpl(16, 2);
+
+        final UserProfile userWithPosition = new UserProfile(1L, UserStatus.ACTIVE);
+        final SymbolPositionRecord position = new SymbolPositionRecord();
+        position.initialize(1L, 100, 10);
+        userWithPosition.addPositionRecord(100, position);
+        store.put(userWithPosition);
+
+        for (long uid = 2; uid < 100; uid++) {
+            store.put(new UserProfile(uid, UserStatus.ACTIVE));
+            store.evictProfiles();
+        }
+
+        assertThat(store.getWorkingSetNum(), is(2));
+        assertThat(store.size(), is(99));
+        assertThat(store.get(1L) == userWithPosition, is(true));
+
+        // profile is written into the record after position is removed
+        userWithPosition.removePositionRecord(100);
+        userWithPosition.accounts.put(10, 500L);
+        for (long uid = 2; uid < 10; uid++) {
+            store.get(uid);
+            store.evictProfiles();
+        }
+        final UserProfile restored = store.get(1L);
+        assertThat(restored == userWithPosition, is(false));
+        assertThat(restored.accounts.get(10), is(500L));
+
+        for (long uid = 1; uid < 100; uid += 2) {
+            store.remove(uid);
+            store.evictProfiles();
+        }
+        assertThat(store.size(), is(49));
+        for (long uid = 1; uid < 100; uid++) {
+            if (uid % 2 == 0) {
+                assertThat(store.get(uid).uid, is(uid));
+            } else {
+                assertNull(store.get(uid));
+            }
+            store.evictProfiles();
+        }
+    }
+
+    @Test
+    public void shouldLoadSnapshotOfAnotherStore() {
+
+        final UserProfileService heap = new UserProfileService(new UserProfilesStoreHeapImpl(16));
+        for (long uid = 1; uid <= 1000; uid++) {
+            heap.addEmptyUserProfile(uid);
+            for (int currency = 0; currency < uid % 5; currency++) {
+                heap.balanceAdjustment(uid, currency, uid * 100 + currency, currency + 1);
+            }
+        }
+
+        final Bytes<?> bytes = Bytes.allocateElasticDirect();
+        heap.writeMarshallable(bytes);
+        final UserProfileService offHeap = new UserProfileService(bytes, new UserProfilesStoreOffHeapImpl(16, 10));
+        assertThat(offHeap.getUserProfilesNum(), is(1000));
+        assertThat(offHeap.stateHash(), is(heap.stateHash()));
+
+        final Bytes<?> bytes2 = Bytes.allocateElasticDirect();
+        offHeap.writeMarshallable(bytes2);
+        final UserProfileService heap2 = new UserProfileService(bytes2, new UserProfilesStoreHeapImpl(16));
+        assertThat(heap2.stateHash(), is(heap.stateHash()));
+    }
+}
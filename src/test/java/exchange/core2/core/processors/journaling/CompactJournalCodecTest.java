@@ -0,0 +1,144 @@
+package exchange.core2.core.processors.journaling;
+
+import exchange.core2.core.common.OrderAction;
+import exchange.core2.core.common.OrderType;
+import exchange.core2.core.common.cmd.OrderCommand;
+import exchange.core2.core.common.cmd.OrderCommandType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public final class CompactJournalCodecTest {
+
+    private static final OrderCommandType[] TYPES = {
+            OrderCommandType.PLACE_ORDER,
+            OrderCommandType.CANCEL_ORDER,
+            OrderCommandType.MOVE_ORDER,
+            OrderCommandType.REDUCE_ORDER,
+            OrderCommandType.BALANCE_ADJUSTMENT,
+            OrderCommandType.ADD_USER,
+            OrderCommandType.SUSPEND_USER,
+            OrderCommandType.RESUME_USER,
+            OrderCommandType.BINARY_DATA_COMMAND,
+            OrderCommandType.RESET};
+
+    @Test
+    public void shouldDecodeEncodedCommands() {
+
+        final Random rand = new Random(1L);
+        final CompactJournalCodec encoder = new CompactJournalCodec();
+        final ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+
+        final List<OrderCommand> commands = new ArrayList<>();
+        final List<Long> sequences = new ArrayList<>();
+
+        long seq = 1_000_000_000_000L;
+        long timestamp = 1_600_000_000_000L;
+        long orderId = 1;
+        for (int i = 0; i < 10_000; i++) {
+
+            seq += rand.nextInt(20) == 0 ? 1 + rand.nextInt(100) : 1;
+            timestamp += rand.nextInt(3);
+            final OrderCommand cmd = randomCommand(rand, TYPES[rand.nextInt(TYPES.length)], timestamp, i % 100 == 0 ? Long.MIN_VALUE + orderId : orderId++);
+
+            // encoder state reset (flushed batch)
+            if (i % 1000 == 0) {
+                encoder.reset();
+                buffer.put(OrderCommandType.RESERVED_BATCH_START.getCode());
+            }
+
+            encoder.encode(buffer, cmd, seq);
+            commands.add(cmd);
+            sequences.add(seq);
+        }
+
+        // legacy format takes 29..70 bytes per command
+        assertThat(buffer.position(), lessThan(commands.size() * 20));
+
+        final CompactJournalCodec decoder = new CompactJournalCodec();
+        final OrderCommand decoded = new OrderCommand();
+        buffer.flip();
+        int idx = 0;
+        while (buffer.hasRemaining()) {
+            final byte code = buffer.get();
+            if (code == OrderCommandType.RESERVED_BATCH_START.getCode()) {
+                decoder.reset();
+                continue;
+            }
+            final long decodedSeq = decoder.decode(buffer, code, decoded);
+            assertThat(decodedSeq, is(sequences.get(idx)));
+            assertSameCommand(decoded, commands.get(idx));
+            idx++;
+        }
+        assertThat(idx, is(commands.size()));
+    }
+
+    private static OrderCommand randomCommand(final Random rand, final OrderCommandType type, final long timestamp, final long orderId) {
+        final OrderCommand cmd = new OrderCommand();
+        cmd.command = type;
+        cmd.timestamp = timestamp;
+        cmd.serviceFlags = rand.nextInt(10) == 0 ? rand.nextInt() : 0;
+        cmd.eventsGroup = rand.nextInt(50);
+        cmd.uid = rand.nextInt(10) == 0 ? rand.nextLong() : 1 + rand.nextInt(100);
+        cmd.symbol = rand.nextInt(10) == 0 ? rand.nextInt() : rand.nextInt(30);
+        cmd.orderId = orderId;
+        cmd.price = 100_000 + rand.nextInt(1000);
+        cmd.reserveBidPrice = rand.nextBoolean() ? cmd.price : cmd.price + rand.nextInt(100);
+        cmd.size = 1 + rand.nextInt(1000);
+        cmd.userCookie = rand.nextInt(5) == 0 ? rand.nextInt() : 0;
+        cmd.action = rand.nextBoolean() ? OrderAction.ASK : OrderAction.BID;
+        cmd.orderType = type == OrderCommandType.BALANCE_ADJUSTMENT ? OrderType.of((byte) rand.nextInt(2)) : OrderType.GTC;
+        if (type == OrderCommandType.BINARY_DATA_COMMAND) {
+            cmd.symbol = rand.nextBoolean() ? 0 : -1;
+            cmd.price = rand.nextLong();
+            cmd.reserveBidPrice = rand.nextLong();
+            cmd.size = rand.nextLong();
+        }
+        return cmd;
+    }
+
+    private static void assertSameCommand(final OrderCommand decoded, final OrderCommand expected) {
+        final OrderCommandType type = expected.command;
+        assertThat(decoded.command, is(type));
+        assertThat(decoded.timestamp, is(expected.timestamp));
+        assertThat(decoded.serviceFlags, is(expected.serviceFlags));
+        assertThat(decoded.eventsGroup, is(expected.eventsGroup));
+
+        if (type == OrderCommandType.RESET) {
+            return;
+        }
+        assertThat(decoded.uid, is(expected.uid));
+        if (type == OrderCommandType.ADD_USER || type == OrderCommandType.SUSPEND_USER || type == OrderCommandType.RESUME_USER) {
+            return;
+        }
+        assertThat(decoded.symbol, is(expected.symbol));
+        assertThat(decoded.orderId, is(expected.orderId));
+
+        if (type == OrderCommandType.PLACE_ORDER || type == OrderCommandType.MOVE_ORDER
+                || type == OrderCommandType.BALANCE_ADJUSTMENT || type == OrderCommandType.BINARY_DATA_COMMAND) {
+            assertThat(decoded.price, is(expected.price));
+        }
+        if (type == OrderCommandType.PLACE_ORDER || type == OrderCommandType.REDUCE_ORDER || type == OrderCommandType.BINARY_DATA_COMMAND) {
+            assertThat(decoded.size, is(expected.size));
+        }
+        if (type == OrderCommandType.PLACE_ORDER) {
+            assertThat(decoded.reserveBidPrice, is(expected.reserveBidPrice));
+            assertThat(decoded.userCookie, is(expected.userCookie));
+            assertThat(decoded.action, is(expected.action));
+            assertThat(decoded.orderType, is(expected.orderType));
+        }
+        if (type == OrderCommandType.BALANCE_ADJUSTMENT) {
+            assertThat(decoded.orderType, is(expected.orderType));
+        }
+        if (type == OrderCommandType.BINARY_DATA_COMMAND) {
+            assertThat(decoded.reserveBidPrice, is(expected.reserveBidPrice));
+        }
+    }
+}
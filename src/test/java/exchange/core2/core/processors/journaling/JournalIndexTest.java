@@ -0,0 +1,52 @@
+package exchange.core2.core.processors.journaling;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.IntFunction;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public final class JournalIndexTest {
+
+    @Test
+    public void shouldFindSeekPoint() throws IOException {
+
+        final Path folder = Files.createTempDirectory("journal");
+        final IntFunction<Path> journalPath = partition -> folder.resolve("journal_" + partition);
+        final IntFunction<Path> indexPath = partition -> folder.resolve("index_" + partition);
+
+        // nothing written
+        assertSeekPoint(JournalIndex.findSeekPoint(journalPath, indexPath, 100), 1, 0);
+
+        // partition 1: seq 1..1000, partition 2: seq 1001..2000, entry every 100 sequences
+        for (int partition = 1; partition <= 2; partition++) {
+            Files.createFile(journalPath.apply(partition));
+            try (final JournalIndex index = new JournalIndex(indexPath.apply(partition))) {
+                for (int i = 0; i < 10; i++) {
+                    index.add((partition - 1) * 1000 + i * 100 + 1, i * 5000 + 2);
+                }
+            }
+        }
+
+        assertSeekPoint(JournalIndex.findSeekPoint(journalPath, indexPath, 0), 1, 2);
+        assertSeekPoint(JournalIndex.findSeekPoint(journalPath, indexPath, 99), 1, 2);
+        assertSeekPoint(JournalIndex.findSeekPoint(journalPath, indexPath, 100), 1, 5002);
+        assertSeekPoint(JournalIndex.findSeekPoint(journalPath, indexPath, 999), 1, 45002);
+        assertSeekPoint(JournalIndex.findSeekPoint(journalPath, indexPath, 1000), 2, 2);
+        assertSeekPoint(JournalIndex.findSeekPoint(journalPath, indexPath, 1550), 2, 25002);
+        assertSeekPoint(JournalIndex.findSeekPoint(journalPath, indexPath, 5000), 2, 45002);
+
+        // missing index - last known entry of previous partition
+        Files.delete(indexPath.apply(2));
+        assertSeekPoint(JournalIndex.findSeekPoint(journalPath, indexPath, 1550), 1, 45002);
+    }
+
+    private static void assertSeekPoint(final JournalIndex.SeekPoint seekPoint, final int partition, final long offset) {
+        assertThat(seekPoint.partition, is(partition));
+        assertThat(seekPoint.offset, is(offset));
+    }
+}
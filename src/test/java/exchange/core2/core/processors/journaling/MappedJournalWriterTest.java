@@ -0,0 +1,88 @@
+package exchange.core2.core.processors.journaling;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class MappedJournalWriterTest {
+
+    @Test
+    public void shouldWriteAndTruncateSegments() throws IOException {
+        for (final DiskSerializationProcessorConfiguration.JournalDurability durability : DiskSerializationProcessorConfiguration.JournalDurability.values()) {
+            writeSegments(durability);
+        }
+    }
+
+    private static void writeSegments(final DiskSerializationProcessorConfiguration.JournalDurability durability) throws IOException {
+
+        final Path folder = Files.createTempDirectory("journal");
+        final Random rand = new Random(1L);
+
+        final byte[][] expected = new byte[5][];
+
+        try (final MappedJournalWriter writer = new MappedJournalWriter(folder, "test", 64 * 1024, durability, 1_000_000)) {
+
+            assertThat(writer.isSegmentStarted(), is(false));
+
+            for (int i = 0; i < expected.length; i++) {
+                writer.startSegment(folder.resolve("segment_" + i));
+                assertThat(writer.isSegmentStarted(), is(true));
+
+                // last segment is empty
+                final int size = i == expected.length - 1 ? 0 : 1000 + rand.nextInt(60_000);
+                expected[i] = new byte[size];
+                rand.nextBytes(expected[i]);
+
+                for (int offset = 0; offset < size; offset += 777) {
+                    writer.write(ByteBuffer.wrap(expected[i], offset, Math.min(777, size - offset)));
+                }
+            }
+        }
+
+        for (int i = 0; i < expected.length; i++) {
+            assertThat(Arrays.equals(Files.readAllBytes(folder.resolve("segment_" + i)), expected[i]), is(true));
+        }
+
+        // prepared segment is removed
+        try (final Stream<Path> files = Files.list(folder)) {
+            assertThat(files.count(), is((long) expected.length));
+        }
+    }
+
+    @Test
+    public void shouldForceConcurrentlyWithRollingSegments() throws IOException {
+
+        // periodic forcing runs in separate thread, segments are released (unmapped) by background thread
+        final Path folder = Files.createTempDirectory("journal");
+        final byte[] data = new byte[4000];
+        try (final MappedJournalWriter writer = new MappedJournalWriter(folder, "test", 4096, DiskSerializationProcessorConfiguration.JournalDurability.PERIODIC_FORCE, 10_000)) {
+            for (int i = 0; i < 500; i++) {
+                writer.startSegment(folder.resolve("segment_" + i));
+                writer.write(ByteBuffer.wrap(data));
+            }
+        }
+
+        try (final Stream<Path> files = Files.list(folder)) {
+            assertThat(files.count(), is(500L));
+        }
+    }
+
+    @Test
+    public void shouldNotOverwriteExistingFile() throws IOException {
+        final Path folder = Files.createTempDirectory("journal");
+        Files.createFile(folder.resolve("segment"));
+        try (final MappedJournalWriter writer = new MappedJournalWriter(folder, "test", 4096, DiskSerializationProcessorConfiguration.JournalDurability.PAGE_CACHE, 0)) {
+            assertThrows(IllegalStateException.class, () -> writer.startSegment(folder.resolve("segment")));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package exchange.core2.core.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class ShardingUtilsTest {
+
+    @Test
+    public void shouldUseLowestBitsForPowerOfTwo() {
+        for (int shardsNum = 1; shardsNum <= 16; shardsNum <<= 1) {
+            for (long key = 0; key < 10_000; key++) {
+                assertThat(ShardingUtils.shardByKey(key, shardsNum), is((int) (key & (shardsNum - 1))));
+            }
+        }
+    }
+
+    @Test
+    public void shouldSpreadSequentialKeysEvenly() {
+        for (int shardsNum : new int[]{3, 5, 6, 7, 12, 24}) {
+            final int keysNum = 120_000;
+            final int[] counters = new int[shardsNum];
+            for (long key = 1; key <= keysNum; key++) {
+                final int shard = ShardingUtils.shardByKey(key, shardsNum);
+                assertThat(shard, greaterThanOrEqualTo(0));
+                assertThat(shard, lessThan(shardsNum));
+                counters[shard]++;
+            }
+            final int expected = keysNum / shardsNum;
+            for (int counter : counters) {
+                assertThat(counter, greaterThan(expected * 95 / 100));
+                assertThat(counter, lessThan(expected * 105 / 100));
+            }
+        }
+    }
+
+    @Test
+    public void shouldRejectInvalidShardsNum() {
+        assertThrows(IllegalArgumentException.class, () -> ShardingUtils.checkShardsNum(0));
+        assertThrows(IllegalArgumentException.class, () -> ShardingUtils.checkShardsNum(1025));
+        ShardingUtils.checkShardsNum(24);
+    }
+}
@@ -19,8 +19,12 @@ import exchange.core2.core.common.*;
 import exchange.core2.core.common.api.ApiAdjustUserBalance;
 import exchange.core2.core.common.api.ApiCancelOrder;
 import exchange.core2.core.common.api.ApiMoveOrder;
+import exchange.core2.core.common.api.ApiNop;
 import exchange.core2.core.common.api.ApiPlaceOrder;
+import exchange.core2.core.common.api.reports.CapacityReportResult;
+import exchange.core2.core.common.api.reports.ShardsLoadReportResult;
 import exchange.core2.core.common.cmd.CommandResultCode;
+import exchange.core2.core.common.cmd.OrderCommand;
 import exchange.core2.core.common.cmd.OrderCommandType;
 import exchange.core2.core.common.config.PerformanceConfiguration;
 import exchange.core2.tests.util.ExchangeTestContainer;
@@ -28,7 +32,12 @@ import exchange.core2.tests.util.L2MarketDataHelper;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.Timeout;
 
 import static exchange.core2.core.common.OrderAction.ASK;
@@ -187,6 +196,287 @@ public abstract class ITExchangeCoreIntegration {
     }
 
 
+    @Test
+    @Timeout(5)
+    public void shouldCallbackResultsOfAllCommands() {
+        try (final ExchangeTestContainer container = ExchangeTestContainer.create(getPerformanceConfiguration())) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            // more commands than ring buffer slots - promise slots are re-used
+            final int numCommands = getPerformanceConfiguration().getRingBufferSize() * 3;
+
+            // callback is called by single results thread
+            final long[] orderIds = new long[numCommands];
+            final int[] counter = new int[1];
+            final Consumer<OrderCommand> callback = cmd -> {
+                assertThat(cmd.resultCode, is(CommandResultCode.MATCHING_UNKNOWN_ORDER_ID));
+                orderIds[counter[0]++] = cmd.orderId;
+            };
+
+            long lastSeq = -1;
+            for (int i = 0; i < numCommands; i++) {
+                final long seq = container.getApi().submitCommandAsync(
+                        ApiCancelOrder.builder().orderId(i).uid(UID_1).symbol(SYMBOL_EXCHANGE).build(), callback);
+                assertTrue(seq > lastSeq);
+                lastSeq = seq;
+            }
+
+            // results are delivered in sequence order
+            container.submitCommandSync(ApiNop.builder().build(), CHECK_SUCCESS);
+
+            assertThat(counter[0], is(numCommands));
+            for (int i = 0; i < numCommands; i++) {
+                assertThat(orderIds[i], is((long) i));
+            }
+        }
+    }
+
+    @Test
+    @Timeout(5)
+    public void shouldSubmitCommandsBatches() {
+        try (final ExchangeTestContainer container = ExchangeTestContainer.create(getPerformanceConfiguration())) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            final int numOrders = 100;
+            final List<ApiPlaceOrder> orders = new ArrayList<>(numOrders);
+            for (int i = 0; i < numOrders; i++) {
+                orders.add(ApiPlaceOrder.builder().uid(UID_1).orderId(i + 1).price(1600 + i).size(1).action(ASK).orderType(GTC)
+                        .symbol(SYMBOL_EXCHANGE).build());
+            }
+
+            // single callback for the last command of the batch
+            final CompletableFuture<Long> placed = new CompletableFuture<>();
+            container.getApi().submitCommandsBatch(orders, cmd -> {
+                assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+                placed.complete(cmd.orderId);
+            });
+            assertThat(placed.join(), is((long) numOrders));
+            assertThat(container.capacityReport().getOrdersNum(), is((long) numOrders));
+
+            // move all orders 100 ticks up, then cancel every second order
+            final long[] orderIds = new long[numOrders];
+            final long[] prices = new long[numOrders];
+            final int[] symbols = new int[numOrders];
+            final long[] uids = new long[numOrders];
+            for (int i = 0; i < numOrders; i++) {
+                orderIds[i] = i + 1;
+                prices[i] = 1700 + i;
+                symbols[i] = SYMBOL_EXCHANGE;
+                uids[i] = UID_1;
+            }
+            final CompletableFuture<CommandResultCode> moved = new CompletableFuture<>();
+            container.getApi().moveOrdersBatch(orderIds, prices, symbols, uids, numOrders, cmd -> moved.complete(cmd.resultCode));
+            assertThat(moved.join(), is(CommandResultCode.SUCCESS));
+
+            for (int i = 0; i < numOrders / 2; i++) {
+                orderIds[i] = i * 2 + 1;
+            }
+            final CompletableFuture<CommandResultCode> cancelled = new CompletableFuture<>();
+            container.getApi().cancelOrdersBatch(orderIds, symbols, uids, numOrders / 2, cmd -> cancelled.complete(cmd.resultCode));
+            assertThat(cancelled.join(), is(CommandResultCode.SUCCESS));
+
+            final L2MarketData orderBook = container.requestCurrentOrderBook(SYMBOL_EXCHANGE);
+            assertThat(orderBook.askSize, is(numOrders / 2));
+            for (int i = 0; i < numOrders / 2; i++) {
+                assertThat(orderBook.askPrices[i], is(1700L + i * 2 + 1));
+            }
+
+            // batch bigger than quarter of ring buffer is published by several ranges
+            final int numNops = getPerformanceConfiguration().getRingBufferSize();
+            final List<ApiNop> nops = new ArrayList<>(numNops);
+            for (int i = 0; i < numNops; i++) {
+                nops.add(ApiNop.builder().build());
+            }
+            final int[] callbacks = new int[1];
+            final long lastSeq = container.getApi().submitCommandsBatch(nops, cmd -> callbacks[0]++);
+            container.submitCommandSync(ApiNop.builder().build(), CHECK_SUCCESS);
+            assertThat(callbacks[0], is(1));
+            assertTrue(lastSeq > 0);
+
+            // writer failure - exception is re-thrown, callback is not called for partially published batch
+            final int[] failedCallbacks = new int[1];
+            assertThrows(IllegalStateException.class, () -> container.getApi().publishCommandsBatch(3, (cmd, seq, idx) -> {
+                if (idx == 2) {
+                    throw new IllegalStateException("writer failed");
+                }
+                cmd.command = OrderCommandType.NOP;
+                cmd.resultCode = CommandResultCode.NEW;
+                cmd.timestamp = System.currentTimeMillis();
+            }, cmd -> failedCallbacks[0]++));
+            container.submitCommandSync(ApiNop.builder().build(), CHECK_SUCCESS);
+            assertThat(failedCallbacks[0], is(0));
+
+            assertTrue(container.totalBalanceReport().isGlobalBalancesAllZero());
+        }
+    }
+
+    @Test
+    @Timeout(5)
+    public void shouldReportCapacity() {
+        try (final ExchangeTestContainer container = ExchangeTestContainer.create(getPerformanceConfiguration())) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(101).price(1600).size(1).action(ASK).orderType(GTC)
+                    .symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+
+            final CapacityReportResult report = container.capacityReport();
+            assertThat(report.getUsersNum(), is(4L));
+            assertThat(report.getSymbolsNum(), is(2L));
+            assertThat(report.getOrdersNum(), is(1L));
+            assertFalse(report.isCapacityExceeded());
+        }
+    }
+
+    @Test
+    @Timeout(5)
+    public void shouldCheckMarginAcrossSymbolsAfterPriceChanges() throws Exception {
+        // L2 data for every command - last prices are updated by every order book change
+        final PerformanceConfiguration perfCfg = PerformanceConfiguration.baseBuilder().sendL2ForEveryCmd(true).build();
+
+        // second futures contract quoted in the same currency
+        final int symbol2 = SYMBOL_MARGIN + 1;
+        final CoreSymbolSpecification spec2 = CoreSymbolSpecification.builder()
+                .symbolId(symbol2)
+                .type(SymbolType.FUTURES_CONTRACT)
+                .baseCurrency(CURRENECY_EUR)
+                .quoteCurrency(CURRENECY_USD)
+                .baseScaleK(1)
+                .quoteScaleK(1)
+                .marginBuy(2200)
+                .marginSell(3210)
+                .build();
+
+        try (final ExchangeTestContainer container = ExchangeTestContainer.create(perfCfg)) {
+            container.addSymbol(SYMBOLSPEC_EUR_USD);
+            container.addSymbol(spec2);
+            container.createUserWithMoney(UID_1, CURRENECY_USD, 10_000);
+            container.createUserWithMoney(UID_2, CURRENECY_USD, 1_000_000);
+
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_2).orderId(101).price(1000).size(2).action(ASK).orderType(GTC)
+                    .symbol(SYMBOL_MARGIN).build(), CHECK_SUCCESS);
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_2).orderId(102).price(900).reservePrice(900).size(1).action(OrderAction.BID)
+                    .orderType(GTC).symbol(SYMBOL_MARGIN).build(), CHECK_SUCCESS);
+
+            // long 2 @ 1000, required margin 4400, best bid 900 - P&L -200
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(201).price(1000).reservePrice(1000).size(2).action(OrderAction.BID)
+                    .orderType(GTC).symbol(SYMBOL_MARGIN).build(), CHECK_SUCCESS);
+
+            // report query forces risk engine to process trades and market data of all previous commands
+            container.validateUserState(UID_1, profile -> assertThat(profile.getAccounts().get(CURRENECY_USD), is(10_000L)));
+
+            // 10000 - 4400 - 200 = 5400 is enough for 2 lots (4400), but not for 3 lots (6600)
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(202).price(1000).reservePrice(1000).size(3).action(OrderAction.BID)
+                    .orderType(GTC).symbol(symbol2).build(), cmd -> assertThat(cmd.resultCode, is(CommandResultCode.RISK_NSF)));
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(203).price(1000).reservePrice(1000).size(2).action(OrderAction.BID)
+                    .orderType(GTC).symbol(symbol2).build(), CHECK_SUCCESS);
+            container.submitCommandSync(ApiCancelOrder.builder().uid(UID_1).orderId(203).symbol(symbol2).build(), CHECK_SUCCESS);
+
+            // best bid moved down to 300 - P&L -1400, free margin 4200 is not enough for 2 lots anymore
+            container.submitCommandSync(ApiMoveOrder.builder().uid(UID_2).orderId(102).newPrice(300).symbol(SYMBOL_MARGIN).build(), CHECK_SUCCESS);
+            container.validateUserState(UID_1, profile -> assertThat(profile.getAccounts().get(CURRENECY_USD), is(10_000L)));
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(204).price(1000).reservePrice(1000).size(2).action(OrderAction.BID)
+                    .orderType(GTC).symbol(symbol2).build(), cmd -> assertThat(cmd.resultCode, is(CommandResultCode.RISK_NSF)));
+
+            // best bid moved back to 900
+            container.submitCommandSync(ApiMoveOrder.builder().uid(UID_2).orderId(102).newPrice(900).symbol(SYMBOL_MARGIN).build(), CHECK_SUCCESS);
+            container.validateUserState(UID_1, profile -> assertThat(profile.getAccounts().get(CURRENECY_USD), is(10_000L)));
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(205).price(1000).reservePrice(1000).size(2).action(OrderAction.BID)
+                    .orderType(GTC).symbol(symbol2).build(), CHECK_SUCCESS);
+        }
+    }
+
+    @Test
+    @Timeout(5)
+    public void shouldMoveSymbolToAnotherShard() {
+
+        // routing does not depend on tested configuration, only on number of matching engines
+        final PerformanceConfiguration perfCfg = PerformanceConfiguration.baseBuilder().matchingEnginesNum(2).build();
+
+        try (final ExchangeTestContainer container = ExchangeTestContainer.create(perfCfg)) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            // symbols are distributed between shards
+            ShardsLoadReportResult report = container.shardsLoadReport();
+            assertThat(report.getSymbolShards().size(), is(2));
+            final int sourceShard = report.getSymbolShards().get(SYMBOL_EXCHANGE);
+            assertThat(report.getSymbolShards().get(SYMBOL_MARGIN), is(1 - sourceShard));
+
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(101).price(1600).size(3).action(ASK).orderType(GTC)
+                    .symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(102).price(1610).size(2).action(ASK).orderType(GTC)
+                    .symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+
+            final L2MarketData l2Before = container.requestCurrentOrderBook(SYMBOL_EXCHANGE);
+
+            assertThat(container.moveSymbol(SYMBOL_EXCHANGE, 1 - sourceShard), is(CommandResultCode.SUCCESS));
+
+            // order book is preserved
+            assertThat(container.requestCurrentOrderBook(SYMBOL_EXCHANGE), is(l2Before));
+
+            report = container.shardsLoadReport();
+            assertThat(report.getSymbolShards().get(SYMBOL_EXCHANGE), is(1 - sourceShard));
+            assertThat(report.getShardOrders().get(1 - sourceShard), is(2L));
+            assertThat(report.getShardOrders().get(sourceShard), is(0L));
+            assertThat(report.getShardCommands().get(sourceShard), is(3L));
+
+            // moved order book accepts commands
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_2).orderId(201).price(1600).reservePrice(1600).size(3).action(OrderAction.BID)
+                    .orderType(GTC).symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+            container.submitCommandSync(ApiCancelOrder.builder().uid(UID_1).orderId(102).symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+            assertThat(container.requestCurrentOrderBook(SYMBOL_EXCHANGE).askSize, is(0));
+
+            report = container.shardsLoadReport();
+            assertThat(report.getShardCommands().get(1 - sourceShard), is(4L));
+            assertThat(report.getSymbolCommands().get(SYMBOL_EXCHANGE), is(7L));
+            assertThat(report.getSymbolCommands().get(SYMBOL_MARGIN), is(0L));
+
+            // moving to unknown shard is rejected
+            assertThat(container.moveSymbol(SYMBOL_EXCHANGE, 2), is(CommandResultCode.SYMBOL_MGMT_SYMBOL_MOVE_FAILED));
+            assertThat(container.shardsLoadReport().getSymbolShards().get(SYMBOL_EXCHANGE), is(1 - sourceShard));
+        }
+    }
+
+    @Test
+    @Timeout(5)
+    public void shouldPublishL2ForAllChangedOrderBooks() throws Exception {
+
+        try (final ExchangeTestContainer container = ExchangeTestContainer.create(getPerformanceConfiguration())) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            // last regular L2 update for each symbol
+            final Map<Integer, L2MarketData> lastL2 = new ConcurrentHashMap<>();
+            container.setConsumer((cmd, seq) -> {
+                if (cmd.marketData != null && cmd.command != OrderCommandType.ORDER_BOOK_REQUEST) {
+                    lastL2.put(cmd.marketDataSymbol, cmd.marketData.copy());
+                }
+            });
+
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(101).price(1600).size(1).action(ASK).orderType(GTC)
+                    .symbol(SYMBOL_MARGIN).build(), CHECK_SUCCESS);
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).orderId(102).price(1600).size(1).action(ASK).orderType(GTC)
+                    .symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+
+            // change top of the margin order book
+            container.submitCommandSync(ApiMoveOrder.builder().uid(UID_1).orderId(101).newPrice(1590).symbol(SYMBOL_MARGIN).build(), CHECK_SUCCESS);
+
+            // commands for another symbol should carry margin order book update after next L2 tick
+            long orderId = 200;
+            while (lastL2.get(SYMBOL_MARGIN) == null || lastL2.get(SYMBOL_MARGIN).askPrices[0] != 1590) {
+                Thread.sleep(20);
+                container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_2).orderId(orderId++).price(1700).size(1).action(ASK).orderType(GTC)
+                        .symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+            }
+
+            assertThat(lastL2.get(SYMBOL_EXCHANGE).askPrices[0], is(1600L));
+            assertThat(lastL2.get(SYMBOL_EXCHANGE).askVolumes[0], is(1L));
+        }
+    }
+
     @Test
     @Timeout(5)
     public void exchangeRiskBasicTest() throws Exception {
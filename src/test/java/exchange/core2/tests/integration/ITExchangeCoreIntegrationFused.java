@@ -0,0 +1,13 @@
+package exchange.core2.tests.integration;
+
+import exchange.core2.core.common.config.PerformanceConfiguration;
+
+public final class ITExchangeCoreIntegrationFused extends ITExchangeCoreIntegration {
+
+    @Override
+    public PerformanceConfiguration getPerformanceConfiguration() {
+        return PerformanceConfiguration.baseBuilder()
+                .fusedRiskMatching(true)
+                .build();
+    }
+}
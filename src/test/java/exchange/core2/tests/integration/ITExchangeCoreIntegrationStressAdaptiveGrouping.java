@@ -0,0 +1,13 @@
+package exchange.core2.tests.integration;
+
+import exchange.core2.core.common.config.PerformanceConfiguration;
+
+public final class ITExchangeCoreIntegrationStressAdaptiveGrouping extends ITExchangeCoreIntegrationStress {
+
+    @Override
+    public PerformanceConfiguration getPerformanceConfiguration() {
+        return PerformanceConfiguration.baseBuilder()
+                .adaptiveGrouping(true)
+                .build();
+    }
+}
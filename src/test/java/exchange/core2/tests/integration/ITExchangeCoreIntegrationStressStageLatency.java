@@ -0,0 +1,14 @@
+package exchange.core2.tests.integration;
+
+import exchange.core2.core.common.config.PerformanceConfiguration;
+
+public final class ITExchangeCoreIntegrationStressStageLatency extends ITExchangeCoreIntegrationStress {
+
+    @Override
+    public PerformanceConfiguration getPerformanceConfiguration() {
+        return PerformanceConfiguration.baseBuilder()
+                .stageLatencyTracking(true)
+                .stageLatencyReportIntervalNs(100_000_000L)
+                .build();
+    }
+}
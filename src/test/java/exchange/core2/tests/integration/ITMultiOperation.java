@@ -18,6 +18,7 @@ package exchange.core2.tests.integration;
 import exchange.core2.core.common.config.InitialStateConfiguration;
 import exchange.core2.core.common.config.PerformanceConfiguration;
 import exchange.core2.core.common.config.SerializationConfiguration;
+import exchange.core2.core.processors.UserProfilesStoreOffHeapImpl;
 import exchange.core2.tests.util.*;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
@@ -91,4 +92,75 @@ public final class ITMultiOperation {
                 SerializationConfiguration.DEFAULT,
                 2);
     }
+
+    @Test
+    @Timeout(60)
+    public void shouldPerformShardedNonPowerOfTwo() {
+        ThroughputTestsModule.throughputTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .matchingEnginesNum(3)
+                        .riskEnginesNum(3)
+                        .build(),
+                TestDataParameters.builder()
+                        .totalTransactionsNumber(1_000_000)
+                        .targetOrderBookOrdersTotal(1000)
+                        .numAccounts(2000)
+                        .currenciesAllowed(TestConstants.CURRENCIES_EXCHANGE)
+                        .numSymbols(32)
+                        .allowedSymbolTypes(ExchangeTestContainer.AllowedSymbolTypes.BOTH)
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER)
+                        .build(),
+                InitialStateConfiguration.CLEAN_TEST,
+                SerializationConfiguration.DEFAULT,
+                2);
+    }
+
+    @Test
+    @Timeout(60)
+    public void shouldPerformShardedAdaptiveGrouping() {
+        ThroughputTestsModule.throughputTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .matchingEnginesNum(2)
+                        .riskEnginesNum(2)
+                        .adaptiveGrouping(true)
+                        .minMsgsInGroupLimit(16)
+                        .minGroupDurationNs(1_000)
+                        .build(),
+                TestDataParameters.builder()
+                        .totalTransactionsNumber(1_000_000)
+                        .targetOrderBookOrdersTotal(1000)
+                        .numAccounts(2000)
+                        .currenciesAllowed(TestConstants.CURRENCIES_EXCHANGE)
+                        .numSymbols(32)
+                        .allowedSymbolTypes(ExchangeTestContainer.AllowedSymbolTypes.BOTH)
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER)
+                        .build(),
+                InitialStateConfiguration.CLEAN_TEST,
+                SerializationConfiguration.DEFAULT,
+                2);
+    }
+
+    @Test
+    @Timeout(60)
+    public void shouldPerformShardedOffHeapUserProfiles() {
+        ThroughputTestsModule.throughputTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .matchingEnginesNum(2)
+                        .riskEnginesNum(2)
+                        // small working set - most profiles are evicted into off-heap records
+                        .userProfilesStoreFactory(expectedUsersNum -> new UserProfilesStoreOffHeapImpl(expectedUsersNum, 64))
+                        .build(),
+                TestDataParameters.builder()
+                        .totalTransactionsNumber(1_000_000)
+                        .targetOrderBookOrdersTotal(1000)
+                        .numAccounts(2000)
+                        .currenciesAllowed(TestConstants.CURRENCIES_EXCHANGE)
+                        .numSymbols(32)
+                        .allowedSymbolTypes(ExchangeTestContainer.AllowedSymbolTypes.BOTH)
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER)
+                        .build(),
+                InitialStateConfiguration.CLEAN_TEST,
+                SerializationConfiguration.DEFAULT,
+                2);
+    }
 }
@@ -16,6 +16,7 @@
 package exchange.core2.tests.perf;
 
 import exchange.core2.core.common.config.PerformanceConfiguration;
+import exchange.core2.core.common.config.SerializationConfiguration;
 import exchange.core2.tests.util.*;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
@@ -50,6 +51,33 @@ public final class PerfJournaling {
                 10);
     }
 
+    @Test
+    public void testJournalingExchangeMemoryMapped() throws Exception {
+        JournalingTestsModule.journalingTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .build(),
+                TestDataParameters.singlePairExchangeBuilder()
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER_PLUS_QUARTER)
+                        .build(),
+                SerializationConfiguration.DISK_JOURNALING_MEMORY_MAPPED,
+                10);
+    }
+
+    @Test
+    public void testJournalReplayStepExchange() throws Exception {
+        JournalingTestsModule.journalReplayStepTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .build(),
+                TestDataParameters.singlePairExchangeBuilder()
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER_PLUS_QUARTER)
+                        .build(),
+                10);
+    }
+
     @Test
     public void testJournalingMultiSymbolSmall() throws Exception {
         JournalingTestsModule.journalingTestImpl(
@@ -111,4 +139,33 @@ public final class PerfJournaling {
                 10);
     }
 
-}
\ No newline at end of file
+    /*
+     * -------------- Journal records format: bytes per command and replay speed -----------------
+     */
+
+    @Test
+    public void testJournalEncodingExchange() throws Exception {
+        JournalingTestsModule.journalEncodingTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .build(),
+                TestDataParameters.singlePairExchangeBuilder()
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER_PLUS_QUARTER)
+                        .build(),
+                5);
+    }
+
+    @Test
+    public void testJournalEncodingMultiSymbolMedium() throws Exception {
+        JournalingTestsModule.journalEncodingTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .matchingEnginesNum(4)
+                        .riskEnginesNum(2)
+                        .build(),
+                TestDataParameters.mediumBuilder()
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER_PLUS_QUARTER)
+                        .build(),
+                3);
+    }
+}
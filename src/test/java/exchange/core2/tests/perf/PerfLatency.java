@@ -71,6 +71,46 @@ public final class PerfLatency {
                 16);
     }
 
+    /**
+     * Same as testLatencyMargin, but risk hold, matching and risk release are performed by single thread (fused mode).
+     * 4-threads CPU can run this test
+     */
+    @Test
+    public void testLatencyMarginFused() {
+        latencyTestImpl(
+                PerformanceConfiguration.latencyPerformanceBuilder()
+                        .ringBufferSize(2 * 1024)
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .fusedRiskMatching(true)
+                        .msgsInGroupLimit(256)
+                        .build(),
+                TestDataParameters.singlePairMarginBuilder().build(),
+                InitialStateConfiguration.CLEAN_TEST,
+                SerializationConfiguration.DEFAULT,
+                16);
+    }
+
+    /**
+     * Same as testLatencyExchange, but risk hold, matching and risk release are performed by single thread (fused mode).
+     * 4-threads CPU can run this test
+     */
+    @Test
+    public void testLatencyExchangeFused() {
+        latencyTestImpl(
+                PerformanceConfiguration.latencyPerformanceBuilder()
+                        .ringBufferSize(2 * 1024)
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .fusedRiskMatching(true)
+                        .msgsInGroupLimit(256)
+                        .build(),
+                TestDataParameters.singlePairExchangeBuilder().build(),
+                InitialStateConfiguration.CLEAN_TEST,
+                SerializationConfiguration.DEFAULT,
+                16);
+    }
+
     /**
      * This is medium load latency test for verifying "triple million" capability:
      * - 1M active users (3M currency accounts)
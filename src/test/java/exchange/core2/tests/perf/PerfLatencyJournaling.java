@@ -64,6 +64,21 @@ public final class PerfLatencyJournaling {
                 6);
     }
 
+    @Test
+    public void testLatencyExchangeJournalingMemoryMapped() {
+        latencyTestImpl(
+                PerformanceConfiguration.latencyPerformanceBuilder()
+                        .ringBufferSize(32 * 1024)
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .msgsInGroupLimit(256)
+                        .build(),
+                TestDataParameters.singlePairExchangeBuilder().build(),
+                InitialStateConfiguration.cleanStartJournaling(ExchangeTestContainer.timeBasedExchangeId()),
+                SerializationConfiguration.DISK_JOURNALING_MEMORY_MAPPED,
+                6);
+    }
+
     @Test
     public void testLatencyMultiSymbolMediumJournaling() {
         latencyTestImpl(
@@ -17,6 +17,7 @@ package exchange.core2.tests.perf;
 
 import exchange.core2.core.common.config.PerformanceConfiguration;
 import exchange.core2.tests.util.ExchangeTestContainer;
+import exchange.core2.tests.util.JournalingTestsModule;
 import exchange.core2.tests.util.PersistenceTestsModule;
 import exchange.core2.tests.util.TestDataParameters;
 import exchange.core2.tests.util.TestOrdersGeneratorConfig;
@@ -84,6 +85,83 @@ public final class PerfPersistence {
                 25);
     }
 
+    /**
+     * Incremental snapshots: 1 full and up to 2 incremental snapshots, restoring from the last one (full+incremental+incremental)
+     */
+    @Test
+    public void testIncrementalPersistenceMultiSymbolMedium() throws Exception {
+        PersistenceTestsModule.incrementalPersistenceTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .ringBufferSize(32 * 1024)
+                        .matchingEnginesNum(4)
+                        .riskEnginesNum(2)
+                        .msgsInGroupLimit(1024)
+                        .build(),
+                TestDataParameters.mediumBuilder()
+                        .allowedSymbolTypes(ExchangeTestContainer.AllowedSymbolTypes.BOTH)
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER_PLUS_QUARTER)
+                        .build(),
+                2,
+                6,
+                -1);
+    }
+
+    /**
+     * Incremental snapshots chain is broken in the middle (one matching engine shard fails to write a snapshot),
+     * restoring from the last snapshot
+     */
+    @Test
+    public void testIncrementalPersistenceBrokenChainMultiSymbolMedium() throws Exception {
+        PersistenceTestsModule.incrementalPersistenceTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .ringBufferSize(32 * 1024)
+                        .matchingEnginesNum(4)
+                        .riskEnginesNum(2)
+                        .msgsInGroupLimit(1024)
+                        .build(),
+                TestDataParameters.mediumBuilder()
+                        .allowedSymbolTypes(ExchangeTestContainer.AllowedSymbolTypes.BOTH)
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER_PLUS_QUARTER)
+                        .build(),
+                2,
+                7,
+                2);
+    }
+
+    /**
+     * Journal replay speed (snapshot is created after prefill, benchmark commands are replayed from journal)
+     */
+    @Test
+    public void testJournalReplayExchange() throws Exception {
+        JournalingTestsModule.journalingTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .ringBufferSize(32 * 1024)
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .msgsInGroupLimit(512)
+                        .build(),
+                TestDataParameters.singlePairExchangeBuilder()
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER_PLUS_QUARTER)
+                        .build(),
+                10);
+    }
+
+    @Test
+    public void testJournalReplayMultiSymbolMedium() throws Exception {
+        JournalingTestsModule.journalingTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .ringBufferSize(32 * 1024)
+                        .matchingEnginesNum(4)
+                        .riskEnginesNum(2)
+                        .msgsInGroupLimit(1024)
+                        .build(),
+                TestDataParameters.mediumBuilder()
+                        .allowedSymbolTypes(ExchangeTestContainer.AllowedSymbolTypes.BOTH)
+                        .preFillMode(TestOrdersGeneratorConfig.PreFillMode.ORDERS_NUMBER_PLUS_QUARTER)
+                        .build(),
+                25);
+    }
+
     @Test
     public void testPersistenceMultiSymbolLarge() throws Exception {
         PersistenceTestsModule.persistenceTestImpl(
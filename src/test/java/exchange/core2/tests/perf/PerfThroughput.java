@@ -62,6 +62,76 @@ public final class PerfThroughput {
                 50);
     }
 
+    /**
+     * Same as testThroughputExchange, but commands are submitted asynchronously through ExchangeApi:
+     * - with CompletableFuture per command
+     * - with single result callback (no allocations for promises)
+     * Compare results to see the overhead of futures for high-rate gateways.
+     */
+    @Test
+    public void testThroughputExchangeAsyncFutures() {
+        ThroughputTestsModule.throughputTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .ringBufferSize(32 * 1024)
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .build(),
+                TestDataParameters.singlePairExchangeBuilder().build(),
+                InitialStateConfiguration.CLEAN_TEST,
+                SerializationConfiguration.DEFAULT,
+                50,
+                ExchangeTestContainer::benchmarkMtpsAsyncFutures);
+    }
+
+    @Test
+    public void testThroughputExchangeAsyncCallbacks() {
+        ThroughputTestsModule.throughputTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .ringBufferSize(32 * 1024)
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .build(),
+                TestDataParameters.singlePairExchangeBuilder().build(),
+                InitialStateConfiguration.CLEAN_TEST,
+                SerializationConfiguration.DEFAULT,
+                50,
+                ExchangeTestContainer::benchmarkMtpsAsyncCallbacks);
+    }
+
+    /**
+     * Same as testThroughputMargin and testThroughputExchange, but trade events are passed through flat per-shard ring
+     * instead of MatcherTradeEvent chains - compare results to see the difference for trade-heavy workload.
+     */
+    @Test
+    public void testThroughputMarginFlatEvents() {
+        ThroughputTestsModule.throughputTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .ringBufferSize(32 * 1024)
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .flatTradeEvents(true)
+                        .build(),
+                TestDataParameters.singlePairMarginBuilder().build(),
+                InitialStateConfiguration.CLEAN_TEST,
+                SerializationConfiguration.DEFAULT,
+                50);
+    }
+
+    @Test
+    public void testThroughputExchangeFlatEvents() {
+        ThroughputTestsModule.throughputTestImpl(
+                PerformanceConfiguration.throughputPerformanceBuilder()
+                        .ringBufferSize(32 * 1024)
+                        .matchingEnginesNum(1)
+                        .riskEnginesNum(1)
+                        .flatTradeEvents(true)
+                        .build(),
+                TestDataParameters.singlePairExchangeBuilder().build(),
+                InitialStateConfiguration.CLEAN_TEST,
+                SerializationConfiguration.DEFAULT,
+                50);
+    }
+
     @Test
     public void testThroughputPeak() {
         ThroughputTestsModule.throughputTestImpl(
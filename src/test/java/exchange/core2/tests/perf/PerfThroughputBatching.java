@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.tests.perf;
+
+import exchange.core2.core.ExchangeApi;
+import exchange.core2.core.common.OrderAction;
+import exchange.core2.core.common.OrderType;
+import exchange.core2.core.common.api.ApiNop;
+import exchange.core2.core.common.api.ApiPlaceOrder;
+import exchange.core2.core.common.config.PerformanceConfiguration;
+import exchange.core2.tests.util.ExchangeTestContainer;
+import exchange.core2.tests.util.TestConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Gateway throughput: several producer threads placing and cancelling orders,
+ * one command at a time (sequence claim per command) or by batches (sequence claim per batch).
+ */
+@Slf4j
+public final class PerfThroughputBatching {
+
+    private static final int ORDERS_PER_PRODUCER = 500_000;
+
+    private static final long[] PRODUCER_UIDS = {TestConstants.UID_1, TestConstants.UID_2, TestConstants.UID_3, TestConstants.UID_4};
+
+    @Test
+    public void testThroughputGatewayBatching() {
+
+        final PerformanceConfiguration perfCfg = PerformanceConfiguration.throughputPerformanceBuilder()
+                .ringBufferSize(32 * 1024)
+                .matchingEnginesNum(1)
+                .riskEnginesNum(1)
+                .build();
+
+        try (final ExchangeTestContainer container = ExchangeTestContainer.create(perfCfg)) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            for (int iteration = 0; iteration < 3; iteration++) {
+                for (final int producers : new int[]{1, 2, 4}) {
+                    for (final int batchSize : new int[]{1, 16, 256}) {
+                        final float perfMt = benchmark(container.getApi(), producers, batchSize);
+                        log.info("{}. producers={} batchSize={}: {} MT/s", iteration, producers, batchSize, String.format("%.3f", perfMt));
+
+                        // all orders are cancelled
+                        assertThat(container.capacityReport().getOrdersNum(), is(0L));
+                    }
+                }
+            }
+
+            assertTrue(container.totalBalanceReport().isGlobalBalancesAllZero());
+        }
+    }
+
+    private static float benchmark(final ExchangeApi api, final int producers, final int batchSize) {
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>(producers);
+
+        for (int p = 0; p < producers; p++) {
+            final List<ApiPlaceOrder> orders = createOrders(p);
+            final Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                if (batchSize == 1) {
+                    produceOneByOne(api, orders);
+                } else {
+                    produceBatches(api, orders, batchSize);
+                }
+                // results are delivered in sequence order
+                api.submitCommandAsync(ApiNop.builder().build()).join();
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        final long tStart = System.currentTimeMillis();
+        startLatch.countDown();
+        threads.forEach(thread -> {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        final long tDuration = System.currentTimeMillis() - tStart;
+
+        // place and cancel commands
+        return 2L * producers * ORDERS_PER_PRODUCER / (float) tDuration / 1000.0f;
+    }
+
+    private static void produceOneByOne(final ExchangeApi api, final List<ApiPlaceOrder> orders) {
+        for (final ApiPlaceOrder order : orders) {
+            api.submitCommand(order);
+            api.cancelOrder(order.orderId, order.symbol, order.uid, cmd -> {
+            });
+        }
+    }
+
+    private static void produceBatches(final ExchangeApi api, final List<ApiPlaceOrder> orders, final int batchSize) {
+        final long[] orderIds = new long[batchSize];
+        final int[] symbols = new int[batchSize];
+        final long[] uids = new long[batchSize];
+
+        for (int offset = 0; offset < orders.size(); offset += batchSize) {
+            final List<ApiPlaceOrder> batch = orders.subList(offset, Math.min(offset + batchSize, orders.size()));
+            api.submitCommandsBatch(batch, null);
+
+            for (int i = 0; i < batch.size(); i++) {
+                final ApiPlaceOrder order = batch.get(i);
+                orderIds[i] = order.orderId;
+                symbols[i] = order.symbol;
+                uids[i] = order.uid;
+            }
+            api.cancelOrdersBatch(orderIds, symbols, uids, batch.size(), null);
+        }
+    }
+
+    private static List<ApiPlaceOrder> createOrders(final int producer) {
+        // non-crossing prices: asks above 2000, bids below 1000
+        final boolean ask = producer % 2 == 0;
+        final List<ApiPlaceOrder> orders = new ArrayList<>(ORDERS_PER_PRODUCER);
+        for (int i = 0; i < ORDERS_PER_PRODUCER; i++) {
+            final long price = ask ? 2000 + i % 100 : 1000 - i % 100;
+            orders.add(ApiPlaceOrder.builder()
+                    .uid(PRODUCER_UIDS[producer])
+                    .orderId(producer * 1_000_000_000L + i + 1)
+                    .price(price)
+                    .reservePrice(price)
+                    .size(1)
+                    .action(ask ? OrderAction.ASK : OrderAction.BID)
+                    .orderType(OrderType.GTC)
+                    .symbol(TestConstants.SYMBOL_EXCHANGE)
+                    .build());
+        }
+        return orders;
+    }
+}
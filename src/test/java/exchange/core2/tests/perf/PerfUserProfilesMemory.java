@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Maksim Zheravin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package exchange.core2.tests.perf;
+
+import exchange.core2.core.common.SymbolPositionRecord;
+import exchange.core2.core.common.UserProfile;
+import exchange.core2.core.common.UserStatus;
+import exchange.core2.core.processors.UserProfileService;
+import exchange.core2.core.processors.UserProfilesStoreOffHeapImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.LongFunction;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Heap footprint of user profiles per million users (1-3 currencies, no margin positions).
+ * Run with fixed heap size (-Xms=-Xmx) for stable results.
+ */
+@Slf4j
+public final class PerfUserProfilesMemory {
+
+    private static final int USERS_NUM = 1_000_000;
+
+    // 64 bytes per record, table capacity is power of 2 with load factor 0.75
+    private static final long OFF_HEAP_TABLE_BYTES = 2L * 1024 * 1024 * 64;
+
+    @Test
+    public void testUserProfilesMemoryFootprint() {
+
+        // first pass is warm-up
+        for (int pass = 0; pass < 2; pass++) {
+
+            // previous layout: eagerly allocated hash maps for positions, accounts and free margin aggregates
+            final long legacyBytes = measure(uid -> {
+                final LegacyUserProfile profile = new LegacyUserProfile(uid);
+                fillAccounts(uid, profile.accounts::addToValue);
+                return profile;
+            });
+
+            final long compactBytes = measure(uid -> {
+                final UserProfile profile = new UserProfile(uid, UserStatus.ACTIVE);
+                fillAccounts(uid, profile.accounts::addToValue);
+                return profile;
+            });
+
+            final long offHeapStoreBytes = measureOffHeapStore();
+
+            log.info("{}. Legacy profiles: {} MiB per million users", pass, toMiB(legacyBytes));
+            log.info("{}. Compact profiles: {} MiB per million users", pass, toMiB(compactBytes));
+            log.info("{}. Off-heap store: {} MiB of heap per million users (plus {} MiB off-heap)",
+                    pass, toMiB(offHeapStoreBytes), toMiB(OFF_HEAP_TABLE_BYTES));
+
+            assertThat(compactBytes, lessThan(legacyBytes));
+            assertThat(offHeapStoreBytes, lessThan(compactBytes));
+        }
+    }
+
+    private static void fillAccounts(final long uid, final AccountsFiller filler) {
+        final int currencies = 1 + (int) (uid % 3);
+        for (int currency = 0; currency < currencies; currency++) {
+            filler.add(currency, 1000L + uid);
+        }
+    }
+
+    private static long measure(final LongFunction<Object> profileFactory) {
+        final long before = usedMemory();
+        final LongObjectHashMap<Object> profiles = new LongObjectHashMap<>(USERS_NUM);
+        for (long uid = 1; uid <= USERS_NUM; uid++) {
+            profiles.put(uid, profileFactory.apply(uid));
+        }
+        final long used = usedMemory() - before;
+        log.debug("{} profiles created", profiles.size());
+        return used;
+    }
+
+    private static long measureOffHeapStore() {
+        final long before = usedMemory();
+        final UserProfileService service = new UserProfileService(new UserProfilesStoreOffHeapImpl(USERS_NUM));
+        for (long uid = 1; uid <= USERS_NUM; uid++) {
+            service.addEmptyUserProfile(uid);
+            final long u = uid;
+            fillAccounts(uid, (currency, amount) -> service.balanceAdjustment(u, currency, amount, currency + 1));
+            service.evictProfiles();
+        }
+        final long used = usedMemory() - before;
+        log.debug("{} profiles created", service.getUserProfilesNum());
+        return used;
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String toMiB(final long bytes) {
+        return String.format("%.1f", bytes / 1048576.0);
+    }
+
+    @FunctionalInterface
+    private interface AccountsFiller {
+        void add(int currency, long amount);
+    }
+
+    private static final class LegacyUserProfile {
+        final long uid;
+        final IntObjectHashMap<SymbolPositionRecord> positions = new IntObjectHashMap<>();
+        long adjustmentsCounter;
+        final IntLongHashMap accounts = new IntLongHashMap();
+        UserStatus userStatus = UserStatus.ACTIVE;
+        final IntLongHashMap positionsFreeMargin = new IntLongHashMap();
+
+        LegacyUserProfile(long uid) {
+            this.uid = uid;
+        }
+    }
+}
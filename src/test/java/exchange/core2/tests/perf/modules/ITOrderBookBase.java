@@ -19,10 +19,12 @@ import exchange.core2.core.common.L2MarketData;
 import exchange.core2.core.common.cmd.CommandResultCode;
 import exchange.core2.core.common.cmd.OrderCommand;
 import exchange.core2.core.orderbook.IOrderBook;
+import exchange.core2.tests.util.LatencyTools;
 import exchange.core2.tests.util.TestOrdersGenerator;
 import jdk.nashorn.internal.ir.annotations.Ignore;
 import lombok.extern.slf4j.Slf4j;
 import net.openhft.affinity.AffinityLock;
+import org.HdrHistogram.Histogram;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
@@ -30,6 +32,10 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
 
 import static exchange.core2.core.common.OrderAction.ASK;
 import static exchange.core2.core.common.OrderAction.BID;
@@ -79,7 +85,7 @@ public abstract class ITOrderBookBase {
         int numOrders = 3_000_000;
         int targetOrderBookOrders = 1000;
 
-        performanceTest(numOrders, targetOrderBookOrders);
+        performanceTest(numOrders, targetOrderBookOrders, false);
 
     }
 
@@ -89,11 +95,24 @@ public abstract class ITOrderBookBase {
         int numOrders = 5_000_000;
         int targetOrderBookOrders = 1_000_000;
 
-        performanceTest(numOrders, targetOrderBookOrders);
+        performanceTest(numOrders, targetOrderBookOrders, false);
 
     }
 
-    private void performanceTest(int numOrders, int targetOrderBookOrders) {
+    /**
+     * Same as performanceTest1K, but L2 data is published after each command (like with sendL2ForEveryCmd option)
+     */
+    @Test
+    public void performanceTest1KWithL2() {
+
+        int numOrders = 3_000_000;
+        int targetOrderBookOrders = 1000;
+
+        performanceTest(numOrders, targetOrderBookOrders, true);
+
+    }
+
+    private void performanceTest(int numOrders, int targetOrderBookOrders, boolean l2ForEveryCmd) {
 
         try (AffinityLock cpuLock = AffinityLock.acquireLock()) {
 
@@ -116,10 +135,14 @@ public abstract class ITOrderBookBase {
 
                 long t = System.currentTimeMillis();
                 OrderCommand workCmd = new OrderCommand();
+                workCmd.marketDataBuffer = new L2MarketData(8, 8);
                 for (OrderCommand cmd : orderCommands) {
                     cmd.writeTo(workCmd);
                     workCmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
                     IOrderBook.processCommand(orderBook, workCmd);
+                    if (l2ForEveryCmd) {
+                        orderBook.publishL2MarketDataSnapshot(workCmd.marketDataBuffer);
+                    }
                 }
                 t = System.currentTimeMillis() - t;
 
@@ -140,6 +163,165 @@ public abstract class ITOrderBookBase {
     }
 
 
+    /**
+     * Measures latency of single user orders lookup (used by SingleUserReportQuery) in a deep order book.
+     * Each lookup blocks matching engine thread, so it should not depend on total number of orders.
+     */
+    @Test
+    public void findUserOrdersPerformanceTest() {
+
+        final int numOrders = 3_000_000;
+        final int targetOrderBookOrders = 1_000_000;
+        final int numUsers = 10_000;
+
+        try (AffinityLock cpuLock = AffinityLock.acquireLock()) {
+
+            final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(
+                    numOrders,
+                    targetOrderBookOrders,
+                    numUsers,
+                    TestOrdersGenerator.UID_PLAIN_MAPPER,
+                    0,
+                    false,
+                    false,
+                    TestOrdersGenerator.createAsyncProgressLogger(numOrders),
+                    101572685);
+
+            orderBook = createNewOrderBook();
+            final OrderCommand workCmd = new OrderCommand();
+            for (OrderCommand cmd : genResult.getCommands()) {
+                cmd.writeTo(workCmd);
+                workCmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+                IOrderBook.processCommand(orderBook, workCmd);
+            }
+
+            final int totalOrders = orderBook.getOrdersNum(ASK) + orderBook.getOrdersNum(BID);
+            log.debug("Order book contains {} orders", totalOrders);
+
+            for (int j = 0; j < 16; j++) {
+                long foundOrders = 0;
+                final long t = System.nanoTime();
+                for (int uid = 1; uid <= numUsers; uid++) {
+                    foundOrders += orderBook.findUserOrders(uid).size();
+                }
+                final long avgNs = (System.nanoTime() - t) / numUsers;
+                assertThat(foundOrders, is((long) totalOrders));
+                log.info("{}. findUserOrders average: {}µs ({} orders per user)", j, avgNs / 1000.0f, totalOrders / numUsers);
+            }
+        }
+    }
+
+    /**
+     * Matching latency under single user reports load (account UI polling user reports).
+     * Report requests come from a separate thread and are executed by matching thread between commands,
+     * same way as SingleUserReportQuery is executed by matching engine.
+     * Compares no reports load, uid index lookup (findUserOrders) and full orders scan (how user orders were found before uid index).
+     */
+    @Test
+    public void userReportsLoadLatencyTest() {
+
+        final int numOrders = 3_000_000;
+        final int targetOrderBookOrders = 1_000_000;
+        final int numUsers = 10_000;
+
+        try (AffinityLock cpuLock = AffinityLock.acquireLock()) {
+
+            final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(
+                    numOrders,
+                    targetOrderBookOrders,
+                    numUsers,
+                    TestOrdersGenerator.UID_PLAIN_MAPPER,
+                    0,
+                    false,
+                    false,
+                    TestOrdersGenerator.createAsyncProgressLogger(numOrders),
+                    101572685);
+
+            for (int j = 0; j < 2; j++) {
+                for (UserReportsMode mode : UserReportsMode.values()) {
+                    userReportsLoadLatency(genResult, mode, numUsers, j);
+                }
+            }
+        }
+    }
+
+    private enum UserReportsMode {
+        NO_REPORTS,
+        UID_INDEX,
+        FULL_SCAN
+    }
+
+    private void userReportsLoadLatency(final TestOrdersGenerator.GenResult genResult,
+                                        final UserReportsMode mode,
+                                        final int numUsers,
+                                        final int iteration) {
+
+        orderBook = createNewOrderBook();
+        final OrderCommand workCmd = new OrderCommand();
+        for (OrderCommand cmd : genResult.getCommandsFill()) {
+            cmd.writeTo(workCmd);
+            workCmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            IOrderBook.processCommand(orderBook, workCmd);
+        }
+
+        // single poller: requests next report 1ms after previous one is completed (0 - no pending request)
+        final AtomicLong requestedUid = new AtomicLong();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread poller = new Thread(() -> {
+            long uid = 0;
+            while (running.get()) {
+                if (requestedUid.get() == 0) {
+                    LockSupport.parkNanos(1_000_000);
+                    uid = uid % numUsers + 1;
+                    requestedUid.set(uid);
+                }
+                Thread.yield();
+            }
+        });
+        poller.setDaemon(true);
+        poller.start();
+
+        // command processing time, including reports executed right before it
+        final Histogram histogram = new Histogram(60_000_000_000L, 3);
+        long reportsNum = 0;
+        long reportsNs = 0;
+        long foundOrders = 0;
+
+        for (OrderCommand cmd : genResult.getCommandsBenchmark()) {
+            final long t = System.nanoTime();
+
+            final long uid = requestedUid.get();
+            if (uid != 0) {
+                if (mode == UserReportsMode.UID_INDEX) {
+                    foundOrders += orderBook.findUserOrders(uid).size();
+                } else if (mode == UserReportsMode.FULL_SCAN) {
+                    foundOrders += Stream.concat(orderBook.askOrdersStream(false), orderBook.bidOrdersStream(false))
+                            .filter(order -> order.getUid() == uid)
+                            .count();
+                }
+                reportsNum++;
+                reportsNs += System.nanoTime() - t;
+                requestedUid.set(0);
+            }
+
+            cmd.writeTo(workCmd);
+            workCmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            IOrderBook.processCommand(orderBook, workCmd);
+
+            histogram.recordValue(System.nanoTime() - t);
+        }
+
+        running.set(false);
+
+        orderBook.validateInternalState();
+        assertThat(orderBook.stateHash(), is(genResult.getFinalOrderbookHash()));
+
+        log.info("{}. {}: {} reports (average {}, {} orders found), matching latency: {}",
+                iteration, mode, reportsNum, LatencyTools.formatNanos(reportsNum != 0 ? reportsNs / reportsNum : 0), foundOrders,
+                LatencyTools.createLatencyReportFast(histogram));
+    }
+
+
     // ------------------------------- UTILITY METHODS --------------------------
 
 //    public void checkTrade(EventTranslator<MatcherTradeEvent> translatorLambda, long activeId, long matchedId, long price, long size) {
@@ -24,6 +24,7 @@ import exchange.core2.core.common.SymbolType;
 import exchange.core2.core.common.api.*;
 import exchange.core2.core.common.api.binary.BatchAddSymbolsCommand;
 import exchange.core2.core.common.api.binary.BinaryDataCommand;
+import exchange.core2.core.common.api.binary.MoveSymbolCommand;
 import exchange.core2.core.common.api.reports.*;
 import exchange.core2.core.common.cmd.CommandResultCode;
 import exchange.core2.core.common.cmd.OrderCommand;
@@ -215,6 +216,15 @@ public final class ExchangeTestContainer implements AutoCloseable {
         Lists.partition(symbols, 10000).forEach(partition -> sendBinaryDataCommandSync(new BatchAddSymbolsCommand(partition), 5000));
     }
 
+    public CommandResultCode moveSymbol(final int symbolId, final int targetShardId) {
+        try {
+            return api.submitBinaryDataAsync(new MoveSymbolCommand(symbolId, targetShardId)).get(5000, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException | ExecutionException | TimeoutException ex) {
+            log.error("Failed sending move symbol command", ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
     public void sendBinaryDataCommandSync(final BinaryDataCommand data, final int timeOutMs) {
         final Future<CommandResultCode> future = api.submitBinaryDataAsync(data);
         try {
@@ -307,6 +317,14 @@ public final class ExchangeTestContainer implements AutoCloseable {
         return api.processReport(new SingleUserReportQuery(clientId), getRandomTransferId()).get();
     }
 
+    public CapacityReportResult capacityReport() {
+        return api.processReport(new CapacityReportQuery(), getRandomTransferId()).join();
+    }
+
+    public ShardsLoadReportResult shardsLoadReport() {
+        return api.processReport(new ShardsLoadReportQuery(), getRandomTransferId()).join();
+    }
+
     public TotalCurrencyBalanceReportResult totalBalanceReport() {
         final TotalCurrencyBalanceReportResult res = api.processReport(new TotalCurrencyBalanceReportQuery(), getRandomTransferId()).join();
         final IntLongHashMap openInterestLong = res.getOpenInterestLong();
@@ -316,6 +334,9 @@ public final class ExchangeTestContainer implements AutoCloseable {
         if (openInterestDiff.anySatisfy(vol -> vol != 0)) {
             throw new IllegalStateException("Open Interest balance check failed");
         }
+        if (res.getFreeMarginMismatches() != 0) {
+            throw new IllegalStateException("Free margin aggregates check failed " + res.getFreeMarginMismatches() + " times");
+        }
 
         return res;
     }
@@ -448,6 +469,32 @@ public final class ExchangeTestContainer implements AutoCloseable {
         return apiCommandsBenchmark.size() / (float) tDuration / 1000.0f;
     }
 
+    public float benchmarkMtpsAsyncFutures(final List<ApiCommand> apiCommandsBenchmark) {
+        final long tStart = System.currentTimeMillis();
+        CompletableFuture<CommandResultCode> lastFuture = null;
+        for (final ApiCommand cmd : apiCommandsBenchmark) {
+            lastFuture = api.submitCommandAsync(cmd);
+        }
+        lastFuture.join();
+        final long tDuration = System.currentTimeMillis() - tStart;
+        return apiCommandsBenchmark.size() / (float) tDuration / 1000.0f;
+    }
+
+    public float benchmarkMtpsAsyncCallbacks(final List<ApiCommand> apiCommandsBenchmark) {
+        // callbacks are called by single results thread
+        final long[] resultsCounter = new long[1];
+        final Consumer<OrderCommand> callback = cmd -> resultsCounter[0]++;
+        final long tStart = System.currentTimeMillis();
+        for (final ApiCommand cmd : apiCommandsBenchmark) {
+            api.submitCommandAsync(cmd, callback);
+        }
+        // results are delivered in sequence order
+        api.submitCommandAsync(ApiNop.builder().build()).join();
+        final long tDuration = System.currentTimeMillis() - tStart;
+        assertThat(resultsCounter[0], Is.is((long) apiCommandsBenchmark.size()));
+        return apiCommandsBenchmark.size() / (float) tDuration / 1000.0f;
+    }
+
     @Override
     public void close() {
         exchangeCore.shutdown(3000, TimeUnit.MILLISECONDS);
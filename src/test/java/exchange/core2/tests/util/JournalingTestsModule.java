@@ -15,15 +15,27 @@
  */
 package exchange.core2.tests.util;
 
+import exchange.core2.core.common.api.ApiCommand;
 import exchange.core2.core.common.api.ApiPersistState;
 import exchange.core2.core.common.cmd.CommandResultCode;
+import exchange.core2.core.common.cmd.OrderCommandType;
 import exchange.core2.core.common.config.InitialStateConfiguration;
 import exchange.core2.core.common.config.PerformanceConfiguration;
 import exchange.core2.core.common.config.SerializationConfiguration;
+import exchange.core2.core.processors.journaling.DiskSerializationProcessor;
+import exchange.core2.core.processors.journaling.DiskSerializationProcessorConfiguration;
+import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.hamcrest.core.Is;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -37,65 +49,226 @@ public class JournalingTestsModule {
                                           final TestDataParameters testDataParameters,
                                           final int iterations) throws InterruptedException, ExecutionException {
 
+        journalingTestImpl(performanceConfiguration, testDataParameters, SerializationConfiguration.DISK_JOURNALING, iterations);
+    }
+
+    public static void journalingTestImpl(final PerformanceConfiguration performanceConfiguration,
+                                          final TestDataParameters testDataParameters,
+                                          final SerializationConfiguration serializationConfiguration,
+                                          final int iterations) throws InterruptedException, ExecutionException {
+
         for (int iteration = 0; iteration < iterations; iteration++) {
 
             log.debug(" ----------- journaling test --- iteration {} of {} ----", iteration, iterations);
 
-            //long t = System.currentTimeMillis();
+            final ExchangeTestContainer.TestDataFutures testDataFutures = ExchangeTestContainer.prepareTestDataAsync(testDataParameters, iteration);
+
+            final JournalingTestResult result = runJournalingAndRestore(performanceConfiguration, testDataFutures, serializationConfiguration, iteration);
+
+            log.info("{}. load+replay {} commands in {}ms ({} commands/sec)",
+                    iteration,
+                    result.commandsNum,
+                    result.loadTimeMs,
+                    String.format("%.0f", result.commandsNum * 1000.0 / Math.max(1, result.loadTimeMs)));
+        }
+    }
+
+    /**
+     * Compares journal size and replay speed for legacy and compact journal record formats (same test data).
+     */
+    public static void journalEncodingTestImpl(final PerformanceConfiguration performanceConfiguration,
+                                               final TestDataParameters testDataParameters,
+                                               final int iterations) throws InterruptedException, ExecutionException {
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+
+            final ExchangeTestContainer.TestDataFutures testDataFutures = ExchangeTestContainer.prepareTestDataAsync(testDataParameters, iteration);
+
+            for (final boolean compact : new boolean[]{false, true}) {
+
+                final SerializationConfiguration serializationConfiguration = SerializationConfiguration.builder()
+                        .enableJournaling(true)
+                        .serializationProcessorFactory(exchangeCfg -> new DiskSerializationProcessor(
+                                exchangeCfg,
+                                DiskSerializationProcessorConfiguration.createDefaultConfig().toBuilder()
+                                        .journalCompactEncoding(compact)
+                                        .build()))
+                        .build();
+
+                final JournalingTestResult result = runJournalingAndRestore(performanceConfiguration, testDataFutures, serializationConfiguration, iteration);
+
+                log.info("{}. {} format: {} bytes/command, load+replay {} commands/sec",
+                        iteration,
+                        compact ? "Compact" : "Legacy",
+                        String.format("%.2f", (double) result.journalBytes / result.commandsNum),
+                        String.format("%.0f", result.commandsNum * 1000.0 / result.loadTimeMs));
+            }
+        }
+    }
+
+    /**
+     * Restores snapshot and replays journal in two steps (to the middle of the benchmark and then to the end),
+     * second step seeks by sparse journal index. State hash is compared after each step.
+     */
+    public static void journalReplayStepTestImpl(final PerformanceConfiguration performanceConfiguration,
+                                                 final TestDataParameters testDataParameters,
+                                                 final int iterations) throws InterruptedException, ExecutionException {
+
+        journalReplayStepTestImpl(
+                performanceConfiguration,
+                testDataParameters,
+                DiskSerializationProcessorConfiguration.createDefaultConfig().toBuilder().journalIndexInterval(64 * 1024).build(),
+                iterations);
+    }
+
+    public static void journalReplayStepTestImpl(final PerformanceConfiguration performanceConfiguration,
+                                                 final TestDataParameters testDataParameters,
+                                                 final DiskSerializationProcessorConfiguration diskConfig,
+                                                 final int iterations) throws InterruptedException, ExecutionException {
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
 
             final ExchangeTestContainer.TestDataFutures testDataFutures = ExchangeTestContainer.prepareTestDataAsync(testDataParameters, iteration);
 
             final long stateId;
-            final long originalFinalStateHash;
+            final long midSeq;
+            final int midStateHash;
+            final int finalStateHash;
 
             final String exchangeId = ExchangeTestContainer.timeBasedExchangeId();
 
-            final InitialStateConfiguration firstStartConfig = InitialStateConfiguration.cleanStartJournaling(exchangeId);
+            final SerializationConfiguration journalingConfig = SerializationConfiguration.builder()
+                    .enableJournaling(true)
+                    .serializationProcessorFactory(exchangeCfg -> new DiskSerializationProcessor(exchangeCfg, diskConfig))
+                    .build();
 
-            try (final ExchangeTestContainer container = ExchangeTestContainer.create(performanceConfiguration, firstStartConfig, SerializationConfiguration.DISK_JOURNALING)) {
+            try (final ExchangeTestContainer container = ExchangeTestContainer.create(performanceConfiguration, InitialStateConfiguration.cleanStartJournaling(exchangeId), journalingConfig)) {
 
                 container.loadSymbolsUsersAndPrefillOrders(testDataFutures);
 
                 log.info("Creating snapshot...");
                 stateId = System.currentTimeMillis() * 1000 + iteration;
-                final ApiPersistState apiPersistState = ApiPersistState.builder().dumpId(stateId).build();
-                try (ExecutionTime ignore = new ExecutionTime(t -> log.debug("Snapshot {} created in {}", stateId, t))) {
-                    final CommandResultCode resultCode = container.getApi().submitCommandAsync(apiPersistState).get();
-                    assertThat(resultCode, Is.is(CommandResultCode.SUCCESS));
-                }
+                final CommandResultCode resultCode = container.getApi().submitCommandAsync(ApiPersistState.builder().dumpId(stateId).build()).get();
+                assertThat(resultCode, Is.is(CommandResultCode.SUCCESS));
 
                 log.info("Running commands on original state...");
-                final TestOrdersGenerator.MultiSymbolGenResult genResult = testDataFutures.genResult.get();
-                container.getApi().submitCommandsSync(genResult.getApiCommandsBenchmark().join());
-                assertTrue(container.totalBalanceReport().isGlobalBalancesAllZero());
+                final List<ApiCommand> apiCommands = testDataFutures.genResult.get().getApiCommandsBenchmark().join();
+                container.getApi().submitCommandsSync(apiCommands.subList(0, apiCommands.size() / 2));
 
-                originalFinalStateHash = container.requestStateHash();
-                log.info("Original state checks completed");
+                // not journaled, marks the end of the first half
+                midSeq = container.getApi().publishCommandsBatch(1, (cmd, seq, idx) -> {
+                    cmd.command = OrderCommandType.NOP;
+                    cmd.resultCode = CommandResultCode.NEW;
+                }, null);
+                midStateHash = container.requestStateHash();
+
+                container.getApi().submitCommandsSync(apiCommands.subList(apiCommands.size() / 2, apiCommands.size()));
+                finalStateHash = container.requestStateHash();
             }
 
-            // TODO Discover snapshots and journals with DiskSerializationProcessor
-            final long snapshotBaseSeq = 0L;
+            final AtomicReference<DiskSerializationProcessor> processor = new AtomicReference<>();
+            final SerializationConfiguration replayConfig = SerializationConfiguration.builder()
+                    .enableJournaling(false)
+                    .serializationProcessorFactory(exchangeCfg -> {
+                        processor.set(new DiskSerializationProcessor(exchangeCfg, diskConfig));
+                        return processor.get();
+                    })
+                    .build();
 
-            final InitialStateConfiguration fromSnapshotConfig = InitialStateConfiguration.lastKnownStateFromJournal(exchangeId, stateId, snapshotBaseSeq);
+            try (final ExchangeTestContainer recreatedContainer = ExchangeTestContainer.create(performanceConfiguration, InitialStateConfiguration.fromSnapshotOnly(exchangeId, stateId, 0), replayConfig)) {
 
-            log.debug("Creating new exchange from persisted state...");
-            final long tLoad = System.currentTimeMillis();
-            try (final ExchangeTestContainer recreatedContainer = ExchangeTestContainer.create(performanceConfiguration, fromSnapshotConfig, SerializationConfiguration.DISK_JOURNALING)) {
+                long t = System.currentTimeMillis();
+                processor.get().replayJournalStep(stateId, 0, midSeq, recreatedContainer.getApi());
+                assertThat(recreatedContainer.requestStateHash(), is(midStateHash));
+                log.info("{}. replayed up to seq={} in {}ms", iteration, midSeq, System.currentTimeMillis() - t);
 
-                // simple sync query in order to wait until core is started to respond
-                recreatedContainer.totalBalanceReport();
+                t = System.currentTimeMillis();
+                processor.get().replayJournalStep(stateId, midSeq, Long.MAX_VALUE, recreatedContainer.getApi());
+                assertThat(recreatedContainer.requestStateHash(), is(finalStateHash));
+                log.info("{}. replayed from seq={} to the end in {}ms", iteration, midSeq, System.currentTimeMillis() - t);
 
-                float loadTimeSec = (float) (System.currentTimeMillis() - tLoad) / 1000.0f;
-                log.debug("Load+start+replay time: {}s", String.format("%.3f", loadTimeSec));
+                assertTrue(recreatedContainer.totalBalanceReport().isGlobalBalancesAllZero());
+            }
+        }
+    }
 
-                final long restoredStateHash = recreatedContainer.requestStateHash();
-                assertThat(restoredStateHash, is(originalFinalStateHash));
+    private static JournalingTestResult runJournalingAndRestore(final PerformanceConfiguration performanceConfiguration,
+                                                                final ExchangeTestContainer.TestDataFutures testDataFutures,
+                                                                final SerializationConfiguration serializationConfiguration,
+                                                                final int iteration) throws InterruptedException, ExecutionException {
 
-                assertTrue(recreatedContainer.totalBalanceReport().isGlobalBalancesAllZero());
-                log.info("Restored snapshot+journal is valid");
+        final long stateId;
+        final long originalFinalStateHash;
+        final int commandsNum;
+
+        final String exchangeId = ExchangeTestContainer.timeBasedExchangeId();
+
+        final InitialStateConfiguration firstStartConfig = InitialStateConfiguration.cleanStartJournaling(exchangeId);
+
+        try (final ExchangeTestContainer container = ExchangeTestContainer.create(performanceConfiguration, firstStartConfig, serializationConfiguration)) {
+
+            container.loadSymbolsUsersAndPrefillOrders(testDataFutures);
+
+            log.info("Creating snapshot...");
+            stateId = System.currentTimeMillis() * 1000 + iteration;
+            final ApiPersistState apiPersistState = ApiPersistState.builder().dumpId(stateId).build();
+            try (ExecutionTime ignore = new ExecutionTime(t -> log.debug("Snapshot {} created in {}", stateId, t))) {
+                final CommandResultCode resultCode = container.getApi().submitCommandAsync(apiPersistState).get();
+                assertThat(resultCode, Is.is(CommandResultCode.SUCCESS));
             }
 
+            log.info("Running commands on original state...");
+            final TestOrdersGenerator.MultiSymbolGenResult genResult = testDataFutures.genResult.get();
+            final List<ApiCommand> apiCommands = genResult.getApiCommandsBenchmark().join();
+            commandsNum = apiCommands.size();
+            container.getApi().submitCommandsSync(apiCommands);
+            assertTrue(container.totalBalanceReport().isGlobalBalancesAllZero());
+
+            originalFinalStateHash = container.requestStateHash();
+            log.info("Original state checks completed");
+        }
+
+        // journal files written after snapshot
+        final long journalBytes;
+        try (final Stream<Path> files = Files.list(Paths.get(DiskSerializationProcessorConfiguration.DEFAULT_FOLDER))) {
+            journalBytes = files
+                    .filter(path -> path.getFileName().toString().startsWith(exchangeId + "_journal_" + stateId + "_"))
+                    .filter(path -> path.getFileName().toString().endsWith(".ecj"))
+                    .mapToLong(path -> path.toFile().length())
+                    .sum();
+        } catch (final IOException ex) {
+            throw new IllegalStateException(ex);
         }
 
+        // TODO Discover snapshots and journals with DiskSerializationProcessor
+        final long snapshotBaseSeq = 0L;
+
+        final InitialStateConfiguration fromSnapshotConfig = InitialStateConfiguration.lastKnownStateFromJournal(exchangeId, stateId, snapshotBaseSeq);
+
+        log.debug("Creating new exchange from persisted state...");
+        final long tLoad = System.currentTimeMillis();
+        try (final ExchangeTestContainer recreatedContainer = ExchangeTestContainer.create(performanceConfiguration, fromSnapshotConfig, serializationConfiguration)) {
+
+            // simple sync query in order to wait until core is started to respond
+            recreatedContainer.totalBalanceReport();
+
+            final long loadTimeMs = System.currentTimeMillis() - tLoad;
+            log.debug("Load+start+replay time: {}s", String.format("%.3f", loadTimeMs / 1000.0f));
+
+            final long restoredStateHash = recreatedContainer.requestStateHash();
+            assertThat(restoredStateHash, is(originalFinalStateHash));
+
+            assertTrue(recreatedContainer.totalBalanceReport().isGlobalBalancesAllZero());
+            log.info("Restored snapshot+journal is valid");
+
+            return new JournalingTestResult(commandsNum, journalBytes, loadTimeMs);
+        }
+    }
+
+    @AllArgsConstructor
+    private static final class JournalingTestResult {
+        private final int commandsNum;
+        private final long journalBytes;
+        private final long loadTimeMs;
     }
 }
@@ -18,7 +18,6 @@ package exchange.core2.tests.util;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import exchange.core2.core.ExchangeApi;
-import exchange.core2.core.common.MatcherTradeEvent;
 import exchange.core2.core.common.OrderType;
 import exchange.core2.core.common.api.ApiCommand;
 import exchange.core2.core.common.api.ApiMoveOrder;
@@ -193,11 +192,7 @@ public class LatencyTestsModule {
                         latencies[i] = (int) lat;
 
 
-                        MatcherTradeEvent matcherEvent = cmd.matcherEvent;
-                        while (matcherEvent != null) {
-                            matcherEvent = matcherEvent.nextEvent;
-                            matcherEvents[i]++;
-                        }
+                        matcherEvents[i] = cmd.getMatcherEventsNum();
 
                         if (cmd.resultCode != CommandResultCode.SUCCESS) {
                             throw new IllegalStateException();
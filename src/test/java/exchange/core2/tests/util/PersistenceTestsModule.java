@@ -21,11 +21,21 @@ import exchange.core2.core.common.cmd.CommandResultCode;
 import exchange.core2.core.common.config.InitialStateConfiguration;
 import exchange.core2.core.common.config.PerformanceConfiguration;
 import exchange.core2.core.common.config.SerializationConfiguration;
+import exchange.core2.core.processors.journaling.DiskSerializationProcessor;
+import exchange.core2.core.processors.journaling.DiskSerializationProcessorConfiguration;
+import exchange.core2.core.processors.journaling.ISerializationProcessor;
+import exchange.core2.core.processors.journaling.SnapshotDescriptor;
 import lombok.extern.slf4j.Slf4j;
 import org.hamcrest.core.Is;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -124,6 +134,146 @@ public class PersistenceTestsModule {
 
     }
 
+    /**
+     * Takes series of snapshots (full and incremental) while executing benchmark commands in parts,
+     * then restores exchange from the last snapshot (merging incremental snapshots chain) and compares state.
+     * <p>
+     * If brokenSnapshotIndex is specified, matching engine shard 0 fails to write that snapshot,
+     * so its chain is broken in the middle and continues from its last written snapshot.
+     * Snapshot descriptors should follow chains actually written by engines.
+     */
+    public static void incrementalPersistenceTestImpl(final PerformanceConfiguration performanceConfiguration,
+                                                      final TestDataParameters testDataParameters,
+                                                      final int maxIncrementalSnapshots,
+                                                      final int snapshotsNum,
+                                                      final int brokenSnapshotIndex) throws InterruptedException, ExecutionException, IOException {
+
+        final AtomicReference<ISerializationProcessor> serializationProcessor = new AtomicReference<>();
+        final SerializationConfiguration serializationCfg = SerializationConfiguration.builder()
+                .enableJournaling(true)
+                .serializationProcessorFactory(exchangeCfg -> {
+                    final DiskSerializationProcessor processor = new DiskSerializationProcessor(exchangeCfg, DiskSerializationProcessorConfiguration.createDefaultConfig());
+                    serializationProcessor.set(processor);
+                    return processor;
+                })
+                .maxIncrementalSnapshots(maxIncrementalSnapshots)
+                .build();
+
+        final ExchangeTestContainer.TestDataFutures testDataFutures = ExchangeTestContainer.prepareTestDataAsync(testDataParameters, 1);
+
+        final String exchangeId = String.format("%012X", System.currentTimeMillis());
+        final InitialStateConfiguration firstStartConfig = InitialStateConfiguration.cleanStart(exchangeId);
+
+        final long baseStateId = System.currentTimeMillis() * 1000;
+        final long lastStateId = baseStateId + snapshotsNum - 1;
+        final long originalStateHash;
+
+        try (final ExchangeTestContainer container = ExchangeTestContainer.create(performanceConfiguration, firstStartConfig, serializationCfg)) {
+
+            container.loadSymbolsUsersAndPrefillOrders(testDataFutures);
+
+            final List<ApiCommand> apiCommandsBenchmark = testDataFutures.genResult.get().getApiCommandsBenchmark().join();
+            final int partSize = apiCommandsBenchmark.size() / snapshotsNum;
+
+            for (int i = 0; i < snapshotsNum; i++) {
+                if (i != 0) {
+                    container.getApi().submitCommandsSync(apiCommandsBenchmark.subList((i - 1) * partSize, i * partSize));
+                }
+
+                final long stateId = baseStateId + i;
+                final boolean broken = i == brokenSnapshotIndex;
+                if (broken) {
+                    // matching engine can not overwrite existing file
+                    final Path path = Paths.get(DiskSerializationProcessorConfiguration.DEFAULT_FOLDER, String.format("%s_snapshot_%d_ME0.ecs", exchangeId, stateId));
+                    Files.createFile(path);
+                }
+
+                final ApiPersistState apiPersistState = ApiPersistState.builder().dumpId(stateId).build();
+                try (ExecutionTime ignore = new ExecutionTime(t -> log.info("Snapshot {} created in {}", stateId, t))) {
+                    final CommandResultCode resultCode = container.getApi().submitCommandAsync(apiPersistState).get();
+                    assertThat(resultCode, Is.is(broken ? CommandResultCode.STATE_PERSIST_MATCHING_ENGINE_FAILED : CommandResultCode.SUCCESS));
+                }
+            }
+
+            verifySnapshotDescriptors(serializationProcessor.get().findAllSnapshotPoints(), baseStateId, maxIncrementalSnapshots, snapshotsNum, brokenSnapshotIndex);
+
+            log.info("Requesting state hash...");
+            originalStateHash = container.requestStateHash();
+            assertTrue(container.totalBalanceReport().isGlobalBalancesAllZero());
+        }
+
+        System.gc();
+        Thread.sleep(200);
+
+        final InitialStateConfiguration fromSnapshotConfig = InitialStateConfiguration.fromSnapshotOnly(exchangeId, lastStateId, 0);
+
+        log.debug("Creating new exchange from persisted state...");
+        final long tLoad = System.currentTimeMillis();
+        final SerializationConfiguration restoreSerializationCfg = SerializationConfiguration.builder()
+                .enableJournaling(false)
+                .serializationProcessorFactory(exchangeCfg -> new DiskSerializationProcessor(exchangeCfg, DiskSerializationProcessorConfiguration.createDefaultConfig()))
+                .maxIncrementalSnapshots(maxIncrementalSnapshots)
+                .build();
+        try (final ExchangeTestContainer recreatedContainer = ExchangeTestContainer.create(performanceConfiguration, fromSnapshotConfig, restoreSerializationCfg)) {
+
+            // simple sync query in order to wait until core is started to respond
+            recreatedContainer.totalBalanceReport();
+
+            float loadTimeSec = (float) (System.currentTimeMillis() - tLoad) / 1000.0f;
+            log.info("Load+start time: {}s", String.format("%.3f", loadTimeSec));
+
+            final long restoredStateHash = recreatedContainer.requestStateHash();
+            assertThat(restoredStateHash, is(originalStateHash));
+            assertTrue(recreatedContainer.totalBalanceReport().isGlobalBalancesAllZero());
+            log.info("Restored snapshot is valid");
+        }
+    }
+
+    private static void verifySnapshotDescriptors(final NavigableMap<Long, SnapshotDescriptor> snapshots,
+                                                  final long baseStateId,
+                                                  final int maxIncrementalSnapshots,
+                                                  final int snapshotsNum,
+                                                  final int brokenSnapshotIndex) {
+
+        // broken snapshot can not be used for restoring
+        assertThat(snapshots.size(), is(brokenSnapshotIndex >= 0 ? snapshotsNum - 1 : snapshotsNum));
+
+        // expected chains: failing module (matching engine shard 0) and all other modules
+        int chainFailing = -1;
+        int chainOther = -1;
+        long baseFailing = 0;
+        long baseOther = 0;
+
+        for (int i = 0; i < snapshotsNum; i++) {
+            final long stateId = baseStateId + i;
+
+            final boolean incrementalFailing = chainFailing >= 0 && chainFailing < maxIncrementalSnapshots;
+            final int nextChainFailing = incrementalFailing ? chainFailing + 1 : 0;
+            final boolean incrementalOther = chainOther >= 0 && chainOther < maxIncrementalSnapshots;
+            final int nextChainOther = incrementalOther ? chainOther + 1 : 0;
+            final long nextBaseFailing = incrementalFailing ? baseFailing : 0;
+            final long nextBaseOther = incrementalOther ? baseOther : 0;
+
+            if (i != brokenSnapshotIndex) {
+                final SnapshotDescriptor descriptor = snapshots.values().stream()
+                        .filter(d -> d.getSnapshotId() == stateId)
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalStateException("No descriptor for snapshot " + stateId));
+
+                // longest chain (latest base if same length)
+                final boolean failingLonger = nextChainFailing > nextChainOther
+                        || (nextChainFailing == nextChainOther && nextBaseFailing > nextBaseOther);
+                assertThat(descriptor.getIncrementalChainLength(), is(failingLonger ? nextChainFailing : nextChainOther));
+                assertThat(descriptor.getBaseSnapshotId(), is(failingLonger ? nextBaseFailing : nextBaseOther));
+
+                chainFailing = nextChainFailing;
+                baseFailing = stateId;
+            }
+
+            chainOther = nextChainOther;
+            baseOther = stateId;
+        }
+    }
 
     private static final Consumer<? super Object> IGNORING_CONSUMER = x -> {
     };
@@ -18,11 +18,14 @@ package exchange.core2.tests.util;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import exchange.core2.core.common.api.ApiCommand;
 import exchange.core2.core.common.config.InitialStateConfiguration;
 import exchange.core2.core.common.config.PerformanceConfiguration;
 import exchange.core2.core.common.config.SerializationConfiguration;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.List;
+import java.util.function.BiFunction;
 import java.util.stream.IntStream;
 
 
@@ -35,6 +38,16 @@ public class ThroughputTestsModule {
                                           final SerializationConfiguration serializationCfg,
                                           final int iterations) {
 
+        throughputTestImpl(performanceCfg, testDataParameters, initialStateCfg, serializationCfg, iterations, ExchangeTestContainer::benchmarkMtps);
+    }
+
+    public static void throughputTestImpl(final PerformanceConfiguration performanceCfg,
+                                          final TestDataParameters testDataParameters,
+                                          final InitialStateConfiguration initialStateCfg,
+                                          final SerializationConfiguration serializationCfg,
+                                          final int iterations,
+                                          final BiFunction<ExchangeTestContainer, List<ApiCommand>, Float> benchmark) {
+
         final ExchangeTestContainer.TestDataFutures testDataFutures = ExchangeTestContainer.prepareTestDataAsync(testDataParameters, 1);
 
         try (final ExchangeTestContainer container = ExchangeTestContainer.create(performanceCfg, initialStateCfg, serializationCfg)) {
@@ -44,7 +57,7 @@ public class ThroughputTestsModule {
                             .mapToObj(j -> {
                                 container.loadSymbolsUsersAndPrefillOrdersNoLog(testDataFutures);
 
-                                final float perfMt = container.benchmarkMtps(testDataFutures.getGenResult().join().apiCommandsBenchmark.join());
+                                final float perfMt = benchmark.apply(container, testDataFutures.getGenResult().join().apiCommandsBenchmark.join());
                                 log.info("{}. {} MT/s", j, String.format("%.3f", perfMt));
 
                                 assertTrue(container.totalBalanceReport().isGlobalBalancesAllZero());
@@ -57,6 +70,10 @@ public class ThroughputTestsModule {
 
                                 // TODO compare events, balances, positions
 
+                                if (j == 0) {
+                                    log.info("Capacity: {}", container.capacityReport());
+                                }
+
                                 container.resetExchangeCore();
 
                                 System.gc();